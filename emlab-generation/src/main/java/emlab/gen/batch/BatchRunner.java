@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import emlab.gen.results.ResultsFile;
+
+/**
+ * Runs a batch of runs of one scenario on a bounded pool of workers, each run
+ * in its own engine JVM with its own graph. The engine keeps its schedule in
+ * a JVM wide singleton, so runs cannot share a JVM.
+ *
+ * What the runs can share is prepared once: if the scenario enables the graph
+ * snapshot, see {@link emlab.gen.util.GraphSnapshotConfigurer}, and the
+ * snapshot setting is true, the first run writes it and the others are only
+ * started when it exists, so that they restore it.
+ * All runs read the time series through the same mapped cache, see
+ * {@link emlab.gen.trend.TimeSeriesFileCache}, so the operating system keeps
+ * one copy of those in memory.
+ *
+ * The settings are scenario, resultsPath and the optional scenarioFolder,
+ * queryFile, snapshot (default false), snapshotDirectory, cacheDirectory,
+ * databaseFolder (the parent of the graph stores of the runs, which are
+ * removed after each run), workers (default the number of cores), javaOptions
+ * and initializationTimeout (seconds). The columnar results of the runs, if they write them, are merged
+ * into one batch file.
+ *
+ */
+public class BatchRunner {
+
+    static final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+
+    static final String MAIN_CLASS = "agentspring.HPCService";
+
+    final Properties settings;
+
+    final File resultsPath;
+
+    final File snapshotDirectory;
+
+    final File databaseFolder;
+
+    final int workers;
+
+    public BatchRunner(Properties settings) {
+        this.settings = settings;
+        this.resultsPath = new File(settings.getProperty("resultsPath", System.getProperty("java.io.tmpdir")));
+        this.snapshotDirectory = new File(settings.getProperty("snapshotDirectory",
+                new File(resultsPath, "snapshots").getPath()));
+        this.databaseFolder = new File(settings.getProperty("databaseFolder", "/tmp/ramdisk/emlab.gen-db"));
+        this.workers = Integer.parseInt(settings.getProperty("workers",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * A run with its own id, result folder and system properties.
+     */
+    public static class Run {
+
+        final String id;
+
+        final Map<String, String> systemProperties = new LinkedHashMap<String, String>();
+
+        public Run(String id) {
+            this.id = id;
+        }
+
+        public Run with(String property, String value) {
+            systemProperties.put(property, value);
+            return this;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+    }
+
+    /**
+     * Runs all runs, the first one alone until the snapshot is written if it
+     * is shared.
+     *
+     * @return the number of runs that failed
+     */
+    public int runAll(List<Run> runs) throws Exception {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                results.add(executor.submit(launch(runs.get(i))));
+                if (i == 0 && runs.size() > 1) {
+                    awaitSnapshot(start, results.get(0));
+                }
+            }
+            return finish(start, runs, results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the runs that were started and merges their results.
+     *
+     * @return the number of runs that failed
+     */
+    int finish(long start, List<Run> runs, List<Future<Integer>> results) throws Exception {
+        int failed = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            int exitValue = results.get(i).get();
+            if (exitValue != 0) {
+                logger.warn("Run {} failed with exit value {}", runs.get(i).id, exitValue);
+                failed++;
+            }
+        }
+        logger.warn("Ran {} runs on {} workers in {} s", new Object[] { runs.size(), workers,
+                (System.currentTimeMillis() - start) / 1000 });
+        mergeResults(runs);
+        return failed;
+    }
+
+    /**
+     * Waits until the first run has written the snapshot, it stops, or the
+     * initialization timeout passes, whichever comes first. Returns at once
+     * if the snapshot is not shared.
+     */
+    void awaitSnapshot(long start, Future<Integer> first) throws InterruptedException {
+        if (!Boolean.parseBoolean(settings.getProperty("snapshot", "false"))) {
+            return;
+        }
+        long timeout = 1000 * Long.parseLong(settings.getProperty("initializationTimeout", "600"));
+        while (!first.isDone() && System.currentTimeMillis() - start < timeout) {
+            File[] snapshots = snapshotDirectory.listFiles();
+            if (snapshots != null) {
+                for (File snapshot : snapshots) {
+                    if (snapshot.getName().endsWith(".snapshot") && snapshot.lastModified() >= start - 1000) {
+                        return;
+                    }
+                }
+            }
+            Thread.sleep(1000);
+        }
+    }
+
+    File getRunFolder(Run run) {
+        return new File(resultsPath, run.id);
+    }
+
+    /**
+     * @return the columnar results file that a run writes, see
+     *         {@link ResultsFile}
+     */
+    File getResultsFile(Run run) {
+        return new File(getRunFolder(run), run.id + ResultsFile.EXTENSION);
+    }
+
+    /**
+     * Merges the columnar results of the runs into one batch file in the
+     * results path, named after the runId setting.
+     */
+    void mergeResults(List<Run> runs) throws IOException {
+        List<File> inputs = new ArrayList<File>();
+        for (Run run : runs) {
+            if (getResultsFile(run).isFile()) {
+                inputs.add(getResultsFile(run));
+            }
+        }
+        if (!inputs.isEmpty()) {
+            ResultsFile.merge(inputs, new File(resultsPath, settings.getProperty("runId", "batch")
+                    + ResultsFile.EXTENSION));
+        }
+    }
+
+    /**
+     * @return a task that starts the engine JVM of the run, writes its output
+     *         to the run folder and returns its exit value
+     */
+    Callable<Integer> launch(final Run run) throws IOException {
+        final File runFolder = getRunFolder(run);
+        if (!runFolder.isDirectory() && !runFolder.mkdirs()) {
+            throw new IOException("Cannot create " + runFolder);
+        }
+        final List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        String javaOptions = settings.getProperty("javaOptions", "").trim();
+        if (!javaOptions.isEmpty()) {
+            command.addAll(Arrays.asList(javaOptions.split("\\s+")));
+        }
+        command.add("-Drun.id=" + run.id);
+        command.add("-Dresults.path=" + runFolder.getPath());
+        command.add("-Dscenario.file=" + settings.getProperty("scenario"));
+        if (settings.getProperty("scenarioFolder") != null) {
+            command.add("-DSCENARIO_FOLDER=" + settings.getProperty("scenarioFolder"));
+        }
+        command.add("-Demlab.snapshot.dir=" + snapshotDirectory.getPath());
+        if (settings.getProperty("queryFile") != null) {
+            command.add("-Dquery.file=" + settings.getProperty("queryFile"));
+        }
+        if (settings.getProperty("cacheDirectory") != null) {
+            command.add("-Demlab.timeseries.cache=" + settings.getProperty("cacheDirectory"));
+        }
+        for (Map.Entry<String, String> property : run.systemProperties.entrySet()) {
+            command.add("-D" + property.getKey() + "=" + property.getValue());
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MAIN_CLASS);
+
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                logger.warn("Starting run {}", run.id);
+                Process process = new ProcessBuilder(command).directory(runFolder).redirectErrorStream(true).start();
+                OutputStream log = new FileOutputStream(new File(runFolder, run.id + ".log"));
+                try {
+                    copy(process.getInputStream(), log);
+                    return process.waitFor();
+                } finally {
+                    log.close();
+                    delete(new File(databaseFolder, run.id));
+                }
+            }
+        };
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.data.neo4j.annotation.NodeEntity;
+import org.springframework.data.neo4j.aspects.core.NodeBacked;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import agentspring.simulation.SimulationParameter;
+import emlab.gen.repository.GenericRepository;
+
+/**
+ * Changes simulation parameters of the entities in the graph once the scenario
+ * is initialized, so that the variants of a sweep can share one scenario and
+ * one graph snapshot. The overrides are read from the properties file in the
+ * system property emlab.parameter.overrides, with keys of the form
+ *
+ * <pre>
+ * EnergyProducer.priceMarkUp=1.2
+ * EnergyProducer[Energy Producer A].debtRatioOfInvestments=0.6
+ * </pre>
+ *
+ * The first changes all entities of the type, the second only the one with
+ * that name. Only fields annotated with {@link SimulationParameter} can be
+ * changed. The overrides are applied after the graph is restored from a
+ * snapshot, see {@link emlab.gen.util.GraphSnapshotConfigurer}.
+ *
+ */
+public class ParameterOverrides implements ApplicationListener<ContextRefreshedEvent>, Ordered {
+
+    static final Logger logger = LoggerFactory.getLogger(ParameterOverrides.class);
+
+    public static final String OVERRIDES_PROPERTY = "emlab.parameter.overrides";
+
+    static final String ENTITY_PACKAGE = "emlab.gen";
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    private boolean applied;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        String file = System.getProperty(OVERRIDES_PROPERTY);
+        if (file == null || applied) {
+            return;
+        }
+        applied = true;
+        try {
+            apply(parse(load(file)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read parameter overrides " + file, e);
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Transactional
+    public void apply(List<ParameterOverride> overrides) {
+        for (ParameterOverride override : overrides) {
+            int count = 0;
+            for (NodeBacked entity : findAll(override.type)) {
+                BeanWrapper wrapper = new BeanWrapperImpl(entity);
+                if (override.name == null || override.name.equals(wrapper.getPropertyValue("name"))) {
+                    override.applyTo(wrapper);
+                    count++;
+                }
+            }
+            if (count == 0) {
+                throw new IllegalArgumentException("No entity matches parameter override " + override);
+            }
+            logger.warn("Set {} on {} entities", override, count);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterable<NodeBacked> findAll(Class<?> type) {
+        return genericRepository.findAll((Class<NodeBacked>) type);
+    }
+
+    static Properties load(String file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Parses and checks all overrides, so that a typo fails the run before
+     * anything is changed.
+     */
+    static List<ParameterOverride> parse(Properties properties) {
+        Map<String, Class<?>> entityTypes = findEntityTypes();
+        List<ParameterOverride> overrides = new ArrayList<ParameterOverride>();
+        for (String key : properties.stringPropertyNames()) {
+            overrides.add(ParameterOverride.parse(key, properties.getProperty(key), entityTypes));
+        }
+        return overrides;
+    }
+
+    /**
+     * @return the node entity types of the model by simple name
+     */
+    static Map<String, Class<?>> findEntityTypes() {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(NodeEntity.class));
+        Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+        for (BeanDefinition definition : scanner.findCandidateComponents(ENTITY_PACKAGE)) {
+            Class<?> type = ClassUtils.resolveClassName(definition.getBeanClassName(),
+                    ParameterOverrides.class.getClassLoader());
+            types.put(type.getSimpleName(), type);
+        }
+        return types;
+    }
+
+    /**
+     * A new value for one simulation parameter.
+     */
+    public static final class ParameterOverride {
+
+        final Class<?> type;
+        final String name;
+        final String field;
+        final String value;
+        final SimulationParameter parameter;
+
+        ParameterOverride(Class<?> type, String name, String field, String value, SimulationParameter parameter) {
+            this.type = type;
+            this.name = name;
+            this.field = field;
+            this.value = value;
+            this.parameter = parameter;
+        }
+
+        static ParameterOverride parse(String key, String value, Map<String, Class<?>> entityTypes) {
+            int dot = key.lastIndexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("Parameter override " + key + " is not of the form Type.field");
+            }
+            String typeName = key.substring(0, dot);
+            String name = null;
+            int bracket = typeName.indexOf('[');
+            if (bracket >= 0 && typeName.endsWith("]")) {
+                name = typeName.substring(bracket + 1, typeName.length() - 1);
+                typeName = typeName.substring(0, bracket);
+            }
+            Class<?> type = entityTypes.get(typeName);
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown entity type " + typeName + " in parameter override " + key);
+            }
+            if (name != null && BeanUtils.getPropertyDescriptor(type, "name") == null) {
+                throw new IllegalArgumentException(typeName + " has no name in parameter override " + key);
+            }
+            String fieldName = key.substring(dot + 1);
+            Field field = ReflectionUtils.findField(type, fieldName);
+            SimulationParameter parameter = field == null ? null : field.getAnnotation(SimulationParameter.class);
+            if (parameter == null) {
+                throw new IllegalArgumentException(fieldName + " of " + typeName + " is not a simulation parameter");
+            }
+            return new ParameterOverride(type, name, fieldName, value.trim(), parameter);
+        }
+
+        void applyTo(BeanWrapper wrapper) {
+            wrapper.setPropertyValue(field, value);
+            Object newValue = wrapper.getPropertyValue(field);
+            if (newValue instanceof Number && parameter.from() < parameter.to()) {
+                double number = ((Number) newValue).doubleValue();
+                if (number < parameter.from() || number > parameter.to()) {
+                    logger.warn("{} is outside the range of {}", this, parameter.label());
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return type.getSimpleName() + (name == null ? "" : "[" + name + "]") + "." + field + "=" + value;
+        }
+
+    }
+
+}
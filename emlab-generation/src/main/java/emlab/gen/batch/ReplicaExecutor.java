@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import emlab.gen.results.ResultsFile;
+import emlab.gen.util.RandomStreams;
+
+/**
+ * Runs independent replicas of one scenario, each with its own graph and its
+ * own seeded random streams, see {@link RandomStreams}. Replica i gets the run
+ * id runId-i and the seed firstSeed + i, so a replica can be repeated by its
+ * seed. The settings are replicas, runId, firstSeed (default 1) and those of
+ * {@link BatchRunner}.
+ *
+ * Like every run of a {@link BatchRunner}, each replica runs in its own engine
+ * JVM; the replicas only share the mapped time series cache. They do not
+ * share a graph snapshot either, as the snapshot holds the random draws of the
+ * initial fleet and is therefore kept per seed.
+ *
+ * With the setting adaptive=true, replicas is the most replicas to run. New
+ * replicas are only started until the results of those started so far are
+ * precise enough, see {@link ReplicationController} for its settings. The
+ * results files of the replicas are read every pollInterval seconds (default
+ * 10) while they run.
+ *
+ */
+public class ReplicaExecutor extends BatchRunner {
+
+    public ReplicaExecutor(Properties settings) {
+        super(settings);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: ReplicaExecutor <replicas.properties>");
+            System.exit(2);
+        }
+        int failed = new ReplicaExecutor(ParameterOverrides.load(args[0])).run();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return the number of replicas that failed
+     */
+    public int run() throws Exception {
+        int replicas = Integer.parseInt(settings.getProperty("replicas"));
+        if (Boolean.parseBoolean(settings.getProperty("adaptive", "false"))) {
+            return runAdaptively(replicas);
+        }
+        List<Run> runs = new ArrayList<Run>();
+        for (int i = 0; i < replicas; i++) {
+            runs.add(getReplica(i));
+        }
+        return runAll(runs);
+    }
+
+    /**
+     * Keeps the workers busy with new replicas until the controller finds
+     * the results precise enough or the maximum is started. Replicas that are
+     * running then are finished.
+     *
+     * @return the number of replicas that failed
+     * @throws IllegalStateException
+     *             if a target metric of the controller is not in the results
+     */
+    int runAdaptively(int maxReplicas) throws Exception {
+        ReplicationController controller = new ReplicationController(settings);
+        long pollInterval = 1000 * Long.parseLong(settings.getProperty("pollInterval", "10"));
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Run> runs = new ArrayList<Run>();
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            while (runs.size() < maxReplicas) {
+                int running = 0;
+                for (Future<Integer> result : results) {
+                    if (!result.isDone()) {
+                        running++;
+                    }
+                }
+                if (running < workers) {
+                    if (runs.size() >= controller.getMinReplicas() && isConverged(controller, runs, results)) {
+                        logger.warn("Precise enough after {} replicas, widest interval {}", runs.size(),
+                                controller.getWidest());
+                        break;
+                    }
+                    Run run = getReplica(runs.size());
+                    runs.add(run);
+                    results.add(executor.submit(launch(run)));
+                } else {
+                    Thread.sleep(pollInterval);
+                    // progress of the running replicas
+                    if (runs.size() >= controller.getMinReplicas() && !isConverged(controller, runs, results)
+                            && controller.getWidest() != null) {
+                        logger.warn("{} replicas started, widest interval {}", runs.size(), controller.getWidest());
+                    }
+                }
+            }
+            return finish(start, runs, results);
+        } catch (IllegalStateException e) {
+            // a target metric that is not in the results, so the replicas
+            // cannot be judged; the ones that run are still finished
+            logger.error("Not starting more replicas: {}", e.getMessage());
+            finish(start, runs, results);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads the results the replicas have written so far; a run lasts as many
+     * ticks as the longest replica that finished.
+     */
+    boolean isConverged(ReplicationController controller, List<Run> runs, List<Future<Integer>> results)
+            throws Exception {
+        List<ResultsFile.Run> replicas = new ArrayList<ResultsFile.Run>();
+        int ticks = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            File file = getResultsFile(runs.get(i));
+            if (!file.isFile()) {
+                continue;
+            }
+            ResultsFile.Run replica;
+            try {
+                replica = ResultsFile.read(file).get(runs.get(i).id);
+            } catch (IOException e) {
+                logger.warn("Cannot read the results of {}: {}", runs.get(i).id, e.getMessage());
+                continue;
+            }
+            if (replica == null) {
+                continue;
+            }
+            replicas.add(replica);
+            if (results.get(i).isDone() && results.get(i).get() == 0) {
+                ticks = Math.max(ticks, replica.getTicks());
+            }
+        }
+        return controller.isConverged(replicas, ticks);
+    }
+
+    /**
+     * Does not wait, the other replicas cannot restore the snapshot of the
+     * first one.
+     */
+    @Override
+    void awaitSnapshot(long start, Future<Integer> first) {
+    }
+
+    Run getReplica(int i) {
+        long firstSeed = Long.parseLong(settings.getProperty("firstSeed", "1"));
+        if (firstSeed + i == 0) {
+            throw new IllegalArgumentException("Seed 0 means an unseeded run, choose another firstSeed");
+        }
+        return new Run(settings.getProperty("runId", "replica") + "-" + i).with(RandomStreams.SEED_PROPERTY,
+                Long.toString(firstSeed + i));
+    }
+
+}
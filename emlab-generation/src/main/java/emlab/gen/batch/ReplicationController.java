@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+
+import emlab.gen.results.ResultsFile;
+
+/**
+ * Decides whether a batch of replicas has enough of them: when, at every tick
+ * of the run, the confidence interval of the mean of every target metric over
+ * the replicas is narrow enough. The replicas are judged by the ticks they
+ * have written to their results files so far, see {@link ResultsFile}, so
+ * replicas that are still running count for the ticks they are past.
+ *
+ * The settings are targetMetrics, a comma separated list of result columns,
+ * where a name ending in * stands for all columns that start with it
+ * (default the average electricity prices, the CO2 emissions and the
+ * capacity per technology); a target that matches no column is an error, confidence (default 0.95), relativePrecision,
+ * the largest half width of an interval relative to its mean (default 0.05),
+ * absolutePrecision, a half width that is always good enough (default 0),
+ * and minReplicas (default 10).
+ *
+ * A column is only judged at a tick if at least minReplicas replicas recorded
+ * a value for it there; a tick at which no replica recorded the column, such
+ * as the capacity of a technology nobody has built yet, is skipped.
+ *
+ */
+public class ReplicationController {
+
+    static final String DEFAULT_TARGET_METRICS = "Avg_El_PricesinEURpMWh_*,CO2Emissions_inTonpA,CapacityinMW_*";
+
+    private final List<String> targetMetrics = new ArrayList<String>();
+
+    private final double confidence;
+
+    private final double relativePrecision;
+
+    private final double absolutePrecision;
+
+    private final int minReplicas;
+
+    private Interval widest;
+
+    public ReplicationController(Properties settings) {
+        for (String metric : settings.getProperty("targetMetrics", DEFAULT_TARGET_METRICS).split(",")) {
+            if (!metric.trim().isEmpty()) {
+                targetMetrics.add(metric.trim());
+            }
+        }
+        this.confidence = Double.parseDouble(settings.getProperty("confidence", "0.95"));
+        this.relativePrecision = Double.parseDouble(settings.getProperty("relativePrecision", "0.05"));
+        this.absolutePrecision = Double.parseDouble(settings.getProperty("absolutePrecision", "0"));
+        this.minReplicas = Math.max(2, Integer.parseInt(settings.getProperty("minReplicas", "10")));
+    }
+
+    public int getMinReplicas() {
+        return minReplicas;
+    }
+
+    /**
+     * @param runs
+     *            the results of the replicas so far
+     * @param ticks
+     *            the number of ticks of a whole run
+     * @return whether at least the minimum number of replicas got through
+     *         all ticks, and all intervals are narrow enough
+     * @throws IllegalStateException
+     *             if a target metric matches no column of the replicas
+     */
+    public boolean isConverged(Collection<ResultsFile.Run> runs, int ticks) {
+        widest = null;
+        if (ticks <= 0 || runs.isEmpty()) {
+            return false;
+        }
+        Set<String> columns = findColumns(runs);
+        List<double[]> values = new ArrayList<double[]>();
+        for (String column : columns) {
+            values.clear();
+            for (ResultsFile.Run run : runs) {
+                values.add(run.get(column));
+            }
+            for (int tick = 0; tick < ticks; tick++) {
+                SummaryStatistics statistics = new SummaryStatistics();
+                int reached = 0;
+                for (double[] run : values) {
+                    if (tick < run.length) {
+                        reached++;
+                        if (!Double.isNaN(run[tick])) {
+                            statistics.addValue(run[tick]);
+                        }
+                    }
+                }
+                if (reached < minReplicas) {
+                    widest = new Interval(column, tick, reached, Double.NaN, Double.POSITIVE_INFINITY);
+                    return false;
+                }
+                if (statistics.getN() == 0) {
+                    // not recorded at this tick by any replica
+                    continue;
+                }
+                Interval interval = getInterval(column, tick, statistics);
+                if (widest == null || interval.getRatio() > widest.getRatio()) {
+                    widest = interval;
+                }
+            }
+        }
+        return widest != null && widest.getRatio() <= 1;
+    }
+
+    /**
+     * @return the interval that was furthest from narrow enough at the last
+     *         call of {@link #isConverged(Collection, int)}, or null
+     */
+    public Interval getWidest() {
+        return widest;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if a target metric matches no column of the replicas; it
+     *             would never be judged, so the batch could not stop early
+     */
+    Set<String> findColumns(Collection<ResultsFile.Run> runs) {
+        Set<String> columns = new LinkedHashSet<String>();
+        for (String target : targetMetrics) {
+            boolean matched = false;
+            for (ResultsFile.Run run : runs) {
+                for (String metric : run.getMetrics()) {
+                    if (target.endsWith("*") ? metric.startsWith(target.substring(0, target.length() - 1)) : metric
+                            .equals(target)) {
+                        columns.add(metric);
+                        matched = true;
+                    }
+                }
+            }
+            if (!matched) {
+                Set<String> known = new TreeSet<String>();
+                for (ResultsFile.Run run : runs) {
+                    known.addAll(run.getMetrics());
+                }
+                throw new IllegalStateException("The target metric " + target
+                        + " matches none of the result columns " + known);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return the interval, infinitely wide if fewer than the minimum number
+     *         of replicas recorded a value
+     */
+    Interval getInterval(String column, int tick, SummaryStatistics statistics) {
+        long n = statistics.getN();
+        if (n < minReplicas) {
+            return new Interval(column, tick, (int) n, statistics.getMean(), Double.POSITIVE_INFINITY);
+        }
+        double quantile;
+        try {
+            quantile = new TDistributionImpl(n - 1).inverseCumulativeProbability(0.5 + confidence / 2);
+        } catch (MathException e) {
+            throw new IllegalStateException("Cannot compute the quantile of the t distribution", e);
+        }
+        double halfWidth = quantile * statistics.getStandardDeviation() / Math.sqrt(n);
+        return new Interval(column, tick, (int) n, statistics.getMean(), halfWidth);
+    }
+
+    /**
+     * The confidence interval of the mean of a column at a tick.
+     */
+    public class Interval {
+
+        private final String column;
+        private final int tick;
+        private final int replicas;
+        private final double mean;
+        private final double halfWidth;
+
+        Interval(String column, int tick, int replicas, double mean, double halfWidth) {
+            this.column = column;
+            this.tick = tick;
+            this.replicas = replicas;
+            this.mean = mean;
+            this.halfWidth = halfWidth;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public int getTick() {
+            return tick;
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getHalfWidth() {
+            return halfWidth;
+        }
+
+        /**
+         * @return the half width relative to the precision, at most 1 if the
+         *         interval is narrow enough, infinite if the mean or half
+         *         width is not a number
+         */
+        double getRatio() {
+            if (Double.isNaN(mean) || Double.isNaN(halfWidth)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double precision = Math.max(relativePrecision * Math.abs(mean), absolutePrecision);
+            if (precision == 0) {
+                return halfWidth == 0 ? 0 : Double.POSITIVE_INFINITY;
+            }
+            return halfWidth / precision;
+        }
+
+        @Override
+        public String toString() {
+            return column + " at tick " + tick + ": " + mean + " +/- " + halfWidth + " over " + replicas
+                    + " replicas";
+        }
+
+    }
+
+}
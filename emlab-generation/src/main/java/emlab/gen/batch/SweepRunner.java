@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs the variants of a parameter sweep of one scenario concurrently. The
+ * sweep is described in a properties file:
+ *
+ * <pre>
+ * scenario=scenarioA-ToyModel.xml
+ * runId=markUpSweep
+ * resultsPath=/tmp/emlab-results
+ * variant.low.EnergyProducer.priceMarkUp=1.05
+ * variant.high.EnergyProducer.priceMarkUp=1.3
+ * variant.high.EnergyProducer.debtRatioOfInvestments=0.5
+ * </pre>
+ *
+ * The other settings are those of {@link BatchRunner}. With snapshot=true and
+ * an enabled {@link emlab.gen.util.GraphSnapshotConfigurer} in the scenario,
+ * the scenario is only built once: the first variant writes a graph snapshot,
+ * and the others restore it. Each variant applies its
+ * {@link ParameterOverrides}, which the scenario therefore needs to define.
+ *
+ */
+public class SweepRunner extends BatchRunner {
+
+    static final String VARIANT_PREFIX = "variant.";
+
+    public SweepRunner(Properties sweep) {
+        super(sweep);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: SweepRunner <sweep.properties>");
+            System.exit(2);
+        }
+        int failed = new SweepRunner(ParameterOverrides.load(args[0])).run();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return the number of variants that failed
+     */
+    public int run() throws Exception {
+        Map<String, Properties> variants = getVariants(settings);
+        if (variants.isEmpty()) {
+            throw new IllegalArgumentException("The sweep has no variants");
+        }
+        List<Run> runs = new ArrayList<Run>();
+        for (Map.Entry<String, Properties> variant : variants.entrySet()) {
+            Run run = new Run(settings.getProperty("runId", "sweep") + "-" + variant.getKey());
+            File runFolder = getRunFolder(run);
+            if (!runFolder.isDirectory() && !runFolder.mkdirs()) {
+                throw new IOException("Cannot create " + runFolder);
+            }
+            File overrides = new File(runFolder, "overrides.properties");
+            OutputStream out = new FileOutputStream(overrides);
+            try {
+                variant.getValue().store(out, "Parameter overrides of variant " + variant.getKey());
+            } finally {
+                out.close();
+            }
+            runs.add(run.with(ParameterOverrides.OVERRIDES_PROPERTY, overrides.getPath()));
+        }
+        return runAll(runs);
+    }
+
+    /**
+     * @return the overrides of each variant, by variant name
+     */
+    static Map<String, Properties> getVariants(Properties sweep) {
+        Map<String, Properties> variants = new TreeMap<String, Properties>();
+        for (String key : sweep.stringPropertyNames()) {
+            if (!key.startsWith(VARIANT_PREFIX)) {
+                continue;
+            }
+            int dot = key.indexOf('.', VARIANT_PREFIX.length());
+            if (dot < 0) {
+                throw new IllegalArgumentException("Sweep key " + key + " is not of the form variant.name.Type.field");
+            }
+            String name = key.substring(VARIANT_PREFIX.length(), dot);
+            Properties overrides = variants.get(name);
+            if (overrides == null) {
+                overrides = new Properties();
+                variants.put(name, overrides);
+            }
+            overrides.setProperty(key.substring(dot + 1), sweep.getProperty(key));
+        }
+        return variants;
+    }
+
+}
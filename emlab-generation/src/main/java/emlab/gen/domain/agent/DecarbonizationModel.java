@@ -53,6 +53,39 @@ public class DecarbonizationModel extends AbstractAgent implements Agent {
     @SimulationParameter(label = "Deletion age")
     private long deletionAge;
 
+    @SimulationParameter(label = "Keep commodity market bids in memory only")
+    private boolean commodityBidsInMemory;
+
+    @SimulationParameter(label = "Book cash flows in the ledger instead of the graph")
+    private boolean cashFlowLedgerEnabled;
+
+    @SimulationParameter(label = "Settle all payments of a tick in one batch")
+    private boolean batchedSettlementEnabled;
+
+    public boolean isBatchedSettlementEnabled() {
+        return batchedSettlementEnabled;
+    }
+
+    public void setBatchedSettlementEnabled(boolean batchedSettlementEnabled) {
+        this.batchedSettlementEnabled = batchedSettlementEnabled;
+    }
+
+    public boolean isCashFlowLedgerEnabled() {
+        return cashFlowLedgerEnabled;
+    }
+
+    public void setCashFlowLedgerEnabled(boolean cashFlowLedgerEnabled) {
+        this.cashFlowLedgerEnabled = cashFlowLedgerEnabled;
+    }
+
+    public boolean isCommodityBidsInMemory() {
+        return commodityBidsInMemory;
+    }
+
+    public void setCommodityBidsInMemory(boolean commodityBidsInMemory) {
+        this.commodityBidsInMemory = commodityBidsInMemory;
+    }
+
     public boolean isRealRenewableDataImplemented() {
         return realRenewableDataImplemented;
     }
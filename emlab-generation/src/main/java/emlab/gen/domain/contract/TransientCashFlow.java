@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.contract;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * A cash flow that has been determined but not yet booked, e.g. while the
+ * payments of a tick are settled. The types are those of {@link CashFlow}.
+ *
+ */
+public class TransientCashFlow {
+
+    private final DecarbonizationAgent from;
+    private final DecarbonizationAgent to;
+    private final double money;
+    private final int type;
+    private final long time;
+    private final PowerPlant regardingPowerPlant;
+
+    public TransientCashFlow(DecarbonizationAgent from, DecarbonizationAgent to, double money, int type, long time,
+            PowerPlant regardingPowerPlant) {
+        this.from = from;
+        this.to = to;
+        this.money = money;
+        this.type = type;
+        this.time = time;
+        this.regardingPowerPlant = regardingPowerPlant;
+    }
+
+    public DecarbonizationAgent getFrom() {
+        return from;
+    }
+
+    public DecarbonizationAgent getTo() {
+        return to;
+    }
+
+    public double getMoney() {
+        return money;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public PowerPlant getRegardingPowerPlant() {
+        return regardingPowerPlant;
+    }
+
+}
@@ -17,6 +17,7 @@ package emlab.gen.domain.factory;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -32,6 +33,7 @@ import emlab.gen.domain.market.electricity.SegmentLoad;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.RandomStreams;
 
 public class ElectricityProducerFactory implements InitializingBean {
 
@@ -45,6 +47,8 @@ public class ElectricityProducerFactory implements InitializingBean {
 
     private List<EnergyProducer> producers;
 
+    private final Random random = RandomStreams.newRandom(RandomStreams.FLEET);
+
     static final Logger logger = LoggerFactory.getLogger(ElectricityProducerFactory.class);
 
     @Override
@@ -60,7 +64,7 @@ public class ElectricityProducerFactory implements InitializingBean {
         plant.setTechnology(technology);
         plant.setOwner(energyProducer);
         plant.setLocation(location);
-        plant.setConstructionStartTime(-(technology.getExpectedLeadtime() + technology.getExpectedPermittime() + Math.round((Math.random() * technology
+        plant.setConstructionStartTime(-(technology.getExpectedLeadtime() + technology.getExpectedPermittime() + Math.round((random.nextDouble() * technology
                 .getExpectedLifetime()))) + 2); // TODO: Why include expected lead
                                                 // time and permit time? Wouldn't it
                                                 // be realistic to have some PP in
@@ -130,7 +134,7 @@ public class ElectricityProducerFactory implements InitializingBean {
     }
 
     private int getRandomIndexFromList(int size) {
-        return (int) Math.min(Math.floor(Math.random() * size), size - 1);
+        return random.nextInt(size);
     }
 
     private PowerGridNode getNodeForZone(Zone zone) {
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.factory;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentLoad;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.trend.HourlyTimeSeries;
+
+/**
+ * Creates the load duration curve of a market from the hourly load of a
+ * node, e.g. a {@link emlab.gen.trend.MappedHourlyTimeSeries} of a profile
+ * store, instead of from base loads in the scenario:
+ *
+ * <pre>
+ * &lt;bean class="emlab.gen.domain.factory.LoadDurationCurveFactory"
+ *     p:market-ref="beneluxElectricitySpotMarket" p:node-ref="beneluxNode"&gt;
+ *     &lt;property name="segments"&gt;&lt;list&gt;...&lt;/list&gt;&lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * The hours of the profile at the given time are sorted from high to low and
+ * split over the segments, listed from the peak down, in proportion to their
+ * lengths. The base load of a segment is the average load of its hours.
+ *
+ */
+public class LoadDurationCurveFactory implements InitializingBean {
+
+    static final Logger logger = LoggerFactory.getLogger(LoadDurationCurveFactory.class);
+
+    private ElectricitySpotMarket market;
+
+    private PowerGridNode node;
+
+    private List<Segment> segments;
+
+    private long time;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        HourlyTimeSeries load = node.findHourlyLoad();
+        if (load == null) {
+            throw new IllegalStateException("No hourly load for " + node.getName());
+        }
+        double[] lengths = new double[segments.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = segments.get(i).getLengthInHours();
+        }
+        double[] baseLoads = calculateBaseLoads(load.getHourlyBuffer(time), lengths);
+        persist(baseLoads);
+        logger.warn("Created the load duration curve of {} from the hourly load of {}: {}",
+                new Object[] { market.getName(), node.getName(), Arrays.toString(baseLoads) });
+    }
+
+    @Transactional
+    public void persist(double[] baseLoads) {
+        Set<SegmentLoad> loadDurationCurve = new HashSet<SegmentLoad>();
+        for (int i = 0; i < baseLoads.length; i++) {
+            SegmentLoad segmentLoad = new SegmentLoad().persist();
+            segmentLoad.setSegment(segments.get(i));
+            segmentLoad.setBaseLoad(baseLoads[i]);
+            loadDurationCurve.add(segmentLoad);
+        }
+        market.setLoadDurationCurve(loadDurationCurve);
+    }
+
+    /**
+     * @param hourlyLoad
+     *            the load per hour
+     * @param lengths
+     *            the lengths of the segments in hours, from the peak down
+     * @return the average load of each segment
+     */
+    static double[] calculateBaseLoads(DoubleBuffer hourlyLoad, double[] lengths) {
+        double[] sorted = new double[hourlyLoad.remaining()];
+        hourlyLoad.duplicate().get(sorted);
+        Arrays.sort(sorted);
+        double totalLength = 0d;
+        for (double length : lengths) {
+            totalLength += length;
+        }
+        double[] baseLoads = new double[lengths.length];
+        double cumulativeLength = 0d;
+        int from = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            cumulativeLength += lengths[i];
+            int to = (int) Math.round(cumulativeLength / totalLength * sorted.length);
+            double sum = 0d;
+            for (int hour = from; hour < to; hour++) {
+                // sorted ascending, so the peak is at the end
+                sum += sorted[sorted.length - 1 - hour];
+            }
+            baseLoads[i] = to > from ? sum / (to - from) : Double.NaN;
+            from = to;
+        }
+        return baseLoads;
+    }
+
+    public ElectricitySpotMarket getMarket() {
+        return market;
+    }
+
+    public void setMarket(ElectricitySpotMarket market) {
+        this.market = market;
+    }
+
+    public PowerGridNode getNode() {
+        return node;
+    }
+
+    public void setNode(PowerGridNode node) {
+        this.node = node;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public void setSegments(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+}
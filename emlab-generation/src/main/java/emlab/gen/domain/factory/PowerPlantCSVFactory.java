@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StopWatch;
 
 import com.googlecode.jcsv.CSVStrategy;
 import com.googlecode.jcsv.reader.CSVReader;
@@ -33,11 +34,18 @@ import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 
 /**
+ * Reads the initial power plants from a CSV file, see
+ * {@link PowerPlantEntryParser} for the columns. All rows are parsed first;
+ * the plants and their loans are then persisted in batches, each plant with
+ * all its properties and relationships at once.
+ *
  * @author JCRichstein
  *
  */
 public class PowerPlantCSVFactory implements InitializingBean {
 
+    static final int BATCH_SIZE = 1000;
+
     String csvFile;
 
     static final Logger logger = LoggerFactory.getLogger(PowerPlantCSVFactory.class);
@@ -48,10 +56,11 @@ public class PowerPlantCSVFactory implements InitializingBean {
 
     private List<PowerGridNode> powerGridNodes;
 
-    @Transactional
     @Override
     public void afterPropertiesSet() throws Exception {
         logger.warn("Reading power plant from CSV file: " + csvFile);
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start("parse");
         InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(csvFile));
 
         CSVReader<PowerPlant> csvPersonReader = new CSVReaderBuilder<PowerPlant>(inputStreamReader).entryParser(
@@ -59,6 +68,32 @@ public class PowerPlantCSVFactory implements InitializingBean {
                 .strategy(new CSVStrategy(',', '\"', '#', true, true))
                 .build();
         List<PowerPlant> powerplants = csvPersonReader.readAll();
+        inputStreamReader.close();
+        stopWatch.stop();
+
+        stopWatch.start("persist");
+        for (int from = 0; from < powerplants.size(); from += BATCH_SIZE) {
+            persist(powerplants.subList(from, Math.min(from + BATCH_SIZE, powerplants.size())));
+        }
+        stopWatch.stop();
+
+        double seconds = Math.max(stopWatch.getTotalTimeMillis(), 1) / 1000d;
+        logger.warn("Read {} power plants in {} ms (parsing {} ms), {} rows/s",
+                new Object[] { powerplants.size(), stopWatch.getTotalTimeMillis(),
+                        stopWatch.getTaskInfo()[0].getTimeMillis(), Math.round(powerplants.size() / seconds) });
+    }
+
+    /**
+     * Persists a batch of plants with their loans in one transaction.
+     */
+    @Transactional
+    public void persist(List<PowerPlant> batch) {
+        for (PowerPlant plant : batch) {
+            if (plant.getLoan() != null) {
+                plant.getLoan().persist();
+            }
+            plant.persist();
+        }
     }
 
     public String getCsvFile() {
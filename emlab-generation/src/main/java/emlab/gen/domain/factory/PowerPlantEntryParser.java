@@ -16,7 +16,10 @@
 package emlab.gen.domain.factory;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.codehaus.groovy.syntax.ReadException;
 import org.slf4j.Logger;
@@ -31,10 +34,13 @@ import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.RandomStreams;
 
 /**
  * The power plant entry parser, takes rows of a CSV table and turns it into
- * power plants in the database when the simulation starts.
+ * power plants when the simulation starts. The plants and their loans are
+ * returned without being persisted, so that {@link PowerPlantCSVFactory} can
+ * write them in batches.
  * 
  * The columns of the table need to be defined in the following order:
  * 
@@ -47,10 +53,10 @@ import emlab.gen.repository.Reps;
  * exactly to the names defined in the scenario file.
  * 
  * The entries of the columns OwnerName, Capacity and Efficiency may be left
- * empty. In this case the owner is randomly assigned, the capacity set to the
- * standard capacity times the locational capacity factor, and the efficiency is
- * calculated from the age of the power plant and the learning curve of the
- * technology. The columns OwnerName, Capacity, and Efficiency maybe left away
+ * empty. In this case the owner is drawn from the fleet stream of
+ * {@link RandomStreams}, the capacity set to the standard capacity times the
+ * locational capacity factor, and the efficiency is calculated from the age of
+ * the power plant and the learning curve of the technology. The columns OwnerName, Capacity, and Efficiency maybe left away
  * entirely (but only if the columns to the right are also left away).
  * 
  * @author JCRichstein
@@ -62,17 +68,37 @@ public class PowerPlantEntryParser implements CSVEntryParser<PowerPlant> {
 
     private final List<PowerGeneratingTechnology> technologies;
 
-    private final List<PowerGridNode> powerGridNodes;
+    private final Random random = RandomStreams.newRandom(RandomStreams.FLEET);
+
+    private final Map<String, EnergyProducer> producersByName = new HashMap<String, EnergyProducer>();
+
+    private final Map<String, PowerGeneratingTechnology> technologiesByName = new HashMap<String, PowerGeneratingTechnology>();
+
+    private final Map<String, PowerGridNode> powerGridNodesByName = new HashMap<String, PowerGridNode>();
 
     /**
-     * 
+     * Indexes the producers, technologies and nodes by name. If a name occurs
+     * more than once, the first one is used.
      */
     public PowerPlantEntryParser(List<EnergyProducer> producers, List<PowerGeneratingTechnology> technologies,
             List<PowerGridNode> powerGridNodes) {
         this.producers = producers;
         this.technologies = technologies;
-        this.powerGridNodes = powerGridNodes;
-
+        for (EnergyProducer producer : producers) {
+            if (!producersByName.containsKey(producer.getName())) {
+                producersByName.put(producer.getName(), producer);
+            }
+        }
+        for (PowerGeneratingTechnology technology : technologies) {
+            if (!technologiesByName.containsKey(technology.getName())) {
+                technologiesByName.put(technology.getName(), technology);
+            }
+        }
+        for (PowerGridNode node : powerGridNodes) {
+            if (!powerGridNodesByName.containsKey(node.getName())) {
+                powerGridNodesByName.put(node.getName(), node);
+            }
+        }
     }
 
     @Autowired
@@ -100,36 +126,19 @@ public class PowerPlantEntryParser implements CSVEntryParser<PowerPlant> {
 
         EnergyProducer energyProducer = null;
         if (!ownerName.isEmpty()) {
-            for (EnergyProducer producer : producers) {
-                if (producer.getName().equals(ownerName)) {
-                    energyProducer = producer;
-                    break;
-                }
-            }
+            energyProducer = producersByName.get(ownerName);
         } else {
             energyProducer = getRandomProducer(producers);
         }
         PowerGeneratingTechnology pgt = null;
         if (!technologyName.isEmpty()) {
-            for (PowerGeneratingTechnology ppTechnology : technologies) {
-                if (ppTechnology.getName().equals(technologyName)) {
-                    pgt = ppTechnology;
-                    break;
-                }
-
-            }
+            pgt = technologiesByName.get(technologyName);
         } else {
             pgt = technologies.get(0);
         }
         PowerGridNode powerGridNode = null;
         if (!locationName.isEmpty()) {
-            for (PowerGridNode node : powerGridNodes) {
-                if (node.getName().equals(locationName)) {
-                    powerGridNode = node;
-                    break;
-                }
-
-            }
+            powerGridNode = powerGridNodesByName.get(locationName);
         } else {
             try {
                 throw new ReadException("Location fields is not allowed to be empty!", new IOException());
@@ -143,7 +152,7 @@ public class PowerPlantEntryParser implements CSVEntryParser<PowerPlant> {
     private PowerPlant createPowerPlant(String name, PowerGeneratingTechnology technology,
             EnergyProducer energyProducer,
             PowerGridNode location, int age, double capacity, double efficiency) {
-        PowerPlant plant = new PowerPlant().persist();
+        PowerPlant plant = new PowerPlant();
         plant.setName(name);
         plant.setTechnology(technology);
         plant.setOwner(energyProducer);
@@ -167,7 +176,7 @@ public class PowerPlantEntryParser implements CSVEntryParser<PowerPlant> {
         }
         plant.calculateAndSetActualFixedOperatingCosts(plant.getConstructionStartTime());
         plant.setDismantleTime(1000);
-        Loan loan = new Loan().persist();
+        Loan loan = new Loan();
         loan.setFrom(energyProducer);
         loan.setTo(null);
         double amountPerPayment = determineLoanAnnuities(
@@ -195,7 +204,7 @@ public class PowerPlantEntryParser implements CSVEntryParser<PowerPlant> {
     }
 
     private int getRandomIndexFromList(int size) {
-        return (int) Math.min(Math.floor(Math.random() * size), size - 1);
+        return random.nextInt(size);
     }
 
     public double determineLoanAnnuities(double totalLoan, double payBackTime, double interestRate) {
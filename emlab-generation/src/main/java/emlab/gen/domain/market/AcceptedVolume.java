@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.market;
+
+import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.NodeEntity;
+import org.springframework.data.neo4j.annotation.RelatedTo;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+
+/**
+ * The volume accepted from one agent, on one side of a market, at a
+ * {@link ClearingPoint}. Stored instead of the individual bids when bids are
+ * kept in memory, and deleted with the old bids once older than the deletion
+ * age of the model.
+ *
+ */
+@NodeEntity
+public class AcceptedVolume {
+
+    @RelatedTo(type = "ACCEPTED_AGENT", elementClass = DecarbonizationAgent.class, direction = Direction.OUTGOING)
+    private DecarbonizationAgent agent;
+
+    @RelatedTo(type = "ACCEPTED_AT", elementClass = ClearingPoint.class, direction = Direction.OUTGOING)
+    private ClearingPoint clearingPoint;
+
+    private double volume;
+    private boolean supply;
+    private long time;
+
+    public DecarbonizationAgent getAgent() {
+        return agent;
+    }
+
+    public void setAgent(DecarbonizationAgent agent) {
+        this.agent = agent;
+    }
+
+    public ClearingPoint getClearingPoint() {
+        return clearingPoint;
+    }
+
+    public void setClearingPoint(ClearingPoint clearingPoint) {
+        this.clearingPoint = clearingPoint;
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public void setVolume(double volume) {
+        this.volume = volume;
+    }
+
+    public boolean isSupply() {
+        return supply;
+    }
+
+    public void setSupply(boolean supply) {
+        this.supply = supply;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return "agent: " + agent + ", volume " + volume + ", supply " + supply + ", time " + time;
+    }
+
+}
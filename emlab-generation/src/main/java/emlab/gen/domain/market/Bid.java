@@ -24,7 +24,7 @@ import org.springframework.transaction.annotation.Transactional;
 import emlab.gen.domain.agent.DecarbonizationAgent;
 
 @NodeEntity
-public class Bid {
+public class Bid implements MarketBid {
 
     public static int FAILED = -1;
     public static int NOT_SUBMITTED = 0;
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.market;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+
+/**
+ * A bid as seen by the market clearing, either persisted ({@link Bid}) or
+ * kept in memory for one tick only ({@link TransientBid}).
+ *
+ */
+public interface MarketBid {
+
+    DecarbonizationAgent getBidder();
+
+    double getPrice();
+
+    double getAmount();
+
+    boolean isSupplyBid();
+
+    int getStatus();
+
+    void setStatus(int status);
+
+    double getAcceptedAmount();
+
+    void setAcceptedAmount(double acceptedAmount);
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.market;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+
+/**
+ * A bid that is not persisted in the graph. It lives in the bid book of the
+ * tick in which it was submitted; only the clearing point and the accepted
+ * volumes per agent ({@link AcceptedVolume}) are stored.
+ *
+ */
+public class TransientBid implements MarketBid {
+
+    private final DecarbonizationMarket biddingMarket;
+    private final DecarbonizationAgent bidder;
+    private final long time;
+    private final boolean supplyBid;
+    private final double price;
+    private final double amount;
+
+    private int status = Bid.SUBMITTED;
+    private double acceptedAmount;
+
+    public TransientBid(DecarbonizationMarket biddingMarket, DecarbonizationAgent bidder, long time, boolean supplyBid,
+            double price, double amount) {
+        this.biddingMarket = biddingMarket;
+        this.bidder = bidder;
+        this.time = time;
+        this.supplyBid = supplyBid;
+        this.price = price;
+        this.amount = amount;
+    }
+
+    public DecarbonizationMarket getBiddingMarket() {
+        return biddingMarket;
+    }
+
+    @Override
+    public DecarbonizationAgent getBidder() {
+        return bidder;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public boolean isSupplyBid() {
+        return supplyBid;
+    }
+
+    @Override
+    public double getPrice() {
+        return price;
+    }
+
+    @Override
+    public double getAmount() {
+        return amount;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public double getAcceptedAmount() {
+        return acceptedAmount;
+    }
+
+    @Override
+    public void setAcceptedAmount(double acceptedAmount) {
+        this.acceptedAmount = acceptedAmount;
+    }
+
+    @Override
+    public String toString() {
+        return "for " + biddingMarket + " price: " + price + " amount: " + amount + " isSupply: " + supplyBid;
+    }
+
+}
@@ -35,6 +35,11 @@ public class ElectricitySpotMarket extends DecarbonizationMarket {
 
     private double valueOfLostLoad;
 
+    // Set by the strategic reserve operator of the zone, zero without one.
+    private double strategicReservePrice;
+
+    private double strategicReserveVolume;
+
     public Set<SegmentLoad> getLoadDurationCurve() {
         return loadDurationCurve;
     }
@@ -51,6 +56,25 @@ public class ElectricitySpotMarket extends DecarbonizationMarket {
         this.valueOfLostLoad = valueOfLostLoad;
     }
 
+    public double getStrategicReservePrice() {
+        return strategicReservePrice;
+    }
+
+    public double getStrategicReserveVolume() {
+        return strategicReserveVolume;
+    }
+
+    /**
+     * Updates the strategic reserve descriptor of this market, used in the
+     * price expectations of investors. Only writes if a value changed.
+     */
+    public void updateStrategicReserve(double reservePrice, double reserveVolume) {
+        if (strategicReservePrice != reservePrice || strategicReserveVolume != reserveVolume) {
+            strategicReservePrice = reservePrice;
+            strategicReserveVolume = reserveVolume;
+        }
+    }
+
 	public TimeSeriesImpl getDemandGrowthTrend() {
         return demandGrowthTrend;
     }
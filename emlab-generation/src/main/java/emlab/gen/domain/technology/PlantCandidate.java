@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.technology;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import emlab.gen.domain.market.electricity.Segment;
+
+/**
+ * Immutable, non-persistent description of a power plant as it is seen in
+ * investment appraisal and in the expected merit order. Contrary to
+ * {@link PowerPlant} this is not a node entity, so creating and evaluating a
+ * candidate does not touch the graph. The technology properties that are
+ * needed in the hot loops are copied on creation.
+ *
+ * The fuel mix is kept as a map from {@link Substance} to fuel consumption
+ * per MWh electricity produced, the same unit as
+ * {@link SubstanceShareInFuelMix#getShare()}.
+ *
+ */
+public final class PlantCandidate {
+
+    private final PowerGeneratingTechnology technology;
+    private final PowerGridNode location;
+    private final long constructionStartTime;
+    private final double nominalCapacity;
+    private final double efficiency;
+    private final double investedCapital;
+    private final double fixedOperatingCost;
+    private final long leadtime;
+    private final long permittime;
+
+    private final long expectedLifetime;
+    private final double peakSegmentDependentAvailability;
+    private final double baseSegmentDependentAvailability;
+    private final double co2CaptureEfficiency;
+
+    private final Map<Substance, Double> fuelMix;
+
+    private PlantCandidate(PowerGeneratingTechnology technology, PowerGridNode location, long constructionStartTime,
+            double nominalCapacity, double efficiency, double investedCapital, double fixedOperatingCost, long leadtime,
+            long permittime, long expectedLifetime, double peakSegmentDependentAvailability,
+            double baseSegmentDependentAvailability, double co2CaptureEfficiency, Map<Substance, Double> fuelMix) {
+        this.technology = technology;
+        this.location = location;
+        this.constructionStartTime = constructionStartTime;
+        this.nominalCapacity = nominalCapacity;
+        this.efficiency = efficiency;
+        this.investedCapital = investedCapital;
+        this.fixedOperatingCost = fixedOperatingCost;
+        this.leadtime = leadtime;
+        this.permittime = permittime;
+        this.expectedLifetime = expectedLifetime;
+        this.peakSegmentDependentAvailability = peakSegmentDependentAvailability;
+        this.baseSegmentDependentAvailability = baseSegmentDependentAvailability;
+        this.co2CaptureEfficiency = co2CaptureEfficiency;
+        this.fuelMix = fuelMix;
+    }
+
+    /**
+     * Specifies a new candidate plant in the same way as
+     * {@link PowerPlant#specifyNotPersist(long, emlab.gen.domain.agent.EnergyProducer, PowerGridNode, PowerGeneratingTechnology)}
+     * does, without an owner and without a fuel mix.
+     *
+     * @param time
+     *            the time of permit or building start
+     * @param location
+     * @param technology
+     * @return the candidate
+     */
+    public static PlantCandidate specify(long time, PowerGridNode location, PowerGeneratingTechnology technology) {
+        long timeOfCompletion = getTimeOfCompletion(time, technology);
+        return specify(time, location, technology, technology.getEfficiency(timeOfCompletion),
+                technology.getInvestmentCost(timeOfCompletion), technology.getFixedOperatingCost(timeOfCompletion));
+    }
+
+    /**
+     * Specifies a new candidate plant with technology properties that the
+     * caller already looked up, e.g. from compiled trend tables, for the time
+     * of completion, see {@link #getTimeOfCompletion(long, PowerGeneratingTechnology)}.
+     *
+     * @param time
+     *            the time of permit or building start
+     * @param location
+     * @param technology
+     * @param efficiency
+     *            the efficiency at completion
+     * @param investmentCost
+     *            the investment cost per MW at completion
+     * @param fixedOperatingCost
+     *            the fixed operating cost per MW at completion
+     * @return the candidate
+     */
+    public static PlantCandidate specify(long time, PowerGridNode location, PowerGeneratingTechnology technology,
+            double efficiency, double investmentCost, double fixedOperatingCost) {
+        double capacity = technology.getCapacity() * location.getCapacityMultiplicationFactor();
+        assert efficiency <= 1 : efficiency;
+        return new PlantCandidate(technology, location, time, capacity, efficiency, investmentCost * capacity,
+                fixedOperatingCost * capacity, technology.getExpectedLeadtime(), technology.getExpectedPermittime(),
+                technology.getExpectedLifetime(), technology.getPeakSegmentDependentAvailability(),
+                technology.getBaseSegmentDependentAvailability(), technology.getCo2CaptureEffciency(),
+                Collections.<Substance, Double> emptyMap());
+    }
+
+    /**
+     * @param time
+     *            the time of permit or building start
+     * @param technology
+     * @return the tick at which a plant of the technology started at the time
+     *         is expected to be completed
+     */
+    public static long getTimeOfCompletion(long time, PowerGeneratingTechnology technology) {
+        return time + technology.getExpectedLeadtime() + technology.getExpectedPermittime();
+    }
+
+    /**
+     * Takes a snapshot of an existing plant, including its current fuel mix.
+     *
+     * @param plant
+     * @return the candidate
+     */
+    public static PlantCandidate of(PowerPlant plant) {
+        PowerGeneratingTechnology technology = plant.getTechnology();
+        Map<Substance, Double> fuelMix = new HashMap<Substance, Double>();
+        if (plant.getFuelMix() != null) {
+            for (SubstanceShareInFuelMix share : plant.getFuelMix()) {
+                Double previous = fuelMix.get(share.getSubstance());
+                fuelMix.put(share.getSubstance(), previous == null ? share.getShare() : previous + share.getShare());
+            }
+        }
+        return new PlantCandidate(technology, plant.getLocation(), plant.getConstructionStartTime(),
+                plant.getActualNominalCapacity(), plant.getActualEfficiency(), plant.getActualInvestedCapital(),
+                plant.getActualFixedOperatingCost(), plant.calculateActualLeadtime(), plant.calculateActualPermittime(),
+                technology.getExpectedLifetime(), technology.getPeakSegmentDependentAvailability(),
+                technology.getBaseSegmentDependentAvailability(), technology.getCo2CaptureEffciency(),
+                Collections.unmodifiableMap(fuelMix));
+    }
+
+    /**
+     * Returns a copy of this candidate with a different nominal capacity. The
+     * invested capital and fixed operating cost are scaled accordingly.
+     *
+     * @param capacity
+     * @return the rescaled candidate
+     */
+    public PlantCandidate withNominalCapacity(double capacity) {
+        double ratio = nominalCapacity > 0 ? capacity / nominalCapacity : 0d;
+        return new PlantCandidate(technology, location, constructionStartTime, capacity, efficiency, investedCapital * ratio,
+                fixedOperatingCost * ratio, leadtime, permittime, expectedLifetime, peakSegmentDependentAvailability,
+                baseSegmentDependentAvailability, co2CaptureEfficiency, fuelMix);
+    }
+
+    /**
+     * Returns a copy of this candidate with the given fuel mix.
+     *
+     * @param fuelMix
+     *            fuel consumption per MWh electricity produced, per substance
+     * @return the candidate with fuel mix
+     */
+    public PlantCandidate withFuelMix(Map<Substance, Double> fuelMix) {
+        return new PlantCandidate(technology, location, constructionStartTime, nominalCapacity, efficiency, investedCapital,
+                fixedOperatingCost, leadtime, permittime, expectedLifetime, peakSegmentDependentAvailability,
+                baseSegmentDependentAvailability, co2CaptureEfficiency, Collections.unmodifiableMap(new HashMap<Substance, Double>(
+                        fuelMix)));
+    }
+
+    public long getTimeOfCompletion() {
+        return constructionStartTime + permittime + leadtime;
+    }
+
+    /**
+     * Same rule as {@link PowerPlant#isOperational(long)} for a plant that has
+     * not been dismantled.
+     */
+    public boolean isOperational(long tick) {
+        return getTimeOfCompletion() <= tick;
+    }
+
+    /**
+     * Same rule as {@link PowerPlant#isExpectedToBeOperational(long)}.
+     */
+    public boolean isExpectedToBeOperational(long time) {
+        long finishedConstruction = getTimeOfCompletion();
+        return finishedConstruction <= time && finishedConstruction + expectedLifetime > time;
+    }
+
+    public double getAvailableCapacity(long tick, Segment segment, long numberOfSegments) {
+        if (isOperational(tick)) {
+            return nominalCapacity * getSegmentDependentAvailability(segment, numberOfSegments);
+        } else {
+            return 0;
+        }
+    }
+
+    public double getExpectedAvailableCapacity(long futureTick, Segment segment, long numberOfSegments) {
+        if (isExpectedToBeOperational(futureTick)) {
+            return nominalCapacity * getSegmentDependentAvailability(segment, numberOfSegments);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Linear interpolation between the peak (segment 1) and base (last
+     * segment) availability of the technology. If no segment is supplied, full
+     * availability is assumed.
+     */
+    public double getSegmentDependentAvailability(Segment segment, long numberOfSegments) {
+        if (segment == null) {
+            return 1;
+        }
+        return getSegmentDependentAvailability(segment.getSegmentID(), numberOfSegments);
+    }
+
+    public double getSegmentDependentAvailability(double segmentID, long numberOfSegments) {
+        if ((int) segmentID == 1) {
+            return peakSegmentDependentAvailability;
+        }
+        double segmentPortion = (numberOfSegments - segmentID) / (numberOfSegments - 1);
+        double range = baseSegmentDependentAvailability - peakSegmentDependentAvailability;
+        return baseSegmentDependentAvailability - segmentPortion * range;
+    }
+
+    public double calculateEmissionIntensity() {
+        double emission = 0d;
+        for (Map.Entry<Substance, Double> share : fuelMix.entrySet()) {
+            emission += share.getValue() * share.getKey().getCo2Density() * (1 - co2CaptureEfficiency);
+        }
+        return emission;
+    }
+
+    public PowerGeneratingTechnology getTechnology() {
+        return technology;
+    }
+
+    public PowerGridNode getLocation() {
+        return location;
+    }
+
+    public long getConstructionStartTime() {
+        return constructionStartTime;
+    }
+
+    public double getNominalCapacity() {
+        return nominalCapacity;
+    }
+
+    public double getEfficiency() {
+        return efficiency;
+    }
+
+    public double getInvestedCapital() {
+        return investedCapital;
+    }
+
+    public double getFixedOperatingCost() {
+        return fixedOperatingCost;
+    }
+
+    public long getLeadtime() {
+        return leadtime;
+    }
+
+    public long getPermittime() {
+        return permittime;
+    }
+
+    public long getExpectedLifetime() {
+        return expectedLifetime;
+    }
+
+    public double getPeakSegmentDependentAvailability() {
+        return peakSegmentDependentAvailability;
+    }
+
+    public double getBaseSegmentDependentAvailability() {
+        return baseSegmentDependentAvailability;
+    }
+
+    public double getCo2CaptureEfficiency() {
+        return co2CaptureEfficiency;
+    }
+
+    public Map<Substance, Double> getFuelMix() {
+        return fuelMix;
+    }
+
+    @Override
+    public String toString() {
+        return technology.getName() + " candidate";
+    }
+
+}
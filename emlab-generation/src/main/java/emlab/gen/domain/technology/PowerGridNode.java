@@ -22,6 +22,8 @@ import org.springframework.data.neo4j.annotation.RelatedTo;
 
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.trend.HourlyCSVTimeSeries;
+import emlab.gen.trend.HourlyTimeSeries;
+import emlab.gen.trend.MappedHourlyTimeSeries;
 
 @NodeEntity
 public class PowerGridNode {
@@ -34,6 +36,9 @@ public class PowerGridNode {
     @RelatedTo(type = "HOURLYDEMAND", elementClass = HourlyCSVTimeSeries.class, direction = Direction.OUTGOING)
     private HourlyCSVTimeSeries hourlyDemand;
 
+    @RelatedTo(type = "HOURLYDEMANDPROFILE", elementClass = MappedHourlyTimeSeries.class, direction = Direction.OUTGOING)
+    private MappedHourlyTimeSeries hourlyDemandProfile;
+
     private double capacityMultiplicationFactor;
 
     public String getName() {
@@ -52,6 +57,22 @@ public class PowerGridNode {
         this.hourlyDemand = hourlydemand;
     }
 
+    public MappedHourlyTimeSeries getHourlyDemandProfile() {
+        return hourlyDemandProfile;
+    }
+
+    public void setHourlyDemandProfile(MappedHourlyTimeSeries hourlyDemandProfile) {
+        this.hourlyDemandProfile = hourlyDemandProfile;
+    }
+
+    /**
+     * @return the hourly load of the node, from its profile store if it has
+     *         one, otherwise from its CSV file, or null
+     */
+    public HourlyTimeSeries findHourlyLoad() {
+        return hourlyDemandProfile != null ? hourlyDemandProfile : hourlyDemand;
+    }
+
     public void setZone(Zone zone) {
         this.zone = zone;
     }
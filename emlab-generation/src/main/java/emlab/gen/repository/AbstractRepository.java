@@ -19,7 +19,6 @@ import java.lang.reflect.ParameterizedType;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Random;
 
 import javax.script.ScriptEngine;
 
@@ -37,6 +36,7 @@ import com.tinkerpop.pipes.Pipe;
 import com.tinkerpop.pipes.util.Pipeline;
 import com.tinkerpop.pipes.util.SingleIterator;
 
+import emlab.gen.util.RandomStreams;
 import emlab.gen.util.Utils;
 
 public abstract class AbstractRepository<T extends NodeBacked> {
@@ -70,7 +70,7 @@ public abstract class AbstractRepository<T extends NodeBacked> {
 
     public Iterable<T> findAllAtRandom() {
         List<T> list = Utils.asList(findAll());
-        Collections.shuffle(list, new Random());
+        Collections.shuffle(list, RandomStreams.newRandom(RandomStreams.AGENT_ORDER));
         return list;
     }
 
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import org.springframework.data.neo4j.annotation.Query;
+import org.springframework.data.neo4j.annotation.QueryType;
+import org.springframework.data.neo4j.repository.GraphRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.market.AcceptedVolume;
+import emlab.gen.domain.market.ClearingPoint;
+
+@Repository
+public interface AcceptedVolumeRepository extends GraphRepository<AcceptedVolume> {
+
+    @Query(value = "g.v(point).in('ACCEPTED_AT')", type = QueryType.Gremlin)
+    Iterable<AcceptedVolume> findAllForClearingPoint(@Param("point") ClearingPoint point);
+
+    @Query("START volume=node:__types__(\"className:emlab.gen.domain.market.AcceptedVolume\") WHERE (volume.time={time}) RETURN volume")
+    Iterable<AcceptedVolume> findAllForTime(@Param("time") long time);
+
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+
+/**
+ * Changes to the cash of agents, collected in one cell per agent and thread
+ * so that payments can be made from parallel tasks without contending for
+ * the same agent. The cells are merged into the cash of the agents at step
+ * boundaries, when no payments are in flight.
+ *
+ */
+@Repository
+public class AgentBalanceRepository {
+
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<Stripe>();
+
+    private final ConcurrentMap<Long, DecarbonizationAgent> agents = new ConcurrentHashMap<Long, DecarbonizationAgent>();
+
+    private final ThreadLocal<Stripe> stripe = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            Stripe stripe = new Stripe();
+            stripes.add(stripe);
+            return stripe;
+        }
+    };
+
+    /**
+     * Moves money from one agent to another.
+     * @param from
+     * @param to may be null
+     * @param amount
+     */
+    public void transfer(DecarbonizationAgent from, DecarbonizationAgent to, double amount) {
+        add(from, -amount);
+        if (to != null) {
+            add(to, amount);
+        }
+    }
+
+    /**
+     * Adds money to the cash of an agent; negative to take it away.
+     */
+    public void add(DecarbonizationAgent agent, double amount) {
+        Long id = agent.getNodeId();
+        agents.putIfAbsent(id, agent);
+        stripe.get().add(id, amount);
+    }
+
+    /**
+     * @return the cash of the agent including the changes that have not been
+     *         merged yet
+     */
+    public double getCash(DecarbonizationAgent agent) {
+        double cash = agent.getCash();
+        for (Stripe stripe : stripes) {
+            cash += stripe.get(agent.getNodeId());
+        }
+        return cash;
+    }
+
+    /**
+     * Adds all changes to the cash of the agents and empties the cells. Only
+     * to be called when no payments are being made.
+     */
+    @Transactional
+    public void merge() {
+        Map<Long, Double> changes = new HashMap<Long, Double>();
+        for (Stripe stripe : stripes) {
+            stripe.drainTo(changes);
+        }
+        for (Map.Entry<Long, Double> change : changes.entrySet()) {
+            DecarbonizationAgent agent = agents.get(change.getKey());
+            agent.setCash(agent.getCash() + change.getValue());
+        }
+    }
+
+    /**
+     * Forgets all changes that have not been merged, e.g. at the start of a
+     * new run.
+     */
+    public void reset() {
+        for (Stripe stripe : stripes) {
+            stripe.drainTo(new HashMap<Long, Double>());
+        }
+        agents.clear();
+    }
+
+    /**
+     * The cells of one thread. Only the owning thread writes, so the lock is
+     * uncontended except while the balances are read or merged.
+     */
+    private static class Stripe {
+
+        private final Map<Long, double[]> cells = new HashMap<Long, double[]>();
+
+        synchronized void add(Long agent, double amount) {
+            double[] cell = cells.get(agent);
+            if (cell == null) {
+                cell = new double[1];
+                cells.put(agent, cell);
+            }
+            cell[0] += amount;
+        }
+
+        synchronized double get(Long agent) {
+            double[] cell = cells.get(agent);
+            return cell == null ? 0d : cell[0];
+        }
+
+        synchronized void drainTo(Map<Long, Double> changes) {
+            for (Map.Entry<Long, double[]> cell : cells.entrySet()) {
+                Double change = changes.get(cell.getKey());
+                changes.put(cell.getKey(), (change == null ? 0d : change) + cell.getValue()[0]);
+            }
+            cells.clear();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.TransientBid;
+
+/**
+ * Tick-scoped, in-memory book of {@link TransientBid}s per market. Used
+ * instead of persisted bids when enabled; the book is emptied at the start of
+ * every tick, so old bids never have to be deleted from the graph.
+ *
+ */
+@Repository
+public class BidBookRepository {
+
+    private boolean enabled;
+
+    private final Map<Long, List<TransientBid>> bidsPerMarket = new HashMap<Long, List<TransientBid>>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Submit a bid to the in-memory book of a market.
+     * @param market
+     * @param agent
+     * @param time
+     * @param isSupply
+     * @param price
+     * @param amount
+     * @return the submitted bid
+     */
+    public synchronized TransientBid submitBidToMarket(DecarbonizationMarket market, DecarbonizationAgent agent, long time,
+            boolean isSupply, double price, double amount) {
+        TransientBid bid = new TransientBid(market, agent, time, isSupply, price, amount);
+        List<TransientBid> bids = bidsPerMarket.get(market.getNodeId());
+        if (bids == null) {
+            bids = new ArrayList<TransientBid>();
+            bidsPerMarket.put(market.getNodeId(), bids);
+        }
+        bids.add(bid);
+        return bid;
+    }
+
+    /**
+     * @return the offers or demand bids for a market for a time, in the order
+     *         they were submitted
+     */
+    public synchronized List<TransientBid> findBidsForMarketForTime(DecarbonizationMarket market, long time, boolean isSupply) {
+        List<TransientBid> result = new ArrayList<TransientBid>();
+        List<TransientBid> bids = bidsPerMarket.get(market.getNodeId());
+        if (bids != null) {
+            for (TransientBid bid : bids) {
+                if (bid.getTime() == time && bid.isSupplyBid() == isSupply) {
+                    result.add(bid);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Empties the book.
+     */
+    public synchronized void clear() {
+        bidsPerMarket.clear();
+    }
+
+}
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.Checkpointable;
+
+/**
+ * Append-only ledger of cash flows, used instead of {@link CashFlow} nodes
+ * when enabled. Cash flows are kept in columns (from, to, type, time, plant,
+ * amount) of node ids and primitives. At the end of every tick the rows
+ * booked in that tick are written to a segment file, which stays memory
+ * mapped for the queries; the heap only holds the rows of the current tick.
+ * The net sum of all flows per agent is kept as a running balance.
+ *
+ * A segment file starts with the number of rows, followed by the columns one
+ * after the other.
+ *
+ */
+@Repository
+public class CashFlowLedgerRepository implements Checkpointable {
+
+    static Logger logger = Logger.getLogger(CashFlowLedgerRepository.class);
+
+    /**
+     * Node id used for a missing agent or power plant.
+     */
+    public static final long NONE = -1L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private boolean enabled;
+
+    private File directory;
+
+    // whether the directory was created in the temporary directory
+    private boolean temporaryDirectory;
+
+    private final List<File> segmentFiles = new ArrayList<File>();
+
+    // rows booked since the last flush
+    private int size;
+    private long[] fromColumn = new long[INITIAL_CAPACITY];
+    private long[] toColumn = new long[INITIAL_CAPACITY];
+    private int[] typeColumn = new int[INITIAL_CAPACITY];
+    private long[] timeColumn = new long[INITIAL_CAPACITY];
+    private long[] plantColumn = new long[INITIAL_CAPACITY];
+    private double[] amountColumn = new double[INITIAL_CAPACITY];
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    private final Map<Long, Double> balances = new HashMap<Long, Double>();
+
+    // the segments that are in a checkpoint
+    private int checkpointedSegments;
+
+    /**
+     * The number of segments in the checkpoint that is being written.
+     */
+    private int writtenSegments;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory for the segment files. If not set, a new directory in
+     * the temporary directory is used.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Books a cash flow.
+     * @param from
+     * @param to may be null
+     * @param amount the money transfered
+     * @param type what the cashflow is about
+     * @param time the time
+     * @param plant the power plant related to this cash flow, may be null
+     */
+    public void append(DecarbonizationAgent from, DecarbonizationAgent to, double amount, int type, long time,
+            PowerPlant plant) {
+        append(from.getNodeId(), to == null ? NONE : to.getNodeId(), amount, type, time, plant == null ? NONE : plant.getNodeId());
+    }
+
+    /**
+     * Books a cash flow between agents given by node id.
+     */
+    public synchronized void append(long from, long to, double amount, int type, long time, long plant) {
+        if (size == fromColumn.length) {
+            int capacity = size * 2;
+            fromColumn = Arrays.copyOf(fromColumn, capacity);
+            toColumn = Arrays.copyOf(toColumn, capacity);
+            typeColumn = Arrays.copyOf(typeColumn, capacity);
+            timeColumn = Arrays.copyOf(timeColumn, capacity);
+            plantColumn = Arrays.copyOf(plantColumn, capacity);
+            amountColumn = Arrays.copyOf(amountColumn, capacity);
+        }
+        fromColumn[size] = from;
+        toColumn[size] = to;
+        typeColumn[size] = type;
+        timeColumn[size] = time;
+        plantColumn[size] = plant;
+        amountColumn[size] = amount;
+        size++;
+
+        addToBalance(from, -amount);
+        if (to != NONE) {
+            addToBalance(to, amount);
+        }
+    }
+
+    /**
+     * @return the sum of all cash flows to the agent minus the sum of all cash
+     *         flows from the agent
+     */
+    public synchronized double getBalance(long agent) {
+        Double balance = balances.get(agent);
+        return balance == null ? 0d : balance;
+    }
+
+    public double getBalance(DecarbonizationAgent agent) {
+        return getBalance(agent.getNodeId());
+    }
+
+    /**
+     * Sums the cash flows of a type for a time.
+     *
+     * @param fromAgents
+     *            node ids of the paying agents, null for any
+     * @param toAgents
+     *            node ids of the receiving agents, null for any
+     */
+    public synchronized double sumCashFlows(long time, int type, Set<Long> fromAgents, Set<Long> toAgents) {
+        double sum = 0d;
+        for (Segment segment : segments) {
+            if (time < segment.minimumTime || time > segment.maximumTime) {
+                continue;
+            }
+            for (int i = 0; i < segment.size; i++) {
+                if (segment.time(i) == time && segment.type(i) == type && (fromAgents == null || fromAgents.contains(segment.from(i)))
+                        && (toAgents == null || toAgents.contains(segment.to(i)))) {
+                    sum += segment.amount(i);
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (timeColumn[i] == time && typeColumn[i] == type && (fromAgents == null || fromAgents.contains(fromColumn[i]))
+                    && (toAgents == null || toAgents.contains(toColumn[i]))) {
+                sum += amountColumn[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the cash flows of a type regarding a power plant over a range of
+     * time steps, both inclusive.
+     */
+    public synchronized double sumCashFlowsRegardingPowerPlant(long plant, int type, long fromTime, long toTime) {
+        double sum = 0d;
+        for (Segment segment : segments) {
+            if (toTime < segment.minimumTime || fromTime > segment.maximumTime) {
+                continue;
+            }
+            for (int i = 0; i < segment.size; i++) {
+                long time = segment.time(i);
+                if (segment.plant(i) == plant && segment.type(i) == type && time >= fromTime && time <= toTime) {
+                    sum += segment.amount(i);
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (plantColumn[i] == plant && typeColumn[i] == type && timeColumn[i] >= fromTime && timeColumn[i] <= toTime) {
+                sum += amountColumn[i];
+            }
+        }
+        return sum;
+    }
+
+    public synchronized int getNumberOfCashFlows() {
+        int count = size;
+        for (Segment segment : segments) {
+            count += segment.size;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rows booked since the last flush to the segment file of the
+     * tick and maps it.
+     */
+    public synchronized void flush(long tick) {
+        if (size == 0) {
+            return;
+        }
+        if (directory == null) {
+            directory = new File(System.getProperty("java.io.tmpdir"), "emlab-ledger-" + System.currentTimeMillis());
+            temporaryDirectory = true;
+        }
+        if (!directory.isDirectory()) {
+            if (!directory.mkdirs()) {
+                throw new IllegalStateException("Cannot create ledger directory " + directory);
+            }
+            if (temporaryDirectory) {
+                // deleted after the files in it, which are registered later
+                directory.deleteOnExit();
+            }
+        }
+        File file = new File(directory, "cashflows-" + tick + "-" + segments.size() + ".bin");
+        file.deleteOnExit();
+        segmentFiles.add(file);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Segment.bytesFor(size));
+                buffer.putInt(size);
+                for (int i = 0; i < size; i++) {
+                    buffer.putLong(fromColumn[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    buffer.putLong(toColumn[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    buffer.putInt(typeColumn[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    buffer.putLong(timeColumn[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    buffer.putLong(plantColumn[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    buffer.putDouble(amountColumn[i]);
+                }
+                buffer.force();
+                segments.add(new Segment(buffer));
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write ledger segment " + file, e);
+        }
+        logger.info("Flushed " + size + " cash flows to " + file);
+        size = 0;
+    }
+
+    /**
+     * Forgets all cash flows and balances, e.g. at the start of a new run, and
+     * deletes the segment files, and the directory if it is a temporary one.
+     * Files that cannot be deleted yet, e.g. while still mapped on some
+     * platforms, are deleted when the JVM exits.
+     */
+    public synchronized void reset() {
+        size = 0;
+        segments.clear();
+        balances.clear();
+        for (File file : segmentFiles) {
+            file.delete();
+        }
+        segmentFiles.clear();
+        if (temporaryDirectory) {
+            directory.delete();
+            directory = null;
+            temporaryDirectory = false;
+        }
+        checkpointedSegments = 0;
+        writtenSegments = 0;
+    }
+
+    /**
+     * Writes the segments flushed since the previous stored checkpoint and the
+     * balances. Rows that are not flushed yet are not included, so this is
+     * called after {@link #flush(long)}.
+     */
+    @Override
+    public synchronized void writeCheckpoint(long tick, DataOutputStream out) throws IOException {
+        out.writeInt(segments.size() - checkpointedSegments);
+        for (Segment segment : segments.subList(checkpointedSegments, segments.size())) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.clear();
+            byte[] bytes = new byte[Segment.bytesFor(segment.size)];
+            buffer.get(bytes);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        writtenSegments = segments.size();
+        out.writeInt(balances.size());
+        for (Map.Entry<Long, Double> balance : balances.entrySet()) {
+            out.writeLong(balance.getKey());
+            out.writeDouble(balance.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void checkpointStored(long tick) {
+        checkpointedSegments = writtenSegments;
+    }
+
+    /**
+     * Books the rows of the segments in the checkpoint again and flushes them
+     * to a new segment file.
+     */
+    @Override
+    public synchronized void readCheckpoint(long tick, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int s = 0; s < count; s++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            Segment segment = new Segment(ByteBuffer.wrap(bytes));
+            for (int i = 0; i < segment.size; i++) {
+                append(segment.from(i), segment.to(i), segment.amount(i), segment.type(i), segment.time(i),
+                        segment.plant(i));
+            }
+        }
+        flush(tick);
+        checkpointedSegments = segments.size();
+        balances.clear();
+        int balanceCount = in.readInt();
+        for (int i = 0; i < balanceCount; i++) {
+            balances.put(in.readLong(), in.readDouble());
+        }
+    }
+
+    private void addToBalance(long agent, double amount) {
+        Double balance = balances.get(agent);
+        balances.put(agent, balance == null ? amount : balance + amount);
+    }
+
+    /**
+     * A flushed, memory mapped segment.
+     */
+    private static class Segment {
+
+        private final ByteBuffer buffer;
+        private final int size;
+        private final long minimumTime;
+        private final long maximumTime;
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.size = buffer.getInt(0);
+            long minimum = Long.MAX_VALUE;
+            long maximum = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                minimum = Math.min(minimum, time(i));
+                maximum = Math.max(maximum, time(i));
+            }
+            minimumTime = minimum;
+            maximumTime = maximum;
+        }
+
+        static int bytesFor(int size) {
+            return 4 + size * (8 + 8 + 4 + 8 + 8 + 8);
+        }
+
+        long from(int i) {
+            return buffer.getLong(4 + 8 * i);
+        }
+
+        long to(int i) {
+            return buffer.getLong(4 + 8 * size + 8 * i);
+        }
+
+        int type(int i) {
+            return buffer.getInt(4 + 16 * size + 4 * i);
+        }
+
+        long time(int i) {
+            return buffer.getLong(4 + 20 * size + 8 * i);
+        }
+
+        long plant(int i) {
+            return buffer.getLong(4 + 28 * size + 8 * i);
+        }
+
+        double amount(int i) {
+            return buffer.getDouble(4 + 36 * size + 8 * i);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.ReflectionUtils;
+
+import agentspring.simulation.Schedule;
+import emlab.gen.util.Checkpointable;
+import emlab.gen.util.RandomStreams;
+import emlab.gen.util.StoreCheckpoint;
+
+/**
+ * Checkpoints of a run at tick boundaries, so that a long run that is stopped
+ * can go on from its last checkpoint. A checkpoint holds the blocks of the
+ * graph store that changed since the previous one, see
+ * {@link StoreCheckpoint}, the positions of the {@link RandomStreams} and the
+ * state of all {@link Checkpointable} beans, such as the loan calendar and
+ * the cash flow ledger.
+ *
+ * Checkpoints are written when the system property emlab.checkpoint.interval
+ * is a number of ticks, to the directory emlab.checkpoint.dir, by default
+ * the checkpoints folder in results.path, in a folder per run.id. A run
+ * resumes when its store was restored before it started, see
+ * {@link emlab.gen.util.CheckpointConfigurer}. It only goes on exactly like a
+ * run that was not stopped if no nodes were deleted, see
+ * {@link StoreCheckpoint}.
+ *
+ */
+@Repository
+public class CheckpointRepository {
+
+    static Logger logger = Logger.getLogger(CheckpointRepository.class);
+
+    public static final String INTERVAL_PROPERTY = "emlab.checkpoint.interval";
+
+    public static final String DIRECTORY_PROPERTY = "emlab.checkpoint.dir";
+
+    static final String RANDOM_STREAMS = "randomStreams";
+
+    @Autowired
+    Map<String, Checkpointable> checkpointables;
+
+    @Autowired(required = false)
+    @Qualifier("dbPath")
+    String dbPath;
+
+    @Autowired(required = false)
+    GraphDatabaseService graphDb;
+
+    private StoreCheckpoint storeCheckpoint;
+
+    private long resumeTick = -1;
+
+    /**
+     * @return the number of ticks between checkpoints, 0 if none are written
+     */
+    public long getInterval() {
+        String property = System.getProperty(INTERVAL_PROPERTY);
+        return property == null || property.trim().isEmpty() ? 0 : Long.parseLong(property.trim());
+    }
+
+    /**
+     * @return the directory of the checkpoints of this run
+     */
+    public File getDirectory() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null) {
+            directory = new File(System.getProperty("results.path", System.getProperty("java.io.tmpdir")),
+                    "checkpoints").getPath();
+        }
+        return new File(directory, System.getProperty("run.id", "run"));
+    }
+
+    /**
+     * Writes a checkpoint at the end of a tick, if one is due.
+     */
+    public synchronized void checkpoint(long tick) {
+        long interval = getInterval();
+        if (interval <= 0 || (tick + 1) % interval != 0 || dbPath == null || graphDb == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if (storeCheckpoint == null) {
+            storeCheckpoint = new StoreCheckpoint(new File(dbPath));
+        }
+        File file = new File(getDirectory(), String.format("checkpoint-%06d", tick) + StoreCheckpoint.EXTENSION);
+        try {
+            Map<String, byte[]> states = new LinkedHashMap<String, byte[]>();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            RandomStreams.write(out);
+            out.flush();
+            states.put(RANDOM_STREAMS, bytes.toByteArray());
+            for (Map.Entry<String, Checkpointable> checkpointable : new TreeMap<String, Checkpointable>(
+                    checkpointables).entrySet()) {
+                bytes.reset();
+                checkpointable.getValue().writeCheckpoint(tick, out);
+                out.flush();
+                states.put(checkpointable.getKey(), bytes.toByteArray());
+            }
+            StoreCheckpoint.flush(graphDb);
+            int blocks = storeCheckpoint.write(file, tick, states);
+            for (Checkpointable checkpointable : checkpointables.values()) {
+                checkpointable.checkpointStored(tick);
+            }
+            logger.warn("Wrote checkpoint " + file + " with " + blocks + " changed blocks in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            // the next checkpoint starts over with the whole store
+            storeCheckpoint = null;
+            logger.error("Cannot write checkpoint " + file + ", continuing without it", e);
+        }
+    }
+
+    /**
+     * Reads the states of the checkpoints up to the one the store was
+     * restored from, and continues the schedule after its tick on the next
+     * call of {@link #continueSchedule()}.
+     */
+    public synchronized void resume(long tick) throws IOException {
+        StoreCheckpoint.readStates(getDirectory(), tick, new StoreCheckpoint.StateReader() {
+            @Override
+            public void read(long checkpointTick, String name, DataInputStream in) throws IOException {
+                if (RANDOM_STREAMS.equals(name)) {
+                    RandomStreams.read(in);
+                } else if (checkpointables.containsKey(name)) {
+                    checkpointables.get(name).readCheckpoint(checkpointTick, in);
+                } else {
+                    logger.warn("Ignoring the state of " + name + " in the checkpoint of tick " + checkpointTick);
+                }
+            }
+        });
+        resumeTick = tick + 1;
+        logger.warn("Resuming at tick " + resumeTick);
+    }
+
+    public boolean isResuming() {
+        return resumeTick >= 0;
+    }
+
+    /**
+     * Moves the schedule to the tick after the checkpoint the run resumed
+     * from. The schedule has no public setter for its tick, so it is set
+     * through reflection; CheckpointRepositoryTest pins this against the
+     * AgentSpring version of the build.
+     */
+    public synchronized void continueSchedule() {
+        if (resumeTick < 0) {
+            return;
+        }
+        Schedule schedule = Schedule.getSchedule();
+        Method setter = ReflectionUtils.findMethod(schedule.getClass(), "setCurrentTick", long.class);
+        if (setter != null) {
+            ReflectionUtils.makeAccessible(setter);
+            ReflectionUtils.invokeMethod(setter, schedule, resumeTick);
+        } else {
+            Field field = ReflectionUtils.findField(schedule.getClass(), "currentTick", long.class);
+            if (field == null) {
+                field = ReflectionUtils.findField(schedule.getClass(), "tick", long.class);
+            }
+            if (field == null) {
+                throw new IllegalStateException("Cannot set the tick of " + schedule.getClass().getName()
+                        + " to resume at tick " + resumeTick);
+            }
+            ReflectionUtils.makeAccessible(field);
+            ReflectionUtils.setField(field, schedule, resumeTick);
+        }
+        resumeTick = -1;
+    }
+
+}
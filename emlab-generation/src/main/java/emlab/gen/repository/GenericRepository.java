@@ -18,7 +18,6 @@ package emlab.gen.repository;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Random;
 
 import javax.script.ScriptEngine;
 
@@ -38,6 +37,7 @@ import com.tinkerpop.pipes.Pipe;
 import com.tinkerpop.pipes.util.Pipeline;
 import com.tinkerpop.pipes.util.SingleIterator;
 
+import emlab.gen.util.RandomStreams;
 import emlab.gen.util.Utils;
 
 @Repository
@@ -68,13 +68,13 @@ public class GenericRepository {
 
     public <T extends NodeBacked> Iterable<T> findAllAtRandom(Class<T> clazz) {
         List<T> list = Utils.asList(findAll(clazz));
-        Collections.shuffle(list, new Random());
+        Collections.shuffle(list, RandomStreams.newRandom(RandomStreams.AGENT_ORDER));
         return list;
     }
 
     public <T extends NodeBacked> T findOneAtRandom(Class<T> clazz) {
         List<T> list = Utils.asList(findAll(clazz));
-        Collections.shuffle(list, new Random());
+        Collections.shuffle(list, RandomStreams.newRandom(RandomStreams.AGENT_ORDER));
         return list.get(0);
     }
 
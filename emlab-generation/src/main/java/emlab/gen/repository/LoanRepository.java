@@ -16,6 +16,16 @@
 package emlab.gen.repository;
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -25,6 +35,7 @@ import com.tinkerpop.pipes.Pipe;
 import emlab.gen.domain.agent.DecarbonizationAgent;
 import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.Checkpointable;
 
 
 /**
@@ -33,7 +44,23 @@ import emlab.gen.domain.technology.PowerPlant;
  *
  */
 @Repository
-public class LoanRepository extends AbstractRepository<Loan> {
+public class LoanRepository extends AbstractRepository<Loan> implements Checkpointable {
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    /**
+     * Loans that still need payments, by the tick of their next payment. Built
+     * from the power plants in the graph on first use, which covers the loans
+     * of the scenario files and the power plant factories; loans created later
+     * are added by {@link #createLoan}.
+     */
+    private TreeMap<Long, List<ScheduledLoan>> loanCalendar;
+
+    /**
+     * The entries of the calendar by the node id of their power plant.
+     */
+    private Map<Long, List<ScheduledLoan>> loansByPowerPlant;
 
 	/**
 	 * Creates a loan
@@ -47,6 +74,49 @@ public class LoanRepository extends AbstractRepository<Loan> {
 	 */
     @Transactional
     public Loan createLoan(DecarbonizationAgent from, DecarbonizationAgent to, double amount, long numberOfPayments, long loanStartTime, PowerPlant plant) {
+        Loan loan = newLoan(from, to, amount, numberOfPayments, loanStartTime, plant);
+        scheduleLoan(loan, plant, loanStartTime);
+        return loan;
+    }
+
+    /**
+     * Creates, as one batch, the loans of a number of power plants between the
+     * same agents, and sets them as the loans of the plants. The loans are
+     * added to the calendar together.
+     * @param from the seller of the loans
+     * @param to the buyer of the loans
+     * @param plants the power plants the loans are connected to, which have
+     *            to be persisted already
+     * @param amounts the amount to be payed per payment, per plant
+     * @param numberOfPayments the number of payments, per plant
+     * @param loanStartTime the time the loans start
+     * @return the loans, in the order of the plants
+     */
+    @Transactional
+    public List<Loan> createLoans(DecarbonizationAgent from, DecarbonizationAgent to, List<PowerPlant> plants,
+            double[] amounts, long[] numberOfPayments, long loanStartTime) {
+        List<Loan> loans = new ArrayList<Loan>(plants.size());
+        for (int i = 0; i < plants.size(); i++) {
+            PowerPlant plant = plants.get(i);
+            if (plant.getNodeId() == null) {
+                throw new IllegalArgumentException("The power plant " + plant.getName() + " is not persisted");
+            }
+            Loan loan = newLoan(from, to, amounts[i], numberOfPayments[i], loanStartTime, plant);
+            plant.setLoan(loan);
+            loans.add(loan);
+        }
+        synchronized (this) {
+            if (loanCalendar != null) {
+                for (int i = 0; i < plants.size(); i++) {
+                    addToCalendar(new ScheduledLoan(loans.get(i), plants.get(i)), loanStartTime);
+                }
+            }
+        }
+        return loans;
+    }
+
+    private Loan newLoan(DecarbonizationAgent from, DecarbonizationAgent to, double amount, long numberOfPayments,
+            long loanStartTime, PowerPlant plant) {
         Loan loan = new Loan().persist();
         loan.setFrom(from);
         loan.setTo(to);
@@ -58,6 +128,238 @@ public class LoanRepository extends AbstractRepository<Loan> {
         return loan;
     }
 
+    /**
+     * Adds a loan of a power plant to the calendar, if the calendar is in use.
+     * @param loan
+     * @param plant the plant whose owner pays the loan
+     * @param tick the tick of the next payment
+     */
+    public synchronized void scheduleLoan(Loan loan, PowerPlant plant, long tick) {
+        if (loanCalendar == null || plant == null) {
+            return;
+        }
+        addToCalendar(new ScheduledLoan(loan, plant), tick);
+    }
+
+    /**
+     * Finds, as one batch, the loans and down payments of power plants that
+     * still need a payment at the given tick. The caller makes that payment.
+     * The loans found are scheduled again at the tick of their next payment,
+     * see {@link #getNextDueTick(Loan, long)}, unless this is their final
+     * payment.
+     * @param tick
+     * @return the loans due, with the plant whose owner pays them
+     */
+    public synchronized List<ScheduledLoan> findLoansDue(long tick) {
+        if (loanCalendar == null) {
+            buildLoanCalendar(tick);
+        }
+        List<ScheduledLoan> due = new ArrayList<ScheduledLoan>();
+        Map<Long, List<ScheduledLoan>> dueTicks = loanCalendar.headMap(tick, true);
+        for (List<ScheduledLoan> loans : dueTicks.values()) {
+            for (ScheduledLoan scheduledLoan : loans) {
+                removeFromIndex(scheduledLoan);
+                if (scheduledLoan.isActive()) {
+                    due.add(scheduledLoan);
+                }
+            }
+        }
+        dueTicks.clear();
+        for (ScheduledLoan scheduledLoan : due) {
+            Loan loan = scheduledLoan.getLoan();
+            long paymentsDone = loan.getNumberOfPaymentsDone() + 1;
+            if (paymentsDone < loan.getTotalNumberOfPayments()) {
+                addToCalendar(scheduledLoan, Math.max(tick + 1, loan.getLoanStartTime() + paymentsDone));
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Removes the loans of power plants from the calendar, e.g. before the
+     * plants are deleted.
+     */
+    public synchronized void unscheduleLoansOfPowerPlants(Iterable<PowerPlant> plants) {
+        if (loanCalendar == null) {
+            return;
+        }
+        for (PowerPlant plant : plants) {
+            List<ScheduledLoan> scheduledLoans = loansByPowerPlant.remove(plant.getNodeId());
+            if (scheduledLoans == null) {
+                continue;
+            }
+            for (ScheduledLoan scheduledLoan : scheduledLoans) {
+                List<ScheduledLoan> loans = loanCalendar.get(scheduledLoan.dueTick);
+                loans.remove(scheduledLoan);
+                if (loans.isEmpty()) {
+                    loanCalendar.remove(scheduledLoan.dueTick);
+                }
+            }
+        }
+    }
+
+    /**
+     * The payments of a loan are due at consecutive ticks from its start
+     * time. A payment that is overdue, e.g. of a loan of the scenario, is due
+     * at the given tick.
+     * @param loan
+     * @param tick the current tick
+     * @return the tick of the next payment of the loan
+     */
+    public static long getNextDueTick(Loan loan, long tick) {
+        return Math.max(tick, loan.getLoanStartTime() + loan.getNumberOfPaymentsDone());
+    }
+
+    /**
+     * Forgets the calendar, so that it is built again from the graph on next
+     * use, e.g. at the start of a new run.
+     */
+    public synchronized void resetLoanCalendar() {
+        loanCalendar = null;
+        loansByPowerPlant = null;
+    }
+
+    /**
+     * Writes the calendar as node ids of the loans and plants.
+     */
+    @Override
+    public synchronized void writeCheckpoint(long tick, DataOutputStream out) throws IOException {
+        out.writeBoolean(loanCalendar != null);
+        if (loanCalendar == null) {
+            return;
+        }
+        out.writeInt(loanCalendar.size());
+        for (Map.Entry<Long, List<ScheduledLoan>> loans : loanCalendar.entrySet()) {
+            out.writeLong(loans.getKey());
+            out.writeInt(loans.getValue().size());
+            for (ScheduledLoan scheduledLoan : loans.getValue()) {
+                out.writeLong(scheduledLoan.getLoan().getNodeId());
+                out.writeLong(scheduledLoan.getPowerPlant().getNodeId());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void readCheckpoint(long tick, DataInputStream in) throws IOException {
+        resetLoanCalendar();
+        if (!in.readBoolean()) {
+            return;
+        }
+        loanCalendar = new TreeMap<Long, List<ScheduledLoan>>();
+        loansByPowerPlant = new HashMap<Long, List<ScheduledLoan>>();
+        int ticks = in.readInt();
+        for (int i = 0; i < ticks; i++) {
+            long due = in.readLong();
+            int count = in.readInt();
+            for (int j = 0; j < count; j++) {
+                Loan loan = genericRepository.findById(Loan.class, in.readLong());
+                PowerPlant plant = genericRepository.findById(PowerPlant.class, in.readLong());
+                addToCalendar(new ScheduledLoan(loan, plant), due);
+            }
+        }
+    }
+
+    @Override
+    public void checkpointStored(long tick) {
+        // the whole state is in every checkpoint
+    }
+
+    private void buildLoanCalendar(long tick) {
+        loanCalendar = new TreeMap<Long, List<ScheduledLoan>>();
+        loansByPowerPlant = new HashMap<Long, List<ScheduledLoan>>();
+        for (PowerPlant plant : genericRepository.findAll(PowerPlant.class)) {
+            for (Loan loan : new Loan[] { plant.getLoan(), plant.getDownpayment() }) {
+                if (loan != null && loan.getNumberOfPaymentsDone() < loan.getTotalNumberOfPayments()) {
+                    addToCalendar(new ScheduledLoan(loan, plant), getNextDueTick(loan, tick));
+                }
+            }
+        }
+    }
+
+    private void addToCalendar(ScheduledLoan scheduledLoan, long tick) {
+        List<ScheduledLoan> loans = loanCalendar.get(tick);
+        if (loans == null) {
+            loans = new ArrayList<ScheduledLoan>();
+            loanCalendar.put(tick, loans);
+        }
+        loans.add(scheduledLoan);
+        scheduledLoan.dueTick = tick;
+        Long plantId = scheduledLoan.getPowerPlant().getNodeId();
+        List<ScheduledLoan> ofPlant = loansByPowerPlant.get(plantId);
+        if (ofPlant == null) {
+            ofPlant = new ArrayList<ScheduledLoan>();
+            loansByPowerPlant.put(plantId, ofPlant);
+        }
+        ofPlant.add(scheduledLoan);
+    }
+
+    private void removeFromIndex(ScheduledLoan scheduledLoan) {
+        Long plantId = scheduledLoan.getPowerPlant().getNodeId();
+        List<ScheduledLoan> ofPlant = loansByPowerPlant.get(plantId);
+        if (ofPlant != null) {
+            ofPlant.remove(scheduledLoan);
+            if (ofPlant.isEmpty()) {
+                loansByPowerPlant.remove(plantId);
+            }
+        }
+    }
+
+    /**
+     * @param plant
+     * @return the ticks at which the loan and down payment of the plant are
+     *         next due according to the calendar, empty if there are none or
+     *         the calendar is not in use
+     */
+    public synchronized List<Long> findDueTicksOfPowerPlant(PowerPlant plant) {
+        List<Long> ticks = new ArrayList<Long>();
+        if (loanCalendar != null && loansByPowerPlant.containsKey(plant.getNodeId())) {
+            for (ScheduledLoan scheduledLoan : loansByPowerPlant.get(plant.getNodeId())) {
+                ticks.add(scheduledLoan.dueTick);
+            }
+        }
+        return ticks;
+    }
+
+    /**
+     * A loan or down payment in the calendar, with the plant it is paid for.
+     */
+    public static class ScheduledLoan {
+
+        private final Loan loan;
+        private final PowerPlant powerPlant;
+        private long dueTick;
+
+        ScheduledLoan(Loan loan, PowerPlant powerPlant) {
+            this.loan = loan;
+            this.powerPlant = powerPlant;
+        }
+
+        public Loan getLoan() {
+            return loan;
+        }
+
+        public PowerPlant getPowerPlant() {
+            return powerPlant;
+        }
+
+        /**
+         * @return whether this is the down payment, rather than the loan, of
+         *         the plant
+         */
+        public boolean isDownpayment() {
+            return loan.equals(powerPlant.getDownpayment());
+        }
+
+        /**
+         * @return whether the loan still belongs to the plant and still needs
+         *         payments
+         */
+        boolean isActive() {
+            return (loan.equals(powerPlant.getLoan()) || loan.equals(powerPlant.getDownpayment()))
+                    && loan.getNumberOfPaymentsDone() < loan.getTotalNumberOfPayments();
+        }
+    }
+
     /**
      * Finds all loans that the agent has been lend to by others.  
      * @param agent
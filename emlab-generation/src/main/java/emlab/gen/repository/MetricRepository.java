@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.results.ResultsFile;
+import emlab.gen.results.ResultsWriter;
+import emlab.gen.util.Checkpointable;
+
+/**
+ * Metrics of a tick, pushed by the stages that compute them: the clearing of
+ * the electricity and CO2 markets, the settlement of payments and the
+ * investments. At the end of the tick the values are written to the results
+ * file of the run, see {@link ResultsWriter}, so reporting them needs no
+ * queries on the graph.
+ *
+ * A value is recorded for a metric and a subject, such as a technology or a
+ * zone; the column is named metric_subject, like the output of the queries.
+ * How the values of a tick are combined depends on the metric.
+ *
+ * The results file is written to the results.path of the run, named after
+ * its run.id. Without these system properties the metrics are only kept in
+ * memory. The ticks are written in chunks of results.ticksPerChunk ticks
+ * (default 16), so a process that follows the file sees a tick once its
+ * chunk is full or the run ends.
+ *
+ */
+@Repository
+public class MetricRepository implements Checkpointable {
+
+    static Logger logger = Logger.getLogger(MetricRepository.class);
+
+    public static final String TICKS_PER_CHUNK_PROPERTY = "results.ticksPerChunk";
+
+    private static final int TICKS_PER_CHUNK = 16;
+
+    /**
+     * How the values recorded in a tick are combined.
+     */
+    public enum Aggregation {
+        /** The last value set. */
+        LAST,
+        /** The sum of all values added. */
+        SUM,
+        /**
+         * The weighted mean of parts; setting a part again replaces it, so a
+         * stage that iterates only counts its last pass.
+         */
+        MEAN
+    }
+
+    public enum Metric {
+        SEGMENT_PRICE("PriceInEURperMWh", Aggregation.LAST),
+        AVERAGE_PRICE("Avg_El_PricesinEURpMWh", Aggregation.MEAN),
+        CO2_PRICE("CO2PriceInEURpTon", Aggregation.LAST),
+        CO2_EMISSIONS("CO2Emissions_inTonpA", Aggregation.SUM),
+        GENERATION("GenerationinMWh", Aggregation.SUM),
+        CAPACITY("CapacityinMW", Aggregation.SUM),
+        INVESTMENT("InvestmentinMW", Aggregation.SUM),
+        /** The cash of a producer once the payments of the tick are settled. */
+        PRODUCER_CASH("ProducerCash", Aggregation.LAST);
+
+        private final String name;
+
+        private final Aggregation aggregation;
+
+        private Metric(String name, Aggregation aggregation) {
+            this.name = name;
+            this.aggregation = aggregation;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Aggregation getAggregation() {
+            return aggregation;
+        }
+
+        String column(String subject) {
+            return subject == null ? name : name + "_" + subject;
+        }
+
+    }
+
+    /**
+     * Sums collected apart, for instance by a parallel task, and added in
+     * one go with {@link MetricRepository#add(Sums)}.
+     */
+    public static class Sums {
+
+        private final Map<String, Double> sums = new LinkedHashMap<String, Double>();
+
+        public void add(Metric metric, String subject, double value) {
+            check(metric, Aggregation.SUM);
+            String column = metric.column(subject);
+            Double sum = sums.get(column);
+            sums.put(column, sum == null ? value : sum + value);
+        }
+
+        /**
+         * Adds the capacity, generation and emissions of an operational
+         * plant, so that every way of settling a tick records the same
+         * columns.
+         * @param output the electricity the plant produced in the tick, in MWh
+         */
+        public void addPowerPlant(PowerPlant plant, double output) {
+            String technology = plant.getTechnology().getName();
+            add(Metric.CAPACITY, technology, plant.getActualNominalCapacity());
+            add(Metric.GENERATION, technology, output);
+            add(Metric.CO2_EMISSIONS, null, plant.calculateEmissionIntensity() * output);
+        }
+
+    }
+
+    private final Map<String, Cell> cells = new LinkedHashMap<String, Cell>();
+
+    private Map<String, Double> values = Collections.emptyMap();
+
+    private ResultsWriter writer;
+
+    private boolean opened;
+
+    // the values of the ticks since the last checkpoint, or, when the run is
+    // resumed, the values of the ticks before it
+    private final TreeMap<Long, Map<String, Double>> checkpointValues = new TreeMap<Long, Map<String, Double>>();
+
+    private boolean resumed;
+
+    public synchronized void set(Metric metric, String subject, double value) {
+        check(metric, Aggregation.LAST);
+        cell(metric.column(subject)).value = value;
+    }
+
+    public synchronized void add(Metric metric, String subject, double value) {
+        check(metric, Aggregation.SUM);
+        cell(metric.column(subject)).value += value;
+    }
+
+    public synchronized void add(Sums sums) {
+        for (Map.Entry<String, Double> sum : sums.sums.entrySet()) {
+            cell(sum.getKey()).value += sum.getValue();
+        }
+    }
+
+    /**
+     * Sets one part of a weighted mean.
+     */
+    public synchronized void set(Metric metric, String subject, Object part, double value, double weight) {
+        check(metric, Aggregation.MEAN);
+        Cell cell = cell(metric.column(subject));
+        if (cell.parts == null) {
+            cell.parts = new LinkedHashMap<Object, double[]>();
+        }
+        cell.parts.put(part, new double[] { value, weight });
+    }
+
+    private Cell cell(String column) {
+        Cell cell = cells.get(column);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(column, cell);
+        }
+        return cell;
+    }
+
+    private static void check(Metric metric, Aggregation aggregation) {
+        if (metric.getAggregation() != aggregation) {
+            throw new IllegalArgumentException(metric + " is aggregated by " + metric.getAggregation() + ", not "
+                    + aggregation);
+        }
+    }
+
+    /**
+     * Ends the tick: combines the values recorded in it, records them in the
+     * results file and starts a new tick. The file is only written when a
+     * chunk is full.
+     */
+    public synchronized void flush(long tick) {
+        Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, Cell> cell : cells.entrySet()) {
+            values.put(cell.getKey(), cell.getValue().getValue());
+        }
+        cells.clear();
+        this.values = Collections.unmodifiableMap(values);
+
+        ResultsWriter writer = getWriter();
+        checkpointValues.put(tick, this.values);
+        if (writer != null) {
+            try {
+                for (Map.Entry<String, Double> value : values.entrySet()) {
+                    writer.record(tick, value.getKey(), value.getValue());
+                }
+            } catch (IOException e) {
+                logger.error("Cannot write the metrics of tick " + tick + ", only keeping them in memory", e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * @return the values of the last tick that was flushed, by column
+     */
+    public synchronized Map<String, Double> getValues() {
+        return values;
+    }
+
+    /**
+     * Drops the values of the tick and starts a new results file.
+     */
+    public synchronized void reset() {
+        close();
+        cells.clear();
+        values = Collections.emptyMap();
+        opened = false;
+        checkpointValues.clear();
+        resumed = false;
+    }
+
+    /**
+     * Writes the values of the ticks flushed since the previous stored
+     * checkpoint, so that a resumed run can write the whole results file
+     * again.
+     */
+    @Override
+    public synchronized void writeCheckpoint(long tick, DataOutputStream out) throws IOException {
+        out.writeInt(checkpointValues.size());
+        for (Map.Entry<Long, Map<String, Double>> values : checkpointValues.entrySet()) {
+            out.writeLong(values.getKey());
+            out.writeInt(values.getValue().size());
+            for (Map.Entry<String, Double> value : values.getValue().entrySet()) {
+                out.writeUTF(value.getKey());
+                out.writeDouble(value.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void checkpointStored(long tick) {
+        checkpointValues.headMap(tick, true).clear();
+    }
+
+    @Override
+    public synchronized void readCheckpoint(long tick, DataInputStream in) throws IOException {
+        if (!resumed) {
+            reset();
+            resumed = true;
+        }
+        int ticks = in.readInt();
+        for (int i = 0; i < ticks; i++) {
+            long valuesTick = in.readLong();
+            Map<String, Double> values = new LinkedHashMap<String, Double>();
+            int count = in.readInt();
+            for (int j = 0; j < count; j++) {
+                values.put(in.readUTF(), in.readDouble());
+            }
+            checkpointValues.put(valuesTick, values);
+        }
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error("Cannot close the results file", e);
+            }
+            writer = null;
+        }
+    }
+
+    private ResultsWriter getWriter() {
+        if (!opened) {
+            opened = true;
+            String path = System.getProperty("results.path");
+            String runId = System.getProperty("run.id");
+            if (path != null && runId != null) {
+                File file = new File(path, runId + ResultsFile.EXTENSION);
+                try {
+                    writer = new ResultsWriter(file, runId, Integer.getInteger(TICKS_PER_CHUNK_PROPERTY,
+                            TICKS_PER_CHUNK));
+                    if (resumed) {
+                        // the ticks before the checkpoint the run resumed from
+                        for (Map.Entry<Long, Map<String, Double>> values : checkpointValues.entrySet()) {
+                            for (Map.Entry<String, Double> value : values.getValue().entrySet()) {
+                                writer.record(values.getKey(), value.getKey(), value.getValue());
+                            }
+                        }
+                        checkpointValues.clear();
+                        resumed = false;
+                    }
+                    logger.info("Writing metrics to " + file);
+                } catch (IOException e) {
+                    logger.error("Cannot create " + file + ", only keeping the metrics in memory", e);
+                }
+            }
+        }
+        return writer;
+    }
+
+    private static class Cell {
+
+        double value;
+
+        Map<Object, double[]> parts;
+
+        double getValue() {
+            if (parts == null) {
+                return value;
+            }
+            double sum = 0d;
+            double weights = 0d;
+            for (double[] part : parts.values()) {
+                sum += part[0] * part[1];
+                weights += part[1];
+            }
+            return weights > 0 ? sum / weights : Double.NaN;
+        }
+
+    }
+
+}
@@ -16,10 +16,12 @@
 package emlab.gen.repository;
 
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import emlab.gen.domain.agent.DecarbonizationAgent;
 import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.TransientCashFlow;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.technology.PowerPlant;
@@ -32,8 +34,19 @@ import emlab.gen.domain.technology.PowerPlant;
 @Repository
 public class NonTransactionalCreateRepository extends AbstractRepository<CashFlow> {
 
+	@Autowired
+	CashFlowLedgerRepository cashFlowLedgerRepository;
+
+	@Autowired
+	PowerPlantFinancesRepository powerPlantFinancesRepository;
+
+	@Autowired
+	AgentBalanceRepository agentBalanceRepository;
+
 	/**
-	 * Creates cash flow.
+	 * Creates cash flow. If the cash flow ledger is enabled, the cash flow is
+	 * booked in the ledger instead and no node is created. The cash of the
+	 * agents is changed through the {@link AgentBalanceRepository}.
 	 * Note: this is not transactional, so when called, it should be transactional there!
 	 * @param from 
 	 * @param to
@@ -41,11 +54,73 @@ public class NonTransactionalCreateRepository extends AbstractRepository<CashFlo
 	 * @param type what the cashflow is about
 	 * @param time the time
 	 * @param plant the power plant related to this cash flow
-	 * @return the cash flow
+	 * @return the cash flow, null if booked in the ledger
 	 */
 	public CashFlow createCashFlow(DecarbonizationAgent from,
 			DecarbonizationAgent to, double amount, int type, long time,
 			PowerPlant plant) {
+		agentBalanceRepository.transfer(from, to, amount);
+		return book(from, to, amount, type, time, plant);
+	}
+	
+
+	/**
+	 * Creates a cash flow of equal instalments over a number of consecutive
+	 * time steps, e.g. the down payments during construction. The cash of
+	 * both agents is changed once for the total amount.
+	 * Note: this is not transactional, so when called, it should be transactional there!
+	 * @param from
+	 * @param to
+	 * @param totalAmount the money transfered over all time steps
+	 * @param type what the cashflow is about
+	 * @param firstTime the time of the first instalment
+	 * @param numberOfTimeSteps the number of instalments
+	 * @param plant the power plant related to this cash flow
+	 */
+	public void createSpreadOutCashFlows(DecarbonizationAgent from,
+			DecarbonizationAgent to, double totalAmount, int type, long firstTime,
+			int numberOfTimeSteps, PowerPlant plant) {
+		if (numberOfTimeSteps <= 0) {
+			return;
+		}
+		double instalment = totalAmount / numberOfTimeSteps;
+		for (int i = 0; i < numberOfTimeSteps; i++) {
+			book(from, to, instalment, type, firstTime + i, plant);
+		}
+		agentBalanceRepository.transfer(from, to, instalment * numberOfTimeSteps);
+	}
+
+	/**
+	 * Books cash flows without changing the cash of the agents, for callers
+	 * that settle the cash in aggregate. The cash flows end up in the ledger if
+	 * it is enabled, as nodes otherwise.
+	 * Note: this is not transactional, so when called, it should be transactional there!
+	 * @param cashFlows
+	 */
+	public void bookCashFlows(Iterable<TransientCashFlow> cashFlows) {
+		for (TransientCashFlow flow : cashFlows) {
+			book(flow.getFrom(), flow.getTo(), flow.getMoney(), flow.getType(), flow.getTime(),
+					flow.getRegardingPowerPlant());
+		}
+	}
+
+	/**
+	 * Books a cash flow in the accounts of the plant, and in the ledger if it
+	 * is enabled or as a node otherwise. The cash of the agents is left alone.
+	 * A plant that is not persisted yet is persisted first, as the accounts
+	 * and the ledger refer to it by node id.
+	 * @return the cash flow, null if booked in the ledger
+	 */
+	private CashFlow book(DecarbonizationAgent from, DecarbonizationAgent to, double amount, int type, long time,
+			PowerPlant plant) {
+		if (plant != null && plant.getNodeId() == null) {
+			plant.persist();
+		}
+		powerPlantFinancesRepository.recordCashFlow(from, to, amount, type, time, plant);
+		if (cashFlowLedgerRepository.isEnabled()) {
+			cashFlowLedgerRepository.append(from, to, amount, type, time, plant);
+			return null;
+		}
 		CashFlow cashFlow = new CashFlow().persist();
 		cashFlow.setFrom(from);
 		cashFlow.setTo(to);
@@ -53,14 +128,8 @@ public class NonTransactionalCreateRepository extends AbstractRepository<CashFlo
 		cashFlow.setType(type);
 		cashFlow.setTime(time);
 		cashFlow.setRegardingPowerPlant(plant);
-		from.setCash(from.getCash() - amount);
-		if (to != null) {
-			to.setCash(to.getCash() + amount);
-		}
-
 		return cashFlow;
 	}
-	
 
     /**
      * Submit bids to a market. 
@@ -39,6 +39,9 @@ public interface PowerGeneratingTechnologyNodeLimitRepository extends
 	PowerGeneratingTechnologyNodeLimit findOneByTechnologyAndMarket(@Param("tech") PowerGeneratingTechnology tech,
 			@Param("market") ElectricitySpotMarket market);
 	
+	@Query(value = "g.v(market).out('ZONE').in('REGION').in('NODEPGTLIMIT_NODE')", type = QueryType.Gremlin)
+	Iterable<PowerGeneratingTechnologyNodeLimit> findAllByMarket(@Param("market") ElectricitySpotMarket market);
+
 	@Query(value = "result = g.v(node).in('NODEPGTLIMIT_NODE').as('x').out('NODEPGTLIMIT_PGT').idFilter(tech, FilterPipe.Filter.EQUAL).back('x'); ;"
 			+ "if(!result.hasNext()){return null;} else{return result.next();}", type = QueryType.Gremlin)
 	PowerGeneratingTechnologyNodeLimit findOneByTechnologyAndNode(@Param("tech") PowerGeneratingTechnology tech,
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.StrategicReserveOperator;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.Checkpointable;
+
+/**
+ * Rolling financial accounts per power plant: revenue, fuel cost, CO2 cost
+ * and fixed operating and maintenance cost per tick, kept for a limited
+ * number of past ticks. The accounts are updated as cash flows regarding a
+ * plant are booked, so that the past operating profit of a plant can be read
+ * without going through the graph.
+ *
+ */
+@Repository
+public class PowerPlantFinancesRepository implements Checkpointable {
+
+    public static final int REVENUE = 0;
+    public static final int FUEL_COST = 1;
+    public static final int CO2_COST = 2;
+    public static final int FIXED_OM_COST = 3;
+
+    private int numberOfTicksKept = 50;
+
+    private final Map<Long, Account> accounts = new HashMap<Long, Account>();
+
+    public int getNumberOfTicksKept() {
+        return numberOfTicksKept;
+    }
+
+    /**
+     * Sets the number of past ticks kept per plant. Applies to accounts
+     * opened after the call.
+     */
+    public void setNumberOfTicksKept(int numberOfTicksKept) {
+        this.numberOfTicksKept = numberOfTicksKept;
+    }
+
+    /**
+     * Books a cash flow in the account of the plant it regards, if it is
+     * about the operation of the plant.
+     */
+    public void recordCashFlow(DecarbonizationAgent from, DecarbonizationAgent to, double money, int type, long time,
+            PowerPlant plant) {
+        if (plant == null) {
+            return;
+        }
+        if (type == CashFlow.ELECTRICITY_SPOT) {
+            record(plant, REVENUE, time, money);
+        } else if (type == CashFlow.STRRESPAYMENT) {
+            // the reserve operator either pays the owner, or receives the
+            // money above the reserve price back
+            record(plant, REVENUE, time, from instanceof StrategicReserveOperator ? money : -money);
+        } else if (type == CashFlow.FIXEDOMCOST) {
+            record(plant, FIXED_OM_COST, time, money);
+        } else if (type == CashFlow.CO2TAX || type == CashFlow.CO2AUCTION || type == CashFlow.NATIONALMINCO2) {
+            record(plant, CO2_COST, time, money);
+        }
+    }
+
+    /**
+     * Books the fuel cost of a plant; fuel is bought per agent, so there is
+     * no cash flow regarding the plant.
+     */
+    public void recordFuelCost(PowerPlant plant, long time, double cost) {
+        record(plant, FUEL_COST, time, cost);
+    }
+
+    public synchronized void record(PowerPlant plant, int category, long time, double amount) {
+        Account account = accounts.get(plant.getNodeId());
+        if (account == null) {
+            account = new Account(numberOfTicksKept);
+            accounts.put(plant.getNodeId(), account);
+        }
+        account.add(category, time, amount);
+    }
+
+    /**
+     * @return the sum of a category for a plant over the ticks from and to,
+     *         both inclusive, as far as they are kept
+     */
+    public synchronized double getSum(PowerPlant plant, int category, long fromTime, long toTime) {
+        Account account = accounts.get(plant.getNodeId());
+        return account == null ? 0d : account.sum(category, fromTime, toTime);
+    }
+
+    /**
+     * @return revenue minus fuel, CO2 and fixed operating and maintenance
+     *         cost of a plant over the ticks from and to, both inclusive
+     */
+    public synchronized double calculateOperatingProfit(PowerPlant plant, long fromTime, long toTime) {
+        Account account = accounts.get(plant.getNodeId());
+        if (account == null) {
+            return 0d;
+        }
+        return account.sum(REVENUE, fromTime, toTime) - account.sum(FUEL_COST, fromTime, toTime)
+                - account.sum(CO2_COST, fromTime, toTime) - account.sum(FIXED_OM_COST, fromTime, toTime);
+    }
+
+    public synchronized void reset() {
+        accounts.clear();
+    }
+
+    /**
+     * Writes all accounts; they change every tick.
+     */
+    @Override
+    public synchronized void writeCheckpoint(long tick, DataOutputStream out) throws IOException {
+        out.writeInt(accounts.size());
+        for (Map.Entry<Long, Account> account : accounts.entrySet()) {
+            out.writeLong(account.getKey());
+            account.getValue().write(out);
+        }
+    }
+
+    @Override
+    public synchronized void readCheckpoint(long tick, DataInputStream in) throws IOException {
+        accounts.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            accounts.put(in.readLong(), Account.read(in));
+        }
+    }
+
+    @Override
+    public void checkpointStored(long tick) {
+        // the whole state is in every checkpoint
+    }
+
+    /**
+     * Ring buffers with the cumulative sum per category up to and including
+     * each kept tick, so that the sum over any kept range is one subtraction.
+     */
+    public static class Account {
+
+        private static final int NUMBER_OF_CATEGORIES = 4;
+
+        // one slot more than the ticks kept, for the sum before the oldest
+        private final int slots;
+        private final double[][] cumulative;
+        private long lastTick;
+        private long firstTick;
+        private boolean empty = true;
+
+        public Account(int numberOfTicksKept) {
+            slots = numberOfTicksKept + 1;
+            cumulative = new double[NUMBER_OF_CATEGORIES][slots];
+        }
+
+        public void add(int category, long tick, double amount) {
+            advanceTo(tick);
+            // late bookings are added to all later sums that are kept; those
+            // from before the first tick count as the first tick
+            for (long t = Math.max(Math.max(tick, firstTick), lastTick - slots + 1); t <= lastTick; t++) {
+                cumulative[category][slot(t)] += amount;
+            }
+        }
+
+        public double sum(int category, long fromTick, long toTick) {
+            if (empty || toTick < fromTick) {
+                return 0d;
+            }
+            return cumulativeAt(category, toTick) - cumulativeAt(category, fromTick - 1);
+        }
+
+        private double cumulativeAt(int category, long tick) {
+            if (tick < firstTick) {
+                return 0d;
+            }
+            long t = Math.max(Math.min(tick, lastTick), lastTick - slots + 1);
+            return cumulative[category][slot(t)];
+        }
+
+        private void advanceTo(long tick) {
+            if (empty) {
+                empty = false;
+                firstTick = tick;
+                lastTick = tick - 1;
+            }
+            if (tick - lastTick >= slots) {
+                // nothing booked in a range longer than what is kept
+                for (int c = 0; c < NUMBER_OF_CATEGORIES; c++) {
+                    double last = cumulative[c][slot(lastTick)];
+                    for (int s = 0; s < slots; s++) {
+                        cumulative[c][s] = last;
+                    }
+                }
+                lastTick = tick;
+                return;
+            }
+            while (lastTick < tick) {
+                lastTick++;
+                for (int c = 0; c < NUMBER_OF_CATEGORIES; c++) {
+                    cumulative[c][slot(lastTick)] = cumulative[c][slot(lastTick - 1)];
+                }
+            }
+        }
+
+        private int slot(long tick) {
+            int slot = (int) (tick % slots);
+            return slot < 0 ? slot + slots : slot;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(slots - 1);
+            out.writeBoolean(empty);
+            out.writeLong(firstTick);
+            out.writeLong(lastTick);
+            for (double[] sums : cumulative) {
+                for (double sum : sums) {
+                    out.writeDouble(sum);
+                }
+            }
+        }
+
+        static Account read(DataInputStream in) throws IOException {
+            Account account = new Account(in.readInt());
+            account.empty = in.readBoolean();
+            account.firstTick = in.readLong();
+            account.lastTick = in.readLong();
+            for (double[] sums : account.cumulative) {
+                for (int s = 0; s < sums.length; s++) {
+                    sums[s] = in.readDouble();
+                }
+            }
+            return account;
+        }
+    }
+
+}
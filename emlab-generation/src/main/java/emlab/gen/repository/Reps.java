@@ -32,6 +32,12 @@ public class Reps {
     @Autowired
     public BidRepository bidRepository;
 
+    @Autowired
+    public BidBookRepository bidBookRepository;
+
+    @Autowired
+    public AcceptedVolumeRepository acceptedVolumeRepository;
+
     @Autowired
     public ClearingPointRepositoryOld clearingPointRepositoryOld;
 
@@ -50,6 +56,23 @@ public class Reps {
     @Autowired
     public CashFlowRepository cashFlowRepository;
 
+    @Autowired
+    public CashFlowLedgerRepository cashFlowLedgerRepository;
+
+    @Autowired
+    public PowerPlantFinancesRepository powerPlantFinancesRepository;
+
+    @Autowired
+    public AgentBalanceRepository agentBalanceRepository;
+
+    @Autowired
+    public TrendTableRepository trendTableRepository;
+    @Autowired
+    public MetricRepository metricRepository;
+
+    @Autowired
+    public CheckpointRepository checkpointRepository;
+
     @Autowired
     public SegmentLoadRepository segmentLoadRepository;
 
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.trend.TimeSeriesImpl;
+import emlab.gen.trend.TrendTable;
+import emlab.gen.util.Checkpointable;
+
+/**
+ * Compiled {@link TrendTable}s of the time series in the model, by node id.
+ * All time series are compiled over the simulation horizon after
+ * initialization; a time series that was not compiled then is compiled when
+ * it is first asked for. Trends do not change during a run, so the tables
+ * are only dropped when a new run starts.
+ *
+ * The tables of the trends of the markets and governments are also kept by
+ * the node id of their owner, so that a stage that reads, for instance, the
+ * demand growth of a market gets its table without loading the relationship
+ * to the trend. Hot loops get the table once and keep it.
+ *
+ */
+@Repository
+public class TrendTableRepository implements Checkpointable {
+
+    static Logger logger = Logger.getLogger(TrendTableRepository.class);
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    private final ConcurrentMap<Long, TrendTable> tables = new ConcurrentHashMap<Long, TrendTable>();
+
+    // by node id of the market or government
+    private final ConcurrentMap<Long, TrendTable> demandGrowthTrends = new ConcurrentHashMap<Long, TrendTable>();
+    private final ConcurrentMap<Long, TrendTable> co2TaxTrends = new ConcurrentHashMap<Long, TrendTable>();
+    private final ConcurrentMap<Long, TrendTable> co2CapTrends = new ConcurrentHashMap<Long, TrendTable>();
+    private final ConcurrentMap<Long, TrendTable> minCo2PriceTrends = new ConcurrentHashMap<Long, TrendTable>();
+    private final ConcurrentMap<Long, TrendTable> minNationalCo2PriceTrends = new ConcurrentHashMap<Long, TrendTable>();
+
+    private volatile long horizon;
+
+    /**
+     * Compiles all time series from tick 0 up to and including the horizon.
+     */
+    public void compileAll(long horizon) {
+        reset();
+        this.horizon = horizon;
+        int count = 0;
+        for (TimeSeriesImpl timeSeries : genericRepository.findAll(TimeSeriesImpl.class)) {
+            get(timeSeries);
+            count++;
+        }
+        for (ElectricitySpotMarket market : genericRepository.findAll(ElectricitySpotMarket.class)) {
+            getDemandGrowthTrend(market);
+        }
+        for (Government government : genericRepository.findAll(Government.class)) {
+            getCo2TaxTrend(government);
+            getCo2CapTrend(government);
+            getMinCo2PriceTrend(government);
+        }
+        for (NationalGovernment government : genericRepository.findAll(NationalGovernment.class)) {
+            getMinNationalCo2PriceTrend(government);
+        }
+        logger.info("Compiled " + count + " time series up to tick " + horizon);
+    }
+
+    /**
+     * @return the table of a time series, compiled if it was not yet
+     */
+    public TrendTable get(TimeSeriesImpl timeSeries) {
+        Long id = timeSeries.getNodeId();
+        TrendTable table = tables.get(id);
+        if (table == null) {
+            long firstTime = Math.min(0, (long) timeSeries.getStartingYear());
+            table = TrendTable.compile(timeSeries, firstTime, horizon);
+            TrendTable existing = tables.putIfAbsent(id, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    public double getValue(TimeSeriesImpl timeSeries, long time) {
+        return get(timeSeries).getValue(time);
+    }
+
+    public TrendTable getDemandGrowthTrend(ElectricitySpotMarket market) {
+        TrendTable table = demandGrowthTrends.get(market.getNodeId());
+        return table != null ? table : resolve(demandGrowthTrends, market.getNodeId(), market.getDemandGrowthTrend());
+    }
+
+    public TrendTable getCo2TaxTrend(Government government) {
+        TrendTable table = co2TaxTrends.get(government.getNodeId());
+        return table != null ? table : resolve(co2TaxTrends, government.getNodeId(), government.getCo2TaxTrend());
+    }
+
+    public TrendTable getCo2CapTrend(Government government) {
+        TrendTable table = co2CapTrends.get(government.getNodeId());
+        return table != null ? table : resolve(co2CapTrends, government.getNodeId(), government.getCo2CapTrend());
+    }
+
+    public TrendTable getMinCo2PriceTrend(Government government) {
+        TrendTable table = minCo2PriceTrends.get(government.getNodeId());
+        return table != null ? table : resolve(minCo2PriceTrends, government.getNodeId(),
+                government.getMinCo2PriceTrend());
+    }
+
+    public TrendTable getMinNationalCo2PriceTrend(NationalGovernment government) {
+        TrendTable table = minNationalCo2PriceTrends.get(government.getNodeId());
+        return table != null ? table : resolve(minNationalCo2PriceTrends, government.getNodeId(),
+                government.getMinNationalCo2PriceTrend());
+    }
+
+    /**
+     * @return the table of the trend of an owner, null if it has none
+     */
+    private TrendTable resolve(ConcurrentMap<Long, TrendTable> handles, Long owner, TimeSeriesImpl timeSeries) {
+        if (timeSeries == null) {
+            return null;
+        }
+        TrendTable table = get(timeSeries);
+        handles.putIfAbsent(owner, table);
+        return table;
+    }
+
+    public void reset() {
+        tables.clear();
+        demandGrowthTrends.clear();
+        co2TaxTrends.clear();
+        co2CapTrends.clear();
+        minCo2PriceTrends.clear();
+        minNationalCo2PriceTrends.clear();
+    }
+
+    /**
+     * Only the horizon is kept; the tables follow from the trends in the
+     * graph and are compiled again when first asked for.
+     */
+    @Override
+    public void writeCheckpoint(long tick, DataOutputStream out) throws IOException {
+        out.writeLong(horizon);
+    }
+
+    @Override
+    public void readCheckpoint(long tick, DataInputStream in) throws IOException {
+        reset();
+        horizon = in.readLong();
+    }
+
+    @Override
+    public void checkpointStored(long tick) {
+        // the whole state is in every checkpoint
+    }
+
+}
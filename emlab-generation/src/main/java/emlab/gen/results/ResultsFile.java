@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.results;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The columnar results format, for one run or a merged batch of runs. All
+ * numbers are big endian:
+ *
+ * <pre>
+ * int     0x454d5252 ("EMRR")
+ * int     version (1)
+ * records until the end of the file:
+ *   byte  1 (name): int length, UTF-8 bytes
+ *   byte  2 (chunk): int run, long firstTick, int ticks, int columns, and per column
+ *         int metric, int length, the zlib compressed doubles of the ticks
+ * </pre>
+ *
+ * Run ids and metric names are encoded in one dictionary: the n-th name record
+ * defines name n, before a chunk uses it. Missing values are NaN. A file of a
+ * run that was stopped ends in the middle of a record, which is ignored.
+ * Readers for R and Python are in the rscripts folder.
+ *
+ */
+public final class ResultsFile {
+
+    static final Logger logger = LoggerFactory.getLogger(ResultsFile.class);
+
+    public static final String EXTENSION = ".emr";
+
+    static final int MAGIC = 0x454d5252;
+
+    static final int VERSION = 1;
+
+    static final byte NAME = 1;
+
+    static final byte CHUNK = 2;
+
+    private ResultsFile() {
+    }
+
+    /**
+     * Merges the results of runs into one batch file. The compressed columns
+     * are copied as they are.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ResultsFile <batch" + EXTENSION + "> <run" + EXTENSION + "|folder>...");
+            System.exit(2);
+        }
+        List<File> inputs = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            File input = new File(args[i]);
+            File[] files = input.listFiles();
+            if (files == null) {
+                inputs.add(input);
+            } else {
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.getName().endsWith(EXTENSION)) {
+                        inputs.add(file);
+                    }
+                }
+            }
+        }
+        merge(inputs, new File(args[0]));
+    }
+
+    /**
+     * The dictionary of a file that is written.
+     */
+    static final class Names {
+
+        private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+        int indexOf(String name, DataOutputStream out) throws IOException {
+            Integer index = indices.get(name);
+            if (index == null) {
+                index = indices.size();
+                indices.put(name, index);
+                byte[] bytes = name.getBytes("UTF-8");
+                out.writeByte(NAME);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            return index;
+        }
+
+    }
+
+    /**
+     * The results of one run: a column of values per metric, indexed by tick.
+     */
+    public static final class Run {
+
+        private final String id;
+
+        private final Map<String, double[]> columns = new LinkedHashMap<String, double[]>();
+
+        private int ticks;
+
+        Run(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the number of ticks, from tick 0
+         */
+        public int getTicks() {
+            return ticks;
+        }
+
+        public List<String> getMetrics() {
+            return new ArrayList<String>(columns.keySet());
+        }
+
+        /**
+         * @return the values of the metric by tick, NaN where it was not
+         *         recorded
+         */
+        public double[] get(String metric) {
+            double[] column = columns.get(metric);
+            double[] values = new double[ticks];
+            Arrays.fill(values, Double.NaN);
+            if (column != null) {
+                System.arraycopy(column, 0, values, 0, Math.min(column.length, ticks));
+            }
+            return values;
+        }
+
+        void put(String metric, long firstTick, double[] values) {
+            int end = (int) firstTick + values.length;
+            double[] column = columns.get(metric);
+            if (column == null || column.length < end) {
+                double[] grown = new double[Math.max(end, column == null ? 0 : 2 * column.length)];
+                Arrays.fill(grown, Double.NaN);
+                if (column != null) {
+                    System.arraycopy(column, 0, grown, 0, column.length);
+                }
+                columns.put(metric, column = grown);
+            }
+            System.arraycopy(values, 0, column, (int) firstTick, values.length);
+            ticks = Math.max(ticks, end);
+        }
+
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    static void writeChunk(DataOutputStream out, int run, long firstTick, int ticks, Map<Integer, double[]> columns)
+            throws IOException {
+        out.writeByte(CHUNK);
+        out.writeInt(run);
+        out.writeLong(firstTick);
+        out.writeInt(ticks);
+        out.writeInt(columns.size());
+        ByteBuffer buffer = ByteBuffer.allocate(8 * ticks);
+        for (Map.Entry<Integer, double[]> column : columns.entrySet()) {
+            buffer.clear();
+            buffer.asDoubleBuffer().put(column.getValue(), 0, ticks);
+            byte[] compressed = compress(buffer.array());
+            out.writeInt(column.getKey());
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        }
+    }
+
+    /**
+     * @return the runs in the file by run id
+     */
+    public static Map<String, Run> read(File file) throws IOException {
+        final Map<String, Run> runs = new LinkedHashMap<String, Run>();
+        scan(file, new ChunkHandler() {
+            @Override
+            public void column(String run, long firstTick, int ticks, String metric, byte[] compressed)
+                    throws IOException {
+                Run results = runs.get(run);
+                if (results == null) {
+                    runs.put(run, results = new Run(run));
+                }
+                double[] values = new double[ticks];
+                ByteBuffer.wrap(decompress(compressed, 8 * ticks)).asDoubleBuffer().get(values);
+                results.put(metric, firstTick, values);
+            }
+        });
+        return runs;
+    }
+
+    /**
+     * Writes the chunks of all inputs to one file with one dictionary.
+     */
+    public static void merge(List<File> inputs, File output) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            writeHeader(out);
+            final Names names = new Names();
+            for (File input : inputs) {
+                scan(input, new ChunkHandler() {
+                    @Override
+                    public void column(String run, long firstTick, int ticks, String metric, byte[] compressed)
+                            throws IOException {
+                        int runIndex = names.indexOf(run, out);
+                        int metricIndex = names.indexOf(metric, out);
+                        out.writeByte(CHUNK);
+                        out.writeInt(runIndex);
+                        out.writeLong(firstTick);
+                        out.writeInt(ticks);
+                        out.writeInt(1);
+                        out.writeInt(metricIndex);
+                        out.writeInt(compressed.length);
+                        out.write(compressed);
+                    }
+                });
+            }
+        } finally {
+            out.close();
+        }
+        logger.warn("Merged {} results files into {}", inputs.size(), output);
+    }
+
+    interface ChunkHandler {
+
+        void column(String run, long firstTick, int ticks, String metric, byte[] compressed) throws IOException;
+
+    }
+
+    /**
+     * Passes the columns of the complete chunks of a file to the handler.
+     */
+    static void scan(File file, ChunkHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a results file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unknown version " + version);
+            }
+            List<String> names = new ArrayList<String>();
+            while (true) {
+                int record = in.read();
+                if (record < 0) {
+                    return;
+                }
+                if (record == NAME) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    names.add(new String(bytes, "UTF-8"));
+                } else if (record == CHUNK) {
+                    String run = names.get(in.readInt());
+                    long firstTick = in.readLong();
+                    int ticks = in.readInt();
+                    int columns = in.readInt();
+                    String[] metrics = new String[columns];
+                    byte[][] compressed = new byte[columns][];
+                    for (int i = 0; i < columns; i++) {
+                        metrics[i] = names.get(in.readInt());
+                        compressed[i] = new byte[in.readInt()];
+                        in.readFully(compressed[i]);
+                    }
+                    for (int i = 0; i < columns; i++) {
+                        handler.column(run, firstTick, ticks, metrics[i], compressed[i]);
+                    }
+                } else {
+                    throw new IOException(file + " has an unknown record " + record);
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("Ignored the incomplete last record of {}", file);
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompress(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IOException("A column has " + read + " instead of " + length + " bytes");
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException("A column is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
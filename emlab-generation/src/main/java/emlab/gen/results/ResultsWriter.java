@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.results;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the tick indexed metrics of a run to a {@link ResultsFile}. The
+ * values of a number of ticks are kept in columns and then written as one
+ * chunk, so that a run that is stopped only loses its last chunk and other
+ * processes can follow the results while the run goes on. Metrics that are
+ * not recorded in a tick are NaN.
+ *
+ */
+public class ResultsWriter implements Closeable {
+
+    private final DataOutputStream out;
+
+    private final ResultsFile.Names names = new ResultsFile.Names();
+
+    private final int run;
+
+    private final int ticksPerChunk;
+
+    private final Map<Integer, double[]> columns = new LinkedHashMap<Integer, double[]>();
+
+    private long firstTick = 0;
+
+    private long lastTick = -1;
+
+    /**
+     * Starts a new file for a run.
+     */
+    public ResultsWriter(File file, String runId, int ticksPerChunk) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.ticksPerChunk = ticksPerChunk;
+        ResultsFile.writeHeader(out);
+        this.run = names.indexOf(runId, out);
+    }
+
+    public synchronized void record(long tick, String metric, double value) throws IOException {
+        if (tick < firstTick) {
+            throw new IllegalArgumentException("Tick " + tick + " of " + metric + " is already written");
+        }
+        if (tick >= firstTick + ticksPerChunk) {
+            flush();
+            firstTick = tick;
+        }
+        Integer index = names.indexOf(metric, out);
+        double[] column = columns.get(index);
+        if (column == null) {
+            column = new double[ticksPerChunk];
+            Arrays.fill(column, Double.NaN);
+            columns.put(index, column);
+        }
+        column[(int) (tick - firstTick)] = value;
+        lastTick = Math.max(lastTick, tick);
+    }
+
+    /**
+     * Writes the ticks recorded so far as a chunk. Recording continues after
+     * the last tick written.
+     */
+    public synchronized void flush() throws IOException {
+        if (lastTick >= firstTick) {
+            int ticks = (int) (lastTick - firstTick + 1);
+            ResultsFile.writeChunk(out, run, firstTick, ticks, columns);
+            columns.clear();
+            firstTick = lastTick + 1;
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+}
@@ -34,7 +34,6 @@ import org.apache.commons.math.stat.regression.SimpleRegression;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import agentspring.role.AbstractRole;
-import agentspring.trend.GeometricTrend;
 import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.Government;
@@ -42,6 +41,7 @@ import emlab.gen.domain.market.CO2Auction;
 import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PlantCandidate;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
@@ -269,8 +269,8 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
         double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
-        double nationalMinCo2price = reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(powerPlant)
-                .getMinNationalCo2PriceTrend().getValue(getCurrentTick());
+        double nationalMinCo2price = reps.trendTableRepository.getMinNationalCo2PriceTrend(
+                reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(powerPlant)).getValue(getCurrentTick());
         double paymentEffectivePartOfNationalCO2;
         if (nationalMinCo2price > co2Price)
             paymentEffectivePartOfNationalCO2 = nationalMinCo2price - co2Price;
@@ -282,7 +282,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     public double calculateCO2TaxMarginalCost(PowerPlant powerPlant) {
         double co2Intensity = powerPlant.calculateEmissionIntensity();
         Government government = reps.genericRepository.findFirst(Government.class);
-        double co2Tax = government.getCO2Tax(getCurrentTick());
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(getCurrentTick());
         return co2Intensity * co2Tax;
     }
 
@@ -290,7 +290,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         Government government = reps.genericRepository.findFirst(Government.class);
         CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
-        double co2Tax = government.getCO2Tax(getCurrentTick());
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(getCurrentTick());
         return co2Price + co2Tax;
     }
 
@@ -298,7 +298,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         double co2Intensity = powerPlant.calculateEmissionIntensity();
         double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
         Government government = reps.genericRepository.findFirst(Government.class);
-        double co2Tax = government.getCO2Tax(getCurrentTick());
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(getCurrentTick());
         double taxToPay = (co2Intensity * electricityOutput) * co2Tax;
         return taxToPay;
     }
@@ -311,14 +311,23 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         double mod = powerPlant.getTechnology().getFixedOperatingCostModifierAfterLifetime();
         long lifetime = powerPlant.calculateActualLifetime();
 
-        GeometricTrend trend = new GeometricTrend();
-        trend.setGrowthRate(mod);
-        trend.setStart(norm);
-
-        double currentCost = trend.getValue(getCurrentTick() - (timeConstructed + lifetime));
+        // geometric growth after the end of the lifetime, computed directly
+        // rather than through a trend entity
+        double currentCost = norm * Math.pow(1 + mod, getCurrentTick() - (timeConstructed + lifetime));
         return currentCost;
     }
 
+    /**
+     * Same as {@link #calculateFixedOperatingCost(PowerPlant)}, but for a
+     * {@link PlantCandidate}.
+     */
+    public double calculateFixedOperatingCost(PlantCandidate candidate) {
+        long timeConstructed = candidate.getConstructionStartTime() + candidate.getLeadtime();
+        double mod = candidate.getTechnology().getFixedOperatingCostModifierAfterLifetime();
+        return candidate.getFixedOperatingCost()
+                * Math.pow(1 + mod, getCurrentTick() - (timeConstructed + candidate.getExpectedLifetime()));
+    }
+
     public double calculateAverageEnergyDensityInOperation(PowerPlant powerPlant) {
         double energyDensity = 0d;
         for (SubstanceShareInFuelMix share : powerPlant.getFuelMix()) {
@@ -327,23 +336,24 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         return energyDensity;
     }
 
+    /**
+     * The average operating profit, including fixed operating and maintenance
+     * cost, of a plant over the last ticks, read from the rolling accounts in
+     * {@link emlab.gen.repository.PowerPlantFinancesRepository}.
+     * 
+     * @param horizon
+     *            the number of past ticks, not including the current one
+     */
     public double calculateAveragePastOperatingProfit(PowerPlant pp, long horizon) {
-
-        double averageFractionInMerit = 0d;
-        for (long i = -horizon; i <= 0; i++) {
-            averageFractionInMerit += calculatePastOperatingProfitInclFixedOMCost(pp, getCurrentTick() + i) / i;
+        if (horizon <= 0) {
+            return 0d;
         }
-        return averageFractionInMerit;
+        return reps.powerPlantFinancesRepository.calculateOperatingProfit(pp, getCurrentTick() - horizon,
+                getCurrentTick() - 1) / horizon;
     }
 
     public double calculatePastOperatingProfitInclFixedOMCost(PowerPlant plant, long time) {
-        double pastOP = 0d;
-        // TODO get all accepted supply bids and calculate income
-        // TODO get all accepted demand bids and calculate costs
-        // TODO get the CO2 cost
-        // TODO get the fixed cost
-        pastOP += calculateFixedOperatingCost(plant);
-        return pastOP;
+        return reps.powerPlantFinancesRepository.calculateOperatingProfit(plant, time, time);
     }
 
 
@@ -392,42 +402,8 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
             double minimumFuelMixQuality = plant.getTechnology().getMinimumFuelQuality();
 
-            double[] fuelAndCO2Costs = new double[numberOfFuels];
-            double[] fuelDensities = new double[numberOfFuels];
-            double[] fuelQuality = new double[numberOfFuels];
-
-            int i = 0;
-            for (Substance substance : substancePriceMap.keySet()) {
-                fuelAndCO2Costs[i] = substancePriceMap.get(substance) + substance.getCo2Density() * (co2Price);
-                fuelDensities[i] = substance.getEnergyDensity();
-                fuelQuality[i] = (substance.getQuality() - minimumFuelMixQuality) * fuelDensities[i];
-                i++;
-            }
-
-            logger.info("Fuel prices: {}", fuelAndCO2Costs);
-            logger.info("Fuel densities: {}", fuelDensities);
-            logger.info("Fuel purities: {}", fuelQuality);
-
-            // Objective function = minimize fuel cost (fuel
-            // consumption*fuelprices
-            // + CO2 intensity*co2 price/tax)
-            LinearObjectiveFunction function = new LinearObjectiveFunction(fuelAndCO2Costs, 0d);
-
-            List<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
-
-            // Constraint 1: total fuel density * fuel consumption should match
-            // required energy input
-            constraints.add(new LinearConstraint(fuelDensities, Relationship.EQ, (1 / efficiency)));
-
-            // Constraint 2&3: minimum fuel quality (times fuel consumption)
-            // required
-            // The equation is derived from (example for 2 fuels): q1 * x1 / (x1+x2) + q2 * x2 / (x1+x2) >= qmin
-            // so that the fuelquality weighted by the mass percentages is greater than the minimum fuel quality.
-            constraints.add(new LinearConstraint(fuelQuality, Relationship.GEQ, 0));
-
             try {
-                SimplexSolver solver = new SimplexSolver();
-                RealPointValuePair solution = solver.optimize(function, constraints, GoalType.MINIMIZE, true);
+                RealPointValuePair solution = solveFuelMix(substancePriceMap, minimumFuelMixQuality, efficiency, co2Price);
 
                 logger.info("Succesfully solved a linear optimization for fuel mix");
 
@@ -474,6 +450,89 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         }
     }
 
+    /**
+     * Same fuel mix optimization as
+     * {@link #calculateFuelMix(PowerPlant, Map, double)}, but for a
+     * {@link PlantCandidate}. No {@link SubstanceShareInFuelMix} nodes are
+     * created.
+     * 
+     * @return fuel consumption per MWh electricity produced, per substance
+     */
+    public Map<Substance, Double> calculateFuelMix(PlantCandidate candidate, Map<Substance, Double> substancePriceMap, double co2Price) {
+
+        double efficiency = candidate.getEfficiency();
+        Map<Substance, Double> fuelMix = new HashMap<Substance, Double>();
+
+        int numberOfFuels = substancePriceMap.size();
+        if (numberOfFuels == 0) {
+            return fuelMix;
+        } else if (numberOfFuels > 1) {
+            double minimumFuelMixQuality = candidate.getTechnology().getMinimumFuelQuality();
+            try {
+                RealPointValuePair solution = solveFuelMix(substancePriceMap, minimumFuelMixQuality, efficiency, co2Price);
+                int f = 0;
+                for (Substance substance : substancePriceMap.keySet()) {
+                    fuelMix.put(substance, convertFuelShareToMassVolume(solution.getPoint()[f]));
+                    f++;
+                }
+                return fuelMix;
+            } catch (OptimizationException e) {
+                logger.warn(
+                        "Failed to determine the correct fuel mix. Adding only fuel number 1 in fuel mix out of {} substances and minimum quality of {}",
+                        substancePriceMap.size(), minimumFuelMixQuality);
+            }
+        }
+        Substance substance = substancePriceMap.keySet().iterator().next();
+        fuelMix.put(substance, calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
+        return fuelMix;
+    }
+
+    /**
+     * Linear optimization of the fuel shares: minimize fuel and CO2 cost,
+     * given the required energy input and the minimum fuel quality.
+     */
+    private RealPointValuePair solveFuelMix(Map<Substance, Double> substancePriceMap, double minimumFuelMixQuality,
+            double efficiency, double co2Price) throws OptimizationException {
+
+        int numberOfFuels = substancePriceMap.size();
+
+        double[] fuelAndCO2Costs = new double[numberOfFuels];
+        double[] fuelDensities = new double[numberOfFuels];
+        double[] fuelQuality = new double[numberOfFuels];
+
+        int i = 0;
+        for (Substance substance : substancePriceMap.keySet()) {
+            fuelAndCO2Costs[i] = substancePriceMap.get(substance) + substance.getCo2Density() * (co2Price);
+            fuelDensities[i] = substance.getEnergyDensity();
+            fuelQuality[i] = (substance.getQuality() - minimumFuelMixQuality) * fuelDensities[i];
+            i++;
+        }
+
+        logger.info("Fuel prices: {}", fuelAndCO2Costs);
+        logger.info("Fuel densities: {}", fuelDensities);
+        logger.info("Fuel purities: {}", fuelQuality);
+
+        // Objective function = minimize fuel cost (fuel
+        // consumption*fuelprices
+        // + CO2 intensity*co2 price/tax)
+        LinearObjectiveFunction function = new LinearObjectiveFunction(fuelAndCO2Costs, 0d);
+
+        List<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
+
+        // Constraint 1: total fuel density * fuel consumption should match
+        // required energy input
+        constraints.add(new LinearConstraint(fuelDensities, Relationship.EQ, (1 / efficiency)));
+
+        // Constraint 2&3: minimum fuel quality (times fuel consumption)
+        // required
+        // The equation is derived from (example for 2 fuels): q1 * x1 / (x1+x2) + q2 * x2 / (x1+x2) >= qmin
+        // so that the fuelquality weighted by the mass percentages is greater than the minimum fuel quality.
+        constraints.add(new LinearConstraint(fuelQuality, Relationship.GEQ, 0));
+
+        SimplexSolver solver = new SimplexSolver();
+        return solver.optimize(function, constraints, GoalType.MINIMIZE, true);
+    }
+
     public double convertFuelShareToMassVolume(double share) {
         return share * 3600;
     }
@@ -556,16 +615,18 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         }
         // Calculate average of regression and past average:
         expectedCO2Price = (expectedCO2Price + averagePrice) / 2;
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(futureTimePoint);
         for (ElectricitySpotMarket esm : reps.marketRepository.findAllElectricitySpotMarkets()) {
-            double nationalCo2MinPriceinFutureTick = reps.nationalGovernmentRepository.findNationalGovernmentByElectricitySpotMarket(esm)
-                    .getMinNationalCo2PriceTrend().getValue(futureTimePoint);
+            double nationalCo2MinPriceinFutureTick = reps.trendTableRepository.getMinNationalCo2PriceTrend(
+                    reps.nationalGovernmentRepository.findNationalGovernmentByElectricitySpotMarket(esm)).getValue(
+                    futureTimePoint);
             double co2PriceInCountry = 0d;
             if (expectedCO2Price > nationalCo2MinPriceinFutureTick) {
                 co2PriceInCountry = expectedCO2Price;
             } else {
                 co2PriceInCountry = nationalCo2MinPriceinFutureTick;
             }
-            co2PriceInCountry += reps.genericRepository.findFirst(Government.class).getCO2Tax(futureTimePoint);
+            co2PriceInCountry += co2Tax;
             co2Prices.put(esm, Double.valueOf(co2PriceInCountry));
         }
         return co2Prices;
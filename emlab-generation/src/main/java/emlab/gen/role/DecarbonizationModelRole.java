@@ -15,6 +15,11 @@
  ******************************************************************************/
 package emlab.gen.role;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,8 +34,12 @@ import emlab.gen.domain.agent.EnergyConsumer;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.agent.TargetInvestor;
+import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.CommodityMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.capacitymechanisms.ProcessAcceptedPowerPlantDispatchRoleinSR;
 import emlab.gen.role.capacitymechanisms.StrategicReserveOperatorRole;
@@ -38,6 +47,7 @@ import emlab.gen.role.investment.DismantlePowerPlantPastTechnicalLifetimeRole;
 import emlab.gen.role.investment.GenericInvestmentRole;
 import emlab.gen.role.market.ClearCommodityMarketRole;
 import emlab.gen.role.market.ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole;
+import emlab.gen.role.market.MarketClearing;
 import emlab.gen.role.market.ProcessAcceptedBidsRole;
 import emlab.gen.role.market.ProcessAcceptedPowerPlantDispatchRole;
 import emlab.gen.role.market.ReassignPowerPlantsToLongTermElectricityContractsRole;
@@ -52,6 +62,10 @@ import emlab.gen.role.operating.PayCO2AuctionRole;
 import emlab.gen.role.operating.PayCO2TaxRole;
 import emlab.gen.role.operating.PayForLoansRole;
 import emlab.gen.role.operating.PayOperatingAndMaintainanceCostsRole;
+import emlab.gen.role.operating.SettlePaymentsRole;
+import emlab.gen.trend.TriangularTrend;
+import emlab.gen.util.ParallelExecutor;
+import emlab.gen.util.Utils;
 
 /**
  * Main model role.
@@ -99,6 +113,8 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
     @Autowired
     private PayOperatingAndMaintainanceCostsRole payOperatingAndMaintainanceCostsRole;
     @Autowired
+    private SettlePaymentsRole settlePaymentsRole;
+    @Autowired
     private StrategicReserveOperatorRole strategicReserveOperatorRole;
     @Autowired
     private ProcessAcceptedPowerPlantDispatchRoleinSR acceptedPowerPlantDispatchRoleinSR;
@@ -114,6 +130,9 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
     @Override
     public void act(DecarbonizationModel model) {
 
+        // after a restart from a checkpoint, continue after its tick
+        reps.checkpointRepository.continueSchedule();
+
         if (getCurrentTick() > model.getSimulationLength() && model.isExitSimulationAfterSimulationLength()) {
             logger.warn("Simulation is terminating!!!");
             //agentspring.simulation.Schedule.getSchedule().stop();
@@ -128,13 +147,33 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         Timer timer = new Timer();
         timer.start();
 
+        if (getCurrentTick() == 0) {
+            if (reps.checkpointRepository.getInterval() > 0 && model.isDeletionOldPPDPBidsAndCashFlowsEnabled()) {
+                logger.warn("Old nodes are deleted, so a run resumed from a checkpoint may find entities in "
+                        + "another order");
+            }
+            reps.cashFlowLedgerRepository.reset();
+            reps.loanRepository.resetLoanCalendar();
+            reps.powerPlantFinancesRepository.reset();
+            reps.agentBalanceRepository.reset();
+            reps.metricRepository.reset();
+            // random trends are drawn once, with room to look ahead
+            for (TriangularTrend trend : reps.genericRepository.findAll(TriangularTrend.class)) {
+                trend.generate((long) (2 * model.getSimulationLength()));
+            }
+            reps.trendTableRepository.compileAll((long) (2 * model.getSimulationLength()));
+        }
+        reps.cashFlowLedgerRepository.setEnabled(model.isCashFlowLedgerEnabled());
+
         logger.warn("  0. Dismantling & paying loans");
         for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
             dismantlePowerPlantRole.act(producer);
-            payForLoansRole.act(producer);
             //            producer.act(dismantlePowerPlantRole);
-            //            producer.act(payForLoansRole);
         }
+        if (!model.isBatchedSettlementEnabled()) {
+            payForLoansRole.act(model);
+        }
+        reps.agentBalanceRepository.merge();
 
         /*
          * Determine fuel mix of power plants
@@ -202,41 +241,52 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
 
         timerMarket.reset();
         timerMarket.start();
-        for (EnergyProducer producer : reps.genericRepository.findAll(EnergyProducer.class)) {
-            receiveLongTermContractPowerRevenuesRole.act(producer);
-            //            producer.act(receiveLongTermContractPowerRevenuesRole);
-        }
-        for (ElectricitySpotMarket electricitySpotMarket : reps.marketRepository.findAllElectricitySpotMarkets()) {
-            processAcceptedPowerPlantDispatchRole.act(electricitySpotMarket);
-            //            electricitySpotMarket.act(processAcceptedPowerPlantDispatchRole);
+        if (model.isBatchedSettlementEnabled()) {
+            // loans, revenues, maintenance and co2 in one go
+            settlePaymentsRole.act(model);
+        } else {
+            for (EnergyProducer producer : reps.genericRepository.findAll(EnergyProducer.class)) {
+                receiveLongTermContractPowerRevenuesRole.act(producer);
+                //            producer.act(receiveLongTermContractPowerRevenuesRole);
+            }
+            for (ElectricitySpotMarket electricitySpotMarket : reps.marketRepository.findAllElectricitySpotMarkets()) {
+                processAcceptedPowerPlantDispatchRole.act(electricitySpotMarket);
+                //            electricitySpotMarket.act(processAcceptedPowerPlantDispatchRole);
+            }
         }
         for (StrategicReserveOperator strategicReserveOperator : reps.strategicReserveOperatorRepository.findAll()) {
             acceptedPowerPlantDispatchRoleinSR.act(strategicReserveOperator);
         }
         // logger.warn(" 4. Processing Strategic Reserve Payment ");
+        reps.agentBalanceRepository.merge();
         timerMarket.stop();
         logger.warn("        paying took: {} seconds.", timerMarket.seconds());
         /*
          * Maintenance and CO2
          */
-        logger.warn("  5. Paying for maintenance & co2");
-        timerMarket.reset();
-        timerMarket.start();
-        for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
-            // do accounting
-            payOperatingAndMaintainanceCostsRole.act(producer);
-            //            producer.act(payOperatingAndMaintainanceCostsRole);
-            // pay tax
-            payCO2TaxRole.act(producer);
-            //            producer.act(payCO2TaxRole);
-            // pay for CO2 auction only if CO2 trading
-            if (model.isCo2TradingImplemented()) {
-                payCO2AuctionRole.act(producer);
-                //                producer.act(payCO2AuctionRole);
+        if (!model.isBatchedSettlementEnabled()) {
+            logger.warn("  5. Paying for maintenance & co2");
+            timerMarket.reset();
+            timerMarket.start();
+            for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+                // do accounting
+                payOperatingAndMaintainanceCostsRole.act(producer);
+                //            producer.act(payOperatingAndMaintainanceCostsRole);
+                // pay tax
+                payCO2TaxRole.act(producer);
+                //            producer.act(payCO2TaxRole);
+                // pay for CO2 auction only if CO2 trading
+                if (model.isCo2TradingImplemented()) {
+                    payCO2AuctionRole.act(producer);
+                    //                producer.act(payCO2AuctionRole);
+                }
+                reps.metricRepository.set(Metric.PRODUCER_CASH, producer.getName(),
+                        reps.agentBalanceRepository.getCash(producer));
             }
+            reps.agentBalanceRepository.merge();
+            timerMarket.stop();
+            logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
-        timerMarket.stop();
-        logger.warn("        took: {} seconds.", timerMarket.seconds());
 
         /*
          * COMMODITY MARKETS
@@ -245,6 +295,11 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         timerMarket.reset();
         timerMarket.start();
 
+        // Bids of the previous tick are dropped; with in-memory bids only the
+        // clearing points and accepted volumes are stored.
+        reps.bidBookRepository.clear();
+        reps.bidBookRepository.setEnabled(model.isCommodityBidsInMemory());
+
         // SUPPLIER (supply for commodity markets)
         for (CommoditySupplier supplier : reps.genericRepository.findAllAtRandom(CommoditySupplier.class)) {
             // 1) first submit the offers
@@ -252,19 +307,29 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             //            supplier.act(submitOffersToCommodityMarketRole);
         }
 
-        // PRODUCER (demand for commodity markets)
-        for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
-            // 2) submit bids
-            submitBidsToCommodityMarketRole.act(producer);
-            //            producer.act(submitBidsToCommodityMarketRole);
-        }
+        if (reps.bidBookRepository.isEnabled()) {
+            // With in-memory bids, determining the fuel demand and clearing the
+            // markets only read the graph, so these run in parallel. The results
+            // are written in the order of the agents and markets.
+            submitBidsToCommodityMarketsInParallel(Utils.asList(reps.genericRepository
+                    .findAllAtRandom(EnergyProducer.class)));
+            clearCommodityMarketsInParallel(Utils.asList(reps.genericRepository.findAllAtRandom(CommodityMarket.class)));
+        } else {
+            // PRODUCER (demand for commodity markets)
+            for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+                // 2) submit bids
+                submitBidsToCommodityMarketRole.act(producer);
+                //            producer.act(submitBidsToCommodityMarketRole);
+            }
 
-        for (CommodityMarket market : reps.genericRepository.findAllAtRandom(CommodityMarket.class)) {
-            clearCommodityMarketRole.act(market);
-            processAcceptedBidsRole.act(market);
-            //            market.act(clearCommodityMarketRole);
-            //            market.act(processAcceptedBidsRole);
+            for (CommodityMarket market : reps.genericRepository.findAllAtRandom(CommodityMarket.class)) {
+                clearCommodityMarketRole.act(market);
+                processAcceptedBidsRole.act(market);
+                //            market.act(clearCommodityMarketRole);
+                //            market.act(processAcceptedBidsRole);
+            }
         }
+        reps.agentBalanceRepository.merge();
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
@@ -318,17 +383,64 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             timerMarket.start();
             logger.warn("  8. Delete old nodes in year {}.", (getCurrentTick() - model.getDeletionAge()));
             reps.bidRepository.delete(reps.bidRepository.findAllBidsForForTime(getCurrentTick() - model.getDeletionAge()));
-            reps.cashFlowRepository.delete(reps.cashFlowRepository.findAllCashFlowsForForTime(getCurrentTick() - model.getDeletionAge()));
-            reps.powerPlantRepository.delete(reps.powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(getCurrentTick()
+            reps.acceptedVolumeRepository.delete(reps.acceptedVolumeRepository.findAllForTime(getCurrentTick()
                     - model.getDeletionAge()));
+            reps.cashFlowRepository.delete(reps.cashFlowRepository.findAllCashFlowsForForTime(getCurrentTick() - model.getDeletionAge()));
+            Iterable<PowerPlant> dismantledPlants = Utils.asList(reps.powerPlantRepository
+                    .findAllPowerPlantsDismantledBeforeTick(getCurrentTick() - model.getDeletionAge()));
+            reps.loanRepository.unscheduleLoansOfPowerPlants(dismantledPlants);
+            reps.powerPlantRepository.delete(dismantledPlants);
             timerMarket.stop();
             logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
 
+        // payments of investments and LTC reassignments
+        reps.agentBalanceRepository.merge();
+        reps.cashFlowLedgerRepository.flush(getCurrentTick());
+
+        // the metrics are recorded by the stages that compute them
+        reps.metricRepository.flush(getCurrentTick());
+        reps.checkpointRepository.checkpoint(getCurrentTick());
+
         timer.stop();
         logger.warn("Tick {} took {} seconds.", getCurrentTick(), timer.seconds());
     }
 
+    private void submitBidsToCommodityMarketsInParallel(List<EnergyProducer> producers) {
+        List<Callable<Map<Substance, Double>>> tasks = new ArrayList<Callable<Map<Substance, Double>>>();
+        for (final EnergyProducer producer : producers) {
+            tasks.add(new Callable<Map<Substance, Double>>() {
+                @Override
+                public Map<Substance, Double> call() {
+                    return submitBidsToCommodityMarketRole.determineFuelDemand(producer);
+                }
+            });
+        }
+        List<Map<Substance, Double>> fuelDemands = ParallelExecutor.invokeAll(tasks);
+        for (int i = 0; i < producers.size(); i++) {
+            submitBidsToCommodityMarketRole.submitBids(producers.get(i), fuelDemands.get(i));
+        }
+    }
+
+    private void clearCommodityMarketsInParallel(List<CommodityMarket> markets) {
+        final long time = getCurrentTick();
+        List<Callable<MarketClearing>> tasks = new ArrayList<Callable<MarketClearing>>();
+        for (final CommodityMarket market : markets) {
+            tasks.add(new Callable<MarketClearing>() {
+                @Override
+                public MarketClearing call() {
+                    return clearCommodityMarketRole.prepareClearing(market, time);
+                }
+            });
+        }
+        List<MarketClearing> clearings = ParallelExecutor.invokeAll(tasks);
+        for (int i = 0; i < markets.size(); i++) {
+            ClearingPoint clearingPoint = clearCommodityMarketRole.storeClearing(clearings.get(i));
+            logger.info("Clearing: price " + clearingPoint.getPrice() + " / volume " + clearingPoint.getVolume());
+            processAcceptedBidsRole.act(markets.get(i));
+        }
+    }
+
     @Transactional
     private void resetWillingnessToInvest() {
         for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
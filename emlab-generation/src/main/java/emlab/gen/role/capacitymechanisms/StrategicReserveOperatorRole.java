@@ -61,7 +61,7 @@ public class StrategicReserveOperatorRole extends AbstractRole<StrategicReserveO
         //logger.warn(market.getName());
         double peakLoadforMarketNOtrend = segmentLoadRepository.peakLoadbyZoneMarketandTime(curZone, market);
 
-        double trend = market.getDemandGrowthTrend().getValue(getCurrentTick());
+        double trend = reps.trendTableRepository.getDemandGrowthTrend(market).getValue(getCurrentTick());
 
         double peakLoadforMarket = trend*peakLoadforMarketNOtrend;
 
@@ -72,6 +72,8 @@ public class StrategicReserveOperatorRole extends AbstractRole<StrategicReserveO
         // Set volume to be contracted
 
         strategicReserveOperator.setReserveVolume(peakLoadforMarket*strategicReserveOperator.getReserveVolumePercentSR());
+        market.updateStrategicReserve(strategicReserveOperator.getReservePriceSR(),
+                strategicReserveOperator.getReserveVolume());
         //logger.warn(strategicReserveOperator.setReserveVolume(peakLoadforMarket*strategicReserveOperator.getReserveVolumePercent()));
 
         //Find peak supply in the market
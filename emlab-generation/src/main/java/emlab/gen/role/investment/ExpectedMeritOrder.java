@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import emlab.gen.domain.technology.PlantCandidate;
+
+/**
+ * Expected merit order of a market, sorted once by marginal cost into
+ * primitive arrays.
+ *
+ * The available capacity of a plant in a segment is its nominal capacity
+ * times an availability that is linear in the segment portion p (see
+ * {@link PlantCandidate#getSegmentDependentAvailability(double, long)}):
+ * capacity * (base - p * (base - peak)). The cumulative availability up to
+ * merit order position i is therefore baseSum[i] - p * rangeSum[i], so two
+ * prefix sums serve every segment. Since availabilities are non-negative the
+ * cumulative availability is non-decreasing in i, and the marginal plant of
+ * a segment is found by binary search.
+ *
+ */
+public final class ExpectedMeritOrder {
+
+    private final double[] marginalCost;
+    private final double[] cumulativeBaseCapacity;
+    private final double[] cumulativeAvailabilityRange;
+    private final int size;
+
+    /**
+     * @param capacity
+     *            nominal capacity per plant
+     * @param peakAvailability
+     *            availability in the peak segment per plant
+     * @param baseAvailability
+     *            availability in the base segment per plant
+     * @param marginalCost
+     *            marginal cost per plant
+     */
+    public ExpectedMeritOrder(double[] capacity, double[] peakAvailability, double[] baseAvailability,
+            final double[] marginalCost) {
+        size = marginalCost.length;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Arrays.sort on objects is stable, so equal costs keep their order
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(marginalCost[a], marginalCost[b]);
+            }
+        });
+
+        this.marginalCost = new double[size];
+        cumulativeBaseCapacity = new double[size];
+        cumulativeAvailabilityRange = new double[size];
+        double baseSum = 0d;
+        double rangeSum = 0d;
+        for (int i = 0; i < size; i++) {
+            int plant = order[i];
+            baseSum += capacity[plant] * baseAvailability[plant];
+            rangeSum += capacity[plant] * (baseAvailability[plant] - peakAvailability[plant]);
+            this.marginalCost[i] = marginalCost[plant];
+            cumulativeBaseCapacity[i] = baseSum;
+            cumulativeAvailabilityRange[i] = rangeSum;
+        }
+    }
+
+    /**
+     * Builds the merit order of all candidates that are expected to be
+     * operational at the given time.
+     *
+     * @param marginalCostMap
+     *            expected marginal cost per candidate
+     * @param time
+     *            the future time the merit order is expected for
+     * @return the merit order
+     */
+    public static ExpectedMeritOrder build(Map<PlantCandidate, Double> marginalCostMap, long time) {
+        int n = 0;
+        for (PlantCandidate plant : marginalCostMap.keySet()) {
+            if (plant.isExpectedToBeOperational(time)) {
+                n++;
+            }
+        }
+        double[] capacity = new double[n];
+        double[] peak = new double[n];
+        double[] base = new double[n];
+        double[] cost = new double[n];
+        int i = 0;
+        for (Entry<PlantCandidate, Double> entry : marginalCostMap.entrySet()) {
+            PlantCandidate plant = entry.getKey();
+            if (plant.isExpectedToBeOperational(time)) {
+                capacity[i] = plant.getNominalCapacity();
+                peak[i] = plant.getPeakSegmentDependentAvailability();
+                base[i] = plant.getBaseSegmentDependentAvailability();
+                cost[i] = entry.getValue();
+                i++;
+            }
+        }
+        return new ExpectedMeritOrder(capacity, peak, base, cost);
+    }
+
+    /**
+     * The segment portion p, which is 1 for the peak segment and 0 for the
+     * base segment.
+     */
+    public static double segmentPortion(double segmentID, long numberOfSegments) {
+        if ((int) segmentID == 1) {
+            return 1d;
+        }
+        return (numberOfSegments - segmentID) / (numberOfSegments - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getMarginalCost(int position) {
+        return marginalCost[position];
+    }
+
+    /**
+     * @return the available capacity of the plants up to and including the
+     *         given merit order position
+     */
+    public double getCumulativeAvailableCapacity(int position, double segmentPortion) {
+        return cumulativeBaseCapacity[position] - segmentPortion * cumulativeAvailabilityRange[position];
+    }
+
+    /**
+     * @return the total available capacity in a segment
+     */
+    public double getTotalAvailableCapacity(double segmentPortion) {
+        if (size == 0) {
+            return 0d;
+        }
+        return getCumulativeAvailableCapacity(size - 1, segmentPortion);
+    }
+
+    /**
+     * Finds the first merit order position at which the cumulative available
+     * capacity covers the load.
+     *
+     * @return the position, -1 if the load is not positive, or
+     *         {@link #size()} if the load cannot be covered
+     */
+    public int findMarginalPosition(double segmentPortion, double load) {
+        if (load <= 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getCumulativeAvailableCapacity(mid, segmentPortion) < load) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The expected price in a segment: the marginal cost of the marginal
+     * plant, zero if there is no load, or the given price if the load cannot
+     * be covered.
+     */
+    public double findClearingPrice(double segmentPortion, double load, double priceIfNotCovered) {
+        int position = findMarginalPosition(segmentPortion, load);
+        if (position < 0) {
+            return 0d;
+        } else if (position >= size) {
+            return priceIfNotCovered;
+        }
+        return marginalCost[position];
+    }
+
+    /**
+     * As {@link #findClearingPrice(double, double, double)}, but with a
+     * strategic reserve in the market: if the load is covered and the spare
+     * capacity is not larger than the reserve volume, the reserve dispatch
+     * price is expected. Without a reserve, both reserve arguments are zero.
+     */
+    public double findClearingPrice(double segmentPortion, double load, double priceIfNotCovered, double reservePrice,
+            double reserveVolume) {
+        int position = findMarginalPosition(segmentPortion, load);
+        if (position >= size) {
+            return priceIfNotCovered;
+        } else if (getTotalAvailableCapacity(segmentPortion) - load <= reserveVolume) {
+            return reservePrice;
+        }
+        return position < 0 ? 0d : marginalCost[position];
+    }
+
+}
@@ -15,12 +15,14 @@
  ******************************************************************************/
 package emlab.gen.role.investment;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.TreeMap;
 
+import org.apache.commons.math.stat.regression.SimpleRegression;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.data.annotation.Transient;
@@ -31,27 +33,31 @@ import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.Role;
 import emlab.gen.domain.agent.BigBank;
+import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.PowerPlantManufacturer;
-import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.CO2Auction;
 import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.market.electricity.SegmentLoad;
 import emlab.gen.domain.policy.PowerGeneratingTechnologyTarget;
+import emlab.gen.domain.technology.PlantCandidate;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGeneratingTechnologyNodeLimit;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
-import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
-import emlab.gen.repository.StrategicReserveOperatorRepository;
+import emlab.gen.trend.TimeSeriesImpl;
+import emlab.gen.trend.TrendTable;
+import emlab.gen.trend.TriangularTrend;
 import emlab.gen.util.GeometricTrendRegression;
-import emlab.gen.util.MapValueComparator;
+import emlab.gen.util.RandomStreams;
 
 /**
  * {@link EnergyProducer}s decide to invest in new {@link PowerPlant}
@@ -74,14 +80,20 @@ NodeBacked {
     @Autowired
     Neo4jTemplate template;
 
-    @Transient
-    @Autowired
-    StrategicReserveOperatorRepository strategicReserveOperatorRepository;
-
     // market expectations
 	@Transient
     Map<ElectricitySpotMarket, MarketInformation> marketInfoMap = new HashMap<ElectricitySpotMarket, MarketInformation>();
 
+    // risk-aware appraisal, set in the scenario
+    @Transient
+    private InvestmentDecisionMetric decisionMetric = InvestmentDecisionMetric.DETERMINISTIC;
+    @Transient
+    private int numberOfMonteCarloPaths = 2000;
+    @Transient
+    private double riskFraction = 0.05;
+    @Transient
+    private int monteCarloSeed;
+
     @Override
     public void act(T agent) {
 
@@ -90,7 +102,8 @@ NodeBacked {
 
         // ==== Expectations ===
 
-        Map<Substance, Double> expectedFuelPrices = predictFuelPrices(agent, futureTimePoint);
+        Map<Substance, Double> fuelPriceLogResidualStd = new HashMap<Substance, Double>();
+        Map<Substance, Double> expectedFuelPrices = predictFuelPrices(agent, futureTimePoint, fuelPriceLogResidualStd);
 
         // CO2
         Map<ElectricitySpotMarket, Double> expectedCO2Price = determineExpectedCO2PriceInclTax(futureTimePoint,
@@ -100,12 +113,17 @@ NodeBacked {
 
         //Demand
         Map<ElectricitySpotMarket, Double> expectedDemand = new HashMap<ElectricitySpotMarket, Double>();
+        double demandLogResidualStd = 0d;
         for(ElectricitySpotMarket elm : reps.template.findAll(ElectricitySpotMarket.class)){
             GeometricTrendRegression gtr = new GeometricTrendRegression();
+            TrendTable demandGrowth = reps.trendTableRepository.getDemandGrowthTrend(elm);
             for(long time = getCurrentTick(); time>getCurrentTick()-agent.getNumberOfYearsBacklookingForForecasting() && time>=0; time=time-1){
-                gtr.addData(time, elm.getDemandGrowthTrend().getValue(time));
+                gtr.addData(time, demandGrowth.getValue(time));
             }
             expectedDemand.put(elm, gtr.predict(futureTimePoint));
+            if (elm.equals(agent.getInvestorMarket())) {
+                demandLogResidualStd = residualStd(gtr);
+            }
         }
 
 
@@ -136,11 +154,12 @@ NodeBacked {
 
         double highestValue = Double.MIN_VALUE;
         PowerGeneratingTechnology bestTechnology = null;
+        PowerGridNode node = getNodeForZone(market.getZone());
+        List<PlantCandidate> monteCarloCandidates = new ArrayList<PlantCandidate>();
 
         for (PowerGeneratingTechnology technology : reps.genericRepository.findAll(PowerGeneratingTechnology.class)) {
 
-            PowerPlant plant = new PowerPlant();
-            plant.specifyNotPersist(getCurrentTick(), agent, getNodeForZone(market.getZone()), technology);
+            PlantCandidate plant = specifyCandidate(node, technology);
             // if too much capacity of this technology in the pipeline (not
             // limited to the 5 years)
             double expectedInstalledCapacityOfTechnology = reps.powerPlantRepository
@@ -171,13 +190,13 @@ NodeBacked {
             double capacityInPipelineInMarket = reps.powerPlantRepository
                     .calculateCapacityOfPowerPlantsByMarketInPipeline(market, getCurrentTick());
 
-            if ((expectedInstalledCapacityOfTechnology + plant.getActualNominalCapacity())
-                    / (marketInformation.maxExpectedLoad + plant.getActualNominalCapacity()) > technology
+            if ((expectedInstalledCapacityOfTechnology + plant.getNominalCapacity())
+                    / (marketInformation.maxExpectedLoad + plant.getNominalCapacity()) > technology
                     .getMaximumInstalledCapacityFractionInCountry()) {
                 // logger.warn(agent +
                 // " will not invest in {} technology because there's too much of this type in the market",
                 // technology);
-            } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getActualNominalCapacity()) > pgtNodeLimit) {
+            } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getNominalCapacity()) > pgtNodeLimit) {
 
             } else if (expectedOwnedCapacityInMarketOfThisTechnology > expectedOwnedTotalCapacityInMarket
                     * technology.getMaximumInstalledCapacityFractionPerAgent()) {
@@ -193,8 +212,8 @@ NodeBacked {
                 // logger.warn(agent +
                 // " will not invest in {} technology because there's too much capacity in the pipeline",
                 // technology);
-            } else if (plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent
-                    .getDownpaymentFractionOfCash() * agent.getCash()) {
+            } else if (plant.getInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent
+                    .getDownpaymentFractionOfCash() * reps.agentBalanceRepository.getCash(agent)) {
                 // logger.warn(agent +
                 // " will not invest in {} technology as he does not have enough money for downpayment",
                 // technology);
@@ -204,8 +223,13 @@ NodeBacked {
                 for (Substance fuel : technology.getFuels()) {
                     myFuelPrices.put(fuel, expectedFuelPrices.get(fuel));
                 }
-                Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plant, myFuelPrices, expectedCO2Price.get(market));
-                plant.setFuelMix(fuelMix);
+                plant = plant.withFuelMix(calculateFuelMix(plant, myFuelPrices, expectedCO2Price.get(market)));
+
+                if (isMonteCarloAppraisal()) {
+                    // valued on the sampled paths below
+                    monteCarloCandidates.add(plant);
+                    continue;
+                }
 
                 double expectedMarginalCost = determineExpectedMarginalCost(plant, expectedFuelPrices, expectedCO2Price.get(market));
                 double runningHours = 0d;
@@ -256,11 +280,11 @@ NodeBacked {
                     // Creation of out cash-flow during power plant building
                     // phase (note that the cash-flow is negative!)
                     TreeMap<Integer, Double> discountedProjectCapitalOutflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(),
-                            plant.getActualInvestedCapital(), 0);
+                            technology.getDepreciationTime(), (int) plant.getLeadtime(),
+                            plant.getInvestedCapital(), 0);
                     // Creation of in cashflow during operation
                     TreeMap<Integer, Double> discountedProjectCashInflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(), 0, operatingProfit);
+                            technology.getDepreciationTime(), (int) plant.getLeadtime(), 0, operatingProfit);
 
                     double discountedCapitalCosts = npv(discountedProjectCapitalOutflow, wacc);// are
                     // defined
@@ -296,8 +320,8 @@ NodeBacked {
                          * Divide by capacity, in order not to favour large power plants (which have the single largest NPV
                          */
 
-						if (projectValue > 0 && projectValue / plant.getActualNominalCapacity() > highestValue) {
-							highestValue = projectValue / plant.getActualNominalCapacity();
+						if (projectValue > 0 && projectValue / plant.getNominalCapacity() > highestValue) {
+							highestValue = projectValue / plant.getNominalCapacity();
                             bestTechnology = plant.getTechnology();
                         }
                     }
@@ -305,11 +329,18 @@ NodeBacked {
                 }
             }
 
+        if (isMonteCarloAppraisal() && !monteCarloCandidates.isEmpty()) {
+            bestTechnology = findBestTechnologyOnSampledPaths(agent, marketInformation, monteCarloCandidates,
+                    expectedFuelPrices, fuelPriceLogResidualStd, expectedCO2Price.get(market), expectedDemand.get(market),
+                    demandLogResidualStd, futureTimePoint);
+        }
+
         if (bestTechnology != null) {
             // logger.warn("Agent {} invested in technology {} at tick " + getCurrentTick(), agent, bestTechnology);
 
             PowerPlant plant = new PowerPlant();
             plant.specifyAndPersist(getCurrentTick(), agent, getNodeForZone(market.getZone()), bestTechnology);
+            reps.metricRepository.add(Metric.INVESTMENT, bestTechnology.getName(), plant.getActualNominalCapacity());
             PowerPlantManufacturer manufacturer = reps.genericRepository.findFirst(PowerPlantManufacturer.class);
             BigBank bigbank = reps.genericRepository.findFirst(BigBank.class);
 
@@ -355,6 +386,161 @@ NodeBacked {
         agent.setWillingToInvest(false);
     }
 
+    private boolean isMonteCarloAppraisal() {
+        return decisionMetric != null && decisionMetric != InvestmentDecisionMetric.DETERMINISTIC;
+    }
+
+    /**
+     * Values the candidates on {@link #getNumberOfMonteCarloPaths()} sampled
+     * year-by-year paths of fuel prices, CO2 price and demand over the
+     * depreciation time of the candidates, and picks the technology
+     * with the highest positive decision value per MW. Fuel prices and demand
+     * are sampled from the triangular trend parameters of their trends, if
+     * any, and from the residuals of the forecasting regressions.
+     *
+     * @return the best technology, or null if none has a positive value
+     */
+    private PowerGeneratingTechnology findBestTechnologyOnSampledPaths(T agent, MarketInformation marketInformation,
+            List<PlantCandidate> candidates, Map<Substance, Double> expectedFuelPrices,
+            Map<Substance, Double> fuelPriceLogResidualStd, double expectedCO2Price, double expectedDemand,
+            double demandLogResidualStd, long futureTimePoint) {
+
+        ElectricitySpotMarket market = agent.getInvestorMarket();
+        int horizon = agent.getInvestmentFutureTimeHorizon();
+        int seed = monteCarloSeed + 31 * (int) getCurrentTick() + agent.getName().hashCode() + RandomStreams.offset();
+
+        List<Substance> fuels = new ArrayList<Substance>(expectedFuelPrices.keySet());
+
+        long numberOfSegments = reps.segmentRepository.count();
+        List<SegmentLoad> segmentLoads = new ArrayList<SegmentLoad>();
+        for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+            segmentLoads.add(segmentLoad);
+        }
+        double[] baseLoad = new double[segmentLoads.size()];
+        double[] hours = new double[segmentLoads.size()];
+        double[] portion = new double[segmentLoads.size()];
+        for (int s = 0; s < segmentLoads.size(); s++) {
+            Segment segment = segmentLoads.get(s).getSegment();
+            baseLoad[s] = segmentLoads.get(s).getBaseLoad();
+            hours[s] = segment.getLengthInHours();
+            portion[s] = ExpectedMeritOrder.segmentPortion(segment.getSegmentID(), numberOfSegments);
+        }
+
+        MonteCarloAppraisal appraisal = new MonteCarloAppraisal(fuels.size(), baseLoad, hours, portion,
+                market.getValueOfLostLoad(), marketInformation.reservePrice, marketInformation.reserveVolume);
+        for (PlantCandidate plant : marketInformation.expectedPlants) {
+            if (plant.isExpectedToBeOperational(futureTimePoint)) {
+                appraisal.addPlant(plant.getNominalCapacity(), plant.getPeakSegmentDependentAvailability(),
+                        plant.getBaseSegmentDependentAvailability(), fuelConsumption(plant, fuels),
+                        plant.calculateEmissionIntensity());
+            }
+        }
+
+        double wacc = (1 - agent.getDebtRatioOfInvestments()) * agent.getEquityInterestRate()
+                + agent.getDebtRatioOfInvestments() * agent.getLoanInterestRate();
+        for (PlantCandidate plant : candidates) {
+            PowerGeneratingTechnology technology = plant.getTechnology();
+            double[] availableCapacity = new double[segmentLoads.size()];
+            for (int s = 0; s < segmentLoads.size(); s++) {
+                availableCapacity[s] = plant.getAvailableCapacity(futureTimePoint, segmentLoads.get(s).getSegment(),
+                        numberOfSegments);
+            }
+            double discountedCapitalCosts = npv(calculateSimplePowerPlantInvestmentCashFlow(technology.getDepreciationTime(),
+                    (int) plant.getLeadtime(), plant.getInvestedCapital(), 0), wacc);
+            // the same years and discounting as the operating profit in
+            // calculateSimplePowerPlantInvestmentCashFlow
+            double[] discountFactors = new double[technology.getDepreciationTime()];
+            for (int y = 0; y < discountFactors.length; y++) {
+                discountFactors[y] = 1 / Math.pow(1 + wacc, plant.getLeadtime() + y);
+            }
+            appraisal.addCandidate(plant.getNominalCapacity(), availableCapacity, fuelConsumption(plant, fuels),
+                    plant.calculateEmissionIntensity(), calculateFixedOperatingCost(plant),
+                    technology.getMinimumRunningHours(), discountedCapitalCosts, discountFactors);
+        }
+
+        StochasticPaths paths = new StochasticPaths(numberOfMonteCarloPaths, appraisal.getNumberOfYears(),
+                fuels.size(), seed);
+        for (int f = 0; f < fuels.size(); f++) {
+            Substance fuel = fuels.get(f);
+            double[] triangle = findTriangularParameters(findPriceTrend(fuel));
+            paths.sampleFuelPrice(f, expectedFuelPrices.get(fuel), horizon, triangle[0], triangle[1], triangle[2],
+                    fuelPriceLogResidualStd.get(fuel));
+        }
+        paths.sampleCO2Price(expectedCO2Price, estimateCO2PriceResidualStd(agent));
+        double[] demandTriangle = findTriangularParameters(market.getDemandGrowthTrend());
+        paths.sampleDemandFactor(expectedDemand, horizon, demandTriangle[0], demandTriangle[1], demandTriangle[2],
+                demandLogResidualStd);
+
+        NpvDistribution[] distributions = appraisal.appraise(paths);
+
+        double highestValue = Double.MIN_VALUE;
+        PowerGeneratingTechnology bestTechnology = null;
+        for (int k = 0; k < distributions.length; k++) {
+            double value = distributions[k].getDecisionValue(decisionMetric, riskFraction);
+            logger.info("Agent {} found the project value per MW of {} to be " + distributions[k], agent, candidates.get(k)
+                    .getTechnology());
+            if (value > 0 && value > highestValue) {
+                highestValue = value;
+                bestTechnology = candidates.get(k).getTechnology();
+            }
+        }
+        return bestTechnology;
+    }
+
+    private double[] fuelConsumption(PlantCandidate plant, List<Substance> fuels) {
+        double[] consumption = new double[fuels.size()];
+        for (Entry<Substance, Double> mix : plant.getFuelMix().entrySet()) {
+            int f = fuels.indexOf(mix.getKey());
+            if (f >= 0) {
+                consumption[f] = mix.getValue();
+            }
+        }
+        return consumption;
+    }
+
+    private TimeSeriesImpl findPriceTrend(Substance substance) {
+        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
+            if (supplier.getSubstance().equals(substance)) {
+                return supplier.getPriceOfCommodity();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return min, top and max of a triangular trend, or zeros if the trend is
+     *         not triangular
+     */
+    private double[] findTriangularParameters(TimeSeriesImpl trend) {
+        if (trend instanceof TriangularTrend) {
+            TriangularTrend triangularTrend = (TriangularTrend) trend;
+            return new double[] { triangularTrend.getMin(), triangularTrend.getTop(), triangularTrend.getMax() };
+        }
+        return new double[3];
+    }
+
+    /**
+     * Standard deviation of the residuals of the CO2 price regression used in
+     * {@link #determineExpectedCO2PriceInclTax(long, long)}.
+     */
+    private double estimateCO2PriceResidualStd(EnergyProducer agent) {
+        CO2Auction co2Auction = reps.marketRepository.findCO2Auction();
+        SimpleRegression sr = new SimpleRegression();
+        for (ClearingPoint clearingPoint : reps.clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(co2Auction,
+                getCurrentTick() - agent.getNumberOfYearsBacklookingForForecasting() + 1, getCurrentTick())) {
+            sr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
+        }
+        return residualStd(sr);
+    }
+
+    private double residualStd(SimpleRegression regression) {
+        double meanSquareError = regression.getMeanSquareError();
+        if (Double.isNaN(meanSquareError) || Double.isInfinite(meanSquareError) || meanSquareError < 0) {
+            return 0d;
+        }
+        return Math.sqrt(meanSquareError);
+    }
+
     /**
      * Predicts fuel prices for {@link futureTimePoint} using a geometric trend regression forecast. Only predicts fuels that are
      * traded on a commodity market.
@@ -363,6 +549,16 @@ NodeBacked {
      * @return Map<Substance, Double> of predicted prices.
      */
     public Map<Substance, Double> predictFuelPrices(EnergyProducer agent, long futureTimePoint){
+        return predictFuelPrices(agent, futureTimePoint, null);
+    }
+
+    /**
+     * Same as {@link #predictFuelPrices(EnergyProducer, long)}, but also
+     * stores the standard deviation of the (log) regression residuals per
+     * fuel in the given map, if it is not null.
+     */
+    public Map<Substance, Double> predictFuelPrices(EnergyProducer agent, long futureTimePoint,
+            Map<Substance, Double> logResidualStd) {
         // Fuel Prices
         Map<Substance, Double> expectedFuelPrices = new HashMap<Substance, Double>();
         for (Substance substance : reps.substanceRepository.findAllSubstancesTradedOnCommodityMarkets()) {
@@ -376,6 +572,9 @@ NodeBacked {
                 gtr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
             }
             expectedFuelPrices.put(substance, gtr.predict(futureTimePoint));
+            if (logResidualStd != null) {
+                logResidualStd.put(substance, residualStd(gtr));
+            }
             //logger.warn("Forecast {}: {}, in Step " +  futureTimePoint, substance, expectedFuelPrices.get(substance));
         }
         return expectedFuelPrices;
@@ -406,18 +605,18 @@ NodeBacked {
         return npv;
     }
 
-    public double determineExpectedMarginalCost(PowerPlant plant, Map<Substance, Double> expectedFuelPrices, double expectedCO2Price) {
+    public double determineExpectedMarginalCost(PlantCandidate plant, Map<Substance, Double> expectedFuelPrices, double expectedCO2Price) {
         double mc = determineExpectedMarginalFuelCost(plant, expectedFuelPrices);
         double co2Intensity = plant.calculateEmissionIntensity();
         mc += co2Intensity * expectedCO2Price;
         return mc;
     }
 
-    public double determineExpectedMarginalFuelCost(PowerPlant powerPlant, Map<Substance, Double> expectedFuelPrices) {
+    public double determineExpectedMarginalFuelCost(PlantCandidate plant, Map<Substance, Double> expectedFuelPrices) {
         double fc = 0d;
-        for (SubstanceShareInFuelMix mix : powerPlant.getFuelMix()) {
-            double amount = mix.getShare();
-            double fuelPrice = expectedFuelPrices.get(mix.getSubstance());
+        for (Entry<Substance, Double> mix : plant.getFuelMix().entrySet()) {
+            double amount = mix.getValue();
+            double fuelPrice = expectedFuelPrices.get(mix.getKey());
             fc += amount * fuelPrice;
         }
         return fc;
@@ -432,25 +631,79 @@ NodeBacked {
         return null;
     }
 
+    /**
+     * Specifies a candidate plant starting now, with the technology trends
+     * read from their compiled tables.
+     */
+    private PlantCandidate specifyCandidate(PowerGridNode node, PowerGeneratingTechnology technology) {
+        long timeOfCompletion = PlantCandidate.getTimeOfCompletion(getCurrentTick(), technology);
+        return PlantCandidate.specify(getCurrentTick(), node, technology,
+                reps.trendTableRepository.getValue(technology.getEfficiencyTimeSeries(), timeOfCompletion),
+                reps.trendTableRepository.getValue(technology.getInvestmentCostTimeSeries(), timeOfCompletion),
+                reps.trendTableRepository.getValue(technology.getFixedOperatingCostTimeSeries(), timeOfCompletion));
+    }
+
+    public InvestmentDecisionMetric getDecisionMetric() {
+        return decisionMetric;
+    }
+
+    public void setDecisionMetric(InvestmentDecisionMetric decisionMetric) {
+        this.decisionMetric = decisionMetric;
+    }
+
+    public int getNumberOfMonteCarloPaths() {
+        return numberOfMonteCarloPaths;
+    }
+
+    public void setNumberOfMonteCarloPaths(int numberOfMonteCarloPaths) {
+        this.numberOfMonteCarloPaths = numberOfMonteCarloPaths;
+    }
+
+    public double getRiskFraction() {
+        return riskFraction;
+    }
+
+    /**
+     * @param riskFraction
+     *            percentile (PERCENTILE) or tail fraction (CVAR) used in the
+     *            decision, e.g. 0.05
+     */
+    public void setRiskFraction(double riskFraction) {
+        this.riskFraction = riskFraction;
+    }
+
+    public int getMonteCarloSeed() {
+        return monteCarloSeed;
+    }
+
+    public void setMonteCarloSeed(int monteCarloSeed) {
+        this.monteCarloSeed = monteCarloSeed;
+    }
+
     private class MarketInformation {
 
         Map<Segment, Double> expectedElectricityPricesPerSegment;
         double maxExpectedLoad = 0d;
-        Map<PowerPlant, Double> meritOrder;
+        ExpectedMeritOrder meritOrder;
+        List<PlantCandidate> expectedPlants = new ArrayList<PlantCandidate>();
         double capacitySum;
+        double reservePrice = 0;
+        double reserveVolume = 0;
 
         MarketInformation(ElectricitySpotMarket market, Map<ElectricitySpotMarket, Double> expectedDemand, Map<Substance, Double> fuelPrices, double co2price, long time) {
             // determine expected power prices
             expectedElectricityPricesPerSegment = new HashMap<Segment, Double>();
-            Map<PowerPlant, Double> marginalCostMap = new HashMap<PowerPlant, Double>();
+            Map<PlantCandidate, Double> marginalCostMap = new HashMap<PlantCandidate, Double>();
             capacitySum = 0d;
 
             // get merit order for this market
-            for (PowerPlant plant : reps.powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
+            for (PowerPlant powerPlant : reps.powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
 
+                PlantCandidate plant = PlantCandidate.of(powerPlant);
                 double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
                 marginalCostMap.put(plant, plantMarginalCost);
-                capacitySum += plant.getActualNominalCapacity();
+                expectedPlants.add(plant);
+                capacitySum += plant.getNominalCapacity();
             }
 
             //get difference between technology target and expected operational capacity
@@ -458,23 +711,26 @@ NodeBacked {
                 double expectedTechnologyCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, pggt.getPowerGeneratingTechnology(), time);
                 double targetDifference = pggt.getTrend().getValue(time) - expectedTechnologyCapacity;
                 if(targetDifference > 0){
-                    PowerPlant plant = new PowerPlant();
-                    plant.specifyNotPersist(getCurrentTick(), new EnergyProducer(), reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(market), pggt.getPowerGeneratingTechnology());
-                    plant.setActualNominalCapacity(targetDifference);
+                    PlantCandidate plant = specifyCandidate(
+                            reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(market),
+                            pggt.getPowerGeneratingTechnology()).withNominalCapacity(targetDifference);
                     double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
                     marginalCostMap.put(plant, plantMarginalCost);
+                    expectedPlants.add(plant);
                     capacitySum += targetDifference;
                 }
             }
 
-            MapValueComparator comp = new MapValueComparator(marginalCostMap);
-            meritOrder = new TreeMap<PowerPlant, Double>(comp);
-            meritOrder.putAll(marginalCostMap);
+            meritOrder = ExpectedMeritOrder.build(marginalCostMap, time);
 
             long numberOfSegments = reps.segmentRepository.count();
 
             double demandFactor = expectedDemand.get(market).doubleValue();
 
+            // Strategic reserve as contracted by the operator this tick.
+            reservePrice = market.getStrategicReservePrice();
+            reserveVolume = market.getStrategicReserveVolume();
+
             // find expected prices per segment given merit order
             for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
 
@@ -484,57 +740,12 @@ NodeBacked {
                     maxExpectedLoad = expectedSegmentLoad;
                 }
 
-                double segmentSupply = 0d;
-                double segmentPrice = 0d;
-                double totalCapacityAvailable = 0d;
-
-                for (Entry<PowerPlant, Double> plantCost : meritOrder.entrySet()) {
-                    PowerPlant plant = plantCost.getKey();
-                    double plantCapacity = 0d;
-                    // Determine available capacity in the future in this
-                    // segment
-                    plantCapacity = plant.getExpectedAvailableCapacity(time, segmentLoad.getSegment(), numberOfSegments);
-                    totalCapacityAvailable += plantCapacity;
-                    // logger.warn("Capacity of plant " + plant.toString() +
-                    // " is " +
-                    // plantCapacity/plant.getActualNominalCapacity());
-                    if (segmentSupply < expectedSegmentLoad) {
-                        segmentSupply += plantCapacity;
-                        segmentPrice = plantCost.getValue();
-                    }
-
-                }
-
-                // logger.warn("Segment " +
-                // segmentLoad.getSegment().getSegmentID() + " supply equals " +
-                // segmentSupply + " and segment demand equals " +
-                // expectedSegmentLoad);
-
-                // Find strategic reserve operator for the market.
-                double reservePrice = 0;
-                double reserveVolume = 0;
-                for (StrategicReserveOperator operator : strategicReserveOperatorRepository.findAll()) {
-                    ElectricitySpotMarket market1 = reps.marketRepository.findElectricitySpotMarketForZone(operator
-                            .getZone());
-                    if (market.getNodeId().intValue() == market1.getNodeId().intValue()) {
-                        reservePrice = operator.getReservePriceSR();
-                        reserveVolume = operator.getReserveVolume();
-                    }
-                }
-
-                if (segmentSupply >= expectedSegmentLoad
-                        && ((totalCapacityAvailable - expectedSegmentLoad) <= (reserveVolume))) {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), reservePrice);
-                    // logger.warn("Price: "+
-                    // expectedElectricityPricesPerSegment);
-                } else if (segmentSupply >= expectedSegmentLoad
-                        && ((totalCapacityAvailable - expectedSegmentLoad) > (reserveVolume))) {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), segmentPrice);
-                    // logger.warn("Price: "+
-                    // expectedElectricityPricesPerSegment);
-                } else {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), market.getValueOfLostLoad());
-                }
+                // Marginal plant and available capacity in the future in
+                // this segment
+                double segmentPortion = ExpectedMeritOrder.segmentPortion(segmentLoad.getSegment().getSegmentID(),
+                        numberOfSegments);
+                expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), meritOrder.findClearingPrice(
+                        segmentPortion, expectedSegmentLoad, market.getValueOfLostLoad(), reservePrice, reserveVolume));
 
             }
         }
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+/**
+ * How an {@link InvestInPowerGenerationTechnologiesRole} values a
+ * technology.
+ *
+ * <ul>
+ * <li>DETERMINISTIC: project value on the single geometric trend forecast.</li>
+ * <li>MEAN: mean project value over the sampled paths.</li>
+ * <li>PERCENTILE: the given percentile of the project value.</li>
+ * <li>CVAR: mean project value of the worst given fraction of paths.</li>
+ * </ul>
+ *
+ */
+public enum InvestmentDecisionMetric {
+    DETERMINISTIC, MEAN, PERCENTILE, CVAR
+}
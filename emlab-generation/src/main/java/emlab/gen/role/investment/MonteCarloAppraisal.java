@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import emlab.gen.util.ParallelExecutor;
+
+/**
+ * Appraisal kernel that values investment candidates over a set of
+ * {@link StochasticPaths}. For every year of every path the expected merit
+ * order of the market is rebuilt with the sampled fuel and CO2 prices, the
+ * segment prices are derived with the same rules as the deterministic
+ * investment role, and the operating profit of every candidate in that year
+ * is discounted into its project value per MW. The plants in the merit order
+ * are the same in every year.
+ *
+ * The kernel only works on primitive arrays and does not touch the graph, so
+ * paths are appraised in parallel, in contiguous chunks, on the
+ * {@link ParallelExecutor}. Every chunk writes to its own range of the result
+ * arrays, so the outcome does not depend on the number of threads.
+ *
+ */
+public class MonteCarloAppraisal {
+
+    private final int numberOfFuels;
+    private final double[] segmentBaseLoad;
+    private final double[] segmentHours;
+    private final double[] segmentPortion;
+    private final double valueOfLostLoad;
+    private final double reservePrice;
+    private final double reserveVolume;
+
+    private final List<double[]> plants = new ArrayList<double[]>();
+    private final List<double[]> plantFuelConsumption = new ArrayList<double[]>();
+
+    private final List<double[]> candidates = new ArrayList<double[]>();
+    private final List<double[]> candidateFuelConsumption = new ArrayList<double[]>();
+    private final List<double[]> candidateAvailableCapacity = new ArrayList<double[]>();
+    private final List<double[]> candidateDiscountFactors = new ArrayList<double[]>();
+
+    /**
+     * @param numberOfFuels
+     * @param segmentBaseLoad
+     *            base load per segment, multiplied by the demand factor of a
+     *            path
+     * @param segmentHours
+     *            length in hours per segment
+     * @param segmentPortion
+     *            see {@link ExpectedMeritOrder#segmentPortion(double, long)}
+     * @param valueOfLostLoad
+     * @param reservePrice
+     *            strategic reserve price, 0 if there is no reserve
+     * @param reserveVolume
+     *            strategic reserve volume, 0 if there is no reserve
+     */
+    public MonteCarloAppraisal(int numberOfFuels, double[] segmentBaseLoad, double[] segmentHours, double[] segmentPortion,
+            double valueOfLostLoad, double reservePrice, double reserveVolume) {
+        this.numberOfFuels = numberOfFuels;
+        this.segmentBaseLoad = segmentBaseLoad;
+        this.segmentHours = segmentHours;
+        this.segmentPortion = segmentPortion;
+        this.valueOfLostLoad = valueOfLostLoad;
+        this.reservePrice = reservePrice;
+        this.reserveVolume = reserveVolume;
+    }
+
+    /**
+     * Adds a plant to the expected merit order.
+     *
+     * @param fuelConsumption
+     *            consumption per MWh electricity, per fuel index
+     */
+    public void addPlant(double capacity, double peakAvailability, double baseAvailability, double[] fuelConsumption,
+            double emissionIntensity) {
+        plants.add(new double[] { capacity, peakAvailability, baseAvailability, emissionIntensity });
+        plantFuelConsumption.add(fuelConsumption);
+    }
+
+    /**
+     * Adds an investment candidate.
+     *
+     * @param availableCapacity
+     *            available capacity per segment
+     * @param fuelConsumption
+     *            consumption per MWh electricity, per fuel index
+     * @param discountedCapitalCosts
+     *            net present value of the (negative) capital outflow
+     * @param discountFactors
+     *            net present value of one unit of operating profit, per year
+     *            of operation from the horizon of the paths on
+     * @return the index of the candidate in the appraisal result
+     */
+    public int addCandidate(double capacity, double[] availableCapacity, double[] fuelConsumption, double emissionIntensity,
+            double fixedOperatingCost, double minimumRunningHours, double discountedCapitalCosts, double[] discountFactors) {
+        candidates.add(new double[] { capacity, emissionIntensity, fixedOperatingCost, minimumRunningHours,
+                discountedCapitalCosts });
+        candidateFuelConsumption.add(fuelConsumption);
+        candidateAvailableCapacity.add(availableCapacity);
+        candidateDiscountFactors.add(discountFactors);
+        return candidates.size() - 1;
+    }
+
+    /**
+     * @return the number of years the paths have to cover for the candidates
+     *         added so far
+     */
+    public int getNumberOfYears() {
+        int years = 0;
+        for (double[] discountFactors : candidateDiscountFactors) {
+            years = Math.max(years, discountFactors.length);
+        }
+        return years;
+    }
+
+    /**
+     * Values all candidates on all paths.
+     *
+     * @return the distribution of the project value per MW, per candidate
+     */
+    public NpvDistribution[] appraise(final StochasticPaths paths) {
+        if (paths.getNumberOfYears() < getNumberOfYears()) {
+            throw new IllegalArgumentException("The paths cover " + paths.getNumberOfYears()
+                    + " years, the candidates operate for " + getNumberOfYears());
+        }
+        final int numberOfPaths = paths.getNumberOfPaths();
+        final double[][] values = new double[candidates.size()][numberOfPaths];
+
+        int numberOfChunks = Math.max(1, Math.min(numberOfPaths, ParallelExecutor.getNumberOfThreads()));
+        int chunkSize = (numberOfPaths + numberOfChunks - 1) / numberOfChunks;
+        List<Callable<Object>> chunks = new ArrayList<Callable<Object>>();
+        for (int start = 0; start < numberOfPaths; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(numberOfPaths, start + chunkSize);
+            chunks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    appraise(paths, from, to, values);
+                    return null;
+                }
+            });
+        }
+        ParallelExecutor.invokeAll(chunks);
+
+        NpvDistribution[] distributions = new NpvDistribution[candidates.size()];
+        for (int k = 0; k < distributions.length; k++) {
+            distributions[k] = new NpvDistribution(values[k]);
+        }
+        return distributions;
+    }
+
+    private void appraise(StochasticPaths paths, int from, int to, double[][] values) {
+        int numberOfPlants = plants.size();
+        int numberOfSegments = segmentBaseLoad.length;
+        double[] capacity = new double[numberOfPlants];
+        double[] peak = new double[numberOfPlants];
+        double[] base = new double[numberOfPlants];
+        for (int i = 0; i < numberOfPlants; i++) {
+            double[] plant = plants.get(i);
+            capacity[i] = plant[0];
+            peak[i] = plant[1];
+            base[i] = plant[2];
+        }
+        double[][] fuelPrices = new double[numberOfFuels][];
+        for (int f = 0; f < numberOfFuels; f++) {
+            fuelPrices[f] = paths.getFuelPrices(f);
+        }
+        double[] co2Prices = paths.getCo2Prices();
+        double[] demandFactors = paths.getDemandFactors();
+
+        double[] marginalCost = new double[numberOfPlants];
+        double[] segmentPrice = new double[numberOfSegments];
+        int numberOfCandidates = candidates.size();
+        int numberOfYears = getNumberOfYears();
+        double[] projectValue = new double[numberOfCandidates];
+
+        for (int p = from; p < to; p++) {
+            for (int k = 0; k < numberOfCandidates; k++) {
+                projectValue[k] = candidates.get(k)[4];
+            }
+            for (int y = 0; y < numberOfYears; y++) {
+                int index = paths.index(p, y);
+                for (int i = 0; i < numberOfPlants; i++) {
+                    marginalCost[i] = marginalCost(plantFuelConsumption.get(i), plants.get(i)[3], fuelPrices,
+                            co2Prices[index], index);
+                }
+                ExpectedMeritOrder meritOrder = new ExpectedMeritOrder(capacity, peak, base, marginalCost);
+
+                for (int s = 0; s < numberOfSegments; s++) {
+                    segmentPrice[s] = meritOrder.findClearingPrice(segmentPortion[s], segmentBaseLoad[s]
+                            * demandFactors[index], valueOfLostLoad, reservePrice, reserveVolume);
+                }
+
+                for (int k = 0; k < numberOfCandidates; k++) {
+                    double[] discountFactors = candidateDiscountFactors.get(k);
+                    if (y >= discountFactors.length) {
+                        continue;
+                    }
+                    double[] candidate = candidates.get(k);
+                    double[] availableCapacity = candidateAvailableCapacity.get(k);
+                    double candidateMarginalCost = marginalCost(candidateFuelConsumption.get(k), candidate[1],
+                            fuelPrices, co2Prices[index], index);
+                    double runningHours = 0d;
+                    double grossProfit = 0d;
+                    for (int s = 0; s < numberOfSegments; s++) {
+                        if (candidateMarginalCost <= segmentPrice[s]) {
+                            runningHours += segmentHours[s];
+                            grossProfit += (segmentPrice[s] - candidateMarginalCost) * segmentHours[s]
+                                    * availableCapacity[s];
+                        }
+                    }
+                    // A plant that does not reach its minimum running hours
+                    // does not operate in that year, but still has its fixed
+                    // costs.
+                    if (runningHours < candidate[3]) {
+                        grossProfit = 0d;
+                    }
+                    projectValue[k] += (grossProfit - candidate[2]) * discountFactors[y];
+                }
+            }
+            for (int k = 0; k < numberOfCandidates; k++) {
+                values[k][p] = projectValue[k] / candidates.get(k)[0];
+            }
+        }
+    }
+
+    private double marginalCost(double[] fuelConsumption, double emissionIntensity, double[][] fuelPrices, double co2Price,
+            int index) {
+        double mc = emissionIntensity * co2Price;
+        for (int f = 0; f < numberOfFuels; f++) {
+            if (fuelConsumption[f] != 0d) {
+                mc += fuelConsumption[f] * fuelPrices[f][index];
+            }
+        }
+        return mc;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.Arrays;
+
+/**
+ * Empirical distribution of the project value (per MW) of an investment
+ * candidate over the sampled Monte Carlo paths.
+ *
+ */
+public class NpvDistribution {
+
+    private final double[] sortedValues;
+    private final double mean;
+
+    public NpvDistribution(double[] values) {
+        sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        double sum = 0d;
+        for (double value : sortedValues) {
+            sum += value;
+        }
+        mean = sortedValues.length > 0 ? sum / sortedValues.length : Double.NaN;
+    }
+
+    public int getNumberOfPaths() {
+        return sortedValues.length;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Nearest-rank percentile.
+     *
+     * @param fraction
+     *            between 0 and 1, e.g. 0.05 for the 5th percentile
+     */
+    public double getPercentile(double fraction) {
+        if (sortedValues.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(fraction * sortedValues.length) - 1;
+        index = Math.max(0, Math.min(sortedValues.length - 1, index));
+        return sortedValues[index];
+    }
+
+    /**
+     * Conditional value at risk: the mean of the worst <code>fraction</code>
+     * of the paths.
+     *
+     * @param fraction
+     *            between 0 and 1, e.g. 0.05 for the worst 5%
+     */
+    public double getConditionalValueAtRisk(double fraction) {
+        if (sortedValues.length == 0) {
+            return Double.NaN;
+        }
+        int tail = Math.max(1, (int) Math.ceil(fraction * sortedValues.length));
+        tail = Math.min(tail, sortedValues.length);
+        double sum = 0d;
+        for (int i = 0; i < tail; i++) {
+            sum += sortedValues[i];
+        }
+        return sum / tail;
+    }
+
+    /**
+     * @return the value the investor bases its decision on
+     */
+    public double getDecisionValue(InvestmentDecisionMetric metric, double fraction) {
+        switch (metric) {
+        case PERCENTILE:
+            return getPercentile(fraction);
+        case CVAR:
+            return getConditionalValueAtRisk(fraction);
+        default:
+            return getMean();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "mean " + getMean() + ", P5 " + getPercentile(0.05) + ", P50 " + getPercentile(0.5) + ", P95 "
+                + getPercentile(0.95) + ", CVaR5 " + getConditionalValueAtRisk(0.05);
+    }
+
+}
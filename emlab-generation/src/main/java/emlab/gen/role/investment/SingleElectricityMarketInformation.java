@@ -62,7 +62,7 @@ public class SingleElectricityMarketInformation {
 
         long numberOfSegments = reps.segmentRepository.count();
 
-        double demandFactor = market.getDemandGrowthTrend().getValue(time);
+        double demandFactor = reps.trendTableRepository.getDemandGrowthTrend(market).getValue(time);
 
         // find expected prices per segment given merit order
         for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import cern.jet.random.Distributions;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Sampled future fuel prices, CO2 price and demand factor, year by year over
+ * the operating years of the candidates, stored column-wise in primitive
+ * arrays: one array per variable, indexed by path * numberOfYears + year,
+ * see {@link #index(int, int)}. Year 0 is the horizon the forecasts are made
+ * for.
+ *
+ * All paths are drawn sequentially from a single seeded stream, so that the
+ * sample does not depend on how the appraisal is later split over threads.
+ *
+ */
+public class StochasticPaths {
+
+    private final int numberOfPaths;
+    private final int numberOfYears;
+    private final double[][] fuelPrices;
+    private final double[] co2Prices;
+    private final double[] demandFactors;
+
+    private final RandomEngine engine;
+    private final Normal normal;
+
+    /**
+     * @param numberOfPaths
+     * @param numberOfYears
+     *            the number of years sampled per path
+     * @param numberOfFuels
+     * @param seed
+     *            seed of the random stream
+     */
+    public StochasticPaths(int numberOfPaths, int numberOfYears, int numberOfFuels, int seed) {
+        this.numberOfPaths = numberOfPaths;
+        this.numberOfYears = numberOfYears;
+        fuelPrices = new double[numberOfFuels][];
+        co2Prices = new double[numberOfPaths * numberOfYears];
+        demandFactors = new double[numberOfPaths * numberOfYears];
+        engine = new MersenneTwister(seed);
+        normal = new Normal(0, 1, engine);
+    }
+
+    /**
+     * Samples the price of a fuel. See
+     * {@link #sampleGeometric(double, int, double, double, double, double)}.
+     */
+    public void sampleFuelPrice(int fuel, double expected, int horizon, double min, double top, double max,
+            double logResidualStd) {
+        fuelPrices[fuel] = sampleGeometric(expected, horizon, min, top, max, logResidualStd);
+    }
+
+    /**
+     * Samples the demand factor. See
+     * {@link #sampleGeometric(double, int, double, double, double, double)}.
+     */
+    public void sampleDemandFactor(double expected, int horizon, double min, double top, double max, double logResidualStd) {
+        System.arraycopy(sampleGeometric(expected, horizon, min, top, max, logResidualStd), 0, demandFactors, 0,
+                demandFactors.length);
+    }
+
+    /**
+     * Samples the CO2 price of every year as the expected price plus normally
+     * distributed regression residuals, truncated at zero.
+     */
+    public void sampleCO2Price(double expected, double residualStd) {
+        for (int i = 0; i < co2Prices.length; i++) {
+            co2Prices[i] = Math.max(0d, expected + residualStd * normal.nextDouble());
+        }
+    }
+
+    /**
+     * Samples a geometrically growing variable around its forecast. If
+     * triangular trend parameters are given (top > 0), the forecast is
+     * multiplied, for each step of the horizon and then for each year after
+     * it, by a growth factor drawn in the same way as
+     * {@link emlab.gen.trend.TriangularTrend} draws it, divided by its mean.
+     * Lognormal noise with the standard deviation s of the (log) regression
+     * residuals is drawn for every year on top, as exp(s * z - s * s / 2) so
+     * that its mean is 1. The expected value therefore stays at the forecast
+     * while the spread grows with the years.
+     *
+     * @return the sampled values, see {@link #index(int, int)}
+     */
+    double[] sampleGeometric(double expected, int horizon, double min, double top, double max, double logResidualStd) {
+        double[] values = new double[numberOfPaths * numberOfYears];
+        boolean triangular = top > 0 && (min != top || max != top);
+        // the triangle of Distributions.nextTriangular is symmetric around 0
+        // on (-1, 1), each half is mapped linearly: the mean of the halves is
+        // a third of the way from top to min and to max
+        double meanGrowth = (min + 4 * top + max) / 6;
+        double noiseCorrection = logResidualStd * logResidualStd / 2;
+        for (int p = 0; p < numberOfPaths; p++) {
+            double value = expected;
+            for (int year = -horizon; year < numberOfYears; year++) {
+                if (triangular && year != 0) {
+                    // the walk up to the horizon, then from year to year
+                    double randomValue = Distributions.nextTriangular(engine);
+                    double growth = randomValue < 0 ? top + randomValue * (top - min) : top + randomValue * (max - top);
+                    value *= growth / meanGrowth;
+                }
+                if (year >= 0) {
+                    double noise = logResidualStd > 0 ? Math.exp(logResidualStd * normal.nextDouble()
+                            - noiseCorrection) : 1d;
+                    values[index(p, year)] = value * noise;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the index of a year of a path in the sampled arrays
+     */
+    public int index(int path, int year) {
+        return path * numberOfYears + year;
+    }
+
+    public int getNumberOfPaths() {
+        return numberOfPaths;
+    }
+
+    public int getNumberOfYears() {
+        return numberOfYears;
+    }
+
+    public int getNumberOfFuels() {
+        return fuelPrices.length;
+    }
+
+    public double[] getFuelPrices(int fuel) {
+        return fuelPrices[fuel];
+    }
+
+    public double[] getCo2Prices() {
+        return co2Prices;
+    }
+
+    public double[] getDemandFactors() {
+        return demandFactors;
+    }
+
+}
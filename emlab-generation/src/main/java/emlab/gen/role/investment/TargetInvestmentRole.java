@@ -15,6 +15,11 @@
  ******************************************************************************/
 package emlab.gen.role.investment;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.data.annotation.Transient;
@@ -22,15 +27,16 @@ import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.transaction.annotation.Transactional;
 
 import emlab.gen.domain.agent.BigBank;
-import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.PowerPlantManufacturer;
 import emlab.gen.domain.agent.TargetInvestor;
 import emlab.gen.domain.contract.CashFlow;
-import emlab.gen.domain.contract.Loan;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.policy.PowerGeneratingTechnologyTarget;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGeneratingTechnologyNodeLimit;
+import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
 
 /**
@@ -48,61 +54,131 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
     @Transactional
     public void act(TargetInvestor targetInvestor) {
 
-        for(PowerGeneratingTechnologyTarget target : targetInvestor.getPowerGenerationTechnologyTargets()){
-            PowerGeneratingTechnology pgt = target.getPowerGeneratingTechnology();
-            long futureTimePoint = getCurrentTick()+pgt.getExpectedLeadtime()+pgt.getExpectedPermittime();
-            double expectedInstalledCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(targetInvestor.getInvestorMarket(), pgt, futureTimePoint);
-            double pgtNodeLimit = Double.MAX_VALUE;
-            // For simplicity using the market, instead of the node here. Needs
-            // to be changed, if more than one node per market exists.
-            PowerGeneratingTechnologyNodeLimit pgtLimit = reps.powerGeneratingTechnologyNodeLimitRepository
-                    .findOneByTechnologyAndMarket(pgt, targetInvestor.getInvestorMarket());
-            if (pgtLimit != null) {
-                pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
-            }
-            double targetCapacity = target.getTrend().getValue(futureTimePoint);
-            double installedCapacityDeviation = 0;
-            if (pgtNodeLimit > targetCapacity) {
-                installedCapacityDeviation = targetCapacity - expectedInstalledCapacity;
-            } else {
-                installedCapacityDeviation = pgtNodeLimit - expectedInstalledCapacity;
-            }
+        ElectricitySpotMarket market = targetInvestor.getInvestorMarket();
+        List<PowerGeneratingTechnologyTarget> targets = new ArrayList<PowerGeneratingTechnologyTarget>(
+                targetInvestor.getPowerGenerationTechnologyTargets());
+
+        double[] gaps = calculateTargetGaps(market, targets);
+
+        PowerGridNode node = null;
+        PowerPlantManufacturer manufacturer = null;
+        BigBank bigbank = null;
+        List<PowerPlant> plants = new ArrayList<PowerPlant>();
+        double[] loanAmounts = new double[targets.size()];
+        long[] numberOfPayments = new long[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            PowerGeneratingTechnology pgt = targets.get(i).getPowerGeneratingTechnology();
+            double installedCapacityDeviation = gaps[i];
 
             if (installedCapacityDeviation > 0 && installedCapacityDeviation > pgt.getCapacity()) {
 
+                if (node == null) {
+                    node = reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(market);
+                    manufacturer = reps.genericRepository.findFirst(PowerPlantManufacturer.class);
+                    bigbank = reps.genericRepository.findFirst(BigBank.class);
+                }
+
                 double powerPlantCapacityRatio = installedCapacityDeviation/pgt.getCapacity();
 
                 PowerPlant plant = new PowerPlant();
-                plant.specifyNotPersist(getCurrentTick(), targetInvestor, reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(targetInvestor.getInvestorMarket()), pgt);
+                plant.specifyNotPersist(getCurrentTick(), targetInvestor, node, pgt);
                 plant.setActualNominalCapacity(pgt.getCapacity()*powerPlantCapacityRatio);
-                PowerPlantManufacturer manufacturer = reps.genericRepository.findFirst(PowerPlantManufacturer.class);
-                BigBank bigbank = reps.genericRepository.findFirst(BigBank.class);
+                // persisted here, as its cash flows and loan refer to it
+                plant.persist();
+                reps.metricRepository.add(Metric.INVESTMENT, pgt.getName(), plant.getActualNominalCapacity());
 
                 double investmentCostPayedByEquity = plant.getActualInvestedCapital() * (1 - targetInvestor.getDebtRatioOfInvestments())*powerPlantCapacityRatio;
                 double investmentCostPayedByDebt = plant.getActualInvestedCapital() * targetInvestor.getDebtRatioOfInvestments()*powerPlantCapacityRatio;
                 double downPayment = investmentCostPayedByEquity;
-                createSpreadOutDownPayments(targetInvestor, manufacturer, downPayment, plant);
+                reps.nonTransactionalCreateRepository.createSpreadOutCashFlows(targetInvestor, manufacturer, downPayment,
+                        CashFlow.DOWNPAYMENT, getCurrentTick(), (int) plant.getActualLeadtime(), plant);
 
-                double amount = determineLoanAnnuities(investmentCostPayedByDebt, plant.getTechnology().getDepreciationTime(),
-                        targetInvestor.getLoanInterestRate());
-                // logger.warn("Loan amount is: " + amount);
-                Loan loan = reps.loanRepository.createLoan(targetInvestor, bigbank, amount, plant.getTechnology().getDepreciationTime(),
-                        getCurrentTick(), plant);
-                // Create the loan
-                plant.createOrUpdateLoan(loan);
+                plants.add(plant);
+                loanAmounts[plants.size() - 1] = determineLoanAnnuities(investmentCostPayedByDebt,
+                        pgt.getDepreciationTime(), targetInvestor.getLoanInterestRate());
+                numberOfPayments[plants.size() - 1] = pgt.getDepreciationTime();
 
             }
         }
 
+        // Create the loans of all new plants at once
+        if (!plants.isEmpty()) {
+            reps.loanRepository.createLoans(targetInvestor, bigbank, plants, loanAmounts, numberOfPayments,
+                    getCurrentTick());
+        }
+
     }
 
-    private void createSpreadOutDownPayments(EnergyProducer agent, PowerPlantManufacturer manufacturer, double totalDownPayment,
-            PowerPlant plant) {
-        int buildingTime = (int) plant.getActualLeadtime();
-        for (int i = 0; i < buildingTime; i++) {
-            reps.nonTransactionalCreateRepository.createCashFlow(agent, manufacturer, totalDownPayment / buildingTime,
-                    CashFlow.DOWNPAYMENT, getCurrentTick() + i, plant);
+    /**
+     * Calculates, for all targets at once, the difference between the target
+     * (or the node limit, if lower) and the capacity expected to be
+     * operational when a new plant of that technology would be finished. The
+     * plants and node limits of the market are read once, instead of once per
+     * technology. Capacity planned for an earlier target of the same
+     * technology counts as expected capacity for the later ones.
+     *
+     * @return the gap per target, in the order of the targets
+     */
+    public double[] calculateTargetGaps(ElectricitySpotMarket market, List<PowerGeneratingTechnologyTarget> targets) {
+
+        Map<String, List<PowerPlant>> plantsPerTechnology = new HashMap<String, List<PowerPlant>>();
+        for (PowerPlant plant : reps.powerPlantRepository.findPowerPlantsInMarket(market)) {
+            String technologyName = plant.getTechnology().getName();
+            List<PowerPlant> plants = plantsPerTechnology.get(technologyName);
+            if (plants == null) {
+                plants = new ArrayList<PowerPlant>();
+                plantsPerTechnology.put(technologyName, plants);
+            }
+            plants.add(plant);
+        }
+
+        // For simplicity using the market, instead of the node here. Needs
+        // to be changed, if more than one node per market exists.
+        Map<String, PowerGeneratingTechnologyNodeLimit> limits = new HashMap<String, PowerGeneratingTechnologyNodeLimit>();
+        for (PowerGeneratingTechnologyNodeLimit limit : reps.powerGeneratingTechnologyNodeLimitRepository
+                .findAllByMarket(market)) {
+            String technologyName = limit.getPowerGeneratingTechnology().getName();
+            if (!limits.containsKey(technologyName)) {
+                limits.put(technologyName, limit);
+            }
+        }
+
+        Map<String, Double> plannedCapacity = new HashMap<String, Double>();
+        double[] gaps = new double[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            PowerGeneratingTechnologyTarget target = targets.get(i);
+            PowerGeneratingTechnology pgt = target.getPowerGeneratingTechnology();
+            long futureTimePoint = getCurrentTick()+pgt.getExpectedLeadtime()+pgt.getExpectedPermittime();
+
+            Double planned = plannedCapacity.get(pgt.getName());
+            double expectedInstalledCapacity = planned == null ? 0d : planned;
+            List<PowerPlant> plants = plantsPerTechnology.get(pgt.getName());
+            if (plants != null) {
+                for (PowerPlant plant : plants) {
+                    if (plant.getConstructionStartTime() + plant.getActualPermittime() + plant.getActualLeadtime() <= futureTimePoint
+                            && plant.getExpectedEndOfLife() > futureTimePoint) {
+                        expectedInstalledCapacity += plant.getActualNominalCapacity();
+                    }
+                }
+            }
+
+            double pgtNodeLimit = Double.MAX_VALUE;
+            PowerGeneratingTechnologyNodeLimit pgtLimit = limits.get(pgt.getName());
+            if (pgtLimit != null) {
+                pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
+            }
+            double targetCapacity = target.getTrend().getValue(futureTimePoint);
+            if (pgtNodeLimit > targetCapacity) {
+                gaps[i] = targetCapacity - expectedInstalledCapacity;
+            } else {
+                gaps[i] = pgtNodeLimit - expectedInstalledCapacity;
+            }
+
+            if (gaps[i] > 0 && gaps[i] > pgt.getCapacity()) {
+                plannedCapacity.put(pgt.getName(), (planned == null ? 0d : planned) + gaps[i]);
+            }
         }
+        return gaps;
     }
 
     @Override
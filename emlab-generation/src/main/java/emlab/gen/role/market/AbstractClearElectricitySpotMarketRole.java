@@ -40,6 +40,7 @@ import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
 
 /**
@@ -121,7 +122,8 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
         co2SecantSearch.stable = false;
         double capDeviationCriterion = model.getCapDeviationCriterion();
-        double co2Cap = government.getCo2Cap(getCurrentTick());
+        double co2Cap = reps.trendTableRepository.getCo2CapTrend(government).getValue(getCurrentTick());
+        double minCo2Price = reps.trendTableRepository.getMinCo2PriceTrend(government).getValue(getCurrentTick());
         co2SecantSearch.co2Emissions = determineTotalEmissionsBasedOnPowerPlantDispatchPlan();
 
         double deviation = (co2SecantSearch.co2Emissions - co2Cap) / co2Cap;
@@ -137,7 +139,7 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
         if (co2SecantSearch.tooHighEmissionsPair != null && co2SecantSearch.tooLowEmissionsPair != null) {
             co2SecantSearch.twoPricesExistWithBelowAboveEmissions = true;
-        } else if (co2SecantSearch.co2Price == government.getMinCo2Price(getCurrentTick()) && co2SecantSearch.co2Emissions < co2Cap) {
+        } else if (co2SecantSearch.co2Price == minCo2Price && co2SecantSearch.co2Emissions < co2Cap) {
             // logger.warn("Deviation CO2 price has reached minimum");
             // check if stable enough --> 2. Cap is met with a co2Price
             // equal to the minimum co2 price
@@ -228,8 +230,8 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
                 }
 
-                if (co2SecantSearch.co2Price < 0.5 || co2SecantSearch.co2Price - government.getMinCo2Price(getCurrentTick()) < 0.5) {
-                    co2SecantSearch.co2Price = government.getMinCo2Price(getCurrentTick());
+                if (co2SecantSearch.co2Price < 0.5 || co2SecantSearch.co2Price - minCo2Price < 0.5) {
+                    co2SecantSearch.co2Price = minCo2Price;
                     co2SecantSearch.stable = true;
                 }
 
@@ -354,7 +356,7 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
         for (ElectricitySpotMarket market : reps.marketRepository.findAllElectricitySpotMarkets()) {
             double baseLoad = reps.segmentLoadRepository.returnSegmentBaseLoadBySegmentAndMarket(segment, market);
 
-            double load = baseLoad * market.getDemandGrowthTrend().getValue(getCurrentTick());
+            double load = baseLoad * reps.trendTableRepository.getDemandGrowthTrend(market).getValue(getCurrentTick());
 
             // Load may be covered by long term contracts.
             double loadCoveredByLTC = 0d;
@@ -463,8 +465,8 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
     CO2PriceStability determineStabilityOfCO2andElectricityPricesAndAdjustIfNecessary(CO2PriceStability co2PriceStability,
             DecarbonizationModel model, Government government) {
 
-        double co2Cap = government.getCo2Cap(getCurrentTick());
-        double minimumCo2Price = government.getMinCo2Price(getCurrentTick());
+        double co2Cap = reps.trendTableRepository.getCo2CapTrend(government).getValue(getCurrentTick());
+        double minimumCo2Price = reps.trendTableRepository.getMinCo2PriceTrend(government).getValue(getCurrentTick());
         double co2Penalty = government.getCo2Penalty();
         double iterationSpeedCriterion = model.getIterationSpeedCriterion();
         double capDeviationCriterion = model.getCapDeviationCriterion();
@@ -552,6 +554,16 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
         }
     }
 
+    /**
+     * Records the outcome of a segment in a market as metrics. The markets are
+     * cleared iteratively, so the last clearing of the tick is what remains.
+     */
+    void recordSegmentClearing(Segment segment, ElectricitySpotMarket market, double price, double volume) {
+        String zone = market.getZone().getName();
+        reps.metricRepository.set(Metric.SEGMENT_PRICE, "Segment " + zone + " " + segment.getSegmentID(), price);
+        reps.metricRepository.set(Metric.AVERAGE_PRICE, zone, segment.getNodeId(), price, volume);
+    }
+
     /**
      * Finds the last known price on a specific market. We try to get it for this tick, previous tick, or from a possible supplier directly. If multiple prices are found, the average is returned. This
      * is the case for electricity spot markets, as they may have segments.
@@ -15,16 +15,26 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.AbstractRole;
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.market.AcceptedVolume;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.MarketBid;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
 
 /**
  * Calculates {@link ClearingPoint} for any {@link Market}. If demand is smaller
@@ -44,153 +54,140 @@ public abstract class AbstractMarketRole<T extends DecarbonizationMarket> extend
 
     @Transactional
     public ClearingPoint calculateClearingPoint(DecarbonizationMarket market, long time) {
-        double clearedVolume = 0d;
-        double clearedPrice = 0d;
-        double totalSupplyPrice = calculateTotalSupplyPriceForMarketForTime(market, time);
-        double totalSupply = calculateTotalSupplyForMarketForTime(market, time);
-        logger.info("total supply {} total price {}", totalSupply, totalSupplyPrice);
-        double totalDemandForPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-        logger.info("total demand {} for price {}", totalDemandForPrice, totalSupplyPrice);
-
-		double minimumSupplyPrice = calculateMinimumSupplyPriceForMarketForTime(market, time);
-		double demandAtMinimumSupplyPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-
-		if (demandAtMinimumSupplyPrice <= 0) {
-			clearedPrice = minimumSupplyPrice;
-			clearedVolume = 0;
-		} else if (totalDemandForPrice > totalSupply) {
-			// Not enough to meet demand
-            clearedVolume = totalSupply;
-            if (market.isAuction()) {
-                clearedPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, 0d);
-            } else {
-                clearedPrice = market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market).getValueOfLostLoad()
-                        : totalSupplyPrice;
-            }
-        } else { // Supply exceeds demand
-            double totalOfferAmount = 0d;
-            double previousPrice = 0d;
-            for (Bid offer : reps.bidRepository.findOffersForMarketForTime(market, time)) {
-                double price = offer.getPrice();
-                double amount = offer.getAmount();
-                double demand = calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-                if (demand < totalOfferAmount + amount) {
-                    if (demand == 0) {
-                        if (getCurrentTick() > 0) {
-                            ClearingPoint cp = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick() - 1);
-                            if (cp != null)
-                                previousPrice = cp.getPrice();
-                        }
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else if (totalOfferAmount >= demand) {
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else {
-                        clearedPrice = price;
-                        clearedVolume = demand;
-                    }
-                    break;
-                }
-                totalOfferAmount += amount;
-                previousPrice = price;
-            }
+        return storeClearing(prepareClearing(market, time));
+    }
+
+    /**
+     * Clears a market on an {@link OrderBook} without writing to the graph.
+     * With in-memory bids this only reads the graph, so independent markets
+     * can be prepared concurrently and stored afterwards in a fixed order with
+     * {@link #storeClearing(MarketClearing)}.
+     */
+    public MarketClearing prepareClearing(DecarbonizationMarket market, long time) {
+        List<? extends MarketBid> offers;
+        List<? extends MarketBid> demandBids;
+        if (reps.bidBookRepository.isEnabled()) {
+            offers = reps.bidBookRepository.findBidsForMarketForTime(market, time, true);
+            demandBids = reps.bidBookRepository.findBidsForMarketForTime(market, time, false);
+        } else {
+            offers = Utils.asList(reps.bidRepository.findOffersForMarketForTime(market, time));
+            demandBids = Utils.asList(reps.bidRepository.findDemandBidsForMarketForTime(market, time));
         }
-        ClearingPoint point = new ClearingPoint().persist();
-        point.setAbstractMarket(market);
-        point.setTime(time);
-        point.setPrice(Math.max(0, clearedPrice));
-        point.setVolume(clearedVolume);
+        OrderBook book = loadOrderBook(market, offers, demandBids);
+        logger.info("total supply {} total price {}", book.getTotalSupply(), book.getMaximumSupplyPrice());
+
+        double priceIfSupplyShort = market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market)
+                .getValueOfLostLoad() : book.getMaximumSupplyPrice();
+        double previousClearingPrice = Double.NaN;
+        if (getCurrentTick() > 0) {
+            ClearingPoint cp = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick() - 1);
+            if (cp != null)
+                previousClearingPrice = cp.getPrice();
+        }
+        double[] cleared = book.clear(priceIfSupplyShort, previousClearingPrice);
+        double price = Math.max(0, cleared[0]);
+        double volume = cleared[1];
 
         // set bids to accepted and check for partial acceptance
         // DEMAND
-        double previousPrice = markAcceptedBids(point, false);
+        double previousPrice = book.markAcceptedBids(price, volume, false);
         // if auction - last accepted demand bid sets the price
         if (market.isAuction()) {
-            point.setPrice(Math.max(0, previousPrice));
+            price = Math.max(0, previousPrice);
         }
         // SUPPLY
-        markAcceptedBids(point, true);
-        return point;
-    }
+        book.markAcceptedBids(price, volume, true);
 
-    private double markAcceptedBids(ClearingPoint point, boolean isSupply) {
-        long time = point.getTime();
-        DecarbonizationMarket market = point.getAbstractMarket();
-        double clearedPrice = point.getPrice();
-        double clearedVolume = point.getVolume();
-        double totalBidVolume = 0d;
-        double previousPrice = Double.NEGATIVE_INFINITY;
-        double accpetedSamePriceVolume = 0d;
-
-        Iterable<Bid> bids = isSupply ? reps.bidRepository.findOffersForMarketForTimeBelowPrice(market, time, clearedPrice) : market
-                .isAuction() ? reps.bidRepository.findDemandBidsForMarketForTime(market, time) : reps.bidRepository
-                .findDemandBidsForMarketForTimeAbovePrice(market, time, clearedPrice);
-
-        for (Bid bid : bids) {
-            double amount = bid.getAmount();
-            totalBidVolume += amount;
-            accpetedSamePriceVolume = bid.getPrice() == previousPrice ? accpetedSamePriceVolume + amount : amount;
-            if (totalBidVolume < clearedVolume) {
-                bid.setStatus(Bid.ACCEPTED);
-                bid.setAcceptedAmount(bid.getAmount());
-            } else {
-                double lastAvailableBidSize = clearedVolume - (totalBidVolume - accpetedSamePriceVolume);
-                double samePriceVolume = calculateBidsForMarketForTimeForPrice(market, time, bid.getPrice(), isSupply);
-                double adjustRatio = lastAvailableBidSize / samePriceVolume;
-                for (Bid partBid : isSupply ? reps.bidRepository.findOffersForMarketForTimeForPrice(market, time, bid.getPrice())
-                        : reps.bidRepository.findDemandBidsForMarketForTimeForPrice(market, time, bid.getPrice())) {
-                    partBid.setStatus(Bid.PARTLY_ACCEPTED);
-                    partBid.setAcceptedAmount(partBid.getAmount() * adjustRatio);
-                }
-                break;
-            }
-            previousPrice = bid.getPrice();
-        }
-        return previousPrice;
+        return new MarketClearing(market, time, offers, demandBids, book, price, volume);
     }
 
-    private double calculateBidsForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price, boolean isSupply) {
-        try {
-            return isSupply ? reps.bidRepository.calculateOffersForMarketForTimeForPrice(market, time, price) : reps.bidRepository
-                    .calculateDemandBidsForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
+    /**
+     * Stores a prepared clearing: the {@link ClearingPoint}, the accepted
+     * bids and, with in-memory bids, the accepted volumes per agent.
+     */
+    @Transactional
+    public ClearingPoint storeClearing(MarketClearing clearing) {
+        ClearingPoint point = new ClearingPoint().persist();
+        point.setAbstractMarket(clearing.market);
+        point.setTime(clearing.time);
+        point.setPrice(clearing.price);
+        point.setVolume(clearing.volume);
+
+        writeAcceptedBids(clearing.book, clearing.offers, clearing.demandBids);
+        if (reps.bidBookRepository.isEnabled()) {
+            storeAcceptedVolumes(point, clearing.offers);
+            storeAcceptedVolumes(point, clearing.demandBids);
         }
-        return 0d;
+        return point;
     }
 
-    private double calculateTotalDemandForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price) {
-        try {
-            return market.isAuction() ? reps.bidRepository.calculateTotalDemandForMarketForTime(market, time) : reps.bidRepository
-                    .calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
+    /**
+     * Loads the bids of one market and time step in an {@link OrderBook}, in
+     * the order of the given lists.
+     */
+    OrderBook loadOrderBook(DecarbonizationMarket market, List<? extends MarketBid> offers, List<? extends MarketBid> demandBids) {
+        double[] supplyPrice = new double[offers.size()];
+        double[] supplyAmount = new double[offers.size()];
+        for (int i = 0; i < offers.size(); i++) {
+            supplyPrice[i] = offers.get(i).getPrice();
+            supplyAmount[i] = offers.get(i).getAmount();
         }
-        return 0d;
+        double[] demandPrice = new double[demandBids.size()];
+        double[] demandAmount = new double[demandBids.size()];
+        for (int i = 0; i < demandBids.size(); i++) {
+            demandPrice[i] = demandBids.get(i).getPrice();
+            demandAmount[i] = demandBids.get(i).getAmount();
+        }
+        return new OrderBook(supplyPrice, supplyAmount, demandPrice, demandAmount, market.isAuction());
     }
 
-    private double calculateTotalSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyPriceForMarketForTime(market, time);
-        } catch (NullPointerException e) {
+    /**
+     * Writes the accepted and partly accepted statuses back to the bids, in
+     * one pass after clearing. Bids that were not accepted are not touched.
+     */
+    private void writeAcceptedBids(OrderBook book, List<? extends MarketBid> offers, List<? extends MarketBid> demandBids) {
+        for (int i = 0; i < offers.size(); i++) {
+            int status = book.getSupplyStatus(i);
+            if (status != 0) {
+                offers.get(i).setStatus(status);
+                offers.get(i).setAcceptedAmount(book.getSupplyAcceptedAmount(i));
+            }
+        }
+        for (int i = 0; i < demandBids.size(); i++) {
+            int status = book.getDemandStatus(i);
+            if (status != 0) {
+                demandBids.get(i).setStatus(status);
+                demandBids.get(i).setAcceptedAmount(book.getDemandAcceptedAmount(i));
+            }
         }
-        return 0d;
     }
 
-    private double calculateTotalSupplyForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyForMarketForTime(market, time);
-        } catch (NullPointerException e) {
+    /**
+     * Persists the accepted volume per agent of in-memory bids, as the record
+     * of the clearing that {@link ProcessAcceptedBidsRole} works from.
+     */
+    private void storeAcceptedVolumes(ClearingPoint point, List<? extends MarketBid> bids) {
+        Map<Long, DecarbonizationAgent> agents = new LinkedHashMap<Long, DecarbonizationAgent>();
+        Map<Long, Double> volumes = new HashMap<Long, Double>();
+        boolean isSupply = false;
+        for (MarketBid bid : bids) {
+            isSupply = bid.isSupplyBid();
+            if (bid.getStatus() >= Bid.PARTLY_ACCEPTED) {
+                Long agentId = bid.getBidder().getNodeId();
+                Double volume = volumes.get(agentId);
+                volumes.put(agentId, (volume == null ? 0d : volume) + bid.getAcceptedAmount());
+                agents.put(agentId, bid.getBidder());
+            }
+        }
+        for (Entry<Long, DecarbonizationAgent> agent : agents.entrySet()) {
+            AcceptedVolume acceptedVolume = new AcceptedVolume().persist();
+            acceptedVolume.setAgent(agent.getValue());
+            acceptedVolume.setClearingPoint(point);
+            acceptedVolume.setVolume(volumes.get(agent.getKey()));
+            acceptedVolume.setSupply(isSupply);
+            acceptedVolume.setTime(point.getTime());
         }
-        return 0d;
     }
 
-	private double calculateMinimumSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-		try {
-			return reps.bidRepository.calculateMinimumSupplyPriceForMarketForTime(market, time);
-		} catch (NullPointerException e) {
-		}
-		return 0d;
-	}
-
     public abstract Reps getReps();
 }
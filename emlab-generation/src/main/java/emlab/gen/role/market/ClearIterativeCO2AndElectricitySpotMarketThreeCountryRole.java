@@ -38,6 +38,7 @@ import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.technology.Interconnector;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
 import emlab.gen.util.Utils;
 
@@ -95,8 +96,8 @@ implements Role<DecarbonizationModel> {
         Iterable<NationalGovernment> nationalGovernments = template.findAll(NationalGovernment.class);
         for (NationalGovernment nG : nationalGovernments) {
             if (model.isCo2TradingImplemented()) {
-                nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG), nG
-                        .getMinNationalCo2PriceTrend().getValue(getCurrentTick()));
+                nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG),
+                        reps.trendTableRepository.getMinNationalCo2PriceTrend(nG).getValue(getCurrentTick()));
             } else {
                 nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG), 0d);
             }
@@ -146,6 +147,7 @@ implements Role<DecarbonizationModel> {
             // Save the resulting CO2 price to the CO2 auction
             reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(co2Auction, co2PriceStability.co2Price,
                     co2PriceStability.co2Emissions, getCurrentTick());
+            reps.metricRepository.set(Metric.CO2_PRICE, null, co2PriceStability.co2Price);
         } else {
             if (model.isLongTermContractsImplemented())
                 determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
@@ -217,6 +219,7 @@ implements Role<DecarbonizationModel> {
 
                 reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, market, marginalPlantMarginalCost,
                         supplyInThisMarket * segment.getLengthInHours(), getCurrentTick());
+                recordSegmentClearing(segment, market, marginalPlantMarginalCost, supplyInThisMarket * segment.getLengthInHours());
                 logger.info("Stored a system-uniform price for market " + market + " / segment " + segment + " -- supply "
                         + supplyInThisMarket + " -- price: " + marginalPlantMarginalCost);
             }
@@ -289,6 +292,8 @@ implements Role<DecarbonizationModel> {
             for (ElectricitySpotMarket market : markets) {
                 reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, market, marketOutcomes.prices.get(market),
                         marketOutcomes.supplies.get(market) * segment.getLengthInHours(), getCurrentTick());
+                recordSegmentClearing(segment, market, marketOutcomes.prices.get(market), marketOutcomes.supplies.get(market)
+                        * segment.getLengthInHours());
                 // logger.warn("Stored a market specific price for market " +
                 // market + " / segment " + segment + " -- supply "
                 // + marketOutcomes.supplies.get(market) + " -- demand: " +
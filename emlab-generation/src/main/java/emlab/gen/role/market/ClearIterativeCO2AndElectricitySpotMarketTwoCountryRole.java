@@ -37,6 +37,7 @@ import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.technology.Interconnector;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.MetricRepository.Metric;
 import emlab.gen.repository.Reps;
 import emlab.gen.util.Utils;
 
@@ -93,8 +94,8 @@ implements Role<DecarbonizationModel> {
         Iterable<NationalGovernment> nationalGovernments = template.findAll(NationalGovernment.class);
         for (NationalGovernment nG : nationalGovernments) {
             if (model.isCo2TradingImplemented()) {
-                nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG), nG
-                        .getMinNationalCo2PriceTrend().getValue(getCurrentTick()));
+                nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG),
+                        reps.trendTableRepository.getMinNationalCo2PriceTrend(nG).getValue(getCurrentTick()));
             } else {
                 nationalMinCo2Prices.put(reps.marketRepository.findElectricitySpotMarketByNationalGovernment(nG), 0d);
             }
@@ -178,6 +179,7 @@ implements Role<DecarbonizationModel> {
             // Save the resulting CO2 price to the CO2 auction
             reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(co2Auction, co2SecantSearch.co2Price, co2SecantSearch.co2Emissions,
                     getCurrentTick());
+            reps.metricRepository.set(Metric.CO2_PRICE, null, co2SecantSearch.co2Price);
         } else {
             if (model.isLongTermContractsImplemented())
                 determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
@@ -246,6 +248,7 @@ implements Role<DecarbonizationModel> {
 
                 reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, market, globalOutcome.globalPrice,
                         supplyInThisMarket * segment.getLengthInHours(), getCurrentTick());
+                recordSegmentClearing(segment, market, globalOutcome.globalPrice, supplyInThisMarket * segment.getLengthInHours());
                 logger.info("Stored a system-uniform price for market " + market + " / segment " + segment + " -- supply "
                         + supplyInThisMarket + " -- price: " + globalOutcome.globalPrice);
             }
@@ -318,6 +321,8 @@ implements Role<DecarbonizationModel> {
             for (ElectricitySpotMarket market : reps.marketRepository.findAllElectricitySpotMarkets()) {
                 reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segment, market, marketOutcomes.prices.get(market),
                         marketOutcomes.supplies.get(market) * segment.getLengthInHours(), getCurrentTick());
+                recordSegmentClearing(segment, market, marketOutcomes.prices.get(market), marketOutcomes.supplies.get(market)
+                        * segment.getLengthInHours());
                 // logger.warn("Stored a market specific price for market " +
                 // market + " / segment " + segment + " -- supply "
                 // + marketOutcomes.supplies.get(market) + " -- demand: " +
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.List;
+
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.MarketBid;
+
+/**
+ * Outcome of clearing one market for one time step, computed on an
+ * {@link OrderBook} but not yet stored in the graph. See
+ * {@link AbstractMarketRole#prepareClearing(DecarbonizationMarket, long)}.
+ *
+ */
+public class MarketClearing {
+
+    final DecarbonizationMarket market;
+    final long time;
+    final List<? extends MarketBid> offers;
+    final List<? extends MarketBid> demandBids;
+    final OrderBook book;
+    final double price;
+    final double volume;
+
+    MarketClearing(DecarbonizationMarket market, long time, List<? extends MarketBid> offers,
+            List<? extends MarketBid> demandBids, OrderBook book, double price, double volume) {
+        this.market = market;
+        this.time = time;
+        this.offers = offers;
+        this.demandBids = demandBids;
+        this.book = book;
+        this.price = price;
+        this.volume = volume;
+    }
+
+    public DecarbonizationMarket getMarket() {
+        return market;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+}
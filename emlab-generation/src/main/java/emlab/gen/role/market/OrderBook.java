@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import emlab.gen.domain.market.Bid;
+
+/**
+ * In-memory order book of one market for one time step. The bids are loaded
+ * once, supply is sorted by ascending and demand by descending price, and the
+ * clearing point is found in a single pass over the supply with a moving
+ * pointer into the cumulative demand. The clearing rules are those of
+ * {@link AbstractMarketRole}.
+ *
+ * Bids are identified by the index in which they were added; the resulting
+ * status and accepted amount are read back per index, so that the caller can
+ * write them to the bids in one go.
+ *
+ */
+public class OrderBook {
+
+    private final boolean auction;
+
+    // sorted by ascending price
+    private final int[] supplyIndex;
+    private final double[] supplyPrice;
+    private final double[] supplyAmount;
+    private final double totalSupply;
+
+    // sorted by descending price
+    private final int[] demandIndex;
+    private final double[] demandPrice;
+    private final double[] demandAmount;
+    private final double[] cumulativeDemand;
+
+    // position in the sorted arrays per index in which a bid was added
+    private final int[] supplyPosition;
+    private final int[] demandPosition;
+
+    private final int[] supplyStatus;
+    private final double[] supplyAcceptedAmount;
+    private final int[] demandStatus;
+    private final double[] demandAcceptedAmount;
+
+    /**
+     * @param supplyPrice
+     *            price per offer
+     * @param supplyAmount
+     *            amount per offer
+     * @param demandPrice
+     *            price per demand bid
+     * @param demandAmount
+     *            amount per demand bid
+     * @param auction
+     *            whether the market is an auction, in which case all demand
+     *            counts regardless of its price
+     */
+    public OrderBook(double[] supplyPrice, double[] supplyAmount, double[] demandPrice, double[] demandAmount,
+            boolean auction) {
+        this.auction = auction;
+
+        supplyIndex = sortedIndices(supplyPrice, true);
+        this.supplyPrice = permute(supplyPrice, supplyIndex);
+        this.supplyAmount = permute(supplyAmount, supplyIndex);
+        double sum = 0d;
+        for (double amount : this.supplyAmount) {
+            sum += amount;
+        }
+        totalSupply = sum;
+
+        demandIndex = sortedIndices(demandPrice, false);
+        this.demandPrice = permute(demandPrice, demandIndex);
+        this.demandAmount = permute(demandAmount, demandIndex);
+        cumulativeDemand = new double[demandIndex.length + 1];
+        for (int j = 0; j < demandIndex.length; j++) {
+            cumulativeDemand[j + 1] = cumulativeDemand[j] + this.demandAmount[j];
+        }
+
+        supplyPosition = inversePositions(supplyIndex);
+        demandPosition = inversePositions(demandIndex);
+
+        supplyStatus = new int[supplyIndex.length];
+        supplyAcceptedAmount = new double[supplyIndex.length];
+        demandStatus = new int[demandIndex.length];
+        demandAcceptedAmount = new double[demandIndex.length];
+    }
+
+    public double getTotalSupply() {
+        return totalSupply;
+    }
+
+    /**
+     * @return the highest offer price, 0 without offers
+     */
+    public double getMaximumSupplyPrice() {
+        return supplyPrice.length == 0 ? 0d : supplyPrice[supplyPrice.length - 1];
+    }
+
+    /**
+     * @return the lowest offer price, 0 without offers
+     */
+    public double getMinimumSupplyPrice() {
+        return supplyPrice.length == 0 ? 0d : supplyPrice[0];
+    }
+
+    public double getTotalDemand() {
+        return cumulativeDemand[demandPrice.length];
+    }
+
+    /**
+     * The demand willing to pay at least the given price, or all demand in an
+     * auction.
+     */
+    public double getDemandForPrice(double price) {
+        if (auction) {
+            return getTotalDemand();
+        }
+        return cumulativeDemand[countDemandAtOrAbove(price)];
+    }
+
+    /**
+     * Finds the clearing price and volume. If demand is smaller than supply, a
+     * clearing price of the lowest supply is given, but the clearing volume
+     * is set to 0.
+     *
+     * @param priceIfSupplyShort
+     *            the price if demand exceeds all supply in a market that is not
+     *            an auction
+     * @param previousClearingPrice
+     *            the clearing price of the previous time step, used if no
+     *            demand is left at the marginal offer; NaN if there is none
+     * @return price and volume
+     */
+    public double[] clear(double priceIfSupplyShort, double previousClearingPrice) {
+        double clearedVolume = 0d;
+        double clearedPrice = 0d;
+        double totalSupplyPrice = getMaximumSupplyPrice();
+        double totalDemandForPrice = getDemandForPrice(totalSupplyPrice);
+
+        if (totalDemandForPrice <= 0) {
+            clearedPrice = getMinimumSupplyPrice();
+            clearedVolume = 0;
+        } else if (totalDemandForPrice > totalSupply) {
+            // Not enough to meet demand
+            clearedVolume = totalSupply;
+            clearedPrice = auction ? getTotalDemand() : priceIfSupplyShort;
+        } else { // Supply exceeds demand
+            double totalOfferAmount = 0d;
+            double previousPrice = 0d;
+            // demand bids [0, demandPointer) are at or above the offer price
+            int demandPointer = demandPrice.length;
+            for (int i = 0; i < supplyPrice.length; i++) {
+                double price = supplyPrice[i];
+                double amount = supplyAmount[i];
+                while (demandPointer > 0 && demandPrice[demandPointer - 1] < price) {
+                    demandPointer--;
+                }
+                double demand = auction ? getTotalDemand() : cumulativeDemand[demandPointer];
+                if (demand < totalOfferAmount + amount) {
+                    if (demand == 0) {
+                        if (!Double.isNaN(previousClearingPrice)) {
+                            previousPrice = previousClearingPrice;
+                        }
+                        clearedPrice = previousPrice;
+                        clearedVolume = totalOfferAmount;
+                    } else if (totalOfferAmount >= demand) {
+                        clearedPrice = previousPrice;
+                        clearedVolume = totalOfferAmount;
+                    } else {
+                        clearedPrice = price;
+                        clearedVolume = demand;
+                    }
+                    break;
+                }
+                totalOfferAmount += amount;
+                previousPrice = price;
+            }
+        }
+        return new double[] { clearedPrice, clearedVolume };
+    }
+
+    /**
+     * Sets the accepted and partly accepted bids of one side for the given
+     * clearing point. Bids at the marginal price share the remaining volume
+     * pro rata.
+     *
+     * @return the price of the last fully accepted bid
+     */
+    public double markAcceptedBids(double clearedPrice, double clearedVolume, boolean isSupply) {
+        double[] prices = isSupply ? supplyPrice : demandPrice;
+        double[] amounts = isSupply ? supplyAmount : demandAmount;
+        int[] status = isSupply ? supplyStatus : demandStatus;
+        double[] acceptedAmount = isSupply ? supplyAcceptedAmount : demandAcceptedAmount;
+
+        int numberOfBids;
+        if (isSupply) {
+            numberOfBids = 0;
+            while (numberOfBids < prices.length && prices[numberOfBids] <= clearedPrice) {
+                numberOfBids++;
+            }
+        } else {
+            numberOfBids = auction ? prices.length : countDemandAtOrAbove(clearedPrice);
+        }
+
+        double totalBidVolume = 0d;
+        double previousPrice = Double.NEGATIVE_INFINITY;
+        double accpetedSamePriceVolume = 0d;
+        for (int i = 0; i < numberOfBids; i++) {
+            double amount = amounts[i];
+            totalBidVolume += amount;
+            accpetedSamePriceVolume = prices[i] == previousPrice ? accpetedSamePriceVolume + amount : amount;
+            if (totalBidVolume < clearedVolume) {
+                status[i] = Bid.ACCEPTED;
+                acceptedAmount[i] = amount;
+            } else {
+                double lastAvailableBidSize = clearedVolume - (totalBidVolume - accpetedSamePriceVolume);
+                int from = i;
+                while (from > 0 && prices[from - 1] == prices[i]) {
+                    from--;
+                }
+                int to = i;
+                while (to < prices.length && prices[to] == prices[i]) {
+                    to++;
+                }
+                // For demand this has always been the volume at or above the
+                // price, for supply the volume at the price.
+                double samePriceVolume = 0d;
+                if (isSupply) {
+                    for (int j = from; j < to; j++) {
+                        samePriceVolume += amounts[j];
+                    }
+                } else {
+                    samePriceVolume = cumulativeDemand[to];
+                }
+                double adjustRatio = lastAvailableBidSize / samePriceVolume;
+                for (int j = from; j < to; j++) {
+                    status[j] = Bid.PARTLY_ACCEPTED;
+                    acceptedAmount[j] = amounts[j] * adjustRatio;
+                }
+                break;
+            }
+            previousPrice = prices[i];
+        }
+        return previousPrice;
+    }
+
+    /**
+     * @return the status of the offer added at the given index, 0 if it was
+     *         not accepted
+     */
+    public int getSupplyStatus(int index) {
+        return supplyStatus[supplyPosition[index]];
+    }
+
+    public double getSupplyAcceptedAmount(int index) {
+        return supplyAcceptedAmount[supplyPosition[index]];
+    }
+
+    /**
+     * @return the status of the demand bid added at the given index, 0 if it
+     *         was not accepted
+     */
+    public int getDemandStatus(int index) {
+        return demandStatus[demandPosition[index]];
+    }
+
+    public double getDemandAcceptedAmount(int index) {
+        return demandAcceptedAmount[demandPosition[index]];
+    }
+
+    private int countDemandAtOrAbove(double price) {
+        int low = 0;
+        int high = demandPrice.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (demandPrice[mid] >= price) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] inversePositions(int[] sortedIndex) {
+        int[] inverse = new int[sortedIndex.length];
+        for (int p = 0; p < sortedIndex.length; p++) {
+            inverse[sortedIndex[p]] = p;
+        }
+        return inverse;
+    }
+
+    private static int[] sortedIndices(final double[] price, final boolean ascending) {
+        Integer[] order = new Integer[price.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // stable, so bids at the same price keep the order they were added in
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return ascending ? Double.compare(price[a], price[b]) : Double.compare(price[b], price[a]);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private static double[] permute(double[] values, int[] order) {
+        double[] result = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+}
@@ -20,10 +20,12 @@ import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.Role;
 import agentspring.role.RoleComponent;
+import emlab.gen.domain.agent.DecarbonizationAgent;
 import emlab.gen.domain.agent.EnergyConsumer;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.AcceptedVolume;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.CO2Auction;
 import emlab.gen.domain.market.ClearingPoint;
@@ -68,6 +70,11 @@ public class ProcessAcceptedBidsRole extends AbstractMarketRole<DecarbonizationM
             cashFlowType = CashFlow.UNCLASSIFIED;
         }
 
+        if (reps.bidBookRepository.isEnabled()) {
+            processAcceptedVolumes(market, cashFlowType, isCO2Traded);
+            return;
+        }
+
         // clear the market for each segment of the load duration curve
         Iterable<Bid> acceptedSupplyBids = reps.bidRepository.findAllAcceptedOffersForMarketForTime(market, getCurrentTick());
         Iterable<Bid> acceptedDemandBids = reps.bidRepository.findAllAcceptedDemandBidsForMarketForTime(market, getCurrentTick());
@@ -96,4 +103,27 @@ public class ProcessAcceptedBidsRole extends AbstractMarketRole<DecarbonizationM
         }
     }
 
+    /**
+     * Creates the cash flows from the accepted volumes per agent, when bids
+     * were only kept in memory.
+     */
+    private void processAcceptedVolumes(DecarbonizationMarket market, int cashFlowType, boolean isCO2Traded) {
+        ClearingPoint clearingPoint = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick());
+        for (AcceptedVolume acceptedVolume : reps.acceptedVolumeRepository.findAllForClearingPoint(clearingPoint)) {
+            DecarbonizationAgent agent = acceptedVolume.getAgent();
+            double money = acceptedVolume.getVolume() * clearingPoint.getPrice();
+            if (acceptedVolume.isSupply()) {
+                reps.nonTransactionalCreateRepository.createCashFlow(market, agent, money, cashFlowType, getCurrentTick(), null);
+                if (isCO2Traded) {
+                    agent.setCo2Allowances(agent.getCo2Allowances() - acceptedVolume.getVolume());
+                }
+            } else {
+                reps.nonTransactionalCreateRepository.createCashFlow(agent, market, money, cashFlowType, getCurrentTick(), null);
+                if (isCO2Traded) {
+                    agent.setCo2Allowances(agent.getCo2Allowances() + acceptedVolume.getVolume());
+                }
+            }
+        }
+    }
+
 }
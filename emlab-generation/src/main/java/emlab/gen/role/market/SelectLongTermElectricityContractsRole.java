@@ -194,8 +194,8 @@ public class SelectLongTermElectricityContractsRole extends
 			double loadOfSegment = reps.marketRepository
 					.findSegmentLoadForElectricitySpotMarketForZone(zone,
 							segment).getBaseLoad()
-					* reps.marketRepository.findElectricitySpotMarketForZone(zone)
-							.getDemandGrowthTrend().getValue(getCurrentTick());
+					* reps.trendTableRepository.getDemandGrowthTrend(
+							reps.marketRepository.findElectricitySpotMarketForZone(zone)).getValue(getCurrentTick());
 			if (loadOfSegment < minimumLoadInSegmentsOfContractType) {
 				minimumLoadInSegmentsOfContractType = loadOfSegment;
 			}
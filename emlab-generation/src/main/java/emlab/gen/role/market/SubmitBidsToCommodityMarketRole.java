@@ -16,6 +16,7 @@
 package emlab.gen.role.market;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,8 +24,9 @@ import org.springframework.transaction.annotation.Transactional;
 import agentspring.role.Role;
 import agentspring.role.RoleComponent;
 import emlab.gen.domain.agent.EnergyProducer;
-import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.MarketBid;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
@@ -48,6 +50,16 @@ public class SubmitBidsToCommodityMarketRole extends AbstractEnergyProducerRole
 
         logger.info("Purchasing commodities");
 
+        submitBids(producer, determineFuelDemand(producer));
+    }
+
+    /**
+     * Determines the fuel demand of the operational plants of a producer in
+     * this tick. Only reads the graph, so it can be run for several producers
+     * at once.
+     */
+    public Map<Substance, Double> determineFuelDemand(EnergyProducer producer) {
+
         HashMap<Substance, Double> fuelAmounts = new HashMap<Substance, Double>();
 
         for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
@@ -66,14 +78,27 @@ public class SubmitBidsToCommodityMarketRole extends AbstractEnergyProducerRole
                 fuelAmounts.put(substance, amount);
             }
         }
+        return fuelAmounts;
+    }
 
+    /**
+     * Places one bid for each fuel in the given demand.
+     */
+    @Transactional
+    public void submitBids(EnergyProducer producer, Map<Substance, Double> fuelAmounts) {
         for (Substance substance : fuelAmounts.keySet()) {
             // find the totals and the right market. Place one bid for each
             // substance (fuel)
             if (!fuelAmounts.get(substance).isNaN() && fuelAmounts.get(substance) > 0) {
-                Bid bid = reps.nonTransactionalCreateRepository.submitBidToMarket(
-                        reps.marketRepository.findFirstMarketBySubstance(substance), producer, getCurrentTick(), false, Double.MAX_VALUE,
-                        fuelAmounts.get(substance));
+                DecarbonizationMarket market = reps.marketRepository.findFirstMarketBySubstance(substance);
+                MarketBid bid;
+                if (reps.bidBookRepository.isEnabled()) {
+                    bid = reps.bidBookRepository.submitBidToMarket(market, producer, getCurrentTick(), false,
+                            Double.MAX_VALUE, fuelAmounts.get(substance));
+                } else {
+                    bid = reps.nonTransactionalCreateRepository.submitBidToMarket(market, producer, getCurrentTick(), false,
+                            Double.MAX_VALUE, fuelAmounts.get(substance));
+                }
                 logger.info("Submited bid " + bid);
             }
         }
@@ -22,9 +22,9 @@ import agentspring.role.AbstractRole;
 import agentspring.role.Role;
 import agentspring.role.RoleComponent;
 import emlab.gen.domain.agent.CommoditySupplier;
-import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.CommodityMarket;
 import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.MarketBid;
 import emlab.gen.repository.Reps;
 
 /**
@@ -50,7 +50,12 @@ public class SubmitOffersToCommodityMarketRole extends AbstractRole<CommoditySup
         double price = supplier.getPriceOfCommodity().getValue(getCurrentTick());
         double amount = supplier.getAmountOfCommodity();
 
-        Bid bid = reps.nonTransactionalCreateRepository.submitBidToMarket(market, supplier, getCurrentTick(), true, price, amount);
+        MarketBid bid;
+        if (reps.bidBookRepository.isEnabled()) {
+            bid = reps.bidBookRepository.submitBidToMarket(market, supplier, getCurrentTick(), true, price, amount);
+        } else {
+            bid = reps.nonTransactionalCreateRepository.submitBidToMarket(market, supplier, getCurrentTick(), true, price, amount);
+        }
         logger.info("Submitted " + bid);
     }
 }
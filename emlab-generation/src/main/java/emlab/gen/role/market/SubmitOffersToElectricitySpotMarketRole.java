@@ -115,6 +115,7 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
         int j = 0;
 
         Government government = reps.template.findAll(Government.class).iterator().next();
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(getCurrentTick());
         for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
             j++;
 
@@ -134,7 +135,7 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
                     substancePriceMap.put(substance, findLastKnownPriceForSubstance(substance));
                 }
                 Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plan.getPowerPlant(), substancePriceMap,
-                        government.getCO2Tax(getCurrentTick()) + co2Price);
+                        co2Tax + co2Price);
                 plan.getPowerPlant().setFuelMix(fuelMix);
                 double mc = calculateMarginalCostExclCO2MarketCost(plan.getPowerPlant());
                 if (mc != oldmc) {
@@ -98,6 +98,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
     public void updateDuringCo2MarketClearing(double co2AuctionPrice) {
 
         Government government = template.findAll(Government.class).iterator().next();
+        double co2Tax = reps.trendTableRepository.getCo2TaxTrend(government).getValue(getCurrentTick());
 
         int i = 0;
         int j = 0;
@@ -116,7 +117,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
                     substancePriceMap.put(substance, findLastKnownPriceForSubstance(substance));
                 }
                 Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plan.getPowerPlant(), substancePriceMap,
-                        government.getCO2Tax(getCurrentTick()) + co2AuctionPrice);
+                        co2Tax + co2AuctionPrice);
                 plan.getPowerPlant().setFuelMix(fuelMix);
             }
 
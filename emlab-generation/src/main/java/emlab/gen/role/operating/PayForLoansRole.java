@@ -21,10 +21,11 @@ import org.springframework.transaction.annotation.Transactional;
 import agentspring.role.AbstractRole;
 import agentspring.role.Role;
 import agentspring.role.RoleComponent;
+import emlab.gen.domain.agent.DecarbonizationModel;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.contract.Loan;
-import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.LoanRepository.ScheduledLoan;
 import emlab.gen.repository.Reps;
 
 /**
@@ -35,50 +36,33 @@ import emlab.gen.repository.Reps;
  * 
  */
 @RoleComponent
-public class PayForLoansRole extends AbstractRole<EnergyProducer> implements Role<EnergyProducer> {
+public class PayForLoansRole extends AbstractRole<DecarbonizationModel> implements Role<DecarbonizationModel> {
 
 
     @Autowired
     Reps reps;
 
     @Override
-    @Transactional
-    public void act(EnergyProducer producer) {
-
-        logger.info("Process accepted bids to cash flow now");
-
-        // for (Loan loan : loanRepository.findLoansFromAgent(producer)) {
-        for (PowerPlant plant : reps.powerPlantRepository.findPowerPlantsByOwner(producer)) {
-            Loan loan = plant.getLoan();
-            if (loan != null) {
-                logger.info("Found a loan: {}", loan);
-                if (loan.getNumberOfPaymentsDone() < loan.getTotalNumberOfPayments()) {
-
-                    double payment = loan.getAmountPerPayment();
-                    reps.nonTransactionalCreateRepository.createCashFlow(producer, loan.getTo(), payment,
-                            CashFlow.LOAN, getCurrentTick(), loan.getRegardingPowerPlant());
-
-                    loan.setNumberOfPaymentsDone(loan.getNumberOfPaymentsDone() + 1);
+    public void act(DecarbonizationModel model) {
+        payDueLoans();
+    }
 
-                    logger.info("Paying {} (euro) for loan {}", payment, loan);
-                    logger.info("Number of payments done {}, total needed: {}", loan.getNumberOfPaymentsDone(),
-                            loan.getTotalNumberOfPayments());
-                }
-            }
-            Loan downpayment = plant.getDownpayment();
-            if (downpayment != null) {
-                logger.info("Found downpayment");
-                if (downpayment.getNumberOfPaymentsDone() < downpayment.getTotalNumberOfPayments()) {
-                    double payment = downpayment.getAmountPerPayment();
-                    reps.nonTransactionalCreateRepository.createCashFlow(producer, downpayment.getTo(), payment,
-                            CashFlow.DOWNPAYMENT, getCurrentTick(),
-                            downpayment.getRegardingPowerPlant());
-                    downpayment.setNumberOfPaymentsDone(downpayment.getNumberOfPaymentsDone() + 1);
-                    logger.info("Paying {} (euro) for downpayment {}", payment, downpayment);
-                    logger.info("Number of payments done {}, total needed: {}", downpayment.getNumberOfPaymentsDone(),
-                            downpayment.getTotalNumberOfPayments());
-                }
-            }
+    /**
+     * Pays, for all producers at once, the loans and down payments that are
+     * due this tick according to the loan calendar, instead of visiting every
+     * plant ever owned.
+     */
+    @Transactional
+    public void payDueLoans() {
+        for (ScheduledLoan scheduledLoan : reps.loanRepository.findLoansDue(getCurrentTick())) {
+            Loan loan = scheduledLoan.getLoan();
+            EnergyProducer producer = scheduledLoan.getPowerPlant().getOwner();
+            double payment = loan.getAmountPerPayment();
+            reps.nonTransactionalCreateRepository.createCashFlow(producer, loan.getTo(), payment,
+                    scheduledLoan.isDownpayment() ? CashFlow.DOWNPAYMENT : CashFlow.LOAN, getCurrentTick(),
+                    loan.getRegardingPowerPlant());
+            loan.setNumberOfPaymentsDone(loan.getNumberOfPaymentsDone() + 1);
+            logger.info("Paying {} (euro) for loan {}", payment, loan);
         }
     }
 }
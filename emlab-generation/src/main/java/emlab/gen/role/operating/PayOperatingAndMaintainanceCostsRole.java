@@ -25,6 +25,7 @@ import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.agent.PowerPlantMaintainer;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.MetricRepository.Sums;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.AbstractEnergyProducerRole;
 
@@ -51,13 +52,21 @@ public class PayOperatingAndMaintainanceCostsRole extends AbstractEnergyProducer
 
         PowerPlantMaintainer maintainer = reps.genericRepository.findFirst(PowerPlantMaintainer.class);
         int i = 0;
+        // capacity, generation and emissions, as SettlePaymentsRole records them
+        Sums metrics = new Sums();
         for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             i++;
 			double money = plant.getActualFixedOperatingCost();
             // TODO calculate actual based on modifier.
             logger.info("Im paying {} for O and M of plant {}", money, plant.getName());
             reps.nonTransactionalCreateRepository.createCashFlow(producer, maintainer, money, CashFlow.FIXEDOMCOST, getCurrentTick(), plant);
+            double output = plant.calculateElectricityOutputAtTime(getCurrentTick());
+            metrics.addPowerPlant(plant, output);
+            // fuel is paid per producer on the commodity markets
+            reps.powerPlantFinancesRepository.recordFuelCost(plant, getCurrentTick(),
+                    output * calculateMarginalFuelCost(plant));
         }
+        reps.metricRepository.add(metrics);
         logger.info("I: {} have paid for {} plants ", producer, i);
     }
 }
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.operating;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import agentspring.role.AbstractRole;
+import agentspring.role.Role;
+import agentspring.role.RoleComponent;
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.agent.PowerPlantMaintainer;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.Loan;
+import emlab.gen.domain.contract.LongTermContract;
+import emlab.gen.domain.contract.TransientCashFlow;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentClearingPoint;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.AgentBalanceRepository;
+import emlab.gen.repository.LoanRepository.ScheduledLoan;
+import emlab.gen.repository.MetricRepository.Metric;
+import emlab.gen.repository.MetricRepository.Sums;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.market.ProcessAcceptedPowerPlantDispatchRole;
+import emlab.gen.role.market.ReceiveLongTermContractPowerRevenuesRole;
+import emlab.gen.util.ParallelExecutor;
+import emlab.gen.util.Utils;
+
+/**
+ * Settles all payments of a tick in one stage, instead of one role pass per
+ * kind of payment: the spot revenues of {@link ProcessAcceptedPowerPlantDispatchRole},
+ * the long-term contract revenues of {@link ReceiveLongTermContractPowerRevenuesRole},
+ * and the payments of {@link PayForLoansRole},
+ * {@link PayOperatingAndMaintainanceCostsRole}, {@link PayCO2TaxRole} and
+ * {@link PayCO2AuctionRole}.
+ *
+ * Prices and the loans due are looked up once per tick. The payments of each
+ * {@link EnergyProducer} are determined in parallel from its plants and its
+ * dispatch plans of the tick. All cash flows and loan payments are then
+ * committed in one transaction, in the order of the producers: the cash of
+ * the agents is changed through the {@link AgentBalanceRepository}, and the
+ * capacity, generation and emissions of the plants and the cash of the
+ * producers are recorded as metrics.
+ * So the sums do not depend on the order in which the tasks ran.
+ *
+ */
+@RoleComponent
+public class SettlePaymentsRole extends AbstractRole<DecarbonizationModel> implements Role<DecarbonizationModel> {
+
+    @Autowired
+    Reps reps;
+
+    // used for its price lookups
+    @Autowired
+    PayCO2AuctionRole payCO2AuctionRole;
+
+    @Override
+    public void act(DecarbonizationModel model) {
+        final Prices prices = findPrices(model);
+
+        List<EnergyProducer> producers = Utils.asList(reps.genericRepository.findAll(EnergyProducer.class));
+        List<Callable<ProducerSettlement>> tasks = new ArrayList<Callable<ProducerSettlement>>();
+        for (final EnergyProducer producer : producers) {
+            tasks.add(new Callable<ProducerSettlement>() {
+                @Override
+                public ProducerSettlement call() {
+                    return settle(producer, prices);
+                }
+            });
+        }
+        commit(ParallelExecutor.invokeAll(tasks));
+    }
+
+    /**
+     * Looks up everything that is the same for all producers.
+     */
+    Prices findPrices(DecarbonizationModel model) {
+        long tick = getCurrentTick();
+        Prices prices = new Prices();
+        prices.tick = tick;
+        prices.co2TradingImplemented = model.isCo2TradingImplemented();
+        prices.government = reps.genericRepository.findFirst(Government.class);
+        prices.co2Tax = reps.trendTableRepository.getCo2TaxTrend(prices.government).getValue(tick);
+        prices.maintainer = reps.genericRepository.findFirst(PowerPlantMaintainer.class);
+
+        CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
+        if (auction != null) {
+            prices.co2AuctionPrice = payCO2AuctionRole.findLastKnownPriceOnMarket(auction);
+        }
+        for (Substance substance : reps.genericRepository.findAll(Substance.class)) {
+            prices.substancePrices.put(substance.getNodeId(), payCO2AuctionRole.findLastKnownPriceForSubstance(substance));
+        }
+
+        prices.segments = Utils.asList(reps.genericRepository.findAll(Segment.class));
+        for (ElectricitySpotMarket market : reps.marketRepository.findAllElectricitySpotMarkets()) {
+            Map<Long, Double> segmentPrices = new HashMap<Long, Double>();
+            for (Segment segment : prices.segments) {
+                SegmentClearingPoint scp = reps.segmentClearingPointRepository.findOneSegmentClearingPointForMarketSegmentAndTime(
+                        tick, segment, market);
+                if (scp != null) {
+                    segmentPrices.put(segment.getNodeId(), scp.getPrice());
+                }
+            }
+            prices.segmentPrices.put(market.getNodeId(), segmentPrices);
+        }
+
+        for (NationalGovernment nationalGovernment : reps.nationalGovernmentRepository.findAll()) {
+            prices.nationalGovernments.put(nationalGovernment.getGovernedZone().getNodeId(), nationalGovernment);
+            prices.nationalMinimumCO2Prices.put(nationalGovernment.getNodeId(),
+                    reps.trendTableRepository.getMinNationalCo2PriceTrend(nationalGovernment).getValue(tick));
+        }
+
+        for (ScheduledLoan scheduledLoan : reps.loanRepository.findLoansDue(tick)) {
+            Long owner = scheduledLoan.getPowerPlant().getOwner().getNodeId();
+            List<ScheduledLoan> loans = prices.dueLoans.get(owner);
+            if (loans == null) {
+                loans = new ArrayList<ScheduledLoan>();
+                prices.dueLoans.put(owner, loans);
+            }
+            loans.add(scheduledLoan);
+        }
+        return prices;
+    }
+
+    /**
+     * Determines the payments of one producer. Only reads from the graph;
+     * everything else is left to {@link #commit(List)}.
+     */
+    ProducerSettlement settle(EnergyProducer producer, Prices prices) {
+        long tick = prices.tick;
+        ProducerSettlement settlement = new ProducerSettlement(producer);
+
+        // electricity output per plant and spot revenues, from the dispatch
+        // plans of the tick
+        Map<Long, Double> outputs = new HashMap<Long, Double>();
+        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository
+                .findAllPowerPlantDispatchPlansForEnergyProducerForTime(producer, tick)) {
+            PowerPlant plant = plan.getPowerPlant();
+            Segment segment = plan.getSegment();
+            Double output = outputs.get(plant.getNodeId());
+            outputs.put(plant.getNodeId(), (output == null ? 0d : output) + segment.getLengthInHours()
+                    * (plan.getCapacityLongTermContract() + plan.getAcceptedAmount()));
+
+            if (plan.getStatus() > Bid.PARTLY_ACCEPTED) {
+                Map<Long, Double> segmentPrices = prices.segmentPrices.get(plan.getBiddingMarket().getNodeId());
+                Double price = segmentPrices == null ? null : segmentPrices.get(segment.getNodeId());
+                if (price != null) {
+                    settlement.pay(plan.getBiddingMarket(), producer, plan.getAcceptedAmount() * price
+                            * segment.getLengthInHours(), CashFlow.ELECTRICITY_SPOT, tick, plant);
+                }
+            }
+        }
+
+        List<ScheduledLoan> dueLoans = prices.dueLoans.get(producer.getNodeId());
+        if (dueLoans != null) {
+            for (ScheduledLoan scheduledLoan : dueLoans) {
+                Loan loan = scheduledLoan.getLoan();
+                settlement.pay(producer, loan.getTo(), loan.getAmountPerPayment(),
+                        scheduledLoan.isDownpayment() ? CashFlow.DOWNPAYMENT : CashFlow.LOAN, tick,
+                        loan.getRegardingPowerPlant());
+                settlement.payedLoans.add(loan);
+            }
+        }
+
+        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, tick)) {
+            settlement.pay(producer, prices.maintainer, plant.getActualFixedOperatingCost(), CashFlow.FIXEDOMCOST, tick, plant);
+
+            Double output = outputs.get(plant.getNodeId());
+            double emissions = plant.calculateEmissionIntensity() * (output == null ? 0d : output);
+            settlement.metrics.addPowerPlant(plant, output == null ? 0d : output);
+
+            // fuel is paid per producer on the commodity markets, so it is
+            // only booked in the finances of the plant
+            if (output != null) {
+                double fuelCost = 0d;
+                for (SubstanceShareInFuelMix mix : plant.getFuelMix()) {
+                    fuelCost += mix.getShare() * prices.substancePrices.get(mix.getSubstance().getNodeId());
+                }
+                settlement.fuelCosts.put(plant, output * fuelCost);
+            }
+            settlement.pay(producer, prices.government, emissions * prices.co2Tax, CashFlow.CO2TAX, tick, plant);
+
+            if (prices.co2TradingImplemented) {
+                settlement.pay(producer, prices.government, emissions * prices.co2AuctionPrice, CashFlow.CO2AUCTION, tick,
+                        plant);
+                NationalGovernment nationalGovernment = prices.nationalGovernments.get(plant.getLocation().getZone()
+                        .getNodeId());
+                double nationalMinimumPrice = prices.nationalMinimumCO2Prices.get(nationalGovernment.getNodeId());
+                double paymentEffectivePrice = nationalMinimumPrice > prices.co2AuctionPrice ? nationalMinimumPrice
+                        - prices.co2AuctionPrice : 0;
+                settlement.pay(producer, nationalGovernment, emissions * paymentEffectivePrice, CashFlow.NATIONALMINCO2, tick,
+                        plant);
+            }
+        }
+
+        for (Segment segment : prices.segments) {
+            for (LongTermContract longTermContract : reps.contractRepository.findLongTermContractsForEnergyProducerForSegmentActiveAtTime(
+                    producer, segment, tick)) {
+                settlement.pay(longTermContract.getTo(), longTermContract.getFrom(),
+                        calculateLongTermContractRevenue(longTermContract, segment, prices), CashFlow.ELECTRICITY_LONGTERM, tick,
+                        null);
+            }
+        }
+        return settlement;
+    }
+
+    /**
+     * The revenue of a long-term contract in a segment, with the pass through
+     * of fuel and CO2 prices as in
+     * {@link ReceiveLongTermContractPowerRevenuesRole}.
+     */
+    private double calculateLongTermContractRevenue(LongTermContract longTermContract, Segment segment, Prices prices) {
+        double basePrice = longTermContract.getCapacity() * longTermContract.getPricePerUnit() * segment.getLengthInHours();
+        double co2PriceStart = longTermContract.getCo2PriceStart();
+        double currentCo2Price = prices.co2AuctionPrice + prices.co2Tax;
+        double fuelPriceStart = longTermContract.getFuelPriceStart();
+        double currentFuelPrice = 0d;
+        Substance mainFuel = longTermContract.getMainFuel();
+        if (mainFuel != null) {
+            currentFuelPrice = prices.substancePrices.get(mainFuel.getNodeId());
+        }
+
+        // prevent dividing by 0
+        if (fuelPriceStart == 0) {
+            fuelPriceStart = 1e-8;
+        }
+        if (co2PriceStart == 0) {
+            co2PriceStart = 1e-8;
+        }
+
+        return basePrice * (1 + longTermContract.getFuelPassThroughFactor() * (currentFuelPrice / fuelPriceStart - 1))
+                * (1 + longTermContract.getCo2PassThroughFactor() * (currentCo2Price / co2PriceStart - 1));
+    }
+
+    /**
+     * Books all cash flows and fuel costs, transfers the cash and counts the
+     * loan payments, in the order of the settlements.
+     */
+    @Transactional
+    void commit(List<ProducerSettlement> settlements) {
+        int numberOfCashFlows = 0;
+        for (ProducerSettlement settlement : settlements) {
+            reps.nonTransactionalCreateRepository.bookCashFlows(settlement.cashFlows);
+            for (TransientCashFlow cashFlow : settlement.cashFlows) {
+                reps.agentBalanceRepository.transfer(cashFlow.getFrom(), cashFlow.getTo(), cashFlow.getMoney());
+            }
+            numberOfCashFlows += settlement.cashFlows.size();
+            for (Map.Entry<PowerPlant, Double> fuelCost : settlement.fuelCosts.entrySet()) {
+                reps.powerPlantFinancesRepository.recordFuelCost(fuelCost.getKey(), getCurrentTick(),
+                        fuelCost.getValue());
+            }
+            for (Loan loan : settlement.payedLoans) {
+                loan.setNumberOfPaymentsDone(loan.getNumberOfPaymentsDone() + 1);
+            }
+            reps.metricRepository.add(settlement.metrics);
+            reps.metricRepository.set(Metric.PRODUCER_CASH, settlement.producer.getName(),
+                    reps.agentBalanceRepository.getCash(settlement.producer));
+        }
+        logger.info("Settled {} cash flows for {} producers", numberOfCashFlows, settlements.size());
+    }
+
+    /**
+     * Everything that is the same for all producers in a tick.
+     */
+    static class Prices {
+        long tick;
+        boolean co2TradingImplemented;
+        Government government;
+        PowerPlantMaintainer maintainer;
+        double co2Tax;
+        double co2AuctionPrice;
+        List<Segment> segments;
+        final Map<Long, Double> substancePrices = new HashMap<Long, Double>();
+        // per market, per segment
+        final Map<Long, Map<Long, Double>> segmentPrices = new HashMap<Long, Map<Long, Double>>();
+        // per governed zone
+        final Map<Long, NationalGovernment> nationalGovernments = new HashMap<Long, NationalGovernment>();
+        // per national government
+        final Map<Long, Double> nationalMinimumCO2Prices = new HashMap<Long, Double>();
+        // per owner
+        final Map<Long, List<ScheduledLoan>> dueLoans = new HashMap<Long, List<ScheduledLoan>>();
+    }
+
+    /**
+     * The payments of one producer.
+     */
+    static class ProducerSettlement {
+        final EnergyProducer producer;
+        final List<TransientCashFlow> cashFlows = new ArrayList<TransientCashFlow>();
+        final List<Loan> payedLoans = new ArrayList<Loan>();
+        // per plant that produced
+        final Map<PowerPlant, Double> fuelCosts = new LinkedHashMap<PowerPlant, Double>();
+        // capacity, generation and emissions of the plants
+        final Sums metrics = new Sums();
+
+        ProducerSettlement(EnergyProducer producer) {
+            this.producer = producer;
+        }
+
+        /**
+         * Records a payment; the cash is transferred in
+         * {@link SettlePaymentsRole#commit(List)}.
+         */
+        void pay(DecarbonizationAgent from, DecarbonizationAgent to, double money, int type, long time, PowerPlant plant) {
+            cashFlows.add(new TransientCashFlow(from, to, money, type, time, plant));
+        }
+    }
+
+}
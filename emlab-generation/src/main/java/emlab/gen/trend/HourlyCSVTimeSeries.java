@@ -15,8 +15,7 @@
  ******************************************************************************/
 package emlab.gen.trend;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.nio.DoubleBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +27,7 @@ import org.springframework.transaction.annotation.Transactional;
  * 
  */
 @NodeEntity
-public class HourlyCSVTimeSeries implements HourlyTimeSeries {
+public class HourlyCSVTimeSeries implements WritableHourlyTimeSeries {
 
 	Logger logger = LoggerFactory.getLogger(HourlyCSVTimeSeries.class);
 
@@ -42,24 +41,8 @@ public class HourlyCSVTimeSeries implements HourlyTimeSeries {
         this.persist();
         logger.warn("Trying to read CSV file: " + filename);
 
-        String data = new String();
-
-        // Save the data in a long String
         try {
-
-            InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(filename));
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String line;
-
-            while ((line = bufferedReader.readLine()) != null) {
-                data = data.concat(line + ",");
-            }
-            bufferedReader.close();
-
-            String[] vals = data.split(",");
-            setHourlyArray(parseString(vals), 0);
-
+            setHourlyArray(checkLength(TimeSeriesFileCache.readValues(filename)), 0);
         } catch (Exception e) {
             logger.error("Couldn't read CSV file: " + filename);
             e.printStackTrace();
@@ -90,18 +73,19 @@ public class HourlyCSVTimeSeries implements HourlyTimeSeries {
 
     }
 
+    public DoubleBuffer getHourlyBuffer(long time) {
+        double[] hourlyArray = getHourlyArray(time);
+        return hourlyArray == null ? null : DoubleBuffer.wrap(hourlyArray).asReadOnlyBuffer();
+    }
+
     public void setHourlyArray(double[] hourlyArray, long time) {
         this.hourlyArray = hourlyArray;
     }
 
-    private double[] parseString(String[] vals) throws Exception {
+    private double[] checkLength(double[] vals) throws Exception {
 
         if (vals.length == 8760) {
-            double[] doubleArrayData = new double[vals.length];
-            for (int i = 0; i <= vals.length - 1; i++) {
-                doubleArrayData[i] = Double.parseDouble(vals[i]);
-            }
-            return doubleArrayData;
+            return vals;
         } else {
             throw new Exception();
         }
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file of hourly profiles (e.g. load, wind and solar per zone) for a
+ * number of consecutive weather years, read through memory mapping. Each
+ * year is mapped when it is first used; the values stay off the heap, so the
+ * heap does not grow with the number of profiles or years.
+ *
+ * Values are stored as doubles, or compressed as floats or half-precision
+ * floats. Profiles stored as doubles are handed out as zero-copy views;
+ * compressed profiles are decoded when read. Half precision keeps about three
+ * significant digits and values up to 65504, which suits normalized profiles
+ * such as capacity factors.
+ *
+ * The file starts with a header of little-endian ints: a marker, the number
+ * of bytes per value, the first year, the number of years, the number of
+ * hours per year, the number of profiles and the offset of the values. The
+ * profile names follow, each as a length and UTF-8 bytes. The values are
+ * stored per year, per profile, per hour.
+ *
+ */
+public class HourlyProfileStore {
+
+    public static final int DOUBLE = 8;
+    public static final int FLOAT = 4;
+    public static final int HALF = 2;
+
+    private static final int MARKER = 0x454d4850;
+
+    private static final int FIXED_HEADER_BYTES = 7 * 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<String, HourlyProfileStore> openStores = new HashMap<String, HourlyProfileStore>();
+
+    private final File file;
+    private final int bytesPerValue;
+    private final int firstYear;
+    private final int numberOfYears;
+    private final int hoursPerYear;
+    private final Map<String, Integer> profileIndices = new HashMap<String, Integer>();
+    private final long dataOffset;
+
+    // mapped on first use, per year
+    private final ByteBuffer[] years;
+
+    /**
+     * @return the store in a file, shared by all users in this process
+     */
+    public static synchronized HourlyProfileStore open(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        HourlyProfileStore store = openStores.get(path);
+        if (store == null) {
+            store = new HourlyProfileStore(file);
+            openStores.put(path, store);
+        }
+        return store;
+    }
+
+    private HourlyProfileStore(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MARKER) {
+                throw new IOException(file + " is not an hourly profile store");
+            }
+            bytesPerValue = header.getInt(4);
+            firstYear = header.getInt(8);
+            numberOfYears = header.getInt(12);
+            hoursPerYear = header.getInt(16);
+            int numberOfProfiles = header.getInt(20);
+            dataOffset = header.getInt(24);
+
+            ByteBuffer names = ByteBuffer.allocate((int) dataOffset - FIXED_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, names, FIXED_HEADER_BYTES);
+            names.flip();
+            for (int i = 0; i < numberOfProfiles; i++) {
+                byte[] name = new byte[names.getInt()];
+                names.get(name);
+                profileIndices.put(new String(name, UTF8), i);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        years = new ByteBuffer[numberOfYears];
+    }
+
+    public int getFirstYear() {
+        return firstYear;
+    }
+
+    public int getNumberOfYears() {
+        return numberOfYears;
+    }
+
+    public int getHoursPerYear() {
+        return hoursPerYear;
+    }
+
+    public int getBytesPerValue() {
+        return bytesPerValue;
+    }
+
+    /**
+     * @return the index of a profile, -1 if there is no such profile
+     */
+    public int getProfileIndex(String profileName) {
+        Integer index = profileIndices.get(profileName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return a read-only view of the values of a profile in a year; a view
+     *         of the mapped file if stored as doubles, decoded otherwise
+     */
+    public DoubleBuffer getProfile(int year, int profile) {
+        ByteBuffer values = getProfileBytes(year, profile);
+        if (bytesPerValue == DOUBLE) {
+            return values.asDoubleBuffer().asReadOnlyBuffer();
+        }
+        double[] decoded = new double[hoursPerYear];
+        copyDecoded(values, decoded);
+        return DoubleBuffer.wrap(decoded).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the values of a profile in a year into an array of at least the
+     * number of hours per year.
+     */
+    public void copyProfile(int year, int profile, double[] destination) {
+        ByteBuffer values = getProfileBytes(year, profile);
+        if (bytesPerValue == DOUBLE) {
+            values.asDoubleBuffer().get(destination, 0, hoursPerYear);
+        } else {
+            copyDecoded(values, destination);
+        }
+    }
+
+    public double getValue(int year, int profile, int hour) {
+        ByteBuffer values = getProfileBytes(year, profile);
+        return decode(values, hour * bytesPerValue);
+    }
+
+    private ByteBuffer getProfileBytes(int year, int profile) {
+        ByteBuffer yearValues = getYear(year - firstYear).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int profileBytes = hoursPerYear * bytesPerValue;
+        yearValues.position(profile * profileBytes);
+        yearValues.limit((profile + 1) * profileBytes);
+        return yearValues.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private synchronized ByteBuffer getYear(int yearIndex) {
+        if (yearIndex < 0 || yearIndex >= numberOfYears) {
+            throw new IndexOutOfBoundsException("Year " + (firstYear + yearIndex) + " is not in " + file);
+        }
+        if (years[yearIndex] == null) {
+            long yearBytes = (long) profileIndices.size() * hoursPerYear * bytesPerValue;
+            try {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                try {
+                    years[yearIndex] = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                            dataOffset + yearIndex * yearBytes, yearBytes);
+                } finally {
+                    randomAccessFile.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map year " + (firstYear + yearIndex) + " of " + file, e);
+            }
+        }
+        return years[yearIndex];
+    }
+
+    private void copyDecoded(ByteBuffer values, double[] destination) {
+        for (int hour = 0; hour < hoursPerYear; hour++) {
+            destination[hour] = decode(values, hour * bytesPerValue);
+        }
+    }
+
+    private double decode(ByteBuffer values, int position) {
+        switch (bytesPerValue) {
+        case DOUBLE:
+            return values.getDouble(position);
+        case FLOAT:
+            return values.getFloat(position);
+        default:
+            return halfToFloat(values.getShort(position));
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Writes a store, one profile at a time, so that the values never have to
+     * be held at once. Profiles are appended per year, in the order of the
+     * profile names.
+     */
+    public static class Writer {
+
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final int bytesPerValue;
+        private final int hoursPerYear;
+        private final long expectedProfiles;
+        private long writtenProfiles;
+
+        public Writer(File file, int bytesPerValue, int firstYear, int numberOfYears, int hoursPerYear,
+                String[] profileNames) throws IOException {
+            if (bytesPerValue != DOUBLE && bytesPerValue != FLOAT && bytesPerValue != HALF) {
+                throw new IllegalArgumentException("Cannot store values in " + bytesPerValue + " bytes");
+            }
+            this.bytesPerValue = bytesPerValue;
+            this.hoursPerYear = hoursPerYear;
+            this.expectedProfiles = (long) numberOfYears * profileNames.length;
+
+            int headerBytes = FIXED_HEADER_BYTES;
+            byte[][] names = new byte[profileNames.length][];
+            for (int i = 0; i < profileNames.length; i++) {
+                names[i] = profileNames[i].getBytes(UTF8);
+                headerBytes += 4 + names[i].length;
+            }
+            // values start at a multiple of eight bytes
+            int dataOffset = (headerBytes + 7) / 8 * 8;
+
+            ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MARKER);
+            header.putInt(bytesPerValue);
+            header.putInt(firstYear);
+            header.putInt(numberOfYears);
+            header.putInt(hoursPerYear);
+            header.putInt(profileNames.length);
+            header.putInt(dataOffset);
+            for (byte[] name : names) {
+                header.putInt(name.length);
+                header.put(name);
+            }
+            header.rewind();
+
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(0);
+            channel = randomAccessFile.getChannel();
+            write(header);
+        }
+
+        public void append(double[] hourlyValues) throws IOException {
+            if (hourlyValues.length != hoursPerYear) {
+                throw new IllegalArgumentException("Expected " + hoursPerYear + " values, got " + hourlyValues.length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(hoursPerYear * bytesPerValue).order(ByteOrder.LITTLE_ENDIAN);
+            for (double value : hourlyValues) {
+                switch (bytesPerValue) {
+                case DOUBLE:
+                    buffer.putDouble(value);
+                    break;
+                case FLOAT:
+                    buffer.putFloat((float) value);
+                    break;
+                default:
+                    buffer.putShort(floatToHalf((float) value));
+                }
+            }
+            buffer.rewind();
+            write(buffer);
+            writtenProfiles++;
+        }
+
+        public void close() throws IOException {
+            randomAccessFile.close();
+            if (writtenProfiles != expectedProfiles) {
+                throw new IllegalStateException("Wrote " + writtenProfiles + " of " + expectedProfiles + " profiles");
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Rounds a float to the nearest half-precision float.
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = bits >>> 16 & 0x8000;
+        int rounded = (bits & 0x7fffffff) + 0x1000;
+        if (rounded >= 0x47800000) {
+            if ((bits & 0x7fffffff) >= 0x47800000) {
+                if (rounded < 0x7f800000) {
+                    // too large: infinity
+                    return (short) (sign | 0x7c00);
+                }
+                // infinity or not a number
+                return (short) (sign | 0x7c00 | (bits & 0x007fffff) >>> 13);
+            }
+            // the largest half-precision float
+            return (short) (sign | 0x7bff);
+        }
+        if (rounded >= 0x38800000) {
+            return (short) (sign | rounded - 0x38000000 >>> 13);
+        }
+        if (rounded < 0x33000000) {
+            return (short) sign;
+        }
+        // subnormal
+        int exponent = (bits & 0x7fffffff) >>> 23;
+        return (short) (sign | ((bits & 0x7fffff | 0x800000) + (0x800000 >>> exponent - 102) >>> 126 - exponent));
+    }
+
+    static float halfToFloat(short half) {
+        int bits = half & 0xffff;
+        int mantissa = bits & 0x03ff;
+        int exponent = bits & 0x7c00;
+        if (exponent == 0x7c00) {
+            exponent = 0x3fc00;
+        } else if (exponent != 0) {
+            exponent += 0x1c000;
+        } else if (mantissa != 0) {
+            // subnormal: normalize
+            exponent = 0x1c400;
+            do {
+                mantissa <<= 1;
+                exponent -= 0x400;
+            } while ((mantissa & 0x400) == 0);
+            mantissa &= 0x3ff;
+        }
+        return Float.intBitsToFloat((bits & 0x8000) << 16 | (exponent | mantissa) << 13);
+    }
+
+}
@@ -15,9 +15,19 @@
  ******************************************************************************/
 package emlab.gen.trend;
 
+import java.nio.DoubleBuffer;
+
+/**
+ * An hourly profile per time step, read only; see
+ * {@link WritableHourlyTimeSeries} for profiles that can be replaced.
+ */
 public interface HourlyTimeSeries {
 
     public double[] getHourlyArray(long time);
 
-    public void setHourlyArray(double[] hourlyArray, long time);
+    /**
+     * Same values as {@link #getHourlyArray(long)}, as a read-only view that
+     * implementations can provide without copying.
+     */
+    public DoubleBuffer getHourlyBuffer(long time);
 }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
+import org.springframework.data.neo4j.annotation.NodeEntity;
+
+/**
+ * An hourly profile with a different weather year per time step, read from an
+ * {@link HourlyProfileStore}. Only the file, the profile name and the weather
+ * year of tick 0 are stored in the node; the values stay in the mapped store.
+ * When the ticks run past the years in the store, the weather years are
+ * repeated from the first.
+ *
+ */
+@NodeEntity
+public class MappedHourlyTimeSeries implements HourlyTimeSeries {
+
+    private String filename;
+
+    private String profileName;
+
+    private int weatherYearAtTickZero;
+
+    @Override
+    public DoubleBuffer getHourlyBuffer(long time) {
+        HourlyProfileStore store = getStore();
+        return store.getProfile(getWeatherYear(store, time), getProfileIndex(store));
+    }
+
+    /**
+     * A copy of the values; use {@link #getHourlyBuffer(long)} to read them
+     * without copying.
+     */
+    @Override
+    public double[] getHourlyArray(long time) {
+        HourlyProfileStore store = getStore();
+        double[] hourlyArray = new double[store.getHoursPerYear()];
+        store.copyProfile(getWeatherYear(store, time), getProfileIndex(store), hourlyArray);
+        return hourlyArray;
+    }
+
+    int getWeatherYear(HourlyProfileStore store, long time) {
+        long offset = weatherYearAtTickZero - store.getFirstYear() + time;
+        int numberOfYears = store.getNumberOfYears();
+        return store.getFirstYear() + (int) (((offset % numberOfYears) + numberOfYears) % numberOfYears);
+    }
+
+    private int getProfileIndex(HourlyProfileStore store) {
+        int index = store.getProfileIndex(profileName);
+        if (index < 0) {
+            throw new IllegalStateException("No profile " + profileName + " in " + filename);
+        }
+        return index;
+    }
+
+    private HourlyProfileStore getStore() {
+        try {
+            return HourlyProfileStore.open(new File(filename));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open hourly profiles " + filename, e);
+        }
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    public void setProfileName(String profileName) {
+        this.profileName = profileName;
+    }
+
+    public int getWeatherYearAtTickZero() {
+        return weatherYearAtTickZero;
+    }
+
+    public void setWeatherYearAtTickZero(int weatherYearAtTickZero) {
+        this.weatherYearAtTickZero = weatherYearAtTickZero;
+    }
+
+}
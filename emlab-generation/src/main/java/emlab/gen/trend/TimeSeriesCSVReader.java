@@ -37,29 +37,8 @@ public class TimeSeriesCSVReader extends TimeSeriesImpl {
 
 		logger.warn("Trying to read single column CSV file: " + filename);
 
-		String data = new String();
-
-        // Save the data in a long String
         try {
-
-            InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(filename));
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String line;
-			int lineCounter = 0;
-            while ((line = bufferedReader.readLine()) != null) {
-                data = data.concat(line + ",");
-				lineCounter++;
-            }
-            bufferedReader.close();
-			double[] timeSeries = new double[lineCounter];
-			int i = 0;
-			for (String s : data.split("[,]")) {
-				timeSeries[i] = Double.parseDouble(s);
-				i++;
-			}
-			setTimeSeries(timeSeries);
-
+            setTimeSeries(TimeSeriesFileCache.readValues(filename));
         } catch (Exception e) {
             logger.error("Couldn't read CSV file: " + filename);
             e.printStackTrace();
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the values of a CSV resource with one or more comma separated values
+ * per line. The file is parsed line by line once, and the values are written
+ * to a binary sidecar file in a cache directory; afterwards the sidecar is
+ * memory mapped instead, so that runs on the same machine share the page
+ * cached values and nothing is parsed again.
+ *
+ * The sidecar holds a header (a marker, the number of values, and the length
+ * and modification time of the resource it was made from) followed by the
+ * values as little-endian doubles. A sidecar that does not match its
+ * resource is made anew. The cache directory is given by the system property
+ * <code>emlab.timeseries.cache</code>, by default a directory in the
+ * temporary directory.
+ *
+ */
+public class TimeSeriesFileCache {
+
+    static final Logger logger = LoggerFactory.getLogger(TimeSeriesFileCache.class);
+
+    private static final int MARKER = 0x454d5453;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+
+    private static final Map<String, DoubleBuffer> mappedValues = new HashMap<String, DoubleBuffer>();
+
+    private TimeSeriesFileCache() {
+    }
+
+    /**
+     * @param resource
+     *            the name of the CSV resource on the class path
+     * @return all values of the resource, in the order of the file
+     */
+    public static synchronized double[] readValues(String resource) throws IOException {
+        DoubleBuffer values = mappedValues.get(resource);
+        if (values == null) {
+            values = map(resource);
+            mappedValues.put(resource, values);
+        }
+        DoubleBuffer view = values.duplicate();
+        view.rewind();
+        double[] result = new double[view.remaining()];
+        view.get(result);
+        return result;
+    }
+
+    public static File getDirectory() {
+        String directory = System.getProperty("emlab.timeseries.cache");
+        if (directory != null) {
+            return new File(directory);
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "emlab-timeseries-cache");
+    }
+
+    private static DoubleBuffer map(String resource) throws IOException {
+        URL url = TimeSeriesFileCache.class.getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException(resource);
+        }
+        URLConnection connection = url.openConnection();
+        long length = connection.getContentLength();
+        long lastModified = connection.getLastModified();
+        File sidecar = new File(getDirectory(), resource.replaceAll("[^A-Za-z0-9._-]", "_") + ".bin");
+
+        DoubleBuffer values = mapSidecar(sidecar, length, lastModified);
+        if (values == null) {
+            InputStream inputStream = connection.getInputStream();
+            try {
+                writeSidecar(sidecar, parse(inputStream), length, lastModified);
+            } finally {
+                inputStream.close();
+            }
+            values = mapSidecar(sidecar, length, lastModified);
+            if (values == null) {
+                throw new IOException("Cannot read back " + sidecar);
+            }
+        } else {
+            connection.getInputStream().close();
+        }
+        return values;
+    }
+
+    /**
+     * @return the values of the sidecar, or null if there is no sidecar for
+     *         this version of the resource
+     */
+    private static DoubleBuffer mapSidecar(File sidecar, long length, long lastModified) throws IOException {
+        if (!sidecar.isFile() || sidecar.length() < HEADER_BYTES) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(sidecar, "r");
+        try {
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int count = buffer.getInt(4);
+            if (buffer.getInt(0) != MARKER || buffer.getLong(8) != length || buffer.getLong(16) != lastModified
+                    || file.length() != HEADER_BYTES + 8L * count) {
+                return null;
+            }
+            buffer.position(HEADER_BYTES);
+            return buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes the sidecar to a temporary file first, so that other runs never
+     * map a half written sidecar.
+     */
+    private static void writeSidecar(File sidecar, double[] values, long length, long lastModified) throws IOException {
+        File directory = sidecar.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MARKER);
+        buffer.putInt(values.length);
+        buffer.putLong(length);
+        buffer.putLong(lastModified);
+        buffer.asDoubleBuffer().put(values);
+        buffer.rewind();
+
+        File temporary = File.createTempFile(sidecar.getName(), ".tmp", directory);
+        RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+        try {
+            file.getChannel().write(buffer);
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(sidecar)) {
+            sidecar.delete();
+            if (!temporary.renameTo(sidecar)) {
+                temporary.delete();
+                throw new IOException("Cannot write " + sidecar);
+            }
+        }
+        logger.info("Cached {} values in {}", values.length, sidecar);
+    }
+
+    /**
+     * Parses the values line by line, without holding the text.
+     */
+    static double[] parse(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        double[] values = new double[1024];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            StringTokenizer tokenizer = new StringTokenizer(line, ",");
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken().trim();
+                if (token.length() == 0) {
+                    continue;
+                }
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = Double.parseDouble(token);
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import java.util.Arrays;
+
+import agentspring.trend.TimeSeries;
+
+/**
+ * The values of a time series over a range of time steps, evaluated once and
+ * kept in an array, so that reading a value does not go through the node
+ * entity. Values outside the range are read from the time series itself.
+ *
+ */
+public final class TrendTable {
+
+    private final TimeSeries timeSeries;
+    private final long firstTime;
+    private final double[] values;
+
+    private TrendTable(TimeSeries timeSeries, long firstTime, double[] values) {
+        this.timeSeries = timeSeries;
+        this.firstTime = firstTime;
+        this.values = values;
+    }
+
+    /**
+     * Evaluates a time series from the first time step up to and including
+     * the last one. If the time series cannot be evaluated at some time step,
+     * e.g. because its data ends, the table ends before it.
+     */
+    public static TrendTable compile(TimeSeries timeSeries, long firstTime, long lastTime) {
+        double[] values = new double[(int) (lastTime - firstTime + 1)];
+        int size = 0;
+        try {
+            for (; size < values.length; size++) {
+                values[size] = timeSeries.getValue(firstTime + size);
+            }
+        } catch (RuntimeException e) {
+            values = Arrays.copyOf(values, size);
+        }
+        return new TrendTable(timeSeries, firstTime, values);
+    }
+
+    public double getValue(long time) {
+        long index = time - firstTime;
+        if (index >= 0 && index < values.length) {
+            return values[(int) index];
+        }
+        return timeSeries.getValue(time);
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    /**
+     * @return the last time step in the table, before the first if empty
+     */
+    public long getLastTime() {
+        return firstTime + values.length - 1;
+    }
+
+}
@@ -23,8 +23,19 @@ import org.springframework.transaction.annotation.Transactional;
 import agentspring.simulation.SimulationParameter;
 import agentspring.trend.Trend;
 import cern.jet.random.Distributions;
+import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
-
+import emlab.gen.util.RandomStreams;
+
+/**
+ * A random walk with a growth factor per time step drawn from a triangular
+ * distribution. The path is generated from a seeded random stream, see
+ * {@link #generate(long)}, and stored as an array property, so that values
+ * are read in constant time. The model generates it up front, so that the
+ * trend is not written to while the simulation runs; reading a time step
+ * that is not generated yet generates the path up to it.
+ *
+ */
 @NodeEntity
 public class TriangularTrend extends TimeSeriesImpl implements Trend {
 
@@ -39,63 +50,59 @@ public class TriangularTrend extends TimeSeriesImpl implements Trend {
     @SimulationParameter(label = "Expected growth factor per time step")
     private double top;
 
-    private String previousValues;
     private double start;
 
+    /**
+     * Seed of the random stream; if 0, a seed is drawn when the path is
+     * generated first.
+     */
+    private int seed;
+
+    // the path, indexed by time step
+    private double[] generatedValues;
+
+    /**
+     * Generates the path up to the time step first, if needed. Time steps
+     * before 0 have the start value.
+     */
 	@Override
-    @Transactional
     public double getValue(long time) {
-
-        int timeToCheck = (int) time;
-        // If previous values not existing, make it and put starting value in.
-        if (previousValues == null) {
-            // Empty
-            previousValues = "";
-            previousValues += getStart();
-            this.persist();
+        double[] values = generatedValues;
+        if (values == null || time >= values.length) {
+            generate(time);
+            values = generatedValues;
         }
+        return values[(int) Math.max(0, time)];
+    }
 
-        // Map existing
-        String[] vals = previousValues.split(",");
-        int lastFilled = vals.length - 1;
-        double[] values = null;
-
-        // Check what is bigger: what we already have or what we have to
-        // generate?
-        if (timeToCheck < lastFilled) {
-            values = new double[lastFilled + 1];
-        } else {
-            values = new double[timeToCheck + 1];
+    /**
+     * Generates the path up to and including a time step. As the path is
+     * drawn from a seeded stream, generating to a later time step keeps the
+     * values that were generated before.
+     */
+    @Transactional
+    public synchronized void generate(long horizon) {
+        if (generatedValues != null && horizon < generatedValues.length) {
+            return;
         }
-
-        for (int i = 0; i <= lastFilled; i++) {
-            values[i] = Double.parseDouble(vals[i]);
+        if (seed == 0) {
+            seed = RandomStreams.nextInt(RandomStreams.TRENDS);
         }
-
-        // If value is not already existing
-        if (timeToCheck >= lastFilled) {
-
-            // Add new values
-            for (int i = lastFilled + 1; i <= timeToCheck; i++) {
-                double lastValue = 0;
-                // don't try for element -1...
-                if (i > 0) {
-                    lastValue = values[i - 1];
-                }
-                double randomValue = Distributions.nextTriangular(RandomEngine.makeDefault());
-                double translatedValue = 0d;
-                if (randomValue < 0) {
-                    translatedValue = top + (randomValue * (top - min));
-                } else {
-                    translatedValue = top + (randomValue * (max - top));
-                }
-                double newValue = lastValue * translatedValue;
-                values[i] = newValue;
-                previousValues += "," + newValue;
+        RandomEngine engine = new MersenneTwister(seed);
+        double[] values = new double[(int) horizon + 1];
+        values[0] = getStart();
+        for (int i = 1; i < values.length; i++) {
+            double randomValue = Distributions.nextTriangular(engine);
+            double translatedValue = 0d;
+            if (randomValue < 0) {
+                translatedValue = top + (randomValue * (top - min));
+            } else {
+                translatedValue = top + (randomValue * (max - top));
             }
-            this.persist();
+            values[i] = values[i - 1] * translatedValue;
         }
-        return values[timeToCheck];
+        generatedValues = values;
+        this.persist();
     }
 
     public double getMin() {
@@ -130,4 +137,12 @@ public class TriangularTrend extends TimeSeriesImpl implements Trend {
         this.start = start;
     }
 
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
 }
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.util.SystemPropertyUtils;
+
+import emlab.gen.repository.CheckpointRepository;
+
+/**
+ * Resumes a run from a checkpoint. Add it to a scenario as
+ *
+ * <pre>
+ * &lt;bean class="emlab.gen.util.CheckpointConfigurer" /&gt;
+ * </pre>
+ *
+ * If the store of the run was restored from its checkpoints before the run
+ * started, see {@link StoreCheckpoint}, the graph is already there: the node
+ * entity beans and the factories are removed from the scenario and the
+ * {@link GraphSnapshotConfigurer} is switched off. Once the context is
+ * refreshed, the other state of the run is read from the checkpoints and
+ * the schedule continues after the tick of the last one, see
+ * {@link CheckpointRepository}. Otherwise the scenario is initialized as
+ * usual.
+ *
+ */
+public class CheckpointConfigurer implements BeanFactoryPostProcessor, ApplicationContextAware,
+        ApplicationListener<ContextRefreshedEvent>, PriorityOrdered {
+
+    static final Logger logger = LoggerFactory.getLogger(CheckpointConfigurer.class);
+
+    private ApplicationContext applicationContext;
+
+    private File store;
+
+    private long tick = -1;
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (!beanFactory.containsBean("dbPath")) {
+            return;
+        }
+        // the placeholders may not be resolved yet, run.id is a system
+        // property
+        store = new File(SystemPropertyUtils.resolvePlaceholders(beanFactory.getBean("dbPath", String.class)));
+        tick = StoreCheckpoint.readRestoredTick(store);
+        if (tick < 0) {
+            return;
+        }
+        int removed = 0;
+        BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (GraphSnapshotConfigurer.class.getName().equals(definition.getBeanClassName())) {
+                definition.getPropertyValues().add("enabled", false);
+            } else if (GraphSnapshotConfigurer.createsGraph(definition, beanFactory.getBeanClassLoader())) {
+                registry.removeBeanDefinition(name);
+                removed++;
+            }
+        }
+        logger.warn("Resuming from the checkpoint of tick {} in {}, skipping {} scenario beans",
+                new Object[] { tick, store, removed });
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (tick < 0 || event.getApplicationContext() != applicationContext) {
+            return;
+        }
+        try {
+            applicationContext.getBean(CheckpointRepository.class).resume(tick);
+        } catch (IOException e) {
+            // the scenario beans are gone, so there is nothing to fall back to
+            throw new IllegalStateException("Cannot read the checkpoints of tick " + tick, e);
+        }
+        StoreCheckpoint.clearRestoredTick(store);
+        tick = -1;
+    }
+
+    /**
+     * Runs before the other post processors of the scenario, so that the
+     * graph snapshot is switched off before it is created.
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+}
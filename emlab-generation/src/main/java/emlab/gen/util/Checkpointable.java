@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A bean that keeps state outside the graph from one tick to the next, which
+ * a checkpoint of the run has to include. See
+ * {@link emlab.gen.repository.CheckpointRepository}.
+ *
+ */
+public interface Checkpointable {
+
+    /**
+     * Writes the state at the end of the tick. It may be limited to what
+     * changed since the previous checkpoint of the run.
+     */
+    void writeCheckpoint(long tick, DataOutputStream out) throws IOException;
+
+    /**
+     * Reads the state written at a checkpoint. When a run is resumed, this is
+     * called for each of its checkpoints in order, up to the one it resumes
+     * from.
+     */
+    void readCheckpoint(long tick, DataInputStream in) throws IOException;
+
+    /**
+     * Called once the checkpoint of the tick is stored. State that is only
+     * kept for the next checkpoint can be dropped then, and not before: if
+     * the checkpoint cannot be stored, the next one has to include it.
+     */
+    void checkpointStored(long tick);
+
+}
@@ -15,6 +15,13 @@
  ******************************************************************************/
 package emlab.gen.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.neo4j.graphdb.Node;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.aspects.core.NodeBacked;
@@ -26,6 +33,8 @@ import agentspring.trend.Trend;
 import com.tinkerpop.blueprints.pgm.impls.neo4j.Neo4jVertex;
 
 import emlab.gen.domain.agent.CommoditySupplier;
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.contract.LongTermContract;
 import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
@@ -44,6 +53,10 @@ public class FiltersImpl implements Filters {
 
     private Dummy dummy;
 
+    // the node ids of the energy producers, found once per tick
+    private Set<Long> producerIds;
+    private long producerIdsTick = -1;
+
     public void init() {
         dummy = new Dummy();
     }
@@ -152,6 +165,82 @@ public class FiltersImpl implements Filters {
         return price / substance.getEnergyDensity();
     }
 
+    /**
+     * Sum of the cash flows of a type in the ledger received by energy
+     * producers in a tick.
+     */
+    public double sumLedgerCashFlowsToProducers(long tick, int type) {
+        return reps.cashFlowLedgerRepository.sumCashFlows(tick, type, null, findProducerIds(tick));
+    }
+
+    /**
+     * Sum of the cash flows of a type in the ledger paid by energy producers
+     * in a tick.
+     */
+    public double sumLedgerCashFlowsFromProducers(long tick, int type) {
+        return reps.cashFlowLedgerRepository.sumCashFlows(tick, type, findProducerIds(tick), null);
+    }
+
+    public double getLedgerBalance(Object node) {
+        NodeBacked entity = this.getEntity(node);
+        if (!(entity instanceof DecarbonizationAgent)) {
+            throw new RuntimeException("Vertex is not an Agent");
+        }
+        return reps.cashFlowLedgerRepository.getBalance((DecarbonizationAgent) entity);
+    }
+
+    /**
+     * The metrics recorded by the simulation in the last tick, as [name,
+     * value] pairs; reading them takes no queries on the graph.
+     */
+    public List<List<Object>> getRecordedMetrics() {
+        List<List<Object>> metrics = new ArrayList<List<Object>>();
+        for (Map.Entry<String, Double> value : reps.metricRepository.getValues().entrySet()) {
+            metrics.add(Arrays.<Object> asList(value.getKey(), value.getValue()));
+        }
+        return metrics;
+    }
+
+    /**
+     * The values of one metric recorded in the last tick, as [subject, value]
+     * pairs, e.g. the capacity per technology.
+     */
+    public List<List<Object>> getRecordedMetrics(String metric) {
+        List<List<Object>> metrics = new ArrayList<List<Object>>();
+        String prefix = metric + "_";
+        for (Map.Entry<String, Double> value : reps.metricRepository.getValues().entrySet()) {
+            if (value.getKey().startsWith(prefix)) {
+                metrics.add(Arrays.<Object> asList(value.getKey().substring(prefix.length()), value.getValue()));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the value of a metric without subject recorded in the last
+     *         tick, NaN if it was not recorded
+     */
+    public double getRecordedMetric(String metric) {
+        Double value = reps.metricRepository.getValues().get(metric);
+        return value == null ? Double.NaN : value;
+    }
+
+    /**
+     * The sums of all cash flow types of a tick are asked for at once, so the
+     * producers are looked up in the graph only for the first of them.
+     */
+    private synchronized Set<Long> findProducerIds(long tick) {
+        if (producerIds == null || producerIdsTick != tick) {
+            Set<Long> ids = new HashSet<Long>();
+            for (EnergyProducer producer : reps.genericRepository.findAll(EnergyProducer.class)) {
+                ids.add(producer.getNodeId());
+            }
+            producerIds = ids;
+            producerIdsTick = tick;
+        }
+        return producerIds;
+    }
+
     private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
         double priceTimesVolume = 0d;
         double volume = 0d;
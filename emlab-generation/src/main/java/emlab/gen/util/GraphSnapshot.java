@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+
+/**
+ * A compact binary image of a whole graph: all nodes and relationships with
+ * their properties, gzipped. Property keys, relationship types and entity
+ * types are written once and referred to by number afterwards. The image
+ * starts with a hash of the input it was made from, so that a stale image can
+ * be recognized without reading it.
+ *
+ * Restoring creates new nodes, so node ids are not kept. The reference node
+ * of the image is merged into the reference node of the graph.
+ *
+ */
+public final class GraphSnapshot {
+
+    static final Logger logger = LoggerFactory.getLogger(GraphSnapshot.class);
+
+    static final int MARKER = 0x454d4753;
+
+    static final int VERSION = 1;
+
+    static final String TYPE_PROPERTY = "__type__";
+
+    private static final int BATCH_SIZE = 10000;
+
+    private static final byte END = 0;
+    private static final byte NODE = 1;
+    private static final byte RELATIONSHIP = 2;
+
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte FLOAT = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte CHAR = 8;
+    private static final byte STRING = 9;
+    private static final byte ARRAY = 16;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * @return the hash the image was made from, or null if the file is not a
+     *         readable image
+     */
+    public static String readHash(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = open(file);
+            try {
+                return readHeader(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read graph snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the graph to a temporary file first, so that other runs never
+     * read a half written image.
+     *
+     * @return the number of nodes written
+     */
+    public static int write(GraphDatabaseService graph, String hash, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        int nodes = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(
+                temporary), 1 << 16)));
+        try {
+            out.writeInt(MARKER);
+            out.writeInt(VERSION);
+            out.writeUTF(hash);
+            Map<String, Integer> names = new HashMap<String, Integer>();
+            GlobalGraphOperations operations = GlobalGraphOperations.at(graph);
+            for (Node node : operations.getAllNodes()) {
+                out.writeByte(NODE);
+                out.writeLong(node.getId());
+                writeProperties(out, node, names);
+                nodes++;
+            }
+            for (Relationship relationship : operations.getAllRelationships()) {
+                out.writeByte(RELATIONSHIP);
+                out.writeLong(relationship.getStartNode().getId());
+                out.writeLong(relationship.getEndNode().getId());
+                writeName(out, relationship.getType().name(), names);
+                writeProperties(out, relationship, names);
+            }
+            out.writeByte(END);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Cannot write " + file);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Adds the nodes and relationships of the image to the graph. If a
+     * template is given, every node with an entity type is registered with
+     * it, so that the repositories find it.
+     *
+     * @return the number of nodes restored
+     */
+    public static int restore(GraphDatabaseService graph, File file, Neo4jTemplate template) throws IOException {
+        DataInputStream in = open(file);
+        Map<Long, Node> nodes = new HashMap<Long, Node>();
+        List<String> names = new ArrayList<String>();
+        Transaction transaction = graph.beginTx();
+        try {
+            readHeader(in);
+            int operations = 0;
+            byte record;
+            while ((record = in.readByte()) != END) {
+                if (record == NODE) {
+                    long id = in.readLong();
+                    Node node = id == 0 ? graph.getReferenceNode() : graph.createNode();
+                    readProperties(in, node, names);
+                    if (template != null && node.hasProperty(TYPE_PROPERTY)) {
+                        template.postEntityCreation(node, entityType((String) node.getProperty(TYPE_PROPERTY)));
+                    }
+                    nodes.put(id, node);
+                } else if (record == RELATIONSHIP) {
+                    Node start = nodes.get(in.readLong());
+                    Node end = nodes.get(in.readLong());
+                    Relationship relationship = start.createRelationshipTo(end,
+                            DynamicRelationshipType.withName(readName(in, names)));
+                    readProperties(in, relationship, names);
+                } else {
+                    throw new IOException("Corrupt graph snapshot " + file);
+                }
+                if (++operations % BATCH_SIZE == 0) {
+                    transaction.success();
+                    transaction.finish();
+                    transaction = graph.beginTx();
+                }
+            }
+            transaction.success();
+        } finally {
+            transaction.finish();
+            in.close();
+        }
+        return nodes.size();
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+    }
+
+    private static String readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MARKER || in.readInt() != VERSION) {
+                throw new IOException("Not a graph snapshot of version " + VERSION);
+            }
+            return in.readUTF();
+        } catch (EOFException e) {
+            throw new IOException("Truncated graph snapshot");
+        }
+    }
+
+    private static Class<?> entityType(String name) throws IOException {
+        try {
+            return Class.forName(name, false, GraphSnapshot.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown entity type " + name + " in graph snapshot");
+        }
+    }
+
+    /**
+     * Writes a name as its number, preceded by the name itself the first time
+     * it is used.
+     */
+    private static void writeName(DataOutputStream out, String name, Map<String, Integer> names) throws IOException {
+        Integer index = names.get(name);
+        if (index == null) {
+            out.writeInt(-1);
+            out.writeUTF(name);
+            names.put(name, names.size());
+        } else {
+            out.writeInt(index);
+        }
+    }
+
+    private static String readName(DataInputStream in, List<String> names) throws IOException {
+        int index = in.readInt();
+        if (index < 0) {
+            String name = in.readUTF();
+            names.add(name);
+            return name;
+        }
+        return names.get(index);
+    }
+
+    private static void writeProperties(DataOutputStream out, PropertyContainer container, Map<String, Integer> names)
+            throws IOException {
+        List<String> keys = new ArrayList<String>();
+        for (String key : container.getPropertyKeys()) {
+            keys.add(key);
+        }
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            writeName(out, key, names);
+            writeValue(out, container.getProperty(key));
+        }
+    }
+
+    private static void readProperties(DataInputStream in, PropertyContainer container, List<String> names)
+            throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = readName(in, names);
+            container.setProperty(key, readValue(in));
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value.getClass().isArray()) {
+            Class<?> componentType = value.getClass().getComponentType();
+            byte type = typeOf(componentType);
+            out.writeByte(ARRAY | type);
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            if (type == DOUBLE) {
+                // the common case, trend and profile values
+                for (double element : (double[]) value) {
+                    out.writeDouble(element);
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    writeElement(out, type, Array.get(value, i));
+                }
+            }
+        } else {
+            byte type = typeOf(value.getClass());
+            out.writeByte(type);
+            writeElement(out, type, value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if ((type & ARRAY) == 0) {
+            return readElement(in, type);
+        }
+        type &= ~ARRAY;
+        int length = in.readInt();
+        switch (type) {
+        case BOOLEAN: {
+            boolean[] array = new boolean[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readBoolean();
+            }
+            return array;
+        }
+        case BYTE: {
+            byte[] array = new byte[length];
+            in.readFully(array);
+            return array;
+        }
+        case SHORT: {
+            short[] array = new short[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readShort();
+            }
+            return array;
+        }
+        case INT: {
+            int[] array = new int[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readInt();
+            }
+            return array;
+        }
+        case LONG: {
+            long[] array = new long[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readLong();
+            }
+            return array;
+        }
+        case FLOAT: {
+            float[] array = new float[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readFloat();
+            }
+            return array;
+        }
+        case DOUBLE: {
+            double[] array = new double[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readDouble();
+            }
+            return array;
+        }
+        case CHAR: {
+            char[] array = new char[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = in.readChar();
+            }
+            return array;
+        }
+        case STRING: {
+            String[] array = new String[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = readString(in);
+            }
+            return array;
+        }
+        default:
+            throw new IOException("Unknown property type " + type + " in graph snapshot");
+        }
+    }
+
+    private static byte typeOf(Class<?> type) throws IOException {
+        if (type == boolean.class || type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == byte.class || type == Byte.class) {
+            return BYTE;
+        } else if (type == short.class || type == Short.class) {
+            return SHORT;
+        } else if (type == int.class || type == Integer.class) {
+            return INT;
+        } else if (type == long.class || type == Long.class) {
+            return LONG;
+        } else if (type == float.class || type == Float.class) {
+            return FLOAT;
+        } else if (type == double.class || type == Double.class) {
+            return DOUBLE;
+        } else if (type == char.class || type == Character.class) {
+            return CHAR;
+        } else if (type == String.class) {
+            return STRING;
+        }
+        throw new IOException("Cannot write property of type " + type.getName());
+    }
+
+    private static void writeElement(DataOutputStream out, byte type, Object value) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            out.writeBoolean((Boolean) value);
+            break;
+        case BYTE:
+            out.writeByte((Byte) value);
+            break;
+        case SHORT:
+            out.writeShort((Short) value);
+            break;
+        case INT:
+            out.writeInt((Integer) value);
+            break;
+        case LONG:
+            out.writeLong((Long) value);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case CHAR:
+            out.writeChar((Character) value);
+            break;
+        default:
+            writeString(out, (String) value);
+        }
+    }
+
+    private static Object readElement(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            return in.readBoolean();
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case CHAR:
+            return in.readChar();
+        case STRING:
+            return readString(in);
+        default:
+            throw new IOException("Unknown property type " + type + " in graph snapshot");
+        }
+    }
+
+    /**
+     * Strings are written with their length, since writeUTF is limited to 64k
+     * bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+}
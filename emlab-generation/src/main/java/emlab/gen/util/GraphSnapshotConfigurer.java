@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.PropertyResourceConfigurer;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.data.neo4j.annotation.NodeEntity;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.util.ClassUtils;
+
+import emlab.gen.domain.factory.PowerPlantCSVFactory;
+
+/**
+ * Restores the initial graph of a scenario from a {@link GraphSnapshot}
+ * instead of creating it from the scenario file. It is off unless enabled in
+ * the scenario:
+ *
+ * <pre>
+ * &lt;bean class="emlab.gen.util.GraphSnapshotConfigurer" p:enabled="true" /&gt;
+ * </pre>
+ *
+ * The snapshot is named by a hash of the scenario file, its parameter files,
+ * the extra sources, e.g. the CSV files the factories read, a stamp of the
+ * classpath, so that a change of the code also makes a new snapshot, and the
+ * replica seed of {@link RandomStreams}. If no
+ * snapshot with that hash exists, the scenario is initialized as usual and a
+ * snapshot is written once the context is refreshed. If it exists, the node
+ * entity beans and the factories are removed from the scenario before they
+ * are created, and the graph is restored from the snapshot instead.
+ *
+ * Random draws made during initialization, e.g. owners of plants without one
+ * in a CSV file, come from the {@link RandomStreams#FLEET} stream and are kept
+ * in the snapshot. Runs with a replica seed therefore only restore a snapshot
+ * of their own seed; runs without one share the draws of the first run.
+ *
+ */
+public class GraphSnapshotConfigurer implements BeanFactoryPostProcessor, ApplicationContextAware,
+        ApplicationListener<ContextRefreshedEvent>, Ordered {
+
+    static final Logger logger = LoggerFactory.getLogger(GraphSnapshotConfigurer.class);
+
+    private ApplicationContext applicationContext;
+
+    private String directory;
+
+    private List<String> sources = new ArrayList<String>();
+
+    private boolean enabled;
+
+    private String hash;
+
+    private File snapshot;
+
+    private boolean restore;
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (!enabled) {
+            return;
+        }
+        hash = hash(findSources(beanFactory), classpathStamp() + "seed " + RandomStreams.getSeed());
+        snapshot = new File(getDirectory(), hash + ".snapshot");
+        restore = hash.equals(GraphSnapshot.readHash(snapshot));
+        if (restore) {
+            int removed = 0;
+            BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
+            for (String name : beanFactory.getBeanDefinitionNames()) {
+                if (createsGraph(beanFactory.getBeanDefinition(name), beanFactory.getBeanClassLoader())) {
+                    registry.removeBeanDefinition(name);
+                    removed++;
+                }
+            }
+            logger.warn("Restoring the initial graph from {}, skipping {} scenario beans", snapshot, removed);
+        } else {
+            logger.warn("No graph snapshot {}, initializing from the scenario", snapshot);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (snapshot == null || event.getApplicationContext() != applicationContext) {
+            return;
+        }
+        GraphDatabaseService graph = applicationContext.getBean(GraphDatabaseService.class);
+        long start = System.currentTimeMillis();
+        if (restore) {
+            try {
+                int nodes = GraphSnapshot.restore(graph, snapshot, applicationContext.getBean(Neo4jTemplate.class));
+                logger.warn("Restored {} nodes in {} ms", nodes, System.currentTimeMillis() - start);
+            } catch (IOException e) {
+                // the scenario beans are gone, so there is nothing to fall
+                // back to
+                throw new IllegalStateException("Cannot restore graph snapshot " + snapshot, e);
+            }
+        } else {
+            try {
+                int nodes = GraphSnapshot.write(graph, hash, snapshot);
+                logger.warn("Wrote {} nodes to {} in {} ms",
+                        new Object[] { nodes, snapshot, System.currentTimeMillis() - start });
+            } catch (IOException e) {
+                logger.warn("Cannot write graph snapshot {}: {}", snapshot, e.getMessage());
+            }
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Restores or writes the graph before other listeners of the refresh use
+     * it.
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * The scenario files, the parameter files of the property configurers and
+     * the extra sources, by description so that the order is fixed.
+     */
+    private TreeMap<String, Resource> findSources(ConfigurableListableBeanFactory beanFactory) {
+        TreeMap<String, Resource> resources = new TreeMap<String, Resource>();
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (definition instanceof AbstractBeanDefinition) {
+                Resource resource = ((AbstractBeanDefinition) definition).getResource();
+                if (resource != null) {
+                    resources.put(resource.getDescription(), resource);
+                }
+            }
+            if (isA(definition, PropertyResourceConfigurer.class, beanFactory.getBeanClassLoader())) {
+                for (PropertyValue value : definition.getPropertyValues().getPropertyValues()) {
+                    if (value.getName().startsWith("location")) {
+                        addLocations(value.getValue(), resources);
+                    }
+                }
+            }
+        }
+        for (String source : sources) {
+            Resource resource = applicationContext.getResource(source);
+            resources.put(resource.getDescription(), resource);
+        }
+        return resources;
+    }
+
+    private void addLocations(Object value, TreeMap<String, Resource> resources) {
+        if (value instanceof TypedStringValue) {
+            value = ((TypedStringValue) value).getValue();
+        }
+        if (value instanceof String) {
+            Resource resource = applicationContext.getResource((String) value);
+            resources.put(resource.getDescription(), resource);
+        } else if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                addLocations(element, resources);
+            }
+        }
+    }
+
+    static String hash(TreeMap<String, Resource> resources, String stamp) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(stamp.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            byte[] buffer = new byte[1 << 16];
+            for (Resource resource : resources.values()) {
+                InputStream in = resource.getInputStream();
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read scenario sources", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A stamp of the code on the classpath: the path, size and modification
+     * time of every jar, and of every file in the class directories.
+     */
+    static String classpathStamp() {
+        StringBuilder stamp = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                stamp(new File(entry), stamp);
+            }
+        }
+        return stamp.toString();
+    }
+
+    private static void stamp(File file, StringBuilder stamp) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                stamp(child, stamp);
+            }
+        } else if (file.exists()) {
+            stamp.append(file.getPath()).append(' ').append(file.length()).append(' ').append(file.lastModified())
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Node entities end up in the graph, the factories create node entities.
+     */
+    static boolean createsGraph(BeanDefinition definition, ClassLoader classLoader) {
+        Class<?> type = typeOf(definition, classLoader);
+        return type != null
+                && (AnnotationUtils.findAnnotation(type, NodeEntity.class) != null || ClassUtils.getPackageName(type)
+                        .equals(ClassUtils.getPackageName(PowerPlantCSVFactory.class)));
+    }
+
+    private static boolean isA(BeanDefinition definition, Class<?> superType, ClassLoader classLoader) {
+        Class<?> type = typeOf(definition, classLoader);
+        return type != null && superType.isAssignableFrom(type);
+    }
+
+    private static Class<?> typeOf(BeanDefinition definition, ClassLoader classLoader) {
+        if (definition.getBeanClassName() == null) {
+            return null;
+        }
+        try {
+            return ClassUtils.forName(definition.getBeanClassName(), classLoader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @return the directory of the snapshots, by default the system property
+     *         emlab.snapshot.dir or else emlab-snapshots in the temporary
+     *         directory
+     */
+    public String getDirectory() {
+        if (directory != null) {
+            return directory;
+        }
+        String property = System.getProperty("emlab.snapshot.dir");
+        if (property != null) {
+            return property;
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "emlab-snapshots").getPath();
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public List<String> getSources() {
+        return sources;
+    }
+
+    public void setSources(List<String> sources) {
+        this.sources = sources;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+}
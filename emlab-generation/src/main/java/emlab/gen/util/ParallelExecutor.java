@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of daemon threads, one per processor, for work within a tick
+ * that can be split into independent tasks. Results are returned in the
+ * order of the tasks, so that they can be merged deterministically.
+ *
+ */
+public class ParallelExecutor {
+
+    private static ExecutorService executor;
+
+    private ParallelExecutor() {
+    }
+
+    /**
+     * Runs all tasks and waits for them.
+     *
+     * @return the results, in the order of the tasks
+     * @throws IllegalStateException
+     *             if a task failed or the calling thread was interrupted
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(getExecutor().submit(task));
+        }
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel task was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel task failed", e.getCause());
+        }
+        return results;
+    }
+
+    public static int getNumberOfThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(getNumberOfThreads(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "emlab-parallel-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named random streams of a replica. If the system property emlab.seed is
+ * set, the n-th generator of a stream is seeded from the replica seed, the
+ * stream name and n, so a replica can be repeated and replicas with different
+ * seeds draw independent streams. Without it, every generator is seeded
+ * randomly, as before.
+ *
+ */
+public final class RandomStreams {
+
+    public static final String SEED_PROPERTY = "emlab.seed";
+
+    /** Agent orders, see the findAllAtRandom methods of the repositories. */
+    public static final String AGENT_ORDER = "agentOrder";
+
+    /** Draws of the factories that create the initial fleet. */
+    public static final String FLEET = "fleet";
+
+    /** Seeds of trends that were not given one. */
+    public static final String TRENDS = "trends";
+
+    private static volatile long seed = readSeed();
+
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private RandomStreams() {
+    }
+
+    private static long readSeed() {
+        String property = System.getProperty(SEED_PROPERTY);
+        return property == null ? 0 : Long.parseLong(property.trim());
+    }
+
+    /**
+     * Sets the replica seed and restarts all streams, 0 for random seeds.
+     */
+    public static void setSeed(long seed) {
+        RandomStreams.seed = seed;
+        counters.clear();
+    }
+
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Writes the replica seed and the position of every stream, so that a
+     * resumed run draws the same numbers as one that was not stopped.
+     */
+    public static void write(DataOutputStream out) throws IOException {
+        Map<String, AtomicLong> streams = new TreeMap<String, AtomicLong>(counters);
+        out.writeLong(seed);
+        out.writeInt(streams.size());
+        for (Map.Entry<String, AtomicLong> stream : streams.entrySet()) {
+            out.writeUTF(stream.getKey());
+            out.writeLong(stream.getValue().get());
+        }
+    }
+
+    public static void read(DataInputStream in) throws IOException {
+        setSeed(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            counters.put(in.readUTF(), new AtomicLong(in.readLong()));
+        }
+    }
+
+    public static Random newRandom(String stream) {
+        return seed == 0 ? new Random() : new Random(next(stream));
+    }
+
+    public static int nextInt(String stream) {
+        return seed == 0 ? new Random().nextInt() : (int) next(stream);
+    }
+
+    /**
+     * @return an offset that separates the seeds of the replicas, 0 without a
+     *         replica seed
+     */
+    public static int offset() {
+        return seed == 0 ? 0 : (int) mix(seed);
+    }
+
+    private static long next(String stream) {
+        AtomicLong counter = counters.get(stream);
+        if (counter == null) {
+            AtomicLong existing = counters.putIfAbsent(stream, counter = new AtomicLong());
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return mix(mix(seed ^ stream.hashCode()) + counter.getAndIncrement());
+    }
+
+    /**
+     * The finalizer of splitmix64, spreads nearby seeds over all bits.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
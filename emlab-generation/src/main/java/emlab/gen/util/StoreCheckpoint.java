@@ -0,0 +1,563 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Incremental checkpoints of the store directory of the graph, plus the state
+ * of the {@link Checkpointable} beans. A checkpoint holds the list of files
+ * with their lengths and only the blocks of the files that changed since the
+ * previous checkpoint, found by comparing a digest of every block. Copying
+ * the store, rather than the nodes, keeps the node ids, which decide the
+ * order in which the repositories find entities.
+ *
+ * The store is copied between ticks, when no transaction is open, right
+ * after {@link #flush(GraphDatabaseService)} wrote what the graph database
+ * kept in memory to the store files. A stopped run is restored with
+ * {@link #main(String[])} before it is started again. The first checkpoint a
+ * run writes holds the whole store.
+ *
+ * The graph database rebuilds its lists of free ids when it opens the
+ * restored copy, so the ids of nodes deleted before the checkpoint may be
+ * reused earlier than in a run that was not stopped. A resumed run therefore
+ * only goes on exactly like the uninterrupted run if no nodes were deleted,
+ * see StoreCheckpointTest; with the deletion of old nodes it goes on from the
+ * same state, but may find entities in another order.
+ *
+ * A checkpoint file is gzipped:
+ *
+ * <pre>
+ * int MARKER, int VERSION, long tick
+ * int files, per file: UTF path, long length
+ * per changed block: byte BLOCK, UTF path, long offset, int length, bytes
+ * byte STATES, int states, per state: UTF name, int length, bytes
+ * byte END
+ * </pre>
+ *
+ */
+public class StoreCheckpoint {
+
+    static final Logger logger = LoggerFactory.getLogger(StoreCheckpoint.class);
+
+    static final int MARKER = 0x454d4350;
+
+    static final int VERSION = 1;
+
+    public static final String EXTENSION = ".checkpoint";
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private static final byte END = 0;
+    private static final byte BLOCK = 1;
+    private static final byte STATES = 2;
+
+    // the lock of the graph database is not part of the store
+    private static final String LOCK_FILE = "lock";
+
+    // marks a restored store with the tick of its checkpoint
+    private static final String RESTORED_FILE = "emlab-checkpoint";
+
+    // the data source of the graph store in the graph database
+    private static final String STORE_DATA_SOURCE = "nioneodb";
+
+    private final File store;
+
+    // per file, the digests of its blocks at the last checkpoint
+    private final Map<String, List<byte[]>> digests = new TreeMap<String, List<byte[]>>();
+
+    public StoreCheckpoint(File store) {
+        this.store = store;
+    }
+
+    /**
+     * Writes everything the graph database keeps in memory to the store
+     * files, by rotating its logical log, so that a copy of the store taken
+     * right after is complete. The graph database has no public method for
+     * this, and the one of the kernel moved between Neo4j versions, so it is
+     * found through reflection. Only to be called when no transaction is
+     * open.
+     *
+     * @throws IOException
+     *             if the store of the graph database cannot be found or
+     *             flushed
+     */
+    public static void flush(GraphDatabaseService graphDb) throws IOException {
+        Object manager = invoke(graphDb, "getXaDataSourceManager");
+        if (manager == null) {
+            // Neo4j 1.6 keeps it in the transaction module of its config
+            manager = invoke(invoke(invoke(graphDb, "getConfig"), "getTxModule"), "getXaDataSourceManager");
+        }
+        Object dataSource = invoke(manager, "getXaDataSource", STORE_DATA_SOURCE);
+        if (dataSource == null || ReflectionUtils.findMethod(dataSource.getClass(), "rotateLogicalLog") == null) {
+            throw new IOException("Cannot find the store of " + graphDb.getClass().getName() + " to flush it");
+        }
+        invoke(dataSource, "rotateLogicalLog");
+    }
+
+    /**
+     * @return the result of the method, null if the target is null or has no
+     *         such method
+     */
+    private static Object invoke(Object target, String name, Object... arguments) throws IOException {
+        if (target == null) {
+            return null;
+        }
+        Class<?>[] types = new Class<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            types[i] = arguments[i].getClass();
+        }
+        Method method = ReflectionUtils.findMethod(target.getClass(), name, types);
+        if (method == null) {
+            return null;
+        }
+        ReflectionUtils.makeAccessible(method);
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot call " + name + " of " + target.getClass().getName(), e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException("Cannot call " + name + " of " + target.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Writes a checkpoint with the blocks that changed since the previous
+     * one, to a temporary file first, so that a run that is stopped while
+     * writing still has its previous checkpoints.
+     *
+     * @return the number of blocks written
+     */
+    public int write(File file, long tick, Map<String, byte[]> states) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        Map<String, File> files = listFiles();
+        Map<String, List<byte[]>> newDigests = new TreeMap<String, List<byte[]>>();
+        int blocks = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(
+                temporary), BLOCK_SIZE)));
+        try {
+            out.writeInt(MARKER);
+            out.writeInt(VERSION);
+            out.writeLong(tick);
+            out.writeInt(files.size());
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().length());
+            }
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[BLOCK_SIZE];
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                List<byte[]> oldBlocks = digests.get(entry.getKey());
+                List<byte[]> newBlocks = new ArrayList<byte[]>();
+                InputStream in = new FileInputStream(entry.getValue());
+                try {
+                    int length;
+                    while ((length = readBlock(in, buffer)) > 0) {
+                        digest.update(buffer, 0, length);
+                        byte[] blockDigest = digest.digest();
+                        int index = newBlocks.size();
+                        newBlocks.add(blockDigest);
+                        if (oldBlocks == null || index >= oldBlocks.size()
+                                || !Arrays.equals(oldBlocks.get(index), blockDigest)) {
+                            out.writeByte(BLOCK);
+                            out.writeUTF(entry.getKey());
+                            out.writeLong((long) index * BLOCK_SIZE);
+                            out.writeInt(length);
+                            out.write(buffer, 0, length);
+                            blocks++;
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+                newDigests.put(entry.getKey(), newBlocks);
+            }
+            out.writeByte(STATES);
+            out.writeInt(states.size());
+            for (Map.Entry<String, byte[]> state : states.entrySet()) {
+                out.writeUTF(state.getKey());
+                out.writeInt(state.getValue().length);
+                out.write(state.getValue());
+            }
+            out.writeByte(END);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        digests.clear();
+        digests.putAll(newDigests);
+        return blocks;
+    }
+
+    /**
+     * Rebuilds the store of a run as it was at the last complete checkpoint
+     * in the directory, by applying all checkpoints up to it in order, and
+     * marks the store with the tick of that checkpoint, see
+     * {@link #readRestoredTick(File)}. The store directory is emptied first.
+     * The graph database must not be open.
+     *
+     * @return the tick of the checkpoint, or -1 if the directory has no
+     *         complete checkpoint and the store was left alone
+     */
+    public static long restore(File directory, File store) throws IOException {
+        List<File> checkpoints = findCheckpoints(directory);
+        if (checkpoints.isEmpty()) {
+            return -1;
+        }
+        delete(store);
+        if (!store.mkdirs()) {
+            throw new IOException("Cannot create " + store);
+        }
+        // left by a run stopped while writing a checkpoint
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+        long tick = -1;
+        for (File checkpoint : checkpoints) {
+            tick = applyBlocks(checkpoint, store);
+        }
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(store, RESTORED_FILE)));
+        try {
+            out.writeLong(tick);
+        } finally {
+            out.close();
+        }
+        return tick;
+    }
+
+    /**
+     * @return the tick of the checkpoint the store was restored from, or -1
+     *         if it was not restored
+     */
+    public static long readRestoredTick(File store) {
+        File file = new File(store, RESTORED_FILE);
+        if (!file.isFile()) {
+            return -1;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read {}: {}", file, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Removes the mark of a restored store, once the run continues from it.
+     */
+    public static void clearRestoredTick(File store) {
+        new File(store, RESTORED_FILE).delete();
+    }
+
+    /**
+     * Passes the states of the complete checkpoints in the directory up to
+     * and including a tick to the reader, in order.
+     */
+    public static void readStates(File directory, long tick, StateReader states) throws IOException {
+        for (File checkpoint : findCheckpoints(directory)) {
+            DataInputStream in = open(checkpoint);
+            try {
+                long checkpointTick = readHeader(in);
+                if (checkpointTick > tick) {
+                    break;
+                }
+                skipBlocks(in);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    byte[] state = new byte[in.readInt()];
+                    in.readFully(state);
+                    states.read(checkpointTick, name, new DataInputStream(new ByteArrayInputStream(state)));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Receives the states of the checkpoints that are read.
+     */
+    public interface StateReader {
+
+        void read(long tick, String name, DataInputStream in) throws IOException;
+
+    }
+
+    /**
+     * @return the complete checkpoints in the directory, in order of their
+     *         ticks
+     */
+    public static List<File> findCheckpoints(File directory) {
+        TreeMap<Long, File> checkpoints = new TreeMap<Long, File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(EXTENSION)) {
+                    long tick = readTick(file);
+                    if (tick >= 0) {
+                        checkpoints.put(tick, file);
+                    }
+                }
+            }
+        }
+        return new ArrayList<File>(checkpoints.values());
+    }
+
+    /**
+     * @return the tick of a complete checkpoint, or -1
+     */
+    public static long readTick(File file) {
+        try {
+            DataInputStream in = open(file);
+            try {
+                long tick = readHeader(in);
+                skipBlocks(in);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    in.readUTF();
+                    skipFully(in, in.readInt());
+                }
+                if (in.readByte() != END) {
+                    throw new IOException("Corrupt checkpoint");
+                }
+                return tick;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring incomplete checkpoint {}: {}", file, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Restores the store of a run before it is started again:
+     *
+     * <pre>
+     * java emlab.gen.util.StoreCheckpoint checkpoint-directory store-directory
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: StoreCheckpoint <checkpoint directory> <store directory>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        long tick = restore(new File(args[0]), new File(args[1]));
+        if (tick < 0) {
+            logger.warn("No checkpoints in {}, starting from the scenario", args[0]);
+        } else {
+            logger.warn("Restored {} as of tick {} in {} ms",
+                    new Object[] { args[1], tick, System.currentTimeMillis() - start });
+        }
+    }
+
+    /**
+     * Sets the files of the store to the lengths in the checkpoint, removes
+     * those that are not in it, such as rotated logs, and writes the blocks.
+     *
+     * @return the tick of the checkpoint
+     */
+    private static long applyBlocks(File checkpoint, File store) throws IOException {
+        DataInputStream in = open(checkpoint);
+        try {
+            long tick = readHeader(in);
+            Map<String, Long> lengths = new LinkedHashMap<String, Long>();
+            int files = in.readInt();
+            for (int i = 0; i < files; i++) {
+                lengths.put(in.readUTF(), in.readLong());
+            }
+            for (String path : new StoreCheckpoint(store).listFiles().keySet()) {
+                if (!lengths.containsKey(path)) {
+                    new File(store, path).delete();
+                }
+            }
+            Map<String, RandomAccessFile> open = new TreeMap<String, RandomAccessFile>();
+            try {
+                for (Map.Entry<String, Long> length : lengths.entrySet()) {
+                    File file = new File(store, length.getKey());
+                    file.getParentFile().mkdirs();
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    open.put(length.getKey(), raf);
+                    raf.setLength(length.getValue());
+                }
+                byte[] buffer = new byte[BLOCK_SIZE];
+                byte record;
+                while ((record = in.readByte()) == BLOCK) {
+                    RandomAccessFile raf = open.get(in.readUTF());
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    in.readFully(buffer, 0, length);
+                    raf.seek(offset);
+                    raf.write(buffer, 0, length);
+                }
+                if (record != STATES) {
+                    throw new IOException("Corrupt checkpoint " + checkpoint);
+                }
+            } finally {
+                for (RandomAccessFile raf : open.values()) {
+                    raf.close();
+                }
+            }
+            return tick;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the files of the store by path relative to it
+     */
+    Map<String, File> listFiles() {
+        Map<String, File> files = new TreeMap<String, File>();
+        listFiles(store, "", files);
+        return files;
+    }
+
+    private static void listFiles(File directory, String prefix, Map<String, File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFiles(child, prefix + child.getName() + "/", files);
+            } else if (!prefix.isEmpty()
+                    || !(child.getName().equals(LOCK_FILE) || child.getName().equals(RESTORED_FILE))) {
+                files.put(prefix + child.getName(), child);
+            }
+        }
+    }
+
+    private static int readBlock(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), BLOCK_SIZE)));
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MARKER || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint of version " + VERSION);
+            }
+            return in.readLong();
+        } catch (EOFException e) {
+            throw new IOException("Truncated checkpoint");
+        }
+    }
+
+    /**
+     * Skips the file table and the blocks, up to the number of states.
+     */
+    private static void skipBlocks(DataInputStream in) throws IOException {
+        int files = in.readInt();
+        for (int i = 0; i < files; i++) {
+            in.readUTF();
+            in.readLong();
+        }
+        byte record;
+        while ((record = in.readByte()) == BLOCK) {
+            in.readUTF();
+            in.readLong();
+            skipFully(in, in.readInt());
+        }
+        if (record != STATES) {
+            throw new IOException("Corrupt checkpoint");
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.springframework.beans.BeanWrapperImpl;
+
+import emlab.gen.batch.ParameterOverrides.ParameterOverride;
+import emlab.gen.domain.agent.EnergyProducer;
+
+public class ParameterOverridesTest {
+
+    @Test
+    public void testOverridesAreApplied() {
+        Properties properties = new Properties();
+        properties.setProperty("EnergyProducer[Energy Producer A].priceMarkUp", "1.2");
+        properties.setProperty("EnergyProducer.investmentFutureTimeHorizon", " 7 ");
+        List<ParameterOverride> overrides = ParameterOverrides.parse(properties);
+        assertEquals(2, overrides.size());
+
+        EnergyProducer producer = new EnergyProducer();
+        for (ParameterOverride override : overrides) {
+            override.applyTo(new BeanWrapperImpl(producer));
+        }
+        assertEquals(1.2, producer.getPriceMarkUp(), 0);
+        assertEquals(7, producer.getInvestmentFutureTimeHorizon());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlySimulationParametersCanBeChanged() {
+        Map<String, Class<?>> types = ParameterOverrides.findEntityTypes();
+        ParameterOverride.parse("EnergyProducer.willingToInvest", "false", types);
+    }
+
+    @Test
+    public void testVariantsOfASweep() {
+        Properties sweep = new Properties();
+        sweep.setProperty("scenario", "scenarioA-ToyModel.xml");
+        sweep.setProperty("variant.low.EnergyProducer.priceMarkUp", "1.05");
+        sweep.setProperty("variant.high.EnergyProducer.priceMarkUp", "1.3");
+        sweep.setProperty("variant.high.EnergyProducer.debtRatioOfInvestments", "0.5");
+        Map<String, Properties> variants = SweepRunner.getVariants(sweep);
+        assertEquals(2, variants.size());
+        assertEquals("1.3", variants.get("high").getProperty("EnergyProducer.priceMarkUp"));
+        assertEquals(2, variants.get("high").size());
+        assertEquals(1, variants.get("low").size());
+    }
+
+}
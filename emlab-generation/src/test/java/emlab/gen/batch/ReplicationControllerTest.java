@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import emlab.gen.results.ResultsFile;
+import emlab.gen.results.ResultsWriter;
+
+public class ReplicationControllerTest {
+
+    private final Properties settings = new Properties();
+
+    @Test
+    public void testConvergedWhenReplicasAgree() throws Exception {
+        ReplicationController controller = new ReplicationController(settings);
+        assertTrue(controller.isConverged(replicas(10, 5, 0.5, 5), 5));
+    }
+
+    @Test
+    public void testNotConvergedWhenReplicasSpread() throws Exception {
+        ReplicationController controller = new ReplicationController(settings);
+        assertFalse(controller.isConverged(replicas(10, 5, 20, 5), 5));
+        assertEquals("Avg_El_PricesinEURpMWh_Country A", controller.getWidest().getColumn());
+    }
+
+    @Test
+    public void testEnoughReplicasMustReachTheLastTick() throws Exception {
+        settings.setProperty("minReplicas", "10");
+        ReplicationController controller = new ReplicationController(settings);
+        // the last replica is still running
+        assertFalse(controller.isConverged(replicas(10, 5, 0.5, 3), 5));
+        assertEquals(3, controller.getWidest().getTick());
+        assertEquals(9, controller.getWidest().getReplicas());
+    }
+
+    @Test
+    public void testTooFewRecordedValuesAreNotConverged() throws Exception {
+        settings.setProperty("targetMetrics", "CapacityinMW_*");
+        ReplicationController controller = new ReplicationController(settings);
+        // all replicas agree, but only 3 of them built wind
+        assertFalse(controller.isConverged(replicasWithWind(10, 3, 0), 5));
+        assertEquals("CapacityinMW_Wind", controller.getWidest().getColumn());
+        assertEquals(3, controller.getWidest().getReplicas());
+    }
+
+    @Test
+    public void testTicksWithoutRecordedValuesAreSkipped() throws Exception {
+        settings.setProperty("targetMetrics", "CapacityinMW_*");
+        ReplicationController controller = new ReplicationController(settings);
+        // wind is only built from tick 2 on, by all replicas
+        assertTrue(controller.isConverged(replicasWithWind(10, 10, 2), 5));
+    }
+
+    @Test
+    public void testNaNMeanIsNotConverged() throws Exception {
+        ReplicationController controller = new ReplicationController(settings);
+        assertTrue(Double.isInfinite(controller.new Interval("column", 0, 10, Double.NaN, 0).getRatio()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTargetWithoutColumnFails() throws Exception {
+        settings.setProperty("targetMetrics", "Avg_El_PricesinEURpMWh_*,GenerationinMWh_*");
+        new ReplicationController(settings).isConverged(replicas(10, 5, 0.5, 5), 5);
+    }
+
+    @Test
+    public void testTargetsAreOnlyCheckedOnceATickIsDone() throws Exception {
+        settings.setProperty("targetMetrics", "GenerationinMWh_*");
+        assertFalse(new ReplicationController(settings).isConverged(replicas(10, 5, 0.5, 5), 0));
+    }
+
+    /**
+     * Replicas with the same coal capacity, of which the first ones also
+     * have wind capacity from a tick on.
+     */
+    private static List<ResultsFile.Run> replicasWithWind(int count, int withWind, int windFromTick)
+            throws Exception {
+        List<ResultsFile.Run> runs = new ArrayList<ResultsFile.Run>();
+        for (int i = 0; i < count; i++) {
+            File file = File.createTempFile("replica", ResultsFile.EXTENSION);
+            file.deleteOnExit();
+            ResultsWriter writer = new ResultsWriter(file, "replica-" + i, 4);
+            for (int tick = 0; tick < 5; tick++) {
+                writer.record(tick, "CapacityinMW_Coal", 1000);
+                if (i < withWind && tick >= windFromTick) {
+                    writer.record(tick, "CapacityinMW_Wind", 500);
+                }
+            }
+            writer.close();
+            runs.add(ResultsFile.read(file).get("replica-" + i));
+        }
+        return runs;
+    }
+
+    /**
+     * Replicas with a price of 50 plus or minus the spread, and the same
+     * capacity and emissions; the last one only got through some of the ticks.
+     */
+    private static List<ResultsFile.Run> replicas(int count, int ticks, double spread, int lastTicks)
+            throws Exception {
+        List<ResultsFile.Run> runs = new ArrayList<ResultsFile.Run>();
+        for (int i = 0; i < count; i++) {
+            File file = File.createTempFile("replica", ResultsFile.EXTENSION);
+            file.deleteOnExit();
+            ResultsWriter writer = new ResultsWriter(file, "replica-" + i, 4);
+            for (int tick = 0; tick < (i == count - 1 ? lastTicks : ticks); tick++) {
+                writer.record(tick, "Avg_El_PricesinEURpMWh_Country A", 50 + (i % 2 == 0 ? spread : -spread));
+                writer.record(tick, "CapacityinMW_Coal", 1000);
+                writer.record(tick, "CO2Emissions_inTonpA", 2e6);
+                writer.record(tick, "ProducerCash_Energy Producer A", i * 1e6);
+            }
+            writer.close();
+            runs.add(ResultsFile.read(file).get("replica-" + i));
+        }
+        return runs;
+    }
+
+}
@@ -16,9 +16,14 @@
 package emlab.gen.domain;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.junit.Before;
@@ -31,12 +36,15 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
 import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.factory.PowerPlantCSVFactory;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
+import emlab.gen.trend.GeometricTrend;
 import emlab.gen.trend.TimeSeriesImpl;
+import emlab.gen.util.Utils;
 //import emlab.gen.domain.agent.Person;
 
 /**
@@ -196,4 +204,114 @@ public class PowerPlantCSVFactoryTest {
 
     }
 
+    @Test
+    public void testLoansOwnersAndLocationsAreResolved() throws Exception {
+
+        PowerGridNode nodeDE = node("de", 1.0);
+        PowerGridNode nodeNL = node("nl", 0.5);
+        // a second node with the same name is ignored
+        PowerGridNode otherNL = node("nl", 2.0);
+
+        EnergyProducer aon = producer("aon", 0.5, 0.1);
+        EnergyProducer swe = producer("swe", 0.8, 0.05);
+
+        PowerGeneratingTechnology coalPGT = technology("coalPGT", 500, 1, 10);
+        PowerGeneratingTechnology gasPGT = technology("gasPGT", 300, 0, 5);
+
+        PowerPlantCSVFactory ppCsvFactory = new PowerPlantCSVFactory();
+        ppCsvFactory.setCsvFile("/data/jUnitpowerPlantLoans.csv");
+        ppCsvFactory.setProducers(new ArrayList<EnergyProducer>(Arrays.asList(aon, swe)));
+        ppCsvFactory.setPowerGridNodes(new ArrayList<PowerGridNode>(Arrays.asList(nodeDE, nodeNL, otherNL)));
+        ppCsvFactory.setTechnologies(new ArrayList<PowerGeneratingTechnology>(Arrays.asList(coalPGT, gasPGT)));
+        ppCsvFactory.afterPropertiesSet();
+
+        Map<String, PowerPlant> plants = new HashMap<String, PowerPlant>();
+        for (PowerPlant plant : reps.powerPlantRepository.findAll()) {
+            plants.put(plant.getName(), plant);
+        }
+        assertEquals(3, plants.size());
+
+        PowerPlant coal1 = plants.get("Coal1");
+        assertEquals(aon, coal1.getOwner());
+        assertEquals(nodeDE, coal1.getLocation());
+        assertEquals(coalPGT, coal1.getTechnology());
+        assertEquals(-6, coal1.getConstructionStartTime());
+        assertEquals(600, coal1.getActualNominalCapacity(), 0.01);
+        assertLoan(coal1, aon, 10);
+        // half of 600 MW at 1000 per MW, paid back in 10 years at 10%
+        assertEquals(48823.6, coal1.getLoan().getAmountPerPayment(), 0.1);
+
+        PowerPlant gas1 = plants.get("Gas1");
+        assertEquals(swe, gas1.getOwner());
+        assertEquals(nodeNL, gas1.getLocation());
+        assertEquals(-3, gas1.getConstructionStartTime());
+        assertEquals(150, gas1.getActualNominalCapacity(), 0.01);
+        assertLoan(gas1, swe, 5);
+
+        PowerPlant gas2 = plants.get("Gas2");
+        assertEquals(swe, gas2.getOwner());
+        assertEquals(nodeDE, gas2.getLocation());
+        assertEquals(-1, gas2.getConstructionStartTime());
+        assertEquals(300, gas2.getActualNominalCapacity(), 0.01);
+        assertLoan(gas2, swe, 5);
+
+        assertEquals(3, Utils.asList(template.findAll(Loan.class)).size());
+    }
+
+    private static void assertLoan(PowerPlant plant, EnergyProducer owner, int depreciationTime) {
+        Loan loan = plant.getLoan();
+        assertNotNull(plant.getName(), loan);
+        assertEquals(owner, loan.getFrom());
+        assertNull(loan.getTo());
+        assertEquals(depreciationTime, loan.getTotalNumberOfPayments());
+        assertEquals(plant.getConstructionStartTime(), loan.getLoanStartTime());
+        // the payments up to now are already made
+        assertEquals(-plant.getConstructionStartTime(), loan.getNumberOfPaymentsDone());
+        double debt = plant.getActualInvestedCapital() * owner.getDebtRatioOfInvestments();
+        double q = 1 + owner.getLoanInterestRate();
+        assertEquals(debt * Math.pow(q, depreciationTime) * (q - 1) / (Math.pow(q, depreciationTime) - 1),
+                loan.getAmountPerPayment(), 0.01);
+    }
+
+    private static PowerGridNode node(String name, double capacityMultiplicationFactor) {
+        PowerGridNode node = new PowerGridNode();
+        node.setName(name);
+        node.setCapacityMultiplicationFactor(capacityMultiplicationFactor);
+        node.persist();
+        return node;
+    }
+
+    private static EnergyProducer producer(String name, double debtRatio, double interestRate) {
+        EnergyProducer producer = new EnergyProducer();
+        producer.setName(name);
+        producer.setDebtRatioOfInvestments(debtRatio);
+        producer.setLoanInterestRate(interestRate);
+        producer.persist();
+        return producer;
+    }
+
+    private static PowerGeneratingTechnology technology(String name, double capacity, int permittime,
+            int depreciationTime) {
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology();
+        technology.setName(name);
+        technology.setCapacity(capacity);
+        technology.setExpectedLeadtime(1);
+        technology.setExpectedPermittime(permittime);
+        technology.setExpectedLifetime(40);
+        technology.setDepreciationTime(depreciationTime);
+        technology.setInvestmentCostTimeSeries(constant(1000));
+        technology.setEfficiencyTimeSeries(constant(0.4));
+        technology.setFixedOperatingCostTimeSeries(constant(10));
+        technology.persist();
+        return technology;
+    }
+
+    private static GeometricTrend constant(double value) {
+        GeometricTrend trend = new GeometricTrend();
+        trend.setStart(value);
+        trend.setGrowthRate(0);
+        trend.persist();
+        return trend;
+    }
+
 }
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.factory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+
+public class LoadDurationCurveFactoryTest {
+
+    @Test
+    public void testHoursAreSplitFromThePeakDown() {
+        // 100 hours with loads 1 to 100, in no particular order
+        double[] hourlyLoad = new double[100];
+        for (int hour = 0; hour < hourlyLoad.length; hour++) {
+            hourlyLoad[hour] = 1 + (hour * 37) % 100;
+        }
+        DoubleBuffer buffer = DoubleBuffer.wrap(hourlyLoad).asReadOnlyBuffer();
+
+        double[] baseLoads = LoadDurationCurveFactory.calculateBaseLoads(buffer, new double[] { 10, 40, 50 });
+        assertArrayEquals(new double[] { 95.5, 70.5, 25.5 }, baseLoads, 1e-9);
+        // the lengths are in proportion, not in hours of the profile
+        baseLoads = LoadDurationCurveFactory.calculateBaseLoads(buffer, new double[] { 876, 3504, 4380 });
+        assertArrayEquals(new double[] { 95.5, 70.5, 25.5 }, baseLoads, 1e-9);
+        // the profile is not consumed
+        assertEquals(100, buffer.remaining());
+    }
+
+}
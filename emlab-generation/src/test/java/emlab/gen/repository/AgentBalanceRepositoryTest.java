@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.util.ParallelExecutor;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class AgentBalanceRepositoryTest {
+
+    @Autowired
+    Reps reps;
+
+    @Test
+    public void testParallelTransfersAreMerged() {
+        final EnergyProducer buyer = new EnergyProducer();
+        buyer.setCash(1000);
+        buyer.persist();
+        final EnergyProducer seller = new EnergyProducer();
+        seller.persist();
+
+        reps.agentBalanceRepository.reset();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int j = 0; j < 100; j++) {
+                        reps.agentBalanceRepository.transfer(buyer, seller, 0.1);
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelExecutor.invokeAll(tasks);
+
+        assertEquals(1000, buyer.getCash(), 1e-9);
+        assertEquals(0, reps.agentBalanceRepository.getCash(buyer), 1e-6);
+
+        reps.agentBalanceRepository.merge();
+        assertEquals(0, buyer.getCash(), 1e-6);
+        assertEquals(1000, seller.getCash(), 1e-6);
+        assertEquals(1000, reps.agentBalanceRepository.getCash(seller), 1e-6);
+    }
+
+}
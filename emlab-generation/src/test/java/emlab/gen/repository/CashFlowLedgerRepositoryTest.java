@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import emlab.gen.domain.contract.CashFlow;
+
+public class CashFlowLedgerRepositoryTest {
+
+    @Test
+    public void testQueriesOverFlushedAndBufferedRows() throws Exception {
+        File directory = File.createTempFile("ledger", "");
+        directory.delete();
+        CashFlowLedgerRepository ledger = new CashFlowLedgerRepository();
+        ledger.setDirectory(directory);
+
+        long market = 1;
+        long producer = 2;
+        long government = 3;
+        long plant = 10;
+        ledger.append(market, producer, 100, CashFlow.ELECTRICITY_SPOT, 0, plant);
+        ledger.append(producer, government, 30, CashFlow.CO2TAX, 0, plant);
+        ledger.append(producer, CashFlowLedgerRepository.NONE, 5, CashFlow.FIXEDOMCOST, 0, plant);
+        ledger.flush(0);
+        ledger.append(market, producer, 80, CashFlow.ELECTRICITY_SPOT, 1, plant);
+
+        assertEquals(4, ledger.getNumberOfCashFlows());
+        assertEquals(180 - 35, ledger.getBalance(producer), 1e-9);
+        assertEquals(-180, ledger.getBalance(market), 1e-9);
+
+        Set<Long> producers = Collections.singleton(producer);
+        assertEquals(100, ledger.sumCashFlows(0, CashFlow.ELECTRICITY_SPOT, null, producers), 1e-9);
+        assertEquals(80, ledger.sumCashFlows(1, CashFlow.ELECTRICITY_SPOT, null, producers), 1e-9);
+        assertEquals(30, ledger.sumCashFlows(0, CashFlow.CO2TAX, producers, null), 1e-9);
+        assertEquals(0, ledger.sumCashFlows(0, CashFlow.CO2TAX, new HashSet<Long>(), null), 1e-9);
+        assertEquals(180, ledger.sumCashFlowsRegardingPowerPlant(plant, CashFlow.ELECTRICITY_SPOT, 0, 1), 1e-9);
+
+        ledger.flush(1);
+        assertEquals(80, ledger.sumCashFlows(1, CashFlow.ELECTRICITY_SPOT, null, producers), 1e-9);
+
+        ledger.reset();
+        assertEquals(0, ledger.getNumberOfCashFlows());
+        assertEquals(0, ledger.getBalance(producer), 0);
+    }
+
+    @Test
+    public void testResetDeletesTheSegmentFiles() throws Exception {
+        CashFlowLedgerRepository ledger = new CashFlowLedgerRepository();
+        ledger.append(1, 2, 100, CashFlow.ELECTRICITY_SPOT, 0, 10);
+        ledger.flush(0);
+        File temporary = ledger.getDirectory();
+        assertEquals(1, temporary.list().length);
+        ledger.reset();
+        assertFalse(temporary.exists());
+
+        File directory = File.createTempFile("ledger", "");
+        directory.delete();
+        ledger.setDirectory(directory);
+        ledger.append(1, 2, 100, CashFlow.ELECTRICITY_SPOT, 0, 10);
+        ledger.flush(0);
+        ledger.reset();
+        // a directory that was set is kept, without the segments
+        assertEquals(directory, ledger.getDirectory());
+        assertTrue(directory.isDirectory());
+        assertEquals(0, directory.list().length);
+        directory.delete();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import agentspring.simulation.Schedule;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+public class CheckpointRepositoryTest {
+
+    @Autowired
+    CheckpointRepository checkpointRepository;
+
+    @After
+    public void tearDown() {
+        System.clearProperty(CheckpointRepository.DIRECTORY_PROPERTY);
+    }
+
+    /**
+     * The tick of the schedule is set through reflection, so a new version of
+     * AgentSpring that renames it has to fail here rather than in a resumed
+     * run.
+     */
+    @Test
+    public void testScheduleContinuesAfterTheCheckpoint() throws Exception {
+        // no checkpoints to read
+        File directory = File.createTempFile("checkpoints", "");
+        directory.delete();
+        System.setProperty(CheckpointRepository.DIRECTORY_PROPERTY, directory.getPath());
+        Schedule schedule = Schedule.getSchedule();
+        assertNotNull(schedule);
+        long tick = schedule.getCurrentTick();
+
+        checkpointRepository.resume(tick + 4);
+        assertTrue(checkpointRepository.isResuming());
+        try {
+            checkpointRepository.continueSchedule();
+            assertEquals(tick + 5, schedule.getCurrentTick());
+            assertFalse(checkpointRepository.isResuming());
+        } finally {
+            checkpointRepository.resume(tick - 1);
+            checkpointRepository.continueSchedule();
+        }
+        assertEquals(tick, schedule.getCurrentTick());
+    }
+
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.contract.Loan;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.LoanRepository.ScheduledLoan;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class LoanRepositoryTest {
+
+    @Autowired
+    Reps reps;
+
+    private EnergyProducer producer;
+
+    private EnergyProducer bank;
+
+    @Before
+    public void setUp() {
+        producer = new EnergyProducer();
+        producer.persist();
+        bank = new EnergyProducer();
+        bank.persist();
+        reps.loanRepository.resetLoanCalendar();
+        // builds the calendar, so that new loans are added to it
+        reps.loanRepository.findLoansDue(0);
+    }
+
+    @After
+    public void tearDown() {
+        reps.loanRepository.resetLoanCalendar();
+    }
+
+    @Test
+    public void testPaymentsAreDueAtConsecutiveTicksFromTheStart() {
+        PowerPlant plant = plant();
+        Loan loan = reps.loanRepository.createLoan(producer, bank, 100, 3, 2, plant);
+        plant.createOrUpdateLoan(loan);
+        assertEquals(Arrays.asList(2l), reps.loanRepository.findDueTicksOfPowerPlant(plant));
+
+        assertFalse(pay(1).contains(loan));
+        assertTrue(pay(2).contains(loan));
+        assertEquals(Arrays.asList(3l), reps.loanRepository.findDueTicksOfPowerPlant(plant));
+        assertTrue(pay(3).contains(loan));
+        assertEquals(Arrays.asList(4l), reps.loanRepository.findDueTicksOfPowerPlant(plant));
+    }
+
+    @Test
+    public void testLoanLeavesTheCalendarWithItsFinalPayment() {
+        PowerPlant plant = plant();
+        Loan loan = reps.loanRepository.createLoan(producer, bank, 100, 2, 1, plant);
+        plant.createOrUpdateLoan(loan);
+
+        assertTrue(pay(1).contains(loan));
+        assertTrue(pay(2).contains(loan));
+        assertEquals(2, loan.getNumberOfPaymentsDone());
+        assertTrue(reps.loanRepository.findDueTicksOfPowerPlant(plant).isEmpty());
+        assertFalse(pay(3).contains(loan));
+        assertEquals(2, loan.getNumberOfPaymentsDone());
+    }
+
+    @Test
+    public void testOverdueLoansArePaidOneTickAtATime() {
+        PowerPlant plant = plant();
+        Loan loan = new Loan().persist();
+        loan.setFrom(producer);
+        loan.setTo(bank);
+        loan.setAmountPerPayment(100);
+        loan.setTotalNumberOfPayments(20);
+        loan.setNumberOfPaymentsDone(5);
+        loan.setLoanStartTime(-10);
+        plant.createOrUpdateLoan(loan);
+        reps.loanRepository.resetLoanCalendar();
+
+        assertTrue(pay(0).contains(loan));
+        assertEquals(Arrays.asList(1l), reps.loanRepository.findDueTicksOfPowerPlant(plant));
+    }
+
+    @Test
+    public void testLoansOfDismantledPlantsAreUnscheduled() {
+        PowerPlant dismantled = plant();
+        Loan loan = reps.loanRepository.createLoan(producer, bank, 100, 10, 1, dismantled);
+        dismantled.createOrUpdateLoan(loan);
+        Loan downpayment = reps.loanRepository.createLoan(producer, bank, 50, 3, 1, dismantled);
+        dismantled.createOrUpdateDownPayment(downpayment);
+        PowerPlant operational = plant();
+        Loan other = reps.loanRepository.createLoan(producer, bank, 100, 10, 1, operational);
+        operational.createOrUpdateLoan(other);
+        assertEquals(2, reps.loanRepository.findDueTicksOfPowerPlant(dismantled).size());
+
+        reps.loanRepository.unscheduleLoansOfPowerPlants(Collections.singletonList(dismantled));
+
+        assertTrue(reps.loanRepository.findDueTicksOfPowerPlant(dismantled).isEmpty());
+        List<Loan> due = pay(1);
+        assertEquals(Arrays.asList(other), due);
+    }
+
+    private PowerPlant plant() {
+        PowerPlant plant = new PowerPlant();
+        plant.setOwner(producer);
+        plant.persist();
+        return plant;
+    }
+
+    /**
+     * Makes the payments due at the tick, as the loan paying roles do.
+     */
+    private List<Loan> pay(long tick) {
+        List<Loan> loans = new ArrayList<Loan>();
+        for (ScheduledLoan scheduledLoan : reps.loanRepository.findLoansDue(tick)) {
+            Loan loan = scheduledLoan.getLoan();
+            loan.setNumberOfPaymentsDone(loan.getNumberOfPaymentsDone() + 1);
+            loans.add(loan);
+        }
+        return loans;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import emlab.gen.repository.MetricRepository.Metric;
+import emlab.gen.repository.MetricRepository.Sums;
+import emlab.gen.results.ResultsFile;
+
+public class MetricRepositoryTest {
+
+    MetricRepository metricRepository = new MetricRepository();
+
+    @After
+    public void tearDown() {
+        metricRepository.reset();
+        System.clearProperty("results.path");
+        System.clearProperty("run.id");
+        System.clearProperty(MetricRepository.TICKS_PER_CHUNK_PROPERTY);
+    }
+
+    @Test
+    public void testAggregations() {
+        metricRepository.set(Metric.CO2_PRICE, null, 10);
+        metricRepository.set(Metric.CO2_PRICE, null, 12);
+        metricRepository.add(Metric.CAPACITY, "Coal", 500);
+        Sums sums = new Sums();
+        sums.add(Metric.CAPACITY, "Coal", 300);
+        sums.add(Metric.CAPACITY, "Wind", 100);
+        metricRepository.add(sums);
+        // the second clearing of segment 1 replaces the first
+        metricRepository.set(Metric.AVERAGE_PRICE, "Country A", 1, 80, 1);
+        metricRepository.set(Metric.AVERAGE_PRICE, "Country A", 2, 30, 3);
+        metricRepository.set(Metric.AVERAGE_PRICE, "Country A", 1, 50, 1);
+        metricRepository.flush(0);
+
+        Map<String, Double> values = metricRepository.getValues();
+        assertEquals(12, values.get("CO2PriceInEURpTon"), 0);
+        assertEquals(800, values.get("CapacityinMW_Coal"), 0);
+        assertEquals(100, values.get("CapacityinMW_Wind"), 0);
+        assertEquals(35, values.get("Avg_El_PricesinEURpMWh_Country A"), 1e-9);
+
+        metricRepository.flush(1);
+        assertEquals(0, metricRepository.getValues().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregationIsChecked() {
+        metricRepository.add(Metric.CO2_PRICE, null, 1);
+    }
+
+    @Test
+    public void testMetricsAreWrittenToTheResultsFile() throws Exception {
+        File directory = File.createTempFile("metrics", "");
+        directory.delete();
+        directory.mkdirs();
+        System.setProperty("results.path", directory.getPath());
+        System.setProperty("run.id", "run-1");
+        for (int tick = 0; tick < 3; tick++) {
+            metricRepository.add(Metric.CO2_EMISSIONS, null, 100 * tick);
+            metricRepository.flush(tick);
+        }
+        metricRepository.close();
+
+        File file = new File(directory, "run-1" + ResultsFile.EXTENSION);
+        ResultsFile.Run run = ResultsFile.read(file).get("run-1");
+        assertArrayEquals(new double[] { 0, 100, 200 }, run.get("CO2Emissions_inTonpA"), 0);
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testTicksAreWrittenOnceTheirChunkIsFull() throws Exception {
+        File directory = File.createTempFile("metrics", "");
+        directory.delete();
+        directory.mkdirs();
+        System.setProperty("results.path", directory.getPath());
+        System.setProperty("run.id", "run-1");
+        System.setProperty(MetricRepository.TICKS_PER_CHUNK_PROPERTY, "2");
+        File file = new File(directory, "run-1" + ResultsFile.EXTENSION);
+        for (int tick = 0; tick < 3; tick++) {
+            metricRepository.add(Metric.CO2_EMISSIONS, null, 100 * tick);
+            metricRepository.flush(tick);
+        }
+        assertArrayEquals(new double[] { 0, 100 }, ResultsFile.read(file).get("run-1").get("CO2Emissions_inTonpA"), 0);
+
+        metricRepository.close();
+        assertArrayEquals(new double[] { 0, 100, 200 },
+                ResultsFile.read(file).get("run-1").get("CO2Emissions_inTonpA"), 0);
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testResumedRunWritesTheTicksOfTheCheckpoint() throws Exception {
+        File directory = File.createTempFile("metrics", "");
+        directory.delete();
+        directory.mkdirs();
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        for (int tick = 0; tick < 2; tick++) {
+            metricRepository.add(Metric.CO2_EMISSIONS, null, 100 * tick);
+            metricRepository.flush(tick);
+        }
+        metricRepository.writeCheckpoint(1, new DataOutputStream(checkpoint));
+
+        System.setProperty("results.path", directory.getPath());
+        System.setProperty("run.id", "run-1");
+        MetricRepository resumed = new MetricRepository();
+        resumed.readCheckpoint(1, new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())));
+        resumed.add(Metric.CO2_EMISSIONS, null, 200);
+        resumed.flush(2);
+        resumed.close();
+
+        File file = new File(directory, "run-1" + ResultsFile.EXTENSION);
+        ResultsFile.Run run = ResultsFile.read(file).get("run-1");
+        assertArrayEquals(new double[] { 0, 100, 200 }, run.get("CO2Emissions_inTonpA"), 0);
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testTicksStayInTheCheckpointsUntilOneIsStored() throws Exception {
+        metricRepository.add(Metric.CO2_EMISSIONS, null, 100);
+        metricRepository.flush(0);
+        // the checkpoint of tick 0 is not stored
+        assertEquals(1, countTicks(0));
+        metricRepository.add(Metric.CO2_EMISSIONS, null, 200);
+        metricRepository.flush(1);
+        assertEquals(2, countTicks(1));
+        metricRepository.checkpointStored(1);
+        metricRepository.add(Metric.CO2_EMISSIONS, null, 300);
+        metricRepository.flush(2);
+        assertEquals(1, countTicks(2));
+    }
+
+    private int countTicks(long tick) throws Exception {
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        metricRepository.writeCheckpoint(tick, new DataOutputStream(checkpoint));
+        return new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())).readInt();
+    }
+
+}
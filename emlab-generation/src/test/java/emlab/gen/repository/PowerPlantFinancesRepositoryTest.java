@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import emlab.gen.repository.PowerPlantFinancesRepository.Account;
+
+public class PowerPlantFinancesRepositoryTest {
+
+    @Test
+    public void testSumsOverKeptTicks() {
+        Account account = new Account(3);
+        account.add(PowerPlantFinancesRepository.REVENUE, 0, 10);
+        account.add(PowerPlantFinancesRepository.REVENUE, 1, 20);
+        account.add(PowerPlantFinancesRepository.FUEL_COST, 1, 5);
+        account.add(PowerPlantFinancesRepository.REVENUE, 2, 30);
+        // booked late
+        account.add(PowerPlantFinancesRepository.REVENUE, 1, 1);
+
+        assertEquals(61, account.sum(PowerPlantFinancesRepository.REVENUE, 0, 2), 1e-9);
+        assertEquals(21, account.sum(PowerPlantFinancesRepository.REVENUE, 1, 1), 1e-9);
+        assertEquals(5, account.sum(PowerPlantFinancesRepository.FUEL_COST, 0, 2), 1e-9);
+        assertEquals(0, account.sum(PowerPlantFinancesRepository.REVENUE, 3, 5), 1e-9);
+
+        // ticks 0 and 1 drop out of the three ticks kept
+        account.add(PowerPlantFinancesRepository.REVENUE, 3, 40);
+        account.add(PowerPlantFinancesRepository.REVENUE, 4, 0);
+        assertEquals(70, account.sum(PowerPlantFinancesRepository.REVENUE, 2, 4), 1e-9);
+        assertEquals(70, account.sum(PowerPlantFinancesRepository.REVENUE, 1, 4), 1e-9);
+
+        // a gap longer than what is kept
+        account.add(PowerPlantFinancesRepository.REVENUE, 10, 7);
+        assertEquals(7, account.sum(PowerPlantFinancesRepository.REVENUE, 8, 10), 1e-9);
+        assertEquals(0, account.sum(PowerPlantFinancesRepository.REVENUE, 8, 9), 1e-9);
+    }
+
+}
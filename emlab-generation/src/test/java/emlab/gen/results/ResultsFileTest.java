@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.results;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResultsFileTest {
+
+    private File write(String runId, int ticks) throws Exception {
+        File file = File.createTempFile(runId, ResultsFile.EXTENSION);
+        file.deleteOnExit();
+        ResultsWriter writer = new ResultsWriter(file, runId, 4);
+        for (int tick = 0; tick < ticks; tick++) {
+            writer.record(tick, "price", 10 * tick);
+            if (tick % 2 == 0) {
+                writer.record(tick, "emissions", tick + 0.5);
+            }
+        }
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, ResultsFile.Run> runs = ResultsFile.read(write("run-1", 10));
+        assertEquals(1, runs.size());
+        ResultsFile.Run run = runs.get("run-1");
+        assertEquals(10, run.getTicks());
+        assertEquals(Arrays.asList("price", "emissions"), run.getMetrics());
+        assertArrayEquals(new double[] { 0, 10, 20, 30, 40, 50, 60, 70, 80, 90 }, run.get("price"), 0);
+        assertEquals(8.5, run.get("emissions")[8], 0);
+        assertEquals(Double.NaN, run.get("emissions")[9], 0);
+    }
+
+    @Test
+    public void testIncompleteChunkIsIgnored() throws Exception {
+        File file = write("run-1", 10);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        ResultsFile.Run run = ResultsFile.read(file).get("run-1");
+        assertEquals(8, run.getTicks());
+        assertEquals(70, run.get("price")[7], 0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        File merged = File.createTempFile("batch", ResultsFile.EXTENSION);
+        merged.deleteOnExit();
+        ResultsFile.merge(Arrays.asList(write("run-1", 5), write("run-2", 7)), merged);
+        Map<String, ResultsFile.Run> runs = ResultsFile.read(merged);
+        assertEquals(Arrays.asList("run-1", "run-2"), Arrays.asList(runs.keySet().toArray()));
+        assertEquals(5, runs.get("run-1").getTicks());
+        assertEquals(7, runs.get("run-2").getTicks());
+        assertEquals(60, runs.get("run-2").get("price")[6], 0);
+    }
+
+}
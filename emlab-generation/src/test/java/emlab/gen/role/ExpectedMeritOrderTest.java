@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.ExpectedMeritOrder;
+
+public class ExpectedMeritOrderTest {
+
+    @Test
+    public void testPricesAndAvailableCapacity() {
+        // unsorted on purpose: cost 30, 10, 20
+        double[] capacity = { 100, 200, 300 };
+        double[] peak = { 1, 0.5, 1 };
+        double[] base = { 1, 1, 0.5 };
+        double[] cost = { 30, 10, 20 };
+        ExpectedMeritOrder meritOrder = new ExpectedMeritOrder(capacity, peak, base, cost);
+
+        // base segment: 200, 150, 100 available in merit order
+        assertEquals(450, meritOrder.getTotalAvailableCapacity(0), 1e-9);
+        assertEquals(10, meritOrder.findClearingPrice(0, 200, 1000), 0);
+        assertEquals(20, meritOrder.findClearingPrice(0, 200.1, 1000), 0);
+        assertEquals(30, meritOrder.findClearingPrice(0, 450, 1000), 0);
+        assertEquals(1000, meritOrder.findClearingPrice(0, 451, 1000), 0);
+        assertEquals(0, meritOrder.findClearingPrice(0, 0, 1000), 0);
+
+        // peak segment: 100, 300, 100 available in merit order
+        assertEquals(500, meritOrder.getTotalAvailableCapacity(1), 1e-9);
+        assertEquals(20, meritOrder.findClearingPrice(1, 400, 1000), 0);
+        assertEquals(30, meritOrder.findClearingPrice(1, 401, 1000), 0);
+    }
+
+    @Test
+    public void testStrategicReservePrice() {
+        double[] capacity = { 100, 200, 300 };
+        double[] peak = { 1, 0.5, 1 };
+        double[] base = { 1, 1, 0.5 };
+        double[] cost = { 30, 10, 20 };
+        ExpectedMeritOrder meritOrder = new ExpectedMeritOrder(capacity, peak, base, cost);
+
+        // 450 available in the base segment, reserve of 100
+        assertEquals(20, meritOrder.findClearingPrice(0, 349, 1000, 500, 100), 0);
+        assertEquals(500, meritOrder.findClearingPrice(0, 350, 1000, 500, 100), 0);
+        assertEquals(1000, meritOrder.findClearingPrice(0, 451, 1000, 500, 100), 0);
+        // without a reserve the plain rule applies
+        assertEquals(20, meritOrder.findClearingPrice(0, 349, 1000, 0, 0), 0);
+    }
+
+    @Test
+    public void compareWithSequentialMeritOrderScan() {
+        Random random = new Random(42);
+        int n = 200;
+        double[] capacity = new double[n];
+        double[] peak = new double[n];
+        double[] base = new double[n];
+        double[] cost = new double[n];
+        for (int i = 0; i < n; i++) {
+            capacity[i] = random.nextDouble() * 1000;
+            peak[i] = random.nextDouble();
+            base[i] = random.nextDouble();
+            cost[i] = random.nextInt(50);
+        }
+        ExpectedMeritOrder meritOrder = new ExpectedMeritOrder(capacity, peak, base, cost);
+
+        long numberOfSegments = 20;
+        for (int segmentID = 1; segmentID <= numberOfSegments; segmentID++) {
+            double portion = ExpectedMeritOrder.segmentPortion(segmentID, numberOfSegments);
+            for (double load = 0; load < 120000; load += 7919) {
+                // reference: scan plants in order of cost
+                double supply = 0d;
+                double price = 0d;
+                for (int c = 0; c < 50; c++) {
+                    for (int i = 0; i < n; i++) {
+                        if (cost[i] == c && supply < load) {
+                            supply += capacity[i] * (base[i] - portion * (base[i] - peak[i]));
+                            price = cost[i];
+                        }
+                    }
+                }
+                double expected = supply >= load ? price : -1;
+                assertEquals(expected, meritOrder.findClearingPrice(portion, load, -1), 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.InvestmentDecisionMetric;
+import emlab.gen.role.investment.MonteCarloAppraisal;
+import emlab.gen.role.investment.NpvDistribution;
+import emlab.gen.role.investment.StochasticPaths;
+
+public class MonteCarloAppraisalTest {
+
+    @Test
+    public void testPathsWithoutNoiseGiveTheDeterministicValue() {
+        MonteCarloAppraisal appraisal = appraisal();
+        StochasticPaths paths = new StochasticPaths(10, appraisal.getNumberOfYears(), 1, 42);
+        paths.sampleFuelPrice(0, 10, 5, 0, 0, 0, 0);
+        paths.sampleCO2Price(20, 0);
+        paths.sampleDemandFactor(1, 5, 0, 0, 0, 0);
+
+        NpvDistribution value = appraisal.appraise(paths)[0];
+        // price 30 set by the plant, candidate cost 10 + 0.5 * 20; two years
+        // of (30 - 20) * 1000 h * 50 MW minus fixed costs, discounted by 1 and
+        // 0.5, minus the capital costs
+        double expected = (-20000 + (500000 - 1000) * 1.5) / 50;
+        assertEquals(expected, value.getPercentile(0), 1e-9);
+        assertEquals(expected, value.getPercentile(1), 1e-9);
+    }
+
+    @Test
+    public void testYearsFollowTheirOwnPrices() {
+        MonteCarloAppraisal appraisal = appraisal();
+        StochasticPaths paths = new StochasticPaths(1, 2, 1, 42);
+        paths.sampleFuelPrice(0, 10, 0, 0, 0, 0, 0);
+        paths.sampleCO2Price(20, 0);
+        paths.sampleDemandFactor(1, 0, 0, 0, 0, 0);
+        // demand in the second year cannot be covered, the price is the value
+        // of lost load
+        paths.getDemandFactors()[paths.index(0, 1)] = 3;
+
+        double expected = (-20000 + (500000 - 1000) * 1 + ((1000 - 20) * 1000 * 50 - 1000) * 0.5) / 50;
+        assertEquals(expected, appraisal.appraise(paths)[0].getMean(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPathsMustCoverTheOperatingYears() {
+        MonteCarloAppraisal appraisal = appraisal();
+        StochasticPaths paths = new StochasticPaths(10, 1, 1, 42);
+        appraisal.appraise(paths);
+    }
+
+    @Test
+    public void testDecisionMetricsUnderAFixedSeed() {
+        NpvDistribution first = appraiseWithNoise(11);
+        NpvDistribution second = appraiseWithNoise(11);
+        assertEquals(2000, first.getNumberOfPaths());
+        for (InvestmentDecisionMetric metric : InvestmentDecisionMetric.values()) {
+            assertEquals(first.getDecisionValue(metric, 0.05), second.getDecisionValue(metric, 0.05), 0);
+        }
+
+        double mean = first.getDecisionValue(InvestmentDecisionMetric.MEAN, 0.05);
+        double percentile = first.getDecisionValue(InvestmentDecisionMetric.PERCENTILE, 0.05);
+        double cvar = first.getDecisionValue(InvestmentDecisionMetric.CVAR, 0.05);
+        assertTrue(mean > percentile);
+        assertTrue(percentile >= cvar);
+        assertTrue(first.getPercentile(0.95) > mean);
+    }
+
+    private static NpvDistribution appraiseWithNoise(int seed) {
+        MonteCarloAppraisal appraisal = appraisal();
+        StochasticPaths paths = new StochasticPaths(2000, appraisal.getNumberOfYears(), 1, seed);
+        paths.sampleFuelPrice(0, 10, 5, 0.9, 1, 1.1, 0.2);
+        paths.sampleCO2Price(20, 5);
+        paths.sampleDemandFactor(1, 5, 0.98, 1, 1.02, 0.05);
+        return appraisal.appraise(paths)[0];
+    }
+
+    /**
+     * One segment of 1000 hours with a load of 100 MW, one plant of 200 MW
+     * using 3 units of fuel per MWh, and a candidate of 50 MW that uses 1 unit
+     * of fuel and emits 0.5 ton per MWh and operates for two years.
+     */
+    private static MonteCarloAppraisal appraisal() {
+        MonteCarloAppraisal appraisal = new MonteCarloAppraisal(1, new double[] { 100 }, new double[] { 1000 },
+                new double[] { 0 }, 1000, 0, 0);
+        appraisal.addPlant(200, 1, 1, new double[] { 3 }, 0);
+        appraisal.addCandidate(50, new double[] { 50 }, new double[] { 1 }, 0.5, 1000, 0, -20000, new double[] { 1,
+                0.5 });
+        return appraisal;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.InvestmentDecisionMetric;
+import emlab.gen.role.investment.NpvDistribution;
+
+public class NpvDistributionTest {
+
+    private final NpvDistribution distribution = new NpvDistribution(new double[] { 5, -10, 20, 0, 15, -5, 10, 25,
+            30, -20 });
+
+    @Test
+    public void testMomentsAndTails() {
+        assertEquals(10, distribution.getNumberOfPaths());
+        assertEquals(7, distribution.getMean(), 1e-9);
+        assertEquals(-20, distribution.getPercentile(0.05), 0);
+        assertEquals(-20, distribution.getPercentile(0.1), 0);
+        assertEquals(5, distribution.getPercentile(0.5), 0);
+        assertEquals(30, distribution.getPercentile(1), 0);
+        assertEquals(-15, distribution.getConditionalValueAtRisk(0.2), 1e-9);
+        // at least the worst path
+        assertEquals(-20, distribution.getConditionalValueAtRisk(0.05), 1e-9);
+        assertEquals(7, distribution.getConditionalValueAtRisk(1), 1e-9);
+    }
+
+    @Test
+    public void testDecisionValues() {
+        assertEquals(7, distribution.getDecisionValue(InvestmentDecisionMetric.MEAN, 0.2), 1e-9);
+        assertEquals(7, distribution.getDecisionValue(InvestmentDecisionMetric.DETERMINISTIC, 0.2), 1e-9);
+        assertEquals(-20, distribution.getDecisionValue(InvestmentDecisionMetric.PERCENTILE, 0.1), 0);
+        assertEquals(-15, distribution.getDecisionValue(InvestmentDecisionMetric.CVAR, 0.2), 1e-9);
+    }
+
+    @Test
+    public void testEmptyDistribution() {
+        NpvDistribution empty = new NpvDistribution(new double[0]);
+        assertTrue(Double.isNaN(empty.getMean()));
+        assertTrue(Double.isNaN(empty.getPercentile(0.5)));
+        assertTrue(Double.isNaN(empty.getConditionalValueAtRisk(0.05)));
+    }
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.role.market.OrderBook;
+
+public class OrderBookTest {
+
+    @Test
+    public void testClearingAndPartialAcceptance() {
+        // offers added out of price order on purpose
+        double[] supplyPrice = { 20, 10, 30 };
+        double[] supplyAmount = { 100, 100, 100 };
+        double[] demandPrice = { 15, 50 };
+        double[] demandAmount = { 60, 120 };
+        OrderBook book = new OrderBook(supplyPrice, supplyAmount, demandPrice, demandAmount, false);
+
+        double[] cleared = book.clear(1000, Double.NaN);
+        assertEquals(20, cleared[0], 0);
+        assertEquals(120, cleared[1], 0);
+
+        book.markAcceptedBids(cleared[0], cleared[1], false);
+        book.markAcceptedBids(cleared[0], cleared[1], true);
+
+        // demand: only the bid at 50 is at or above the price
+        assertEquals(Bid.PARTLY_ACCEPTED, book.getDemandStatus(1));
+        assertEquals(120, book.getDemandAcceptedAmount(1), 1e-9);
+        assertEquals(0, book.getDemandStatus(0));
+
+        // supply: cheapest offer fully, the marginal offer for the rest
+        assertEquals(Bid.ACCEPTED, book.getSupplyStatus(1));
+        assertEquals(100, book.getSupplyAcceptedAmount(1), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, book.getSupplyStatus(0));
+        assertEquals(20, book.getSupplyAcceptedAmount(0), 1e-9);
+        assertEquals(0, book.getSupplyStatus(2));
+    }
+
+    @Test
+    public void testShortSupplyAndNoDemand() {
+        OrderBook shortBook = new OrderBook(new double[] { 10 }, new double[] { 50 }, new double[] { 100 },
+                new double[] { 80 }, false);
+        double[] cleared = shortBook.clear(1000, Double.NaN);
+        assertEquals(1000, cleared[0], 0);
+        assertEquals(50, cleared[1], 0);
+
+        OrderBook emptyBook = new OrderBook(new double[] { 10, 5 }, new double[] { 50, 50 }, new double[0],
+                new double[0], false);
+        cleared = emptyBook.clear(1000, Double.NaN);
+        assertEquals(5, cleared[0], 0);
+        assertEquals(0, cleared[1], 0);
+    }
+
+}
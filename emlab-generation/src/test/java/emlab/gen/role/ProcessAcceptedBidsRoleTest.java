@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import emlab.gen.domain.agent.CommoditySupplier;
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.AcceptedVolume;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.MarketBid;
+import emlab.gen.domain.market.TransientBid;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.market.ClearCommodityMarketRole;
+import emlab.gen.role.market.ProcessAcceptedBidsRole;
+import emlab.gen.util.Utils;
+
+/**
+ * Clears the same commodity market once with persisted bids and once with
+ * bids in the {@link emlab.gen.repository.BidBookRepository}, and processes
+ * the accepted bids; both should come to the same result. Each clearing runs
+ * in its own transaction that is rolled back.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+public class ProcessAcceptedBidsRoleTest {
+
+    @Autowired
+    Reps reps;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ClearCommodityMarketRole clearCommodityMarketRole;
+
+    @Autowired
+    ProcessAcceptedBidsRole processAcceptedBidsRole;
+
+    @Test
+    public void testBidBookKeepsBidsPerMarketTimeAndSide() {
+        new TransactionTemplate(transactionManager).execute(new TransactionCallback<Object>() {
+            @Override
+            public Object doInTransaction(TransactionStatus status) {
+                status.setRollbackOnly();
+                reps.bidBookRepository.clear();
+                CommodityMarket coal = market("Coal");
+                CommodityMarket gas = market("Gas");
+                CommoditySupplier supplier = supplier();
+                EnergyProducer producer = producer("Producer A");
+
+                TransientBid offer = reps.bidBookRepository.submitBidToMarket(coal, supplier, 0, true, 10, 100);
+                TransientBid bid = reps.bidBookRepository.submitBidToMarket(coal, producer, 0, false, 50, 80);
+                reps.bidBookRepository.submitBidToMarket(coal, producer, 1, false, 50, 80);
+                reps.bidBookRepository.submitBidToMarket(gas, producer, 0, false, 50, 80);
+
+                assertEquals(Bid.SUBMITTED, offer.getStatus());
+                assertEquals(supplier, offer.getBidder());
+                assertEquals(coal, offer.getBiddingMarket());
+                List<TransientBid> offers = reps.bidBookRepository.findBidsForMarketForTime(coal, 0, true);
+                assertEquals(1, offers.size());
+                assertTrue(offers.get(0) == offer);
+                List<TransientBid> demandBids = reps.bidBookRepository.findBidsForMarketForTime(coal, 0, false);
+                assertEquals(1, demandBids.size());
+                assertTrue(demandBids.get(0) == bid);
+                assertEquals(0, reps.bidBookRepository.findBidsForMarketForTime(gas, 0, true).size());
+
+                reps.bidBookRepository.clear();
+                assertEquals(0, reps.bidBookRepository.findBidsForMarketForTime(coal, 0, false).size());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testClearingMarksTheAcceptedBidsInMemory() {
+        Outcome inMemory = clear(true);
+
+        assertEquals(20, inMemory.price, 1e-9);
+        assertEquals(120, inMemory.volume, 1e-9);
+        // cheapest offer fully, the marginal offer for the rest
+        assertEquals(Bid.ACCEPTED, inMemory.offerStatus[0]);
+        assertEquals(100, inMemory.offerAccepted[0], 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, inMemory.offerStatus[1]);
+        assertEquals(20, inMemory.offerAccepted[1], 1e-9);
+        assertEquals(Bid.SUBMITTED, inMemory.offerStatus[2]);
+        // only the bids of producer A are at or above the price
+        assertTrue(inMemory.demandStatus[0] >= Bid.PARTLY_ACCEPTED);
+        assertTrue(inMemory.demandStatus[1] >= Bid.PARTLY_ACCEPTED);
+        assertEquals(120, inMemory.demandAccepted[0] + inMemory.demandAccepted[1], 1e-9);
+        assertEquals(Bid.SUBMITTED, inMemory.demandStatus[2]);
+
+        // one accepted volume per agent and side, none for producer B
+        assertEquals(2, inMemory.acceptedVolumes.size());
+        assertEquals(120, inMemory.acceptedVolumes.get("Supplier supply"), 1e-9);
+        assertEquals(120, inMemory.acceptedVolumes.get("Producer A demand"), 1e-9);
+        // found by their time, so that they are deleted with the bids
+        assertEquals(2, inMemory.acceptedVolumesOfTheTick);
+    }
+
+    @Test
+    public void testAcceptedVolumesSettleAsPersistedBids() {
+        Outcome persisted = clear(false);
+        Outcome inMemory = clear(true);
+
+        assertEquals(persisted.price, inMemory.price, 1e-9);
+        assertEquals(persisted.volume, inMemory.volume, 1e-9);
+        for (int i = 0; i < persisted.offerStatus.length; i++) {
+            assertEquals(persisted.offerStatus[i], inMemory.offerStatus[i]);
+            assertEquals(persisted.offerAccepted[i], inMemory.offerAccepted[i], 1e-9);
+        }
+        for (int i = 0; i < persisted.demandStatus.length; i++) {
+            assertEquals(persisted.demandStatus[i], inMemory.demandStatus[i]);
+            assertEquals(persisted.demandAccepted[i], inMemory.demandAccepted[i], 1e-9);
+        }
+        assertEquals(persisted.cash.keySet(), inMemory.cash.keySet());
+        for (String agent : persisted.cash.keySet()) {
+            assertEquals(agent, persisted.cash.get(agent), inMemory.cash.get(agent), 1e-6);
+        }
+        // 120 at a price of 20
+        assertEquals(1e6 + 2400, inMemory.cash.get("Supplier"), 1e-6);
+        assertEquals(1e6 - 2400, inMemory.cash.get("Producer A"), 1e-6);
+        assertEquals(1e6, inMemory.cash.get("Producer B"), 1e-6);
+        assertEquals(0, persisted.acceptedVolumes.size());
+    }
+
+    /**
+     * Submits the bids, clears the market at tick 0 and processes the
+     * accepted bids, either with persisted or with in-memory bids, and rolls
+     * everything back.
+     */
+    Outcome clear(final boolean inMemory) {
+        return new TransactionTemplate(transactionManager).execute(new TransactionCallback<Outcome>() {
+            @Override
+            public Outcome doInTransaction(TransactionStatus status) {
+                status.setRollbackOnly();
+                reps.agentBalanceRepository.reset();
+                reps.bidBookRepository.clear();
+                reps.bidBookRepository.setEnabled(inMemory);
+
+                CommodityMarket market = market("Coal");
+                CommoditySupplier supplier = supplier();
+                EnergyProducer producerA = producer("Producer A");
+                EnergyProducer producerB = producer("Producer B");
+
+                // offers out of price order on purpose
+                List<MarketBid> offers = new ArrayList<MarketBid>();
+                offers.add(submit(inMemory, market, supplier, true, 10, 100));
+                offers.add(submit(inMemory, market, supplier, true, 20, 100));
+                offers.add(submit(inMemory, market, supplier, true, 30, 100));
+                List<MarketBid> demandBids = new ArrayList<MarketBid>();
+                demandBids.add(submit(inMemory, market, producerA, false, 50, 80));
+                demandBids.add(submit(inMemory, market, producerA, false, 50, 40));
+                demandBids.add(submit(inMemory, market, producerB, false, 15, 60));
+
+                clearCommodityMarketRole.act(market);
+                processAcceptedBidsRole.act(market);
+                reps.agentBalanceRepository.merge();
+
+                Outcome outcome = new Outcome();
+                ClearingPoint point = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, 0);
+                outcome.price = point.getPrice();
+                outcome.volume = point.getVolume();
+                outcome.offerStatus = new int[offers.size()];
+                outcome.offerAccepted = new double[offers.size()];
+                for (int i = 0; i < offers.size(); i++) {
+                    outcome.offerStatus[i] = offers.get(i).getStatus();
+                    outcome.offerAccepted[i] = offers.get(i).getAcceptedAmount();
+                }
+                outcome.demandStatus = new int[demandBids.size()];
+                outcome.demandAccepted = new double[demandBids.size()];
+                for (int i = 0; i < demandBids.size(); i++) {
+                    outcome.demandStatus[i] = demandBids.get(i).getStatus();
+                    outcome.demandAccepted[i] = demandBids.get(i).getAcceptedAmount();
+                }
+                for (AcceptedVolume volume : Utils.asList(reps.acceptedVolumeRepository.findAllForClearingPoint(point))) {
+                    outcome.acceptedVolumes.put(volume.getAgent().getName() + (volume.isSupply() ? " supply" : " demand"),
+                            volume.getVolume());
+                }
+                outcome.acceptedVolumesOfTheTick = Utils.asList(reps.acceptedVolumeRepository.findAllForTime(0)).size();
+                for (DecarbonizationAgent agent : new DecarbonizationAgent[] { supplier, producerA, producerB }) {
+                    outcome.cash.put(agent.getName(), agent.getCash());
+                }
+                reps.bidBookRepository.setEnabled(false);
+                reps.bidBookRepository.clear();
+                return outcome;
+            }
+        });
+    }
+
+    private MarketBid submit(boolean inMemory, CommodityMarket market, DecarbonizationAgent agent, boolean isSupply,
+            double price, double amount) {
+        if (inMemory) {
+            return reps.bidBookRepository.submitBidToMarket(market, agent, 0, isSupply, price, amount);
+        }
+        return reps.nonTransactionalCreateRepository.submitBidToMarket(market, agent, 0, isSupply, price, amount);
+    }
+
+    private static CommodityMarket market(String name) {
+        Substance substance = new Substance();
+        substance.setName(name);
+        substance.persist();
+        CommodityMarket market = new CommodityMarket();
+        market.setSubstance(substance);
+        market.persist();
+        return market;
+    }
+
+    private static CommoditySupplier supplier() {
+        CommoditySupplier supplier = new CommoditySupplier();
+        supplier.setName("Supplier");
+        supplier.setCash(1e6);
+        supplier.persist();
+        return supplier;
+    }
+
+    private static EnergyProducer producer(String name) {
+        EnergyProducer producer = new EnergyProducer();
+        producer.setName(name);
+        producer.setCash(1e6);
+        producer.persist();
+        return producer;
+    }
+
+    /**
+     * What a clearing left behind, read before the rollback. The bids are in
+     * the order they were submitted.
+     */
+    static class Outcome {
+        double price;
+        double volume;
+        int[] offerStatus;
+        double[] offerAccepted;
+        int[] demandStatus;
+        double[] demandAccepted;
+        // by agent name and side
+        final Map<String, Double> acceptedVolumes = new TreeMap<String, Double>();
+        int acceptedVolumesOfTheTick;
+        // by agent name
+        final Map<String, Double> cash = new TreeMap<String, Double>();
+    }
+
+}
@@ -16,8 +16,12 @@
 package emlab.gen.role;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 import org.junit.Before;
 import org.junit.Test;
@@ -30,15 +34,19 @@ import org.springframework.transaction.annotation.Transactional;
 
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.TargetInvestor;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.policy.PowerGeneratingTechnologyTarget;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGeneratingTechnologyNodeLimit;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.MarketRepository;
 import emlab.gen.repository.PowerGenerationTechnologyTargetRepository;
 import emlab.gen.repository.PowerPlantRepository;
+import emlab.gen.repository.Reps;
 import emlab.gen.role.investment.GenericInvestmentRole;
 import emlab.gen.role.investment.TargetInvestmentRole;
 import emlab.gen.trend.GeometricTrend;
@@ -55,6 +63,9 @@ public class RenewableTargetInvestmentRoleTest {
 
 	Logger logger = Logger.getLogger(RenewableTargetInvestmentRoleTest.class);
 
+	@Autowired
+	Reps reps;
+
 	@Autowired
 	PowerPlantRepository powerPlantRepository;
 	@Autowired
@@ -351,4 +362,139 @@ public class RenewableTargetInvestmentRoleTest {
 				peakPowerPlantCapacity, 0.1);
 	}
 
+	@Test
+	public void testCalculateTargetGaps() {
+		TargetInvestor rti = template.findAll(TargetInvestor.class).iterator()
+				.next();
+		List<PowerGeneratingTechnologyTarget> targets = targets(rti);
+
+		double[] gaps = findRole().calculateTargetGaps(
+				rti.getInvestorMarket(), targets);
+
+		// Wind: 400 + 3 * 100 at tick 3, 400 installed. PV: 400 + 1 * 100
+		// at tick 1, 300 installed.
+		assertEquals(2, gaps.length);
+		assertEquals(300, gaps[indexOf(targets, "Wind")], 0.01);
+		assertEquals(200, gaps[indexOf(targets, "PV")], 0.01);
+	}
+
+	@Test
+	public void testCalculateTargetGapsWithNodeLimit() {
+		TargetInvestor rti = template.findAll(TargetInvestor.class).iterator()
+				.next();
+		List<PowerGeneratingTechnologyTarget> targets = targets(rti);
+		PowerGeneratingTechnologyTarget windTarget = targets.get(indexOf(
+				targets, "Wind"));
+
+		PowerGridNode nodeA = null;
+		for (PowerGridNode node : template.findAll(PowerGridNode.class)) {
+			if (node.getZone().getName().equals("ZoneA"))
+				nodeA = node;
+		}
+		PowerGeneratingTechnologyNodeLimit limit = new PowerGeneratingTechnologyNodeLimit();
+		limit.setPowerGeneratingTechnology(windTarget
+				.getPowerGeneratingTechnology());
+		limit.setPowerGridNode(nodeA);
+		limit.setPermanentUpperCapacityLimit(500);
+		template.save(limit);
+
+		double[] gaps = findRole().calculateTargetGaps(
+				rti.getInvestorMarket(), targets);
+
+		// The limit of 500 is lower than the target of 700.
+		assertEquals(100, gaps[indexOf(targets, "Wind")], 0.01);
+		assertEquals(200, gaps[indexOf(targets, "PV")], 0.01);
+	}
+
+	@Test
+	public void testCalculateTargetGapsCountsPlannedCapacity() {
+		TargetInvestor rti = template.findAll(TargetInvestor.class).iterator()
+				.next();
+		List<PowerGeneratingTechnologyTarget> targets = targets(rti);
+		PowerGeneratingTechnologyTarget windTarget = targets.get(indexOf(
+				targets, "Wind"));
+		targets.add(windTarget);
+
+		double[] gaps = findRole().calculateTargetGaps(
+				rti.getInvestorMarket(), targets);
+
+		// The capacity planned for the first wind target closes the gap of
+		// the second.
+		assertEquals(300, gaps[indexOf(targets, "Wind")], 0.01);
+		assertEquals(0, gaps[2], 0.01);
+	}
+
+	@Test
+	public void testLoansAreCreatedForNewPlants() {
+		TargetInvestor rti = template.findAll(TargetInvestor.class).iterator()
+				.next();
+
+		genericInvestmentRole.act(rti);
+
+		int newPlants = 0;
+		for (PowerPlant plant : powerPlantRepository
+				.findPowerPlantsInMarket(rti.getInvestorMarket())) {
+			if (plant.getConstructionStartTime() != 0)
+				continue;
+			newPlants++;
+			Loan loan = plant.getLoan();
+			assertNotNull(loan);
+			assertEquals(plant, loan.getRegardingPowerPlant());
+			assertEquals(rti, loan.getFrom());
+			assertEquals(0, loan.getLoanStartTime());
+			assertEquals(plant.getTechnology().getDepreciationTime(),
+					loan.getTotalNumberOfPayments());
+		}
+		assertEquals(2, newPlants);
+	}
+
+	@Test
+	public void testActWithCashFlowLedger() {
+		TargetInvestor rti = template.findAll(TargetInvestor.class).iterator()
+				.next();
+
+		reps.cashFlowLedgerRepository.reset();
+		reps.cashFlowLedgerRepository.setEnabled(true);
+		try {
+			genericInvestmentRole.act(rti);
+
+			int newPlants = 0;
+			for (PowerPlant plant : powerPlantRepository
+					.findPowerPlantsInMarket(rti.getInvestorMarket())) {
+				if (plant.getConstructionStartTime() != 0)
+					continue;
+				newPlants++;
+				assertNotNull(plant.getNodeId());
+				// the down payments are booked against the new plant
+				assertTrue(reps.cashFlowLedgerRepository
+						.sumCashFlowsRegardingPowerPlant(plant.getNodeId(),
+								CashFlow.DOWNPAYMENT, 0,
+								plant.getActualLeadtime()) > 0);
+			}
+			assertEquals(2, newPlants);
+		} finally {
+			reps.cashFlowLedgerRepository.setEnabled(false);
+			reps.cashFlowLedgerRepository.reset();
+		}
+	}
+
+	private TargetInvestmentRole findRole() {
+		return template.findAll(TargetInvestmentRole.class).iterator().next();
+	}
+
+	private List<PowerGeneratingTechnologyTarget> targets(TargetInvestor rti) {
+		return new ArrayList<PowerGeneratingTechnologyTarget>(
+				rti.getPowerGenerationTechnologyTargets());
+	}
+
+	private int indexOf(List<PowerGeneratingTechnologyTarget> targets,
+			String technologyName) {
+		for (int i = 0; i < targets.size(); i++) {
+			if (targets.get(i).getPowerGeneratingTechnology().getName()
+					.equals(technologyName))
+				return i;
+		}
+		return -1;
+	}
+
 }
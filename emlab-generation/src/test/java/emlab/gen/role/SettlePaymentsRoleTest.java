@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.PowerPlantMaintainer;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.Loan;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentClearingPoint;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.PowerPlantFinancesRepository;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.market.ProcessAcceptedPowerPlantDispatchRole;
+import emlab.gen.role.market.ReceiveLongTermContractPowerRevenuesRole;
+import emlab.gen.role.operating.PayCO2TaxRole;
+import emlab.gen.role.operating.PayForLoansRole;
+import emlab.gen.role.operating.PayOperatingAndMaintainanceCostsRole;
+import emlab.gen.role.operating.SettlePaymentsRole;
+import emlab.gen.trend.StepTrend;
+
+/**
+ * Settles the same tick once through the roles per kind of payment and once
+ * through the {@link SettlePaymentsRole}; both should come to the same
+ * result. Each settlement runs in its own transaction that is rolled back.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+public class SettlePaymentsRoleTest {
+
+    @Autowired
+    Reps reps;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    SettlePaymentsRole settlePaymentsRole;
+
+    @Autowired
+    PayForLoansRole payForLoansRole;
+
+    @Autowired
+    ReceiveLongTermContractPowerRevenuesRole receiveLongTermContractPowerRevenuesRole;
+
+    @Autowired
+    ProcessAcceptedPowerPlantDispatchRole processAcceptedPowerPlantDispatchRole;
+
+    @Autowired
+    PayOperatingAndMaintainanceCostsRole payOperatingAndMaintainanceCostsRole;
+
+    @Autowired
+    PayCO2TaxRole payCO2TaxRole;
+
+    @Test
+    public void testBothPathsRecordTheSameMetrics() {
+        Map<String, Double> perRole = settle(false).metrics;
+        Map<String, Double> batched = settle(true).metrics;
+
+        assertEquals(perRole.keySet(), batched.keySet());
+        for (String column : perRole.keySet()) {
+            assertEquals(column, perRole.get(column), batched.get(column), 1e-6);
+        }
+        // 500 MW of coal, 100 MW gas; only coal ran, 400 MW for 10 + 200 MW
+        // for 20 hours, at 0.5 t/MWh
+        assertEquals(500, batched.get("CapacityinMW_Coal"), 1e-6);
+        assertEquals(100, batched.get("CapacityinMW_Gas"), 1e-6);
+        assertEquals(8000, batched.get("GenerationinMWh_Coal"), 1e-6);
+        assertEquals(0, batched.get("GenerationinMWh_Gas"), 1e-6);
+        assertEquals(4000, batched.get("CO2Emissions_inTonpA"), 1e-6);
+    }
+
+    @Test
+    public void testBothPathsSettleTheSame() {
+        Outcome perRole = settle(false);
+        Outcome batched = settle(true);
+
+        assertEquals(perRole.cash.keySet(), batched.cash.keySet());
+        for (String agent : perRole.cash.keySet()) {
+            assertEquals(agent, perRole.cash.get(agent), batched.cash.get(agent), 1e-6);
+        }
+        assertEquals(perRole.ledgerSums.keySet(), batched.ledgerSums.keySet());
+        for (Integer type : perRole.ledgerSums.keySet()) {
+            assertEquals("cash flow type " + type, perRole.ledgerSums.get(type), batched.ledgerSums.get(type), 1e-6);
+        }
+        assertEquals(perRole.loanPayments, batched.loanPayments);
+        assertEquals(perRole.fuelCosts.keySet(), batched.fuelCosts.keySet());
+        for (String technology : perRole.fuelCosts.keySet()) {
+            assertEquals(technology, perRole.fuelCosts.get(technology), batched.fuelCosts.get(technology), 1e-6);
+        }
+
+        // spot revenue of the accepted plan, minus loan, maintenance and tax
+        assertEquals(1e6 + 160000 - 2000 - 1000 - 20000, batched.cash.get("Coal Producer"), 1e-6);
+        assertEquals(1e6 - 300, batched.cash.get("Gas Producer"), 1e-6);
+        assertEquals(Long.valueOf(4), batched.loanPayments.get("Coal"));
+        assertEquals(80000, batched.fuelCosts.get("Coal"), 1e-6);
+    }
+
+    /**
+     * Builds the world, settles tick 0 through one of the paths, and rolls
+     * everything back.
+     */
+    Outcome settle(final boolean batched) {
+        return new TransactionTemplate(transactionManager).execute(new TransactionCallback<Outcome>() {
+            @Override
+            public Outcome doInTransaction(TransactionStatus status) {
+                status.setRollbackOnly();
+                reps.metricRepository.reset();
+                reps.loanRepository.resetLoanCalendar();
+                reps.agentBalanceRepository.reset();
+                reps.powerPlantFinancesRepository.reset();
+                reps.trendTableRepository.reset();
+                reps.cashFlowLedgerRepository.reset();
+                reps.cashFlowLedgerRepository.setEnabled(true);
+
+                World world = createWorld();
+                if (batched) {
+                    settlePaymentsRole.act(world.model);
+                } else {
+                    payForLoansRole.payDueLoans();
+                    for (EnergyProducer producer : world.producers) {
+                        receiveLongTermContractPowerRevenuesRole.act(producer);
+                    }
+                    processAcceptedPowerPlantDispatchRole.act(world.market);
+                    for (EnergyProducer producer : world.producers) {
+                        payOperatingAndMaintainanceCostsRole.act(producer);
+                        payCO2TaxRole.act(producer);
+                    }
+                }
+                reps.agentBalanceRepository.merge();
+                reps.metricRepository.flush(0);
+
+                Outcome outcome = new Outcome();
+                outcome.metrics = reps.metricRepository.getValues();
+                for (DecarbonizationAgent agent : reps.genericRepository.findAll(DecarbonizationAgent.class)) {
+                    outcome.cash.put(agent.getName(), agent.getCash());
+                }
+                for (int type = CashFlow.UNCLASSIFIED; type <= CashFlow.STRRESPAYMENT; type++) {
+                    double sum = reps.cashFlowLedgerRepository.sumCashFlows(0, type, null, null);
+                    if (sum != 0) {
+                        outcome.ledgerSums.put(type, sum);
+                    }
+                }
+                for (Loan loan : world.loans) {
+                    outcome.loanPayments.put(loan.getRegardingPowerPlant().getTechnology().getName(),
+                            loan.getNumberOfPaymentsDone());
+                }
+                for (PowerPlant plant : reps.genericRepository.findAll(PowerPlant.class)) {
+                    outcome.fuelCosts.put(plant.getTechnology().getName(), reps.powerPlantFinancesRepository.getSum(
+                            plant, PowerPlantFinancesRepository.FUEL_COST, 0, 0));
+                }
+                reps.cashFlowLedgerRepository.setEnabled(false);
+                reps.cashFlowLedgerRepository.reset();
+                return outcome;
+            }
+        });
+    }
+
+    /**
+     * One market with two segments, two producers with a coal and a gas
+     * plant, a loan and a CO2 tax.
+     */
+    World createWorld() {
+        World world = new World();
+        world.model = new DecarbonizationModel();
+        world.model.setCo2TradingImplemented(false);
+        world.model.persist();
+
+        StepTrend co2Tax = new StepTrend();
+        co2Tax.setStart(5);
+        co2Tax.setDuration(1);
+        co2Tax.setIncrement(0);
+        co2Tax.persist();
+        Government government = new Government();
+        government.setName("Government");
+        government.setCo2TaxTrend(co2Tax);
+        government.persist();
+        PowerPlantMaintainer maintainer = new PowerPlantMaintainer();
+        maintainer.setName("Maintainer");
+        maintainer.persist();
+
+        Substance coal = new Substance();
+        coal.setName("Coal");
+        coal.setCo2Density(1);
+        coal.persist();
+        CommodityMarket coalMarket = new CommodityMarket();
+        coalMarket.setSubstance(coal);
+        coalMarket.setReferencePrice(20);
+        coalMarket.persist();
+
+        Segment base = new Segment();
+        base.setLengthInHours(10);
+        base.persist();
+        Segment peak = new Segment();
+        peak.setLengthInHours(20);
+        peak.persist();
+
+        world.market = new ElectricitySpotMarket();
+        world.market.setName("Market");
+        world.market.persist();
+        clearingPoint(world.market, base, 40);
+        clearingPoint(world.market, peak, 60);
+
+        EnergyProducer coalProducer = producer("Coal Producer");
+        EnergyProducer gasProducer = producer("Gas Producer");
+        world.producers.add(coalProducer);
+        world.producers.add(gasProducer);
+
+        SubstanceShareInFuelMix coalMix = new SubstanceShareInFuelMix();
+        coalMix.setSubstance(coal);
+        coalMix.setShare(0.5);
+        coalMix.persist();
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        fuelMix.add(coalMix);
+
+        PowerPlant coalPlant = plant(coalProducer, technology("Coal"), 500, 1000);
+        coalPlant.setFuelMix(fuelMix);
+        PowerPlant gasPlant = plant(gasProducer, technology("Gas"), 100, 300);
+
+        Loan loan = new Loan();
+        loan.setFrom(coalProducer);
+        loan.setTo(government);
+        loan.setAmountPerPayment(2000);
+        loan.setTotalNumberOfPayments(10);
+        loan.setNumberOfPaymentsDone(3);
+        loan.setLoanStartTime(coalPlant.getConstructionStartTime());
+        loan.setRegardingPowerPlant(coalPlant);
+        loan.persist();
+        coalPlant.setLoan(loan);
+        world.loans.add(loan);
+
+        dispatchPlan(world.market, coalPlant, base, 400, Bid.ACCEPTED);
+        dispatchPlan(world.market, coalPlant, peak, 200, Bid.PARTLY_ACCEPTED);
+        dispatchPlan(world.market, gasPlant, peak, 0, Bid.FAILED);
+        return world;
+    }
+
+    private static EnergyProducer producer(String name) {
+        EnergyProducer producer = new EnergyProducer();
+        producer.setName(name);
+        producer.setCash(1e6);
+        producer.persist();
+        return producer;
+    }
+
+    private static PowerGeneratingTechnology technology(String name) {
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology();
+        technology.setName(name);
+        technology.persist();
+        return technology;
+    }
+
+    private static PowerPlant plant(EnergyProducer owner, PowerGeneratingTechnology technology, double capacity,
+            double fixedOperatingCost) {
+        PowerPlant plant = new PowerPlant();
+        plant.setOwner(owner);
+        plant.setTechnology(technology);
+        plant.setActualNominalCapacity(capacity);
+        plant.setActualFixedOperatingCost(fixedOperatingCost);
+        plant.setConstructionStartTime(-10);
+        plant.setActualPermittime(1);
+        plant.setActualLeadtime(1);
+        plant.setDismantleTime(1000);
+        plant.setFuelMix(new HashSet<SubstanceShareInFuelMix>());
+        plant.persist();
+        return plant;
+    }
+
+    private static void clearingPoint(ElectricitySpotMarket market, Segment segment, double price) {
+        SegmentClearingPoint point = new SegmentClearingPoint();
+        point.setAbstractMarket(market);
+        point.setSegment(segment);
+        point.setPrice(price);
+        point.setTime(0l);
+        point.persist();
+    }
+
+    private static void dispatchPlan(ElectricitySpotMarket market, PowerPlant plant, Segment segment,
+            double acceptedAmount, int status) {
+        PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+        plan.setBiddingMarket(market);
+        plan.setBidder(plant.getOwner());
+        plan.setPowerPlant(plant);
+        plan.setSegment(segment);
+        plan.setAmount(plant.getActualNominalCapacity());
+        plan.setAcceptedAmount(acceptedAmount);
+        plan.setStatus(status);
+        plan.setTime(0l);
+        plan.persist();
+    }
+
+    static class World {
+        DecarbonizationModel model;
+        ElectricitySpotMarket market;
+        final Set<EnergyProducer> producers = new HashSet<EnergyProducer>();
+        final Set<Loan> loans = new HashSet<Loan>();
+    }
+
+    /**
+     * What a settlement left behind, read before the rollback.
+     */
+    static class Outcome {
+        Map<String, Double> metrics;
+        // by agent name
+        final Map<String, Double> cash = new TreeMap<String, Double>();
+        // by cash flow type
+        final Map<Integer, Double> ledgerSums = new TreeMap<Integer, Double>();
+        // by technology of the plant
+        final Map<String, Long> loanPayments = new TreeMap<String, Long>();
+        final Map<String, Double> fuelCosts = new TreeMap<String, Double>();
+    }
+
+}
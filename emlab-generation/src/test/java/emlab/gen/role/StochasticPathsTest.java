@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.StochasticPaths;
+
+public class StochasticPathsTest {
+
+    private static final int PATHS = 20000;
+
+    @Test
+    public void testLognormalResidualsOfEveryYear() {
+        StochasticPaths paths = new StochasticPaths(PATHS, 3, 1, 42);
+        double sigma = 0.2;
+        paths.sampleFuelPrice(0, 10, 5, 0, 0, 0, sigma);
+        double[] prices = paths.getFuelPrices(0);
+        assertEquals(PATHS * 3, prices.length);
+        for (int year = 0; year < 3; year++) {
+            double[] logs = logs(paths, prices, year);
+            assertEquals(10, mean(exps(logs)), 0.05);
+            assertEquals(Math.log(10) - sigma * sigma / 2, mean(logs), 0.005);
+            assertEquals(sigma * sigma, variance(logs), 0.002);
+        }
+        // drawn anew every year
+        assertEquals(0, correlation(logs(paths, prices, 0), logs(paths, prices, 1)), 0.03);
+    }
+
+    @Test
+    public void testTriangularWalkWidensOverTheYears() {
+        StochasticPaths paths = new StochasticPaths(PATHS, 6, 1, 42);
+        // 4 steps up to the horizon, then one more per year
+        paths.sampleFuelPrice(0, 10, 4, 0.9, 1, 1.1, 0);
+        double[] prices = paths.getFuelPrices(0);
+        double[] atHorizon = logs(paths, prices, 0);
+        double[] lastYear = logs(paths, prices, 5);
+        assertEquals(10, mean(exps(atHorizon)), 0.02);
+        assertEquals(10, mean(exps(lastYear)), 0.03);
+        double ratio = variance(lastYear) / variance(atHorizon);
+        assertEquals(9 / 4d, ratio, 0.15);
+        // a random walk, so the years of a path are correlated
+        assertTrue(correlation(atHorizon, lastYear) > 0.5);
+    }
+
+    @Test
+    public void testSkewedTriangleKeepsTheExpectedValue() {
+        StochasticPaths paths = new StochasticPaths(PATHS, 4, 1, 42);
+        paths.sampleFuelPrice(0, 10, 2, 0.95, 1, 1.2, 0.1);
+        double[] prices = paths.getFuelPrices(0);
+        for (int year = 0; year < 4; year++) {
+            assertEquals(10, mean(exps(logs(paths, prices, year))), 0.05);
+        }
+    }
+
+    @Test
+    public void testCO2PriceIsTruncatedAtZero() {
+        StochasticPaths paths = new StochasticPaths(PATHS, 2, 0, 42);
+        paths.sampleCO2Price(5, 10);
+        double sum = 0d;
+        int zeros = 0;
+        for (double price : paths.getCo2Prices()) {
+            assertTrue(price >= 0);
+            sum += price;
+            zeros += price == 0 ? 1 : 0;
+        }
+        // mean of max(0, X) for X normal with mean 5 and standard deviation 10
+        assertEquals(6.978, sum / paths.getCo2Prices().length, 0.15);
+        assertEquals(0.3085, zeros / (double) paths.getCo2Prices().length, 0.01);
+    }
+
+    @Test
+    public void testSameSeedGivesTheSamePaths() {
+        StochasticPaths first = new StochasticPaths(100, 4, 1, 7);
+        StochasticPaths second = new StochasticPaths(100, 4, 1, 7);
+        for (StochasticPaths paths : new StochasticPaths[] { first, second }) {
+            paths.sampleFuelPrice(0, 10, 3, 0.9, 1, 1.2, 0.1);
+            paths.sampleCO2Price(20, 5);
+            paths.sampleDemandFactor(1, 3, 0.98, 1.01, 1.03, 0.02);
+        }
+        assertArrayEquals(first.getFuelPrices(0), second.getFuelPrices(0), 0);
+        assertArrayEquals(first.getCo2Prices(), second.getCo2Prices(), 0);
+        assertArrayEquals(first.getDemandFactors(), second.getDemandFactors(), 0);
+    }
+
+    private static double[] logs(StochasticPaths paths, double[] values, int year) {
+        double[] logs = new double[paths.getNumberOfPaths()];
+        for (int p = 0; p < logs.length; p++) {
+            logs[p] = Math.log(values[paths.index(p, year)]);
+        }
+        return logs;
+    }
+
+    private static double[] exps(double[] logs) {
+        double[] values = new double[logs.length];
+        for (int i = 0; i < logs.length; i++) {
+            values[i] = Math.exp(logs[i]);
+        }
+        return values;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0d;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double variance(double[] values) {
+        double mean = mean(values);
+        double sum = 0d;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    private static double correlation(double[] x, double[] y) {
+        double meanX = mean(x);
+        double meanY = mean(y);
+        double sum = 0d;
+        for (int i = 0; i < x.length; i++) {
+            sum += (x[i] - meanX) * (y[i] - meanY);
+        }
+        return sum / (x.length - 1) / Math.sqrt(variance(x) * variance(y));
+    }
+
+}
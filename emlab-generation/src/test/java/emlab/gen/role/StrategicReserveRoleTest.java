@@ -117,6 +117,7 @@ public class StrategicReserveRoleTest {
         demandGrowthTrend.setTop(1);
 
         demandGrowthTrend.persist();
+        demandGrowthTrend.generate(10);
 
         ElectricitySpotMarket market1 = new ElectricitySpotMarket();
         market1.setName("Market1");
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+
+public class HourlyProfileStoreTest {
+
+    private static final int HOURS = 8760;
+
+    @Test
+    public void testDoublesAreReadWithoutCopying() throws Exception {
+        HourlyProfileStore store = HourlyProfileStore.open(writeStore(HourlyProfileStore.DOUBLE));
+        assertEquals(2020, store.getFirstYear());
+        assertEquals(1, store.getProfileIndex("windNL"));
+        assertEquals(-1, store.getProfileIndex("solarNL"));
+
+        DoubleBuffer profile = store.getProfile(2021, store.getProfileIndex("windNL"));
+        assertTrue(profile.isDirect());
+        assertEquals(HOURS, profile.remaining());
+        assertEquals(valueOf(1, 1, 100), profile.get(100), 0);
+        assertEquals(valueOf(0, 0, 8759), store.getValue(2020, 0, 8759), 0);
+    }
+
+    @Test
+    public void testCompressedValues() throws Exception {
+        HourlyProfileStore floats = HourlyProfileStore.open(writeStore(HourlyProfileStore.FLOAT));
+        HourlyProfileStore halves = HourlyProfileStore.open(writeStore(HourlyProfileStore.HALF));
+        double[] values = new double[HOURS];
+        halves.copyProfile(2021, 0, values);
+        for (int hour = 0; hour < HOURS; hour += 97) {
+            double expected = valueOf(1, 0, hour);
+            assertEquals(expected, floats.getProfile(2021, 0).get(hour), 1e-6);
+            assertEquals(expected, values[hour], expected * 1e-3);
+        }
+    }
+
+    @Test
+    public void testWeatherYearsAreRepeated() throws Exception {
+        MappedHourlyTimeSeries series = new MappedHourlyTimeSeries();
+        series.setWeatherYearAtTickZero(2021);
+        HourlyProfileStore store = HourlyProfileStore.open(writeStore(HourlyProfileStore.DOUBLE));
+        assertEquals(2021, series.getWeatherYear(store, 0));
+        assertEquals(2020, series.getWeatherYear(store, 1));
+        assertEquals(2021, series.getWeatherYear(store, 2));
+    }
+
+    @Test
+    public void testHalfPrecisionConversion() {
+        assertEquals(0f, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(0f)), 0);
+        assertEquals(1f, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(1f)), 0);
+        assertEquals(-2.5f, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(-2.5f)), 0);
+        assertEquals(65504f, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(65504f)), 0);
+        assertEquals(Float.POSITIVE_INFINITY, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(1e6f)), 0);
+        // subnormal
+        assertEquals(1e-6f, HourlyProfileStore.halfToFloat(HourlyProfileStore.floatToHalf(1e-6f)), 1e-7);
+    }
+
+    private static double valueOf(int year, int profile, int hour) {
+        return 1 + year + 0.5 * profile + hour / 10000d;
+    }
+
+    private static File writeStore(int bytesPerValue) throws Exception {
+        File file = File.createTempFile("profiles", ".bin");
+        file.deleteOnExit();
+        HourlyProfileStore.Writer writer = new HourlyProfileStore.Writer(file, bytesPerValue, 2020, 2, HOURS,
+                new String[] { "loadNL", "windNL" });
+        for (int year = 0; year < 2; year++) {
+            for (int profile = 0; profile < 2; profile++) {
+                double[] values = new double[HOURS];
+                for (int hour = 0; hour < HOURS; hour++) {
+                    values[hour] = valueOf(year, profile, hour);
+                }
+                writer.append(values);
+            }
+        }
+        writer.close();
+        return file;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.junit.Test;
+
+public class TimeSeriesFileCacheTest {
+
+    @Test
+    public void testParsingWithoutHoldingTheText() throws Exception {
+        double[] values = TimeSeriesFileCache.parse(new ByteArrayInputStream("1.5\n2,3\n\n 4 \n".getBytes()));
+        assertArrayEquals(new double[] { 1.5, 2, 3, 4 }, values, 0);
+    }
+
+    @Test
+    public void testSidecarIsWrittenAndMapped() throws Exception {
+        File directory = File.createTempFile("timeseries", "");
+        directory.delete();
+        System.setProperty("emlab.timeseries.cache", directory.getPath());
+        try {
+            double[] values = TimeSeriesFileCache.readValues("/data/exampleCoalSingleColumn.csv");
+            assertEquals(100.8629923136, values[0], 0);
+            File[] sidecars = directory.listFiles();
+            assertEquals(1, sidecars.length);
+            assertTrue(sidecars[0].getName().endsWith(".bin"));
+            assertEquals(24 + 8 * values.length, sidecars[0].length());
+
+            // a copy, so changing it does not change the next read
+            values[0] = 0;
+            assertEquals(100.8629923136, TimeSeriesFileCache.readValues("/data/exampleCoalSingleColumn.csv")[0], 0);
+        } finally {
+            System.clearProperty("emlab.timeseries.cache");
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TrendTableTest {
+
+    @Test
+    public void testValuesAreReadFromTheTable() {
+        TimeSeriesImpl timeSeries = new TimeSeriesImpl();
+        timeSeries.setStartingYear(-1);
+        timeSeries.setTimeSeries(new double[] { 1, 2, 3, 4 });
+        TrendTable table = TrendTable.compile(timeSeries, 0, 2);
+        assertEquals(0, table.getFirstTime());
+        assertEquals(2, table.getLastTime());
+
+        timeSeries.setTimeSeries(new double[] { 10, 20, 30, 40 });
+        assertEquals(3, table.getValue(1), 0);
+        // outside the table the time series itself is read
+        assertEquals(10, table.getValue(-1), 0);
+    }
+
+    @Test
+    public void testTableEndsWithTheData() {
+        TimeSeriesImpl timeSeries = new TimeSeriesImpl();
+        timeSeries.setTimeSeries(new double[] { 1, 2, 3 });
+        TrendTable table = TrendTable.compile(timeSeries, 0, 10);
+        assertEquals(2, table.getLastTime());
+        assertEquals(3, table.getValue(2), 0);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class GraphSnapshotTest {
+
+    @Test
+    public void testGraphIsRestored() throws Exception {
+        GraphDatabaseService original = new ImpermanentGraphDatabase();
+        Transaction transaction = original.beginTx();
+        Node plant = original.createNode();
+        plant.setProperty("__type__", "emlab.gen.domain.technology.PowerPlant");
+        plant.setProperty("name", "Coal1");
+        plant.setProperty("actualNominalCapacity", 650.0);
+        plant.setProperty("dismantleTime", 1000L);
+        Node trend = original.createNode();
+        trend.setProperty("timeSeries", new double[] { 0.3, 0.31, 0.32 });
+        trend.setProperty("labels", new String[] { "a", "b" });
+        Relationship relationship = plant.createRelationshipTo(trend, DynamicRelationshipType.withName("TREND"));
+        relationship.setProperty("active", true);
+        transaction.success();
+        transaction.finish();
+
+        File file = File.createTempFile("graph", ".snapshot");
+        file.deleteOnExit();
+        assertEquals(3, GraphSnapshot.write(original, "abc", file));
+        assertEquals("abc", GraphSnapshot.readHash(file));
+
+        GraphDatabaseService restored = new ImpermanentGraphDatabase();
+        assertEquals(3, GraphSnapshot.restore(restored, file, null));
+        int nodes = 0;
+        for (Node node : GlobalGraphOperations.at(restored).getAllNodes()) {
+            nodes++;
+            if ("Coal1".equals(node.getProperty("name", null))) {
+                assertEquals(650.0, (Double) node.getProperty("actualNominalCapacity"), 0);
+                assertEquals(1000L, node.getProperty("dismantleTime"));
+                Relationship restoredRelationship = node.getSingleRelationship(DynamicRelationshipType.withName("TREND"),
+                        Direction.OUTGOING);
+                assertEquals(true, restoredRelationship.getProperty("active"));
+                Node restoredTrend = restoredRelationship.getEndNode();
+                assertArrayEquals(new double[] { 0.3, 0.31, 0.32 },
+                        (double[]) restoredTrend.getProperty("timeSeries"), 0);
+                assertArrayEquals(new String[] { "a", "b" }, (String[]) restoredTrend.getProperty("labels"));
+            }
+        }
+        // the reference node is merged
+        assertEquals(3, nodes);
+        original.shutdown();
+        restored.shutdown();
+    }
+
+    @Test
+    public void testOtherFilesAreNoSnapshot() throws Exception {
+        File file = File.createTempFile("graph", ".snapshot");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a snapshot".getBytes());
+        out.close();
+        assertNull(GraphSnapshot.readHash(file));
+        assertNull(GraphSnapshot.readHash(new File(file.getPath() + ".missing")));
+    }
+
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RandomStreamsTest {
+
+    @After
+    public void tearDown() {
+        RandomStreams.setSeed(0);
+    }
+
+    @Test
+    public void testReplicaIsRepeatable() {
+        RandomStreams.setSeed(42);
+        int first = RandomStreams.nextInt(RandomStreams.TRENDS);
+        int second = RandomStreams.nextInt(RandomStreams.TRENDS);
+        double order = RandomStreams.newRandom(RandomStreams.AGENT_ORDER).nextDouble();
+        assertFalse(first == second);
+
+        RandomStreams.setSeed(42);
+        assertEquals(order, RandomStreams.newRandom(RandomStreams.AGENT_ORDER).nextDouble(), 0);
+        assertEquals(first, RandomStreams.nextInt(RandomStreams.TRENDS));
+        assertEquals(second, RandomStreams.nextInt(RandomStreams.TRENDS));
+    }
+
+    @Test
+    public void testReplicasDiffer() {
+        RandomStreams.setSeed(1);
+        int first = RandomStreams.nextInt(RandomStreams.TRENDS);
+        int offset = RandomStreams.offset();
+        RandomStreams.setSeed(2);
+        assertFalse(first == RandomStreams.nextInt(RandomStreams.TRENDS));
+        assertFalse(offset == RandomStreams.offset());
+    }
+
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+public class StoreCheckpointTest {
+
+    private static final RelationshipType LINK = DynamicRelationshipType.withName("LINK");
+
+    @Test
+    public void testOnlyChangedBlocksAreWritten() throws Exception {
+        File store = createDirectory("store");
+        File checkpoints = createDirectory("checkpoints");
+        byte[] nodes = bytes(200000, 1);
+        write(new File(store, "neostore.nodestore.db"), nodes);
+        write(new File(store, "nioneo_logical.log.1"), bytes(1000, 2));
+        write(new File(store, "lock"), bytes(10, 3));
+
+        StoreCheckpoint checkpoint = new StoreCheckpoint(store);
+        assertEquals(5, checkpoint.write(new File(checkpoints, "checkpoint-000004" + StoreCheckpoint.EXTENSION), 4,
+                states("tick 4")));
+
+        // one block changes, a log is rotated
+        RandomAccessFile raf = new RandomAccessFile(new File(store, "neostore.nodestore.db"), "rw");
+        raf.seek(70000);
+        raf.write(42);
+        raf.close();
+        new File(store, "nioneo_logical.log.1").delete();
+        write(new File(store, "nioneo_logical.log.2"), bytes(100, 4));
+        assertEquals(2, checkpoint.write(new File(checkpoints, "checkpoint-000009" + StoreCheckpoint.EXTENSION), 9,
+                states("tick 9")));
+
+        File restored = createDirectory("restored");
+        assertEquals(9, StoreCheckpoint.restore(checkpoints, restored));
+        nodes[70000] = 42;
+        assertTrue(Arrays.equals(nodes, read(new File(restored, "neostore.nodestore.db"))));
+        assertTrue(Arrays.equals(bytes(100, 4), read(new File(restored, "nioneo_logical.log.2"))));
+        assertFalse(new File(restored, "nioneo_logical.log.1").exists());
+        assertFalse(new File(restored, "lock").exists());
+        assertEquals(9, StoreCheckpoint.readRestoredTick(restored));
+
+        final List<String> read = new ArrayList<String>();
+        StoreCheckpoint.readStates(checkpoints, 9, new StoreCheckpoint.StateReader() {
+            @Override
+            public void read(long tick, String name, DataInputStream in) throws IOException {
+                read.add(tick + " " + name + " " + in.readUTF());
+            }
+        });
+        assertEquals(Arrays.asList("4 state tick 4", "9 state tick 9"), read);
+
+        StoreCheckpoint.clearRestoredTick(restored);
+        assertEquals(-1, StoreCheckpoint.readRestoredTick(restored));
+    }
+
+    @Test
+    public void testIncompleteCheckpointIsIgnored() throws Exception {
+        File store = createDirectory("store");
+        File checkpoints = createDirectory("checkpoints");
+        write(new File(store, "neostore"), bytes(100, 1));
+        StoreCheckpoint checkpoint = new StoreCheckpoint(store);
+        checkpoint.write(new File(checkpoints, "checkpoint-000000" + StoreCheckpoint.EXTENSION), 0, states("0"));
+        write(new File(store, "neostore"), bytes(100000, 2));
+        File second = new File(checkpoints, "checkpoint-000001" + StoreCheckpoint.EXTENSION);
+        checkpoint.write(second, 1, states("1"));
+
+        // a run that is stopped while copying the checkpoint
+        byte[] truncated = read(second);
+        write(second, Arrays.copyOf(truncated, truncated.length / 2));
+
+        File restored = createDirectory("restored");
+        assertEquals(0, StoreCheckpoint.restore(checkpoints, restored));
+        assertTrue(Arrays.equals(bytes(100, 1), read(new File(restored, "neostore"))));
+        assertEquals(-1, StoreCheckpoint.restore(createDirectory("empty"), restored));
+    }
+
+    /**
+     * Checkpoints the store of an open graph database in the middle of a run,
+     * restores it, and goes on from there; every tick after the checkpoint
+     * has to find the same nodes, ids and values as the run that went on.
+     */
+    @Test
+    public void testResumedStoreGoesOnLikeTheUninterruptedRun() throws Exception {
+        File store = createDirectory("store");
+        File checkpoints = createDirectory("checkpoints");
+        List<String> uninterrupted = new ArrayList<String>();
+        GraphDatabaseService graphDb = new EmbeddedGraphDatabase(store.getPath());
+        try {
+            StoreCheckpoint checkpoint = new StoreCheckpoint(store);
+            for (int tick = 0; tick < 8; tick++) {
+                uninterrupted.add(runTick(graphDb, tick));
+                if (tick == 1 || tick == 3) {
+                    StoreCheckpoint.flush(graphDb);
+                    checkpoint.write(new File(checkpoints, String.format("checkpoint-%06d", tick)
+                            + StoreCheckpoint.EXTENSION), tick, states("tick " + tick));
+                }
+            }
+        } finally {
+            graphDb.shutdown();
+        }
+
+        File restored = createDirectory("restored");
+        assertEquals(3, StoreCheckpoint.restore(checkpoints, restored));
+        List<String> resumed = new ArrayList<String>(uninterrupted.subList(0, 4));
+        graphDb = new EmbeddedGraphDatabase(restored.getPath());
+        try {
+            for (int tick = 4; tick < 8; tick++) {
+                resumed.add(runTick(graphDb, tick));
+            }
+        } finally {
+            graphDb.shutdown();
+        }
+        assertEquals(uninterrupted, resumed);
+    }
+
+    /**
+     * Creates nodes, changes the values of all nodes and moves a link, like
+     * the roles of a tick, and reports the nodes in the order the graph
+     * database finds them.
+     */
+    private static String runTick(GraphDatabaseService graphDb, int tick) {
+        Transaction transaction = graphDb.beginTx();
+        try {
+            Node lowest = null;
+            for (Node node : graphDb.getAllNodes()) {
+                if (node.hasProperty("value")) {
+                    double value = (Double) node.getProperty("value") * 1.1 + node.getId() % 3;
+                    node.setProperty("value", value);
+                    node.setProperty("name", "node " + node.getId() + " at tick " + tick);
+                    if (lowest == null || value < (Double) lowest.getProperty("value")) {
+                        lowest = node;
+                    }
+                }
+            }
+            for (int i = 0; i < 50; i++) {
+                Node node = graphDb.createNode();
+                node.setProperty("value", (double) (tick * 50 + i));
+                if (lowest != null) {
+                    for (Relationship link : lowest.getRelationships(LINK, Direction.OUTGOING)) {
+                        link.delete();
+                    }
+                    lowest.createRelationshipTo(node, LINK);
+                }
+            }
+            transaction.success();
+        } finally {
+            transaction.finish();
+        }
+        StringBuilder report = new StringBuilder();
+        for (Node node : graphDb.getAllNodes()) {
+            if (node.hasProperty("value")) {
+                report.append(node.getId()).append('=').append(node.getProperty("value"));
+                for (Relationship link : node.getRelationships(LINK, Direction.OUTGOING)) {
+                    report.append("->").append(link.getEndNode().getId());
+                }
+                report.append(' ');
+            }
+        }
+        return report.toString();
+    }
+
+    private static Map<String, byte[]> states(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(value);
+        out.close();
+        return Collections.singletonMap("state", bytes.toByteArray());
+    }
+
+    private static File createDirectory(String name) throws IOException {
+        File directory = File.createTempFile(name, "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+}
@@ -16,6 +16,7 @@
 package emlab.gen.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.log4j.Logger;
 import org.junit.Test;
@@ -46,6 +47,7 @@ public class TriangularTrendTest {
 		tt.setMin(1.01);
 		tt.setTop(1.02);
 		tt.persist();
+		tt.generate(19);
 		double[][] triangularTrendAndForecast = new double[2][20];
 		for (int i = 0; i < 20; i++) {
 			triangularTrendAndForecast[0][i] = i;
@@ -56,6 +58,34 @@ public class TriangularTrendTest {
 		}
 	}
 
+	@Test
+	public void testSeededTrendIsReproducible() {
+		TriangularTrend tt = new TriangularTrend();
+		tt.setStart(1);
+		tt.setMax(1.03);
+		tt.setMin(0.99);
+		tt.setTop(1.02);
+		tt.setSeed(42);
+		tt.persist();
+		tt.generate(10);
+		double valueAtTen = tt.getValue(10);
+		// generating further keeps the values generated before
+		tt.generate(40);
+		double valueAtForty = tt.getValue(40);
+		assertEquals(valueAtTen, tt.getValue(10), 0.0);
+
+		TriangularTrend same = new TriangularTrend();
+		same.setStart(1);
+		same.setMax(1.03);
+		same.setMin(0.99);
+		same.setTop(1.02);
+		same.setSeed(42);
+		same.persist();
+		same.generate(40);
+		assertEquals(valueAtForty, same.getValue(40), 0.0);
+		assertEquals(valueAtTen, same.getValue(10), 0.0);
+	}
+
 	@Test
 	public void compareTrendToGeometricForecasting() {
 		TriangularTrend tt = new TriangularTrend();
@@ -64,6 +94,7 @@ public class TriangularTrendTest {
 		tt.setMin(1.00);
 		tt.setTop(1.00);
 		tt.persist();
+		tt.generate(49);
 		double[][] triangularTrendAndForecast = new double[3][50];
 		for (int i = 0; i < 50; i++) {
 			triangularTrendAndForecast[0][i] = i;
@@ -89,4 +120,37 @@ public class TriangularTrendTest {
 
 	}
 
+	@Test
+	public void testPathIsGeneratedFurtherPastTheHorizon() {
+		TriangularTrend tt = seededTrend(7);
+		tt.generate(5);
+		double valueAtFive = tt.getValue(5);
+		assertTrue(tt.getValue(6) > valueAtFive);
+		assertEquals(valueAtFive, tt.getValue(5), 0.0);
+
+		TriangularTrend same = seededTrend(7);
+		same.generate(100);
+		assertEquals(same.getValue(100), tt.getValue(100), 0.0);
+	}
+
+	@Test
+	public void testPathIsGeneratedByReading() {
+		TriangularTrend tt = seededTrend(7);
+		TriangularTrend same = seededTrend(7);
+		same.generate(10);
+		assertEquals(1, tt.getValue(-1), 0.0);
+		assertEquals(same.getValue(10), tt.getValue(10), 0.0);
+	}
+
+	private static TriangularTrend seededTrend(int seed) {
+		TriangularTrend tt = new TriangularTrend();
+		tt.setStart(1);
+		tt.setMax(1.03);
+		tt.setMin(1.01);
+		tt.setTop(1.02);
+		tt.setSeed(seed);
+		tt.persist();
+		return tt;
+	}
+
 }
@@ -0,0 +1,110 @@
+# -*- coding: utf-8 *-*
+# Reads the columnar results files (.emr) of emlab.gen.results.ResultsFile,
+# of a single run or a merged batch, and can write them to the csv layout
+# of asHeadlessQueryReader.py.
+#
+# Usage: python emlabResultsReader.py <results.emr> <output.csv>
+import csv
+import struct
+import sys
+import zlib
+
+MAGIC = 0x454d5252
+VERSION = 1
+NAME = 1
+CHUNK = 2
+
+
+def _read(stream, fmt):
+    size = struct.calcsize(fmt)
+    data = stream.read(size)
+    if len(data) < size:
+        raise EOFError()
+    return struct.unpack(fmt, data)
+
+
+def _read_bytes(stream, length):
+    data = stream.read(length)
+    if len(data) < length:
+        raise EOFError()
+    return data
+
+
+def _put(columns, metric, firstTick, values):
+    column = columns.setdefault(metric, [])
+    end = firstTick + len(values)
+    if len(column) < end:
+        column.extend([float("nan")] * (end - len(column)))
+    column[firstTick:end] = values
+
+
+def read_results(path):
+    """Returns a dictionary of runId to a dictionary of metric to the list
+    of values by tick, NaN where a metric was not recorded."""
+    results = {}
+    with open(path, "rb") as stream:
+        magic, version = _read(stream, ">ii")
+        if magic != MAGIC:
+            raise NameError(path + " is not a results file")
+        if version != VERSION:
+            raise NameError(path + " has unknown version " + str(version))
+        names = []
+        try:
+            while True:
+                record = stream.read(1)
+                if not record:
+                    break
+                record = struct.unpack(">b", record)[0]
+                if record == NAME:
+                    length = _read(stream, ">i")[0]
+                    names.append(_read_bytes(stream, length).decode("utf-8"))
+                elif record == CHUNK:
+                    run, firstTick, ticks, columns = _read(stream, ">iqii")
+                    chunk = []
+                    for i in range(columns):
+                        metric, length = _read(stream, ">ii")
+                        data = zlib.decompress(_read_bytes(stream, length))
+                        chunk.append((names[metric],
+                        list(struct.unpack(">%dd" % ticks, data))))
+                    runColumns = results.setdefault(names[run], {})
+                    for metric, values in chunk:
+                        _put(runColumns, metric, firstTick, values)
+                else:
+                    raise NameError(path + " has an unknown record "
+                    + str(record))
+        except EOFError:
+            print("Ignored the incomplete last record of " + path)
+    return results
+
+
+def number_of_ticks(columns):
+    return max([len(values) for values in columns.values()] + [0])
+
+
+def write_results_to_csv(results, path):
+    metrics = []
+    for columns in results.values():
+        for metric in columns.keys():
+            if metric not in metrics:
+                metrics.append(metric)
+    with open(path, "w") as csvfile:
+        csvwriter = csv.writer(csvfile)
+        csvwriter.writerow(["tick", "runId"] + metrics)
+        for runId in sorted(results.keys()):
+            columns = results[runId]
+            for tick in range(number_of_ticks(columns)):
+                row = [tick, runId]
+                for metric in metrics:
+                    values = columns.get(metric, [])
+                    value = values[tick] if tick < len(values) else None
+                    #NaN is written as NA, which read.csv understands
+                    row.append("NA" if value is None or value != value
+                    else value)
+                csvwriter.writerow(row)
+
+
+if __name__ == "__main__":
+    if len(sys.argv) != 3:
+        print("Usage: python emlabResultsReader.py <results.emr> <output.csv>")
+        sys.exit(2)
+    write_results_to_csv(read_results(sys.argv[1]), sys.argv[2])
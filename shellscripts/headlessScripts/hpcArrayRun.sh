@@ -53,7 +53,7 @@ MD=$(md5sum $HOME/$JARNAME | sed 's/ /_/g')
 echo "$MD"
 
    #Start the set of jobs.
-qsub -t 1-$NROFRUNS -N $JOBNAME -l nodes=1:ppn=8,mem=3000mb,walltime=$WALLTIME,epilogue=$REMOTEHPCSCRIPTS/epilogueHpc.sh -o $STREAMOUTPUT -e $STREAMOUTPUT -v JOBNAME=$JOBNAME,RUNNAME=$RUNNAME,JARNAME=$JARNAME,SCENARIO=$SCENARIO,TEMP=$TEMP,RAMDISK=$RAMDISK,EMLABDB=$EMLABDB,MD=$MD,HOME=$HOME,D13NDB=$D13NDB,INPUTPARAMETERFOLDER=$INPUTPARAMETERFOLDER,PARAMETER=$PARAMETER $REMOTEHPCSCRIPTS/startASingleArrayJobOnNode.sh
+qsub -t 1-$NROFRUNS -N $JOBNAME -l nodes=1:ppn=8,mem=3000mb,walltime=$WALLTIME,epilogue=$REMOTEHPCSCRIPTS/epilogueHpc.sh -o $STREAMOUTPUT -e $STREAMOUTPUT -v JOBNAME=$JOBNAME,RUNNAME=$RUNNAME,JARNAME=$JARNAME,SCENARIO=$SCENARIO,TEMP=$TEMP,RAMDISK=$RAMDISK,EMLABDB=$EMLABDB,MD=$MD,HOME=$HOME,D13NDB=$D13NDB,INPUTPARAMETERFOLDER=$INPUTPARAMETERFOLDER,PARAMETER=$PARAMETER,CHECKPOINTINTERVAL=$CHECKPOINTINTERVAL $REMOTEHPCSCRIPTS/startASingleArrayJobOnNode.sh
    echo "Started all jobs."
 
 
@@ -0,0 +1,49 @@
+#!/bin/bash
+
+########################################################################
+# The jobname must only consist of the characters A-Z, a-z and 0-9!!!! #
+########################################################################
+USAGE="Provide name of run, name of scenario file and number of replicas"
+#Load configuration script to substitute
+if [ -f scriptConfigurations.cfg ];then 
+	. scriptConfigurations.cfg
+	HOME=$REMOTERESULTFOLDER
+else
+    echo "Define scriptConfigurations.cfg, by changing the template. Exiting script."
+    exit
+fi
+
+## Runs the replicas of one scenario with seeds 1..REPLICAS, as many at a
+## time as there are cores. Each replica runs in its own JVM with its own
+## graph store, like localHeadlessArray.sh, but the replicas are started and
+## their results merged by one ReplicaExecutor.
+## Example sh localHeadlessReplicas.sh example scenarioA 64
+## With a relative precision as fifth argument, REPLICAS is the maximum and no
+## new replicas are started once the average prices, CO2 emissions and
+## capacities are known to that precision, e.g.
+## sh localHeadlessReplicas.sh example scenarioA 500 "" 0.02
+JOBNAME=$1
+SCENARIO=$2
+REPLICAS=$3
+PRECISION=$5
+
+mkdir $LOCALRESULTFOLDER/$JOBNAME
+cd $LOCALRESULTFOLDER/$JOBNAME
+cat > replicas.properties <<PROPERTIES
+runId=$JOBNAME
+scenario=$SCENARIO.xml
+scenarioFolder=file://$LOCALSCENARIOFOLDER
+resultsPath=$LOCALRESULTFOLDER/$JOBNAME
+replicas=$REPLICAS
+javaOptions=-d64 -server -Xmx3072m
+PROPERTIES
+if [ ! -z $4 ] 
+then 
+    echo "queryFile=$4" >> replicas.properties
+fi
+if [ ! -z $PRECISION ]
+then
+    echo "adaptive=true" >> replicas.properties
+    echo "relativePrecision=$PRECISION" >> replicas.properties
+fi
+java -cp $LOCALJARFILE emlab.gen.batch.ReplicaExecutor replicas.properties
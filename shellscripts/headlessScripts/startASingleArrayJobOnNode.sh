@@ -52,13 +52,22 @@ mv $TEMP/$JARNAME $TEMP/$NEWJARNAME
 #cp $PBS_O_WORKDIR/$SCENARIO $TEMP/$dir
 fi
 
+#Restore the database from the checkpoints of an earlier attempt of this job, if any
+CHECKPOINTOPTIONS=""
+CHECKPOINTFOLDER=$HOME/$RUNNAME/checkpoints
+if [ -n "$CHECKPOINTINTERVAL" ];
+then
+	CHECKPOINTOPTIONS="-Demlab.checkpoint.dir=$CHECKPOINTFOLDER -Demlab.checkpoint.interval=$CHECKPOINTINTERVAL"
+	java -cp $TEMP/$NEWJARNAME emlab.gen.util.StoreCheckpoint $CHECKPOINTFOLDER/$dir $RAMDISK/$EMLABDB/$dir
+fi
+
 RAMDU=$(du -sh $RAMDISK)
 
 echo "Disk usage on Ramdisk: $RAMDU"
 
 #Execute the job 
 #java -Drun.id=$JOBNAME-$PBS_ARRAYID -Dresults.path=$TEMP/$dir -Dscenario.file=$SCENARIO -jar $PBS_O_WORKDIR/$JARNAME
-java -d64 -server -Xmx3072m -Drun.id=$JOBNAME-$PBS_ARRAYID -DSCENARIO_FOLDER=file://$NODESCENARIOFOLDER -Dresults.path=$TEMP/$dir -Dscenario.file=$SCENARIO -jar $TEMP/$NEWJARNAME > $JOBNAME-$PBS_ARRAYID.elog
+java -d64 -server -Xmx3072m $CHECKPOINTOPTIONS -Drun.id=$JOBNAME-$PBS_ARRAYID -DSCENARIO_FOLDER=file://$NODESCENARIOFOLDER -Dresults.path=$TEMP/$dir -Dscenario.file=$SCENARIO -jar $TEMP/$NEWJARNAME > $JOBNAME-$PBS_ARRAYID.elog
 
 
 #REMOVE JAR File
@@ -73,6 +82,12 @@ mv simulation.log $JOBNAME-$PBS_ARRAYID.log
 cp -r $TEMP/$dir/* $PBS_O_WORKDIR/$RUNNAME/
 #fi
 
+#The checkpoints are only needed until the run is finished
+if grep -Fq "WARN Stopping AgentSpring" $JOBNAME-$PBS_ARRAYID.elog
+then
+rm -rf $CHECKPOINTFOLDER/$dir
+fi
+
 #Delete folder and ramdisk.
 rm -rf $TEMP/$dir
 rm -rf $RAMDISK/$EMLABDB/$dir